@@ -35,6 +35,7 @@ import android.os.CancellationSignal;
 import android.util.Base64;
 
 import com.android.launcher3.AbstractFloatingView;
+import com.android.launcher3.BaseDraggingActivity;
 import com.android.launcher3.DeviceProfile;
 import com.android.launcher3.Launcher;
 import com.android.launcher3.LauncherAppTransitionManagerImpl;
@@ -184,6 +185,12 @@ public class UiFactory {
         if (model != null) {
             model.onTrimMemory(level);
         }
+        if (context instanceof BaseDraggingActivity) {
+            RecentsView recentsView = ((BaseDraggingActivity) context).getOverviewPanel();
+            if (recentsView != null) {
+                recentsView.onTrimMemory(level);
+            }
+        }
     }
 
     public static void useFadeOutAnimationForLauncherStart(Launcher launcher,
@@ -15,7 +15,6 @@
  */
 package com.android.quickstep;
 
-import static android.view.MotionEvent.ACTION_CANCEL;
 import static android.view.MotionEvent.ACTION_MASK;
 import static android.view.MotionEvent.ACTION_MOVE;
 import static android.view.MotionEvent.ACTION_POINTER_INDEX_SHIFT;
@@ -23,16 +22,26 @@ import static com.android.quickstep.TouchConsumer.INTERACTION_QUICK_SCRUB;
 
 import android.annotation.TargetApi;
 import android.os.Build;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Choreographer;
 import android.view.MotionEvent;
+import android.view.MotionEvent.PointerCoords;
 
+import com.android.quickstep.util.LatencyHistogram;
 import com.android.systemui.shared.system.ChoreographerCompat;
 
-import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Helper class for batching input events
+ *
+ * The events are queued in a ring of slots without locking, as they are received on binder
+ * threads at the input rate, and are consumed on every frame of the current choreographer.
+ * Consecutive moves which are not consumed yet are merged as historical samples of one event.
  */
 @TargetApi(Build.VERSION_CODES.O)
 public class MotionEventQueue {
@@ -58,52 +67,67 @@ public class MotionEventQueue {
     private static final int ACTION_COMMAND =
             ACTION_VIRTUAL | (8 << ACTION_POINTER_INDEX_SHIFT);
 
-    private final EventArray mEmptyArray = new EventArray();
+    // Must be a power of two. As moves are merged, this is only reached if the consumer stalls.
+    private static final int CAPACITY = 128;
+    private static final long FULL_WAIT_NANOS = 100_000;
+
+    private static final int SLOT_EMPTY = 0;
+    // The slot is being written by a producer.
+    private static final int SLOT_WRITING = 1;
+    private static final int SLOT_READY = 2;
+    // A move is being merged into the event of the slot.
+    private static final int SLOT_MERGING = 3;
+
     private final Object mExecutionLock = new Object();
 
-    // We use two arrays and swap the current index when one array is being consumed
-    private final EventArray[] mArrays = new EventArray[] {new EventArray(), new EventArray()};
-    private int mCurrentIndex = 0;
+    private final MotionEvent[] mSlots = new MotionEvent[CAPACITY];
+    // Uptime at which the event of each slot was queued
+    private final long[] mQueueTimes = new long[CAPACITY];
+    private final AtomicIntegerArray mSlotStates = new AtomicIntegerArray(CAPACITY);
+    // Sequence number of the next slot claimed by a producer
+    private final AtomicLong mTail = new AtomicLong();
+    // Sequence number of the next slot to consume, only written by the consumer
+    private volatile long mHead;
 
-    private final Runnable mMainFrameCallback = this::frameCallbackForMainChoreographer;
-    private final Runnable mInterimFrameCallback = this::frameCallbackForInterimChoreographer;
+    // Held by the producer merging a move, which uses mMergeCoords.
+    private final AtomicBoolean mMerging = new AtomicBoolean();
+    private PointerCoords[] mMergeCoords = new PointerCoords[0];
 
-    private final Choreographer mMainChoreographer;
+    private final AtomicBoolean mFrameScheduled = new AtomicBoolean();
 
-    private final TouchConsumer mConsumer;
+    // Latencies from the input event time and from the time the event was queued, until the
+    // event is consumed. Only accessed by the consumer.
+    private final LatencyHistogram mInputLatency = new LatencyHistogram();
+    private final LatencyHistogram mQueueLatency = new LatencyHistogram();
+
+    private final FrameTarget mMainTarget;
 
-    private Choreographer mInterimChoreographer;
-    private Choreographer mCurrentChoreographer;
+    private final TouchConsumer mConsumer;
 
-    private Runnable mCurrentRunnable;
+    // The main or the interim choreographer, with its frame callback. Always replaced as a whole,
+    // so that a producer reading it can't post a callback to the wrong choreographer.
+    private volatile FrameTarget mCurrentTarget;
 
     public MotionEventQueue(Choreographer choreographer, TouchConsumer consumer) {
-        mMainChoreographer = choreographer;
+        mMainTarget = new FrameTarget(choreographer);
         mConsumer = consumer;
-        mCurrentChoreographer = mMainChoreographer;
-        mCurrentRunnable = mMainFrameCallback;
+        mCurrentTarget = mMainTarget;
 
         setInterimChoreographer(consumer.getIntrimChoreographer(this));
     }
 
     public void setInterimChoreographer(Choreographer choreographer) {
         synchronized (mExecutionLock) {
-            synchronized (mArrays) {
-                setInterimChoreographerLocked(choreographer);
-                ChoreographerCompat.postInputFrame(mCurrentChoreographer, mCurrentRunnable);
-            }
+            setInterimChoreographerLocked(choreographer);
+            // A frame may be pending on the previous choreographer, which will not consume the
+            // events anymore.
+            mFrameScheduled.set(true);
+            mCurrentTarget.post();
         }
     }
 
     private void  setInterimChoreographerLocked(Choreographer choreographer) {
-        mInterimChoreographer = choreographer;
-        if (choreographer == null) {
-            mCurrentChoreographer = mMainChoreographer;
-            mCurrentRunnable = mMainFrameCallback;
-        } else {
-            mCurrentChoreographer = mInterimChoreographer;
-            mCurrentRunnable = mInterimFrameCallback;
-        }
+        mCurrentTarget = choreographer == null ? mMainTarget : new FrameTarget(choreographer);
     }
 
     public void queue(MotionEvent event) {
@@ -112,85 +136,169 @@ public class MotionEventQueue {
     }
 
     private void queueNoPreProcess(MotionEvent event) {
-        synchronized (mArrays) {
-            EventArray array = mArrays[mCurrentIndex];
-            if (array.isEmpty()) {
-                ChoreographerCompat.postInputFrame(mCurrentChoreographer, mCurrentRunnable);
+        int eventAction = event.getAction();
+        boolean canMerge = eventAction == ACTION_MOVE
+                || eventAction == ACTION_QUICK_SCRUB_PROGRESS;
+        while (true) {
+            long tail = mTail.get();
+            if (canMerge && tail > mHead && tryMerge(tail, event)) {
+                event.recycle();
+                break;
             }
+            if (tail - mHead >= CAPACITY) {
+                // The consumer is late, wait for it to free a slot.
+                scheduleFrame();
+                LockSupport.parkNanos(FULL_WAIT_NANOS);
+                continue;
+            }
+            if (mTail.compareAndSet(tail, tail + 1)) {
+                // The consumer empties the slot before moving the head past it.
+                int index = (int) tail & (CAPACITY - 1);
+                mSlotStates.set(index, SLOT_WRITING);
+                mSlots[index] = event;
+                mQueueTimes[index] = SystemClock.uptimeMillis();
+                mSlotStates.set(index, SLOT_READY);
+                break;
+            }
+        }
+        scheduleFrame();
+    }
 
-            int eventAction = event.getAction();
-            if (eventAction == ACTION_MOVE && array.lastEventAction == ACTION_MOVE) {
-                // Replace and recycle the last event
-                array.set(array.size() - 1, event).recycle();
-            } else {
-                array.add(event);
-                array.lastEventAction = eventAction;
+    /**
+     * Merges {@param event} into the last queued event if it is not consumed yet, and the two
+     * events can be merged.
+     */
+    private boolean tryMerge(long tail, MotionEvent event) {
+        if (!mMerging.compareAndSet(false, true)) {
+            return false;
+        }
+        int index = (int) (tail - 1) & (CAPACITY - 1);
+        boolean merged = false;
+        if (mSlotStates.compareAndSet(index, SLOT_READY, SLOT_MERGING)) {
+            // Ensure that no event was queued after the last one, or that its slot was not
+            // consumed and reused in the meantime.
+            if (mTail.get() == tail) {
+                merged = merge(mSlots[index], event);
             }
+            mSlotStates.set(index, SLOT_READY);
         }
+        mMerging.set(false);
+        return merged;
     }
 
-    private void frameCallbackForMainChoreographer() {
-        runFor(mMainChoreographer);
+    private boolean merge(MotionEvent last, MotionEvent event) {
+        int action = event.getAction();
+        if (last.getAction() != action) {
+            return false;
+        }
+        if (action == ACTION_QUICK_SCRUB_PROGRESS) {
+            // Only the last progress matters
+            last.setLocation(event.getX(), event.getY());
+            return true;
+        }
+
+        int pointerCount = event.getPointerCount();
+        if (last.getPointerCount() != pointerCount || last.getDeviceId() != event.getDeviceId()
+                || last.getSource() != event.getSource()) {
+            return false;
+        }
+        for (int i = 0; i < pointerCount; i++) {
+            if (last.getPointerId(i) != event.getPointerId(i)) {
+                return false;
+            }
+        }
+
+        if (mMergeCoords.length < pointerCount) {
+            mMergeCoords = new PointerCoords[pointerCount];
+            for (int i = 0; i < pointerCount; i++) {
+                mMergeCoords[i] = new PointerCoords();
+            }
+        }
+        // The coords array can be longer than the pointer count.
+        PointerCoords[] coords = mMergeCoords;
+        int historySize = event.getHistorySize();
+        for (int h = 0; h < historySize; h++) {
+            for (int i = 0; i < pointerCount; i++) {
+                event.getHistoricalPointerCoords(i, h, coords[i]);
+            }
+            last.addBatch(event.getHistoricalEventTime(h), coords, event.getMetaState());
+        }
+        for (int i = 0; i < pointerCount; i++) {
+            event.getPointerCoords(i, coords[i]);
+        }
+        last.addBatch(event.getEventTime(), coords, event.getMetaState());
+        return true;
     }
 
-    private void frameCallbackForInterimChoreographer() {
-        runFor(mInterimChoreographer);
+    private void scheduleFrame() {
+        if (mFrameScheduled.compareAndSet(false, true)) {
+            mCurrentTarget.post();
+        }
     }
 
-    private void runFor(Choreographer caller) {
+    private void runFor(FrameTarget caller) {
         synchronized (mExecutionLock) {
-            EventArray array = swapAndGetCurrentArray(caller);
-            int size = array.size();
-            for (int i = 0; i < size; i++) {
-                MotionEvent event = array.get(i);
-                if (event.getActionMasked() == ACTION_VIRTUAL) {
-                    switch (event.getAction()) {
-                        case ACTION_QUICK_SCRUB_START:
-                            mConsumer.updateTouchTracking(INTERACTION_QUICK_SCRUB);
-                            break;
-                        case ACTION_QUICK_SCRUB_PROGRESS:
-                            mConsumer.onQuickScrubProgress(event.getX());
-                            break;
-                        case ACTION_QUICK_SCRUB_END:
-                            mConsumer.onQuickScrubEnd();
-                            break;
-                        case ACTION_RESET:
-                            mConsumer.reset();
-                            break;
-                        case ACTION_DEFER_INIT:
-                            mConsumer.deferInit();
-                            break;
-                        case ACTION_SHOW_OVERVIEW_FROM_ALT_TAB:
-                            mConsumer.onShowOverviewFromAltTab();
-                            mConsumer.updateTouchTracking(INTERACTION_QUICK_SCRUB);
-                            break;
-                        case ACTION_QUICK_STEP:
-                            mConsumer.onQuickStep(event);
-                            break;
-                        case ACTION_COMMAND:
-                            mConsumer.onCommand(event.getSource());
-                            break;
-                        default:
-                            Log.e(TAG, "Invalid virtual event: " + event.getAction());
-                    }
-                } else {
-                    mConsumer.accept(event);
+            if (caller != mCurrentTarget) {
+                return;
+            }
+            // Events queued from now on need another frame.
+            mFrameScheduled.set(false);
+
+            long tail = mTail.get();
+            for (long seq = mHead; seq < tail; seq++) {
+                int index = (int) seq & (CAPACITY - 1);
+                if (!mSlotStates.compareAndSet(index, SLOT_READY, SLOT_EMPTY)) {
+                    // The event is still being written, consume it on the next frame.
+                    scheduleFrame();
+                    break;
                 }
+                MotionEvent event = mSlots[index];
+                long queueTime = mQueueTimes[index];
+                mSlots[index] = null;
+                mHead = seq + 1;
+
+                processEvent(event, queueTime);
                 event.recycle();
             }
-            array.clear();
-            array.lastEventAction = ACTION_CANCEL;
         }
     }
 
-    private EventArray swapAndGetCurrentArray(Choreographer caller) {
-        synchronized (mArrays) {
-            if (caller != mCurrentChoreographer) {
-                return mEmptyArray;
+    private void processEvent(MotionEvent event, long queueTime) {
+        long now = SystemClock.uptimeMillis();
+        mQueueLatency.record(now - queueTime);
+        if (event.getActionMasked() == ACTION_VIRTUAL) {
+            switch (event.getAction()) {
+                case ACTION_QUICK_SCRUB_START:
+                    mConsumer.updateTouchTracking(INTERACTION_QUICK_SCRUB);
+                    break;
+                case ACTION_QUICK_SCRUB_PROGRESS:
+                    mConsumer.onQuickScrubProgress(event.getX());
+                    break;
+                case ACTION_QUICK_SCRUB_END:
+                    mConsumer.onQuickScrubEnd();
+                    break;
+                case ACTION_RESET:
+                    mConsumer.reset();
+                    break;
+                case ACTION_DEFER_INIT:
+                    mConsumer.deferInit();
+                    break;
+                case ACTION_SHOW_OVERVIEW_FROM_ALT_TAB:
+                    mConsumer.onShowOverviewFromAltTab();
+                    mConsumer.updateTouchTracking(INTERACTION_QUICK_SCRUB);
+                    break;
+                case ACTION_QUICK_STEP:
+                    mConsumer.onQuickStep(event);
+                    break;
+                case ACTION_COMMAND:
+                    mConsumer.onCommand(event.getSource());
+                    break;
+                default:
+                    Log.e(TAG, "Invalid virtual event: " + event.getAction());
             }
-            EventArray current = mArrays[mCurrentIndex];
-            mCurrentIndex = mCurrentIndex ^ 1;
-            return current;
+        } else {
+            mInputLatency.record(now - event.getEventTime());
+            mConsumer.accept(event);
         }
     }
 
@@ -237,12 +345,40 @@ public class MotionEventQueue {
         return mConsumer;
     }
 
-    private static class EventArray extends ArrayList<MotionEvent> {
+    /**
+     * Returns the latencies from the input events to their consumption. Must be called on the
+     * thread consuming the events.
+     */
+    public LatencyHistogram getInputLatency() {
+        return mInputLatency;
+    }
+
+    /**
+     * Returns the latencies from the queuing of the events, including the virtual ones, to
+     * their consumption. Must be called on the thread consuming the events.
+     */
+    public LatencyHistogram getQueueLatency() {
+        return mQueueLatency;
+    }
+
+    /**
+     * A choreographer and the callback consuming the events on its frames.
+     */
+    private class FrameTarget implements Runnable {
 
-        public int lastEventAction = ACTION_CANCEL;
+        private final Choreographer mChoreographer;
+
+        FrameTarget(Choreographer choreographer) {
+            mChoreographer = choreographer;
+        }
+
+        void post() {
+            ChoreographerCompat.postInputFrame(mChoreographer, this);
+        }
 
-        public EventArray() {
-            super(4);
+        @Override
+        public void run() {
+            runFor(this);
         }
     }
 }
@@ -37,6 +37,7 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Looper;
 import android.os.SystemClock;
+import android.util.Log;
 import android.util.SparseArray;
 import android.view.Choreographer;
 import android.view.Display;
@@ -68,6 +69,8 @@ import java.util.concurrent.TimeUnit;
 @TargetApi(Build.VERSION_CODES.P)
 public class OtherActivityTouchConsumer extends ContextWrapper implements TouchConsumer {
 
+    private static final String TAG = "OtherActivityTouchConsumer";
+
     private static final long LAUNCHER_DRAW_TIMEOUT_MS = 150;
 
     private final SparseArray<RecentsAnimationState> mAnimationStates = new SparseArray<>();
@@ -184,6 +187,10 @@ public class OtherActivityTouchConsumer extends ContextWrapper implements TouchC
                 // TODO: Should be different than ACTION_UP
             case ACTION_UP: {
                 TraceHelper.endSection("TouchInt");
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "Input latency: " + mEventQueue.getInputLatency()
+                            + ", queue latency: " + mEventQueue.getQueueLatency());
+                }
 
                 finishTouchTracking(ev);
                 break;
@@ -28,7 +28,9 @@ import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Looper;
+import android.os.Process;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.support.annotation.WorkerThread;
 import android.util.Log;
@@ -44,12 +46,14 @@ import com.android.systemui.shared.recents.model.IconLoader;
 import com.android.systemui.shared.recents.model.RecentsTaskLoadPlan;
 import com.android.systemui.shared.recents.model.RecentsTaskLoadPlan.PreloadOptions;
 import com.android.systemui.shared.recents.model.RecentsTaskLoader;
+import com.android.systemui.shared.recents.model.Task;
 import com.android.systemui.shared.recents.model.TaskKeyLruCache;
 import com.android.systemui.shared.system.ActivityManagerWrapper;
 import com.android.systemui.shared.system.BackgroundExecutor;
 import com.android.systemui.shared.system.TaskStackChangeListener;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.function.Consumer;
 
@@ -58,6 +62,9 @@ import java.util.function.Consumer;
  */
 @TargetApi(Build.VERSION_CODES.O)
 public class RecentsModel extends TaskStackChangeListener {
+
+    private static final String TAG = "RecentsModel";
+
     // We do not need any synchronization for this variable as its only written on UI thread.
     private static RecentsModel INSTANCE;
 
@@ -93,6 +100,16 @@ public class RecentsModel extends TaskStackChangeListener {
     private boolean mPreloadTasksInBackground;
     private final AccessibilityManager mAccessibilityManager;
 
+    // Number of front most tasks of the snapshot whose thumbnails are loaded with it
+    private static final int NUM_SNAPSHOT_THUMBNAILS = 3;
+
+    private final RecentsPlanCache mPlanCache;
+    // The plan read from the cache, until the first plan is loaded
+    private RecentsTaskLoadPlan mSnapshotPlan;
+    // Time of the first request for a plan to show, until a plan is shown
+    private long mFirstPlanRequestTime = -1;
+    private boolean mHasShownPlan;
+
     private RecentsModel(Context context) {
         mContext = context;
 
@@ -116,11 +133,38 @@ public class RecentsModel extends TaskStackChangeListener {
         mRecentsTaskLoader.startLoader(mContext);
         ActivityManagerWrapper.getInstance().registerTaskStackListener(this);
 
+        // Read the tasks saved by the previous process, to show them until the plan is loaded
+        mPlanCache = new RecentsPlanCache(context);
+        int userId = UserHandle.myUserId();
+        BackgroundExecutor.get().submit(() -> {
+            RecentsTaskLoadPlan snapshotPlan = mPlanCache.read(userId);
+            if (snapshotPlan != null) {
+                mMainThreadExecutor.execute(() -> {
+                    if (mLastLoadPlan == null) {
+                        mSnapshotPlan = snapshotPlan;
+                        loadSnapshotThumbnails(snapshotPlan);
+                    }
+                });
+            }
+        });
+
         mTaskChangeId = 1;
         loadTasks(-1, null);
         mAccessibilityManager = context.getSystemService(AccessibilityManager.class);
     }
 
+    /**
+     * Loads the reduced thumbnails of the front most tasks of the {@param snapshotPlan}, after
+     * it is published so that its tiles are not delayed by the thumbnails.
+     */
+    private void loadSnapshotThumbnails(RecentsTaskLoadPlan snapshotPlan) {
+        List<Task> tasks = snapshotPlan.getTaskStack().getTasks();
+        for (int i = tasks.size() - 1; i >= Math.max(0, tasks.size() - NUM_SNAPSHOT_THUMBNAILS);
+                i--) {
+            mRecentsTaskLoader.loadTaskData(tasks.get(i));
+        }
+    }
+
     public RecentsTaskLoader getRecentsTaskLoader() {
         return mRecentsTaskLoader;
     }
@@ -135,34 +179,66 @@ public class RecentsModel extends TaskStackChangeListener {
     public int loadTasks(int taskId, Consumer<RecentsTaskLoadPlan> callback) {
         final int requestId = mTaskChangeId;
 
+        if (callback != null && !mHasShownPlan && mFirstPlanRequestTime < 0) {
+            mFirstPlanRequestTime = SystemClock.uptimeMillis();
+        }
+
         // Fail fast if nothing has changed.
         if (mLastLoadPlanId == mTaskChangeId) {
             if (callback != null) {
                 final RecentsTaskLoadPlan plan = mLastLoadPlan;
-                mMainThreadExecutor.execute(() -> callback.accept(plan));
+                mMainThreadExecutor.execute(() -> showPlan(callback, plan));
             }
             return requestId;
         }
 
+        if (callback != null && mLastLoadPlan == null && mSnapshotPlan != null
+                && RecentsPlanCache.setRunningTask(mSnapshotPlan, taskId)) {
+            // Show the tasks of the previous process until the plan is loaded, only when the
+            // running task is their front most task, as the running task must be the first tile
+            final RecentsTaskLoadPlan snapshotPlan = mSnapshotPlan;
+            mMainThreadExecutor.execute(() -> showPlan(callback, snapshotPlan));
+        }
+
         BackgroundExecutor.get().submit(() -> {
             // Preload the plan
             RecentsTaskLoadPlan loadPlan = new RecentsTaskLoadPlan(mContext);
             PreloadOptions opts = new PreloadOptions();
             opts.loadTitles = mAccessibilityManager.isEnabled();
-            loadPlan.preloadPlan(opts, mRecentsTaskLoader, taskId, UserHandle.myUserId());
+            int userId = UserHandle.myUserId();
+            loadPlan.preloadPlan(opts, mRecentsTaskLoader, taskId, userId);
+            mPlanCache.write(loadPlan, userId);
             // Set the load plan on UI thread
             mMainThreadExecutor.execute(() -> {
                 mLastLoadPlan = loadPlan;
                 mLastLoadPlanId = requestId;
+                if (mSnapshotPlan != null) {
+                    RecentsPlanCache.reconcile(mSnapshotPlan, loadPlan);
+                    mSnapshotPlan = null;
+                }
 
                 if (callback != null) {
-                    callback.accept(loadPlan);
+                    showPlan(callback, loadPlan);
                 }
             });
         });
         return requestId;
     }
 
+    private void showPlan(Consumer<RecentsTaskLoadPlan> callback, RecentsTaskLoadPlan plan) {
+        callback.accept(plan);
+        if (!mHasShownPlan && plan != null) {
+            mHasShownPlan = true;
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                long now = SystemClock.uptimeMillis();
+                Log.d(TAG, "First tiles shown from the "
+                        + (RecentsPlanCache.isSnapshot(plan) ? "snapshot" : "loaded") + " plan in "
+                        + (now - mFirstPlanRequestTime) + "ms, "
+                        + (now - Process.getStartUptimeMillis()) + "ms after process start");
+            }
+        }
+    }
+
     public void setPreloadTasksInBackground(boolean preloadTasksInBackground) {
         mPreloadTasksInBackground = preloadTasksInBackground && !mIsLowRamDevice;
     }
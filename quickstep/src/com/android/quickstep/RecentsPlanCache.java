@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.quickstep;
+
+import android.annotation.TargetApi;
+import android.app.ActivityManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.util.AtomicFile;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.launcher3.Utilities;
+import com.android.systemui.shared.recents.model.RecentsTaskLoadPlan;
+import com.android.systemui.shared.recents.model.RecentsTaskLoader;
+import com.android.systemui.shared.recents.model.Task;
+import com.android.systemui.shared.recents.model.TaskStack;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Snapshot on disk of the last list of recent tasks, so that Overview can lay out its tiles
+ * before the task list is queried again after the process restarts.
+ *
+ * The snapshot keeps the task keys, titles, colors and top activities, which also reference the
+ * task icons. Only the component and the flags of the base intents are kept, not their data or
+ * extras. The thumbnails are not kept, as the system already persists reduced resolution
+ * snapshots of the tasks, which the {@link RecentsTaskLoader} loads once the snapshot is shown.
+ */
+@TargetApi(Build.VERSION_CODES.P)
+public class RecentsPlanCache {
+
+    private static final String TAG = "RecentsPlanCache";
+
+    private static final String FILE_NAME = "recents_plan";
+    private static final int VERSION = 2;
+
+    private static final int FLAG_STACK_TASK = 1 << 0;
+    private static final int FLAG_SYSTEM_APP = 1 << 1;
+    private static final int FLAG_DOCKABLE = 1 << 2;
+    private static final int FLAG_LOCKED = 1 << 3;
+
+    private final Context mContext;
+    private final AtomicFile mFile;
+
+    // The content of the file, as last read or written. Guarded by this.
+    private byte[] mLastContent;
+
+    public RecentsPlanCache(Context context) {
+        this(context, new File(context.getCacheDir(), FILE_NAME));
+    }
+
+    @VisibleForTesting
+    RecentsPlanCache(Context context, File file) {
+        mContext = context;
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * Saves the tasks of {@param plan} for {@param userId}, unless the same tasks are already
+     * saved.
+     */
+    @WorkerThread
+    public synchronized void write(RecentsTaskLoadPlan plan, int userId) {
+        TaskStack stack = plan.getTaskStack();
+        List<Task> tasks = stack != null ? stack.getTasks() : new ArrayList<>();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(VERSION);
+            out.writeInt(userId);
+            out.writeInt(tasks.size());
+            for (Task task : tasks) {
+                writeTask(out, task);
+            }
+            out.flush();
+        } catch (IOException e) {
+            // Not expected when writing to memory
+            Log.e(TAG, "Unable to serialize the recent tasks", e);
+            return;
+        }
+        byte[] content = bytes.toByteArray();
+        if (Arrays.equals(content, mLastContent)) {
+            return;
+        }
+
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            fos.write(content);
+            mFile.finishWrite(fos);
+            mLastContent = content;
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write " + mFile.getBaseFile(), e);
+            mFile.failWrite(fos);
+        }
+    }
+
+    /**
+     * Returns a plan with the saved tasks of {@param userId}, or null if there are none.
+     */
+    @WorkerThread
+    public synchronized RecentsTaskLoadPlan read(int userId) {
+        ArrayList<Task> tasks = new ArrayList<>();
+        FileInputStream fis = null;
+        try {
+            fis = mFile.openRead();
+            FileChannel channel = fis.getChannel();
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mLastContent = new byte[in.remaining()];
+            in.duplicate().get(mLastContent);
+            if (in.getInt() != VERSION || in.getInt() != userId) {
+                return null;
+            }
+            int count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                tasks.add(readTask(in));
+            }
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException | BufferUnderflowException e) {
+            Log.e(TAG, "Unable to read " + mFile.getBaseFile(), e);
+            return null;
+        } finally {
+            Utilities.closeSilently(fis);
+        }
+        return tasks.isEmpty() ? null : createPlan(mContext, tasks);
+    }
+
+    @VisibleForTesting
+    static RecentsTaskLoadPlan createPlan(Context context, List<Task> tasks) {
+        TaskStack stack = new TaskStack();
+        stack.setTasks(tasks, false /* notifyStackChanges */);
+        return new SnapshotLoadPlan(context, stack);
+    }
+
+    public static boolean isSnapshot(RecentsTaskLoadPlan plan) {
+        return plan instanceof SnapshotLoadPlan;
+    }
+
+    /**
+     * Marks the task {@param runningTaskId} of the {@param snapshot} as its launch target.
+     * @return false if the running task is not the front most task of the snapshot, in which
+     *         case the snapshot can not be shown: the swipe up expects the first tile to be the
+     *         running task.
+     */
+    public static boolean setRunningTask(RecentsTaskLoadPlan snapshot, int runningTaskId) {
+        List<Task> tasks = snapshot.getTaskStack().getTasks();
+        if (runningTaskId != -1 && (tasks.isEmpty()
+                || tasks.get(tasks.size() - 1).key.id != runningTaskId)) {
+            return false;
+        }
+        for (Task task : tasks) {
+            task.isLaunchTarget = task.key.id == runningTaskId;
+        }
+        return true;
+    }
+
+    /**
+     * Gives the tasks of the {@param live} plan which are not loaded yet the thumbnails loaded
+     * for the same tasks in the {@param snapshot}, so that they are shown until the live
+     * thumbnails are loaded.
+     */
+    public static void reconcile(RecentsTaskLoadPlan snapshot, RecentsTaskLoadPlan live) {
+        TaskStack snapshotStack = snapshot.getTaskStack();
+        TaskStack liveStack = live.getTaskStack();
+        if (liveStack == null) {
+            return;
+        }
+        SparseArray<Task> snapshotTasks = new SparseArray<>();
+        for (Task task : snapshotStack.getTasks()) {
+            if (task.thumbnail != null) {
+                snapshotTasks.put(task.key.id, task);
+            }
+        }
+        for (Task task : liveStack.getTasks()) {
+            Task snapshotTask = snapshotTasks.get(task.key.id);
+            if (task.thumbnail == null && snapshotTask != null
+                    && snapshotTask.key.lastActiveTime == task.key.lastActiveTime) {
+                task.thumbnail = snapshotTask.thumbnail;
+            }
+        }
+    }
+
+    private static void writeTask(DataOutputStream out, Task task) throws IOException {
+        out.writeInt(task.key.id);
+        out.writeInt(task.key.windowingMode);
+        ComponentName component = task.key.baseIntent.getComponent();
+        writeString(out, component != null ? component.flattenToString() : null);
+        out.writeInt(task.key.baseIntent.getFlags());
+        out.writeInt(task.key.userId);
+        out.writeLong(task.key.lastActiveTime);
+        writeString(out, task.title);
+        writeString(out, task.titleDescription);
+        out.writeInt(task.colorPrimary);
+        out.writeInt(task.colorBackground);
+        out.writeInt((task.isStackTask ? FLAG_STACK_TASK : 0)
+                | (task.isSystemApp ? FLAG_SYSTEM_APP : 0)
+                | (task.isDockable ? FLAG_DOCKABLE : 0)
+                | (task.isLocked ? FLAG_LOCKED : 0));
+        out.writeInt(task.resizeMode);
+        writeString(out, task.topActivity != null ? task.topActivity.flattenToString() : null);
+    }
+
+    private static Task readTask(ByteBuffer in) {
+        int id = in.getInt();
+        int windowingMode = in.getInt();
+        String component = readString(in);
+        Intent baseIntent = new Intent()
+                .setComponent(component != null
+                        ? ComponentName.unflattenFromString(component) : null)
+                .setFlags(in.getInt());
+        int userId = in.getInt();
+        long lastActiveTime = in.getLong();
+        Task.TaskKey key = new Task.TaskKey(id, windowingMode, baseIntent, userId,
+                lastActiveTime);
+
+        String title = readString(in);
+        String titleDescription = readString(in);
+        int colorPrimary = in.getInt();
+        int colorBackground = in.getInt();
+        int flags = in.getInt();
+        int resizeMode = in.getInt();
+        String topActivity = readString(in);
+        return new Task(key, null /* icon */, null /* thumbnail */, title, titleDescription,
+                colorPrimary, colorBackground, false /* isLaunchTarget */,
+                (flags & FLAG_STACK_TASK) != 0, (flags & FLAG_SYSTEM_APP) != 0,
+                (flags & FLAG_DOCKABLE) != 0,
+                new ActivityManager.TaskDescription(title, null, colorPrimary), resizeMode,
+                topActivity != null ? ComponentName.unflattenFromString(topActivity) : null,
+                (flags & FLAG_LOCKED) != 0);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Plan with the tasks read from the snapshot.
+     */
+    private static class SnapshotLoadPlan extends RecentsTaskLoadPlan {
+
+        private final TaskStack mStack;
+
+        SnapshotLoadPlan(Context context, TaskStack stack) {
+            super(context);
+            mStack = stack;
+        }
+
+        @Override
+        public TaskStack getTaskStack() {
+            return mStack;
+        }
+
+        @Override
+        public boolean hasTasks() {
+            return mStack.getTaskCount() > 0;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.quickstep.util;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of latencies in milliseconds, using power of two buckets: bucket 0 counts the
+ * latencies below 1ms, bucket i the latencies in [2^(i-1), 2^i) and the last bucket all the
+ * larger latencies. Recording does not allocate, so that it can be used on the input path.
+ *
+ * This class is not thread safe.
+ */
+public class LatencyHistogram {
+
+    public static final int BUCKET_COUNT = 8;
+
+    private final int[] mBuckets = new int[BUCKET_COUNT];
+    private int mCount;
+    private long mMaxMs;
+
+    public void record(long latencyMs) {
+        int bucket = latencyMs <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(latencyMs);
+        mBuckets[Math.min(bucket, BUCKET_COUNT - 1)]++;
+        mCount++;
+        mMaxMs = Math.max(mMaxMs, latencyMs);
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public int getBucketCount(int bucket) {
+        return mBuckets[bucket];
+    }
+
+    public long getMaxMs() {
+        return mMaxMs;
+    }
+
+    /**
+     * Returns the upper bound in milliseconds of the bucket holding the given percentile, or
+     * {@link #getMaxMs()} if it is in the last bucket.
+     */
+    public long getPercentileMs(int percentile) {
+        int target = (mCount * percentile + 99) / 100;
+        int seen = 0;
+        for (int i = 0; i < BUCKET_COUNT - 1; i++) {
+            seen += mBuckets[i];
+            if (seen >= target) {
+                return Math.min(1L << i, mMaxMs);
+            }
+        }
+        return mMaxMs;
+    }
+
+    public void reset() {
+        Arrays.fill(mBuckets, 0);
+        mCount = 0;
+        mMaxMs = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + mCount + " p50=" + getPercentileMs(50) + "ms p90="
+                + getPercentileMs(90) + "ms max=" + mMaxMs + "ms " + Arrays.toString(mBuckets);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.quickstep.util;
+
+/**
+ * Pages of recent tasks whose data should be loaded while scrolling.
+ *
+ * The pages around the page at the center of the screen are loaded. While flinging, the window
+ * extends ahead of the scroll by the distance covered in {@link #LOOKAHEAD_MS}, up to the page
+ * where the scroll will settle. High resolution thumbnails are only loaded around the page where
+ * the scroll will settle, as the pages before it are only seen briefly.
+ */
+public class TaskPrefetchWindow {
+
+    // Pages loaded on each side of the page at the center of the screen
+    private static final int VISIBLE_RANGE = 2;
+    // Pages with high resolution thumbnails on each side of the page where the scroll settles
+    private static final int HIGH_RES_RANGE = 1;
+    // Time ahead of the scroll for which the pages are loaded, covering the loading latency
+    private static final int LOOKAHEAD_MS = 300;
+
+    private int mLowResStart;
+    private int mLowResEnd;
+    private int mHighResStart;
+    private int mHighResEnd;
+
+    // Pages to load, in the order they will be shown
+    private int[] mLoadOrder = new int[0];
+    private int mLoadOrderCount;
+
+    /**
+     * @param centerPage the page at the center of the screen.
+     * @param finalPage the page where the scroll will settle.
+     * @param velocity the scroll velocity, in pixels per second.
+     * @param pageWidth the scroll distance between two pages.
+     */
+    public void update(int centerPage, int finalPage, float velocity, int pageWidth,
+            int pageCount) {
+        int direction = Integer.signum(finalPage - centerPage);
+        int ahead = VISIBLE_RANGE;
+        if (direction != 0 && pageWidth > 0) {
+            int lookahead = (int) Math.ceil(
+                    Math.abs(velocity) * LOOKAHEAD_MS / 1000 / pageWidth);
+            ahead = Math.min(VISIBLE_RANGE + lookahead,
+                    Math.abs(finalPage - centerPage) + VISIBLE_RANGE);
+        }
+        int behind = direction == 0 ? VISIBLE_RANGE : 1;
+
+        int last = pageCount - 1;
+        mLowResStart = clamp(centerPage - (direction < 0 ? ahead : behind), last);
+        mLowResEnd = clamp(centerPage + (direction < 0 ? behind : ahead), last);
+        mHighResStart = clamp(finalPage - HIGH_RES_RANGE, last);
+        mHighResEnd = clamp(finalPage + HIGH_RES_RANGE, last);
+
+        if (mLoadOrder.length < pageCount) {
+            mLoadOrder = new int[pageCount];
+        }
+        mLoadOrderCount = 0;
+        if (pageCount == 0) {
+            return;
+        }
+        // The pages ahead of the scroll, then the pages where it settles, then the pages behind
+        int step = direction < 0 ? -1 : 1;
+        int aheadEnd = direction < 0 ? mLowResStart : mLowResEnd;
+        for (int page = centerPage; page != aheadEnd + step; page += step) {
+            addToLoadOrder(page);
+        }
+        for (int page = mHighResStart; page <= mHighResEnd; page++) {
+            addToLoadOrder(page);
+        }
+        int behindEnd = direction < 0 ? mLowResEnd : mLowResStart;
+        for (int page = centerPage - step; page != behindEnd - step; page -= step) {
+            addToLoadOrder(page);
+        }
+    }
+
+    public int getLoadOrderCount() {
+        return mLoadOrderCount;
+    }
+
+    public int getPageToLoad(int index) {
+        return mLoadOrder[index];
+    }
+
+    public boolean isInWindow(int page) {
+        return (mLowResStart <= page && page <= mLowResEnd) || isHighRes(page);
+    }
+
+    public boolean isHighRes(int page) {
+        return mHighResStart <= page && page <= mHighResEnd;
+    }
+
+    private void addToLoadOrder(int page) {
+        for (int i = 0; i < mLoadOrderCount; i++) {
+            if (mLoadOrder[i] == page) {
+                return;
+            }
+        }
+        mLoadOrder[mLoadOrderCount++] = page;
+    }
+
+    private static int clamp(int page, int last) {
+        return Math.max(0, Math.min(page, last));
+    }
+}
@@ -48,6 +48,7 @@ import android.text.StaticLayout;
 import android.text.TextPaint;
 import android.util.ArraySet;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.util.SparseBooleanArray;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
@@ -76,7 +77,9 @@ import com.android.quickstep.QuickScrubController;
 import com.android.quickstep.RecentsModel;
 import com.android.quickstep.TaskUtils;
 import com.android.quickstep.util.ClipAnimationHelper;
+import com.android.quickstep.util.TaskPrefetchWindow;
 import com.android.quickstep.util.TaskViewDrawable;
+import com.android.systemui.shared.recents.model.HighResThumbnailLoader;
 import com.android.systemui.shared.recents.model.RecentsTaskLoadPlan;
 import com.android.systemui.shared.recents.model.RecentsTaskLoader;
 import com.android.systemui.shared.recents.model.Task;
@@ -106,15 +109,28 @@ public abstract class RecentsView<T extends BaseActivity> extends PagedView impl
 
     private static final float[] sTempFloatArray = new float[3];
 
+    // Fraction of the app memory class used to keep the thumbnails of tasks out of the screen
+    private static final int THUMBNAIL_MEMORY_BUDGET_DIVISOR = 8;
+
     protected final T mActivity;
     private final QuickScrubController mQuickScrubController;
-    private final float mFastFlingVelocity;
     private final RecentsModel mModel;
     private final int mTaskTopMargin;
 
     private final ScrollState mScrollState = new ScrollState();
-    // Keeps track of the previously known visible tasks for purposes of loading/unloading task data
+    // Keeps track of the tasks whose data is loaded, for purposes of unloading task data
     private final SparseBooleanArray mHasVisibleTaskData = new SparseBooleanArray();
+    // The tasks whose high resolution thumbnail is requested
+    private final SparseBooleanArray mHasHighResTaskData = new SparseBooleanArray();
+    private final TaskPrefetchWindow mPrefetchWindow = new TaskPrefetchWindow();
+    // Size of the thumbnails above which the task data out of the prefetch window is unloaded
+    private final long mThumbnailMemoryBudget;
+
+    // Pages shown at the center of the screen during the current scroll, and how many of them
+    // had no thumbnail yet
+    private int mLastCenterPage = -1;
+    private int mScrollPagesShown;
+    private int mScrollThumbnailMisses;
 
     private boolean mIsClearAllButtonFullyRevealed;
 
@@ -250,8 +266,8 @@ public abstract class RecentsView<T extends BaseActivity> extends PagedView impl
         enableFreeScroll(true);
         setClipToOutline(true);
 
-        mFastFlingVelocity = getResources()
-                .getDimensionPixelSize(R.dimen.recents_fast_fling_velocity);
+        mThumbnailMemoryBudget = (long) context.getSystemService(ActivityManager.class)
+                .getMemoryClass() * 1024 * 1024 / THUMBNAIL_MEMORY_BUDGET_DIVISOR;
         mActivity = (T) BaseActivity.fromContext(context);
         mQuickScrubController = new QuickScrubController(mActivity, this);
         mModel = RecentsModel.getInstance(context);
@@ -316,10 +332,7 @@ public abstract class RecentsView<T extends BaseActivity> extends PagedView impl
         // Clear the task data for the removed child if it was visible
         Task task = ((TaskView) child).getTask();
         if (mHasVisibleTaskData.get(task.key.id)) {
-            mHasVisibleTaskData.delete(task.key.id);
-            RecentsTaskLoader loader = mModel.getRecentsTaskLoader();
-            loader.unloadTaskData(task);
-            loader.getHighResThumbnailLoader().onTaskInvisible(task);
+            unloadTaskData(mModel.getRecentsTaskLoader(), task);
         }
         onChildViewsChanged();
     }
@@ -358,6 +371,15 @@ public abstract class RecentsView<T extends BaseActivity> extends PagedView impl
         if (getNextPage() > 0) {
             setSwipeDownShouldLaunchApp(true);
         }
+        // Update the window to where the scroll settled, trimming the data loaded during it
+        loadVisibleTaskData();
+        if (mScrollPagesShown > 1 && Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Thumbnail misses during scroll: " + mScrollThumbnailMisses + "/"
+                    + mScrollPagesShown + " pages");
+        }
+        mLastCenterPage = -1;
+        mScrollPagesShown = 0;
+        mScrollThumbnailMisses = 0;
     }
 
     private int getScrollEnd() {
@@ -530,21 +552,12 @@ public abstract class RecentsView<T extends BaseActivity> extends PagedView impl
     @Override
     protected boolean computeScrollHelper() {
         boolean scrolling = super.computeScrollHelper();
-        boolean isFlingingFast = false;
         updateCurveProperties();
         if (scrolling || (mTouchState == TOUCH_STATE_SCROLLING)) {
-            if (scrolling) {
-                // Check if we are flinging quickly to disable high res thumbnail loading
-                isFlingingFast = mScroller.getCurrVelocity() > mFastFlingVelocity;
-            }
-
-            // After scrolling, update the visible task's data
+            // After scrolling, update the visible task's data. High res thumbnails are only
+            // requested where the scroll settles, so their loading is not paused during flings.
             loadVisibleTaskData();
         }
-
-        // Update the high res thumbnail loader
-        RecentsTaskLoader loader = mModel.getRecentsTaskLoader();
-        loader.getHighResThumbnailLoader().setFlingingFast(isFlingingFast);
         return scrolling;
     }
 
@@ -573,44 +586,136 @@ public abstract class RecentsView<T extends BaseActivity> extends PagedView impl
     }
 
     /**
-     * Iterates through all thet asks, and loads the associated task data for newly visible tasks,
-     * and unloads the associated task data for tasks that are no longer visible.
+     * Loads the task data for the tasks in the prefetch window, in the order they will be shown,
+     * and unloads the task data of the tasks out of the window once over the memory budget.
      */
     public void loadVisibleTaskData() {
         if (!mOverviewStateEnabled) {
             // Skip loading visible task data if we've already left the overview state
             return;
         }
+        int numChildren = getChildCount();
+        if (numChildren == 0) {
+            return;
+        }
 
         RecentsTaskLoader loader = mModel.getRecentsTaskLoader();
         int centerPageIndex = getPageNearestToCenterOfScreen();
-        int lower = Math.max(0, centerPageIndex - 2);
-        int upper = Math.min(centerPageIndex + 2, getChildCount() - 1);
-        int numChildren = getChildCount();
+        int finalPageIndex = centerPageIndex;
+        float velocity = 0;
+        if (!mScroller.isFinished()) {
+            finalPageIndex = getPageNearestToCenterOfScreen(mScroller.getFinalX());
+            velocity = mScroller.getCurrVelocity();
+        }
+        mPrefetchWindow.update(centerPageIndex, finalPageIndex, velocity,
+                getNormalChildWidth() + mPageSpacing, numChildren);
+        recordThumbnailMiss(centerPageIndex);
+
+        // Load the task data for the tasks in the prefetch window
+        for (int i = 0; i < mPrefetchWindow.getLoadOrderCount(); i++) {
+            Task task = ((TaskView) getChildAt(mPrefetchWindow.getPageToLoad(i))).getTask();
+            if (task == mTmpRunningTask) {
+                // Skip loading if this is the task that we are animating into
+                continue;
+            }
+            if (!mHasVisibleTaskData.get(task.key.id)) {
+                loader.loadTaskData(task);
+                mHasVisibleTaskData.put(task.key.id, true);
+            }
+        }
 
-        // Update the task data for the in/visible children
+        // Request the high res thumbnails where the scroll settles
+        HighResThumbnailLoader highResLoader = loader.getHighResThumbnailLoader();
         for (int i = 0; i < numChildren; i++) {
-            TaskView taskView = (TaskView) getChildAt(i);
-            Task task = taskView.getTask();
-            boolean visible = lower <= i && i <= upper;
-            if (visible) {
-                if (task == mTmpRunningTask) {
-                    // Skip loading if this is the task that we are animating into
-                    continue;
-                }
-                if (!mHasVisibleTaskData.get(task.key.id)) {
-                    loader.loadTaskData(task);
-                    loader.getHighResThumbnailLoader().onTaskVisible(task);
-                }
-                mHasVisibleTaskData.put(task.key.id, visible);
-            } else {
-                if (mHasVisibleTaskData.get(task.key.id)) {
-                    loader.unloadTaskData(task);
-                    loader.getHighResThumbnailLoader().onTaskInvisible(task);
+            Task task = ((TaskView) getChildAt(i)).getTask();
+            boolean highRes = mPrefetchWindow.isHighRes(i) && mHasVisibleTaskData.get(task.key.id);
+            if (highRes != mHasHighResTaskData.get(task.key.id)) {
+                if (highRes) {
+                    highResLoader.onTaskVisible(task);
+                    mHasHighResTaskData.put(task.key.id, true);
+                } else {
+                    highResLoader.onTaskInvisible(task);
+                    mHasHighResTaskData.delete(task.key.id);
                 }
-                mHasVisibleTaskData.delete(task.key.id);
             }
         }
+
+        trimTaskData(loader, centerPageIndex, mThumbnailMemoryBudget);
+    }
+
+    /**
+     * Unloads the task data of all the tasks out of the prefetch window.
+     */
+    public void onTrimMemory(int level) {
+        if (getChildCount() > 0) {
+            trimTaskData(mModel.getRecentsTaskLoader(), getPageNearestToCenterOfScreen(), 0);
+        }
+    }
+
+    /**
+     * Unloads the task data of the tasks out of the prefetch window, furthest from
+     * {@param centerPageIndex} first, until the thumbnails fit in {@param budgetBytes}.
+     */
+    private void trimTaskData(RecentsTaskLoader loader, int centerPageIndex, long budgetBytes) {
+        int numChildren = getChildCount();
+        long thumbnailBytes = 0;
+        for (int i = 0; i < numChildren; i++) {
+            Task task = ((TaskView) getChildAt(i)).getTask();
+            if (mHasVisibleTaskData.get(task.key.id)) {
+                thumbnailBytes += getThumbnailBytes(task);
+            }
+        }
+        for (int distance = numChildren - 1;
+                distance > 0 && thumbnailBytes > budgetBytes; distance--) {
+            thumbnailBytes -= unloadOutOfWindow(loader, centerPageIndex + distance);
+            thumbnailBytes -= unloadOutOfWindow(loader, centerPageIndex - distance);
+        }
+    }
+
+    /**
+     * Unloads the task data of the task at {@param pageIndex} if it is out of the prefetch
+     * window.
+     * @return the size of the unloaded thumbnail.
+     */
+    private long unloadOutOfWindow(RecentsTaskLoader loader, int pageIndex) {
+        if (pageIndex < 0 || pageIndex >= getChildCount()
+                || mPrefetchWindow.isInWindow(pageIndex)) {
+            return 0;
+        }
+        Task task = ((TaskView) getChildAt(pageIndex)).getTask();
+        if (!mHasVisibleTaskData.get(task.key.id)) {
+            return 0;
+        }
+        long thumbnailBytes = getThumbnailBytes(task);
+        unloadTaskData(loader, task);
+        return thumbnailBytes;
+    }
+
+    private void unloadTaskData(RecentsTaskLoader loader, Task task) {
+        loader.unloadTaskData(task);
+        loader.getHighResThumbnailLoader().onTaskInvisible(task);
+        mHasVisibleTaskData.delete(task.key.id);
+        mHasHighResTaskData.delete(task.key.id);
+    }
+
+    private static long getThumbnailBytes(Task task) {
+        return task.thumbnail != null && task.thumbnail.thumbnail != null
+                ? task.thumbnail.thumbnail.getAllocationByteCount() : 0;
+    }
+
+    /**
+     * Counts the pages which reach the center of the screen during a scroll without a thumbnail.
+     */
+    private void recordThumbnailMiss(int centerPageIndex) {
+        if (centerPageIndex == mLastCenterPage) {
+            return;
+        }
+        mLastCenterPage = centerPageIndex;
+        mScrollPagesShown++;
+        Task task = ((TaskView) getChildAt(centerPageIndex)).getTask();
+        if (task != mTmpRunningTask && task.thumbnail == null) {
+            mScrollThumbnailMisses++;
+        }
     }
 
     /**
@@ -627,6 +732,7 @@ public abstract class RecentsView<T extends BaseActivity> extends PagedView impl
             }
         }
         mHasVisibleTaskData.clear();
+        mHasHighResTaskData.clear();
     }
 
     protected abstract void onAllTasksRemoved();
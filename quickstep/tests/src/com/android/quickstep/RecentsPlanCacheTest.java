@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.quickstep;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.app.ActivityManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Color;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.android.systemui.shared.recents.model.RecentsTaskLoadPlan;
+import com.android.systemui.shared.recents.model.Task;
+import com.android.systemui.shared.recents.model.ThumbnailData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit tests for {@link RecentsPlanCache}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class RecentsPlanCacheTest {
+
+    private static final int USER_ID = 10;
+
+    private Context mContext;
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mFile = new File(mContext.getCacheDir(), "recents_plan_test");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void testWriteRead_restoresTasks() {
+        Task first = createTask(1, 100, "First", Color.RED);
+        first.isSystemApp = true;
+        first.isLocked = true;
+        Task second = createTask(2, 200, "Second", Color.BLUE);
+        second.isDockable = true;
+        second.topActivity = null;
+
+        new RecentsPlanCache(mContext, mFile).write(
+                RecentsPlanCache.createPlan(mContext, Arrays.asList(first, second)), USER_ID);
+        RecentsTaskLoadPlan plan = new RecentsPlanCache(mContext, mFile).read(USER_ID);
+
+        assertTrue(RecentsPlanCache.isSnapshot(plan));
+        List<Task> tasks = plan.getTaskStack().getTasks();
+        assertEquals(2, tasks.size());
+        assertTaskEquals(first, tasks.get(0));
+        assertTaskEquals(second, tasks.get(1));
+
+        // Only the component and the flags of the base intent are kept
+        Intent baseIntent = tasks.get(0).key.baseIntent;
+        assertNull(baseIntent.getData());
+        assertNull(baseIntent.getExtras());
+    }
+
+    @Test
+    public void testRead_otherUser() {
+        new RecentsPlanCache(mContext, mFile).write(RecentsPlanCache.createPlan(mContext,
+                Collections.singletonList(createTask(1, 100, "First", Color.RED))), USER_ID);
+        assertNull(new RecentsPlanCache(mContext, mFile).read(USER_ID + 1));
+    }
+
+    @Test
+    public void testWrite_skipsUnchangedTasks() {
+        RecentsPlanCache cache = new RecentsPlanCache(mContext, mFile);
+        cache.write(RecentsPlanCache.createPlan(mContext,
+                Collections.singletonList(createTask(1, 100, "First", Color.RED))), USER_ID);
+        assertTrue(mFile.setLastModified(0));
+
+        cache.write(RecentsPlanCache.createPlan(mContext,
+                Collections.singletonList(createTask(1, 100, "First", Color.RED))), USER_ID);
+        assertEquals(0, mFile.lastModified());
+
+        cache.write(RecentsPlanCache.createPlan(mContext,
+                Collections.singletonList(createTask(1, 101, "First", Color.RED))), USER_ID);
+        assertTrue(mFile.lastModified() > 0);
+    }
+
+    @Test
+    public void testSetRunningTask() {
+        RecentsTaskLoadPlan snapshot = RecentsPlanCache.createPlan(mContext, Arrays.asList(
+                createTask(1, 100, "First", Color.RED), createTask(2, 200, "Second", Color.BLUE)));
+        List<Task> tasks = snapshot.getTaskStack().getTasks();
+
+        assertFalse(RecentsPlanCache.setRunningTask(snapshot, 1));
+        assertFalse(RecentsPlanCache.setRunningTask(snapshot, 3));
+
+        assertTrue(RecentsPlanCache.setRunningTask(snapshot, 2));
+        assertFalse(tasks.get(0).isLaunchTarget);
+        assertTrue(tasks.get(1).isLaunchTarget);
+
+        assertTrue(RecentsPlanCache.setRunningTask(snapshot, -1));
+        assertFalse(tasks.get(1).isLaunchTarget);
+    }
+
+    @Test
+    public void testReconcile_copiesThumbnailsOfSameTasks() {
+        ThumbnailData thumbnail = new ThumbnailData();
+        Task snapshotTask = createTask(1, 100, "First", Color.RED);
+        snapshotTask.thumbnail = thumbnail;
+        Task movedSnapshotTask = createTask(2, 200, "Second", Color.BLUE);
+        movedSnapshotTask.thumbnail = thumbnail;
+
+        Task liveTask = createTask(1, 100, "First", Color.RED);
+        // The task was brought to front since the snapshot, so its thumbnail is outdated
+        Task movedLiveTask = createTask(2, 300, "Second", Color.BLUE);
+        Task newLiveTask = createTask(3, 400, "Third", Color.GREEN);
+
+        RecentsPlanCache.reconcile(
+                RecentsPlanCache.createPlan(mContext,
+                        Arrays.asList(snapshotTask, movedSnapshotTask)),
+                RecentsPlanCache.createPlan(mContext,
+                        Arrays.asList(liveTask, movedLiveTask, newLiveTask)));
+
+        assertSame(thumbnail, liveTask.thumbnail);
+        assertNull(movedLiveTask.thumbnail);
+        assertNull(newLiveTask.thumbnail);
+    }
+
+    private static Task createTask(int id, long lastActiveTime, String title, int color) {
+        Intent baseIntent = new Intent(Intent.ACTION_VIEW, Uri.parse("content://private/" + id))
+                .setComponent(new ComponentName("com.example", "com.example.Activity" + id))
+                .setFlags(Intent.FLAG_ACTIVITY_NEW_TASK)
+                .putExtra("secret", id);
+        Task.TaskKey key = new Task.TaskKey(id, 1 /* windowingMode */, baseIntent, USER_ID,
+                lastActiveTime);
+        return new Task(key, null /* icon */, null /* thumbnail */, title, title + " app",
+                color, Color.WHITE, false /* isLaunchTarget */, true /* isStackTask */,
+                false /* isSystemApp */, false /* isDockable */,
+                new ActivityManager.TaskDescription(title, null, color), 2 /* resizeMode */,
+                new ComponentName("com.example", "com.example.Top" + id), false /* isLocked */);
+    }
+
+    private static void assertTaskEquals(Task expected, Task actual) {
+        assertEquals(expected.key.id, actual.key.id);
+        assertEquals(expected.key.windowingMode, actual.key.windowingMode);
+        assertEquals(expected.key.userId, actual.key.userId);
+        assertEquals(expected.key.lastActiveTime, actual.key.lastActiveTime);
+        assertEquals(expected.key.getComponent(), actual.key.getComponent());
+        assertEquals(expected.key.baseIntent.getFlags(), actual.key.baseIntent.getFlags());
+        assertEquals(expected.title, actual.title);
+        assertEquals(expected.titleDescription, actual.titleDescription);
+        assertEquals(expected.colorPrimary, actual.colorPrimary);
+        assertEquals(expected.colorBackground, actual.colorBackground);
+        assertEquals(expected.isStackTask, actual.isStackTask);
+        assertEquals(expected.isSystemApp, actual.isSystemApp);
+        assertEquals(expected.isDockable, actual.isDockable);
+        assertEquals(expected.isLocked, actual.isLocked);
+        assertEquals(expected.resizeMode, actual.resizeMode);
+        assertEquals(expected.topActivity, actual.topActivity);
+        assertFalse(actual.isLaunchTarget);
+        assertNull(actual.thumbnail);
+    }
+}
@@ -171,6 +171,35 @@ public class CellLayout extends ViewGroup {
     final int[] mPreviousReorderDirection = new int[2];
     private static final int INVALID_DIRECTION = -100;
 
+    // Objects reused by the reorder solver, so that dragging over the layout doesn't allocate.
+    private final ItemConfiguration mSwapSolution = new ItemConfiguration();
+    private final ItemConfiguration mNoShuffleSolution = new ItemConfiguration();
+    private final ItemConfiguration mScratchSolution = new ItemConfiguration();
+    private ViewCluster mViewCluster;
+    private GridOccupancy mBlockOccupied;
+    private final Stack<Rect> mValidRegions = new Stack<>();
+    private final Rect mBestRect = new Rect();
+    private final Rect mTmpRect0 = new Rect();
+    private final Rect mTmpRect1 = new Rect();
+    private final int[] mTmpReorderCell = new int[2];
+    private final int[] mTmpReorderSpan = new int[2];
+
+    // Key of the last solution found by findReorderSolution in performReorder. It is valid as
+    // long as the permanent placement of the items doesn't change.
+    private boolean mSwapSolutionValid;
+    private int mSwapSolutionCellX;
+    private int mSwapSolutionCellY;
+    private int mSwapSolutionSpanX;
+    private int mSwapSolutionSpanY;
+    private int mSwapSolutionMinSpanX;
+    private int mSwapSolutionMinSpanY;
+    private int mSwapSolutionDirectionX;
+    private int mSwapSolutionDirectionY;
+    private int mSwapSolutionChildCount;
+    private View mSwapSolutionDragView;
+
+    private ReorderSolveListener mReorderSolveListener;
+
     private final Rect mTempRect = new Rect();
 
     private final static Paint sPaint = new Paint();
@@ -378,6 +407,9 @@ public class CellLayout extends ViewGroup {
         mOccupied = new GridOccupancy(mCountX, mCountY);
         mTmpOccupied = new GridOccupancy(mCountX, mCountY);
         mTempRectStack.clear();
+        mViewCluster = null;
+        mBlockOccupied = null;
+        invalidateReorderSolution();
         mShortcutsAndWidgets.setCellDimensions(mCellWidth, mCellHeight, mCountX, mCountY);
         requestLayout();
     }
@@ -457,7 +489,7 @@ public class CellLayout extends ViewGroup {
             cd.setBounds(0, 0,  mCellWidth, mCellHeight);
             for (int i = 0; i < mCountX; i++) {
                 for (int j = 0; j < mCountY; j++) {
-                    if (mOccupied.cells[i][j]) {
+                    if (mOccupied.isOccupied(i, j)) {
                         cellToPoint(i, j, pt);
                         canvas.save();
                         canvas.translate(pt[0], pt[1]);
@@ -618,6 +650,7 @@ public class CellLayout extends ViewGroup {
     @Override
     public void removeAllViews() {
         mOccupied.clear();
+        invalidateReorderSolution();
         mShortcutsAndWidgets.removeAllViews();
     }
 
@@ -625,6 +658,7 @@ public class CellLayout extends ViewGroup {
     public void removeAllViewsInLayout() {
         if (mShortcutsAndWidgets.getChildCount() > 0) {
             mOccupied.clear();
+            invalidateReorderSolution();
             mShortcutsAndWidgets.removeAllViewsInLayout();
         }
     }
@@ -882,6 +916,7 @@ public class CellLayout extends ViewGroup {
             if (permanent) {
                 lp.cellX = info.cellX = cellX;
                 lp.cellY = info.cellY = cellY;
+                invalidateReorderSolution();
             } else {
                 lp.tmpCellX = cellX;
                 lp.tmpCellY = cellY;
@@ -1099,8 +1134,9 @@ public class CellLayout extends ViewGroup {
         // Keep track of best-scoring drop area
         final int[] bestXY = result != null ? result : new int[2];
         double bestDistance = Double.MAX_VALUE;
-        final Rect bestRect = new Rect(-1, -1, -1, -1);
-        final Stack<Rect> validRegions = new Stack<>();
+        final Rect bestRect = mBestRect;
+        bestRect.set(-1, -1, -1, -1);
+        final Stack<Rect> validRegions = mValidRegions;
 
         final int countX = mCountX;
         final int countY = mCountY;
@@ -1117,12 +1153,8 @@ public class CellLayout extends ViewGroup {
                 int xSize = -1;
                 if (ignoreOccupied) {
                     // First, let's see if this thing fits anywhere
-                    for (int i = 0; i < minSpanX; i++) {
-                        for (int j = 0; j < minSpanY; j++) {
-                            if (mOccupied.cells[x + i][y + j]) {
-                                continue inner;
-                            }
-                        }
+                    if (!mOccupied.isRegionVacant(x, y, minSpanX, minSpanY)) {
+                        continue inner;
                     }
                     xSize = minSpanX;
                     ySize = minSpanY;
@@ -1136,7 +1168,8 @@ public class CellLayout extends ViewGroup {
                     while (!(hitMaxX && hitMaxY)) {
                         if (incX && !hitMaxX) {
                             for (int j = 0; j < ySize; j++) {
-                                if (x + xSize > countX -1 || mOccupied.cells[x + xSize][y + j]) {
+                                if (x + xSize > countX -1
+                                        || mOccupied.isOccupied(x + xSize, y + j)) {
                                     // We can't move out horizontally
                                     hitMaxX = true;
                                 }
@@ -1146,7 +1179,8 @@ public class CellLayout extends ViewGroup {
                             }
                         } else if (!hitMaxY) {
                             for (int i = 0; i < xSize; i++) {
-                                if (y + ySize > countY - 1 || mOccupied.cells[x + i][y + ySize]) {
+                                if (y + ySize > countY - 1
+                                        || mOccupied.isOccupied(x + i, y + ySize)) {
                                     // We can't move out vertically
                                     hitMaxY = true;
                                 }
@@ -1172,8 +1206,8 @@ public class CellLayout extends ViewGroup {
                 Rect currentRect = mTempRectStack.pop();
                 currentRect.set(x, y, x + xSize, y + ySize);
                 boolean contained = false;
-                for (Rect r : validRegions) {
-                    if (r.contains(currentRect)) {
+                for (int i = validRegions.size() - 1; i >= 0; i--) {
+                    if (validRegions.get(i).contains(currentRect)) {
                         contained = true;
                         break;
                     }
@@ -1224,7 +1258,7 @@ public class CellLayout extends ViewGroup {
      *         nearest the requested location.
      */
     private int[] findNearestArea(int cellX, int cellY, int spanX, int spanY, int[] direction,
-            boolean[][] occupied, boolean blockOccupied[][], int[] result) {
+            GridOccupancy occupied, GridOccupancy blockOccupied, int[] result) {
         // Keep track of best-scoring drop area
         final int[] bestXY = result != null ? result : new int[2];
         float bestDistance = Float.MAX_VALUE;
@@ -1237,12 +1271,9 @@ public class CellLayout extends ViewGroup {
             inner:
             for (int x = 0; x < countX - (spanX - 1); x++) {
                 // First, let's see if this thing fits anywhere
-                for (int i = 0; i < spanX; i++) {
-                    for (int j = 0; j < spanY; j++) {
-                        if (occupied[x + i][y + j] && (blockOccupied == null || blockOccupied[i][j])) {
-                            continue inner;
-                        }
-                    }
+                if (blockOccupied == null ? !occupied.isRegionVacant(x, y, spanX, spanY)
+                        : !occupied.canFit(x, y, blockOccupied)) {
+                    continue inner;
                 }
 
                 float distance = (float) Math.hypot(x - cellX, y - cellY);
@@ -1279,7 +1310,7 @@ public class CellLayout extends ViewGroup {
         mTmpOccupied.markCells(rectOccupiedByPotentialDrop, true);
 
         findNearestArea(c.cellX, c.cellY, c.spanX, c.spanY, direction,
-                mTmpOccupied.cells, null, mTempLocation);
+                mTmpOccupied, null, mTempLocation);
 
         if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
             c.cellX = mTempLocation[0];
@@ -1302,8 +1333,8 @@ public class CellLayout extends ViewGroup {
         final static int RIGHT = 1 << 2;
         final static int BOTTOM = 1 << 3;
 
-        final ArrayList<View> views;
-        final ItemConfiguration config;
+        final ArrayList<View> views = new ArrayList<>();
+        ItemConfiguration config;
         final Rect boundingRect = new Rect();
 
         final int[] leftEdge = new int[mCountY];
@@ -1313,13 +1344,21 @@ public class CellLayout extends ViewGroup {
         int dirtyEdges;
         boolean boundingRectDirty;
 
-        @SuppressWarnings("unchecked")
-        public ViewCluster(ArrayList<View> views, ItemConfiguration config) {
-            this.views = (ArrayList<View>) views.clone();
+        /**
+         * Resets this cluster to contain {@param views}, so that a single instance can be reused
+         * for every push attempt.
+         */
+        void init(ArrayList<View> views, ItemConfiguration config) {
+            this.views.clear();
+            this.views.addAll(views);
             this.config = config;
             resetEdges();
         }
 
+        boolean matchesGridSize() {
+            return leftEdge.length == mCountY && topEdge.length == mCountX;
+        }
+
         void resetEdges() {
             for (int i = 0; i < mCountX; i++) {
                 topEdge[i] = -1;
@@ -1416,8 +1455,9 @@ public class CellLayout extends ViewGroup {
         }
 
         void shift(int whichEdge, int delta) {
-            for (View v: views) {
-                CellAndSpan c = config.map.get(v);
+            int count = views.size();
+            for (int i = 0; i < count; i++) {
+                CellAndSpan c = config.map.get(views.get(i));
                 switch (whichEdge) {
                     case LEFT:
                         c.cellX -= delta;
@@ -1478,7 +1518,11 @@ public class CellLayout extends ViewGroup {
     private boolean pushViewsToTempLocation(ArrayList<View> views, Rect rectOccupiedByPotentialDrop,
             int[] direction, View dragView, ItemConfiguration currentState) {
 
-        ViewCluster cluster = new ViewCluster(views, currentState);
+        if (mViewCluster == null || !mViewCluster.matchesGridSize()) {
+            mViewCluster = new ViewCluster();
+        }
+        ViewCluster cluster = mViewCluster;
+        cluster.init(views, currentState);
         Rect clusterRect = cluster.getBoundingRect();
         int whichEdge;
         int pushDistance;
@@ -1506,8 +1550,8 @@ public class CellLayout extends ViewGroup {
         }
 
         // Mark the occupied state as false for the group of views we want to move.
-        for (View v: views) {
-            CellAndSpan c = currentState.map.get(v);
+        for (int i = views.size() - 1; i >= 0; i--) {
+            CellAndSpan c = currentState.map.get(views.get(i));
             mTmpOccupied.markCells(c, false);
         }
 
@@ -1521,8 +1565,10 @@ public class CellLayout extends ViewGroup {
         // left edge, we consider sort the views by their right edge, from right to left.
         cluster.sortConfigurationForEdgePush(whichEdge);
 
+        ArrayList<View> sortedViews = currentState.sortedViews;
         while (pushDistance > 0 && !fail) {
-            for (View v: currentState.sortedViews) {
+            for (int i = 0; i < sortedViews.size(); i++) {
+                View v = sortedViews.get(i);
                 // For each view that isn't in the cluster, we see if the leading edge of the
                 // cluster is contacting the edge of that view. If so, we add that view to the
                 // cluster.
@@ -1562,8 +1608,8 @@ public class CellLayout extends ViewGroup {
         }
 
         // In either case, we set the occupied array as marked for the location of the views
-        for (View v: cluster.views) {
-            CellAndSpan c = currentState.map.get(v);
+        for (int i = cluster.views.size() - 1; i >= 0; i--) {
+            CellAndSpan c = currentState.map.get(cluster.views.get(i));
             mTmpOccupied.markCells(c, true);
         }
 
@@ -1575,23 +1621,30 @@ public class CellLayout extends ViewGroup {
         if (views.size() == 0) return true;
 
         boolean success = false;
-        Rect boundingRect = new Rect();
+        Rect boundingRect = mTmpRect0;
         // We construct a rect which represents the entire group of views passed in
         currentState.getBoundingRectForViews(views, boundingRect);
+        int count = views.size();
 
         // Mark the occupied state as false for the group of views we want to move.
-        for (View v: views) {
-            CellAndSpan c = currentState.map.get(v);
+        for (int i = 0; i < count; i++) {
+            CellAndSpan c = currentState.map.get(views.get(i));
             mTmpOccupied.markCells(c, false);
         }
 
-        GridOccupancy blockOccupied = new GridOccupancy(boundingRect.width(), boundingRect.height());
+        // The block is laid out in the top left corner of a grid as large as the layout, the
+        // remaining cells are left empty.
+        if (mBlockOccupied == null) {
+            mBlockOccupied = new GridOccupancy(mCountX, mCountY);
+        }
+        GridOccupancy blockOccupied = mBlockOccupied;
+        blockOccupied.clear();
         int top = boundingRect.top;
         int left = boundingRect.left;
         // We mark more precisely which parts of the bounding rect are truly occupied, allowing
         // for interlocking.
-        for (View v: views) {
-            CellAndSpan c = currentState.map.get(v);
+        for (int i = 0; i < count; i++) {
+            CellAndSpan c = currentState.map.get(views.get(i));
             blockOccupied.markCells(c.cellX - left, c.cellY - top, c.spanX, c.spanY, true);
         }
 
@@ -1599,14 +1652,14 @@ public class CellLayout extends ViewGroup {
 
         findNearestArea(boundingRect.left, boundingRect.top, boundingRect.width(),
                 boundingRect.height(), direction,
-                mTmpOccupied.cells, blockOccupied.cells, mTempLocation);
+                mTmpOccupied, blockOccupied, mTempLocation);
 
         // If we successfuly found a location by pushing the block of views, we commit it
         if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
             int deltaX = mTempLocation[0] - boundingRect.left;
             int deltaY = mTempLocation[1] - boundingRect.top;
-            for (View v: views) {
-                CellAndSpan c = currentState.map.get(v);
+            for (int i = 0; i < count; i++) {
+                CellAndSpan c = currentState.map.get(views.get(i));
                 c.cellX += deltaX;
                 c.cellY += deltaY;
             }
@@ -1614,8 +1667,8 @@ public class CellLayout extends ViewGroup {
         }
 
         // In either case, we set the occupied array as marked for the location of the views
-        for (View v: views) {
-            CellAndSpan c = currentState.map.get(v);
+        for (int i = 0; i < count; i++) {
+            CellAndSpan c = currentState.map.get(views.get(i));
             mTmpOccupied.markCells(c, true);
         }
         return success;
@@ -1734,11 +1787,13 @@ public class CellLayout extends ViewGroup {
                 c.cellY = cellY;
             }
         }
-        Rect r0 = new Rect(cellX, cellY, cellX + spanX, cellY + spanY);
-        Rect r1 = new Rect();
-        for (View child: solution.map.keySet()) {
+        Rect r0 = mTmpRect0;
+        r0.set(cellX, cellY, cellX + spanX, cellY + spanY);
+        Rect r1 = mTmpRect1;
+        for (int i = 0; i < solution.map.size(); i++) {
+            View child = solution.map.keyAt(i);
             if (child == ignoreView) continue;
-            CellAndSpan c = solution.map.get(child);
+            CellAndSpan c = solution.map.valueAt(i);
             LayoutParams lp = (LayoutParams) child.getLayoutParams();
             r1.set(c.cellX, c.cellY, c.cellX + c.spanX, c.cellY + c.spanY);
             if (Rect.intersects(r0, r1)) {
@@ -1749,7 +1804,7 @@ public class CellLayout extends ViewGroup {
             }
         }
 
-        solution.intersectingViews = new ArrayList<>(mIntersectingViews);
+        solution.setIntersectingViews(mIntersectingViews);
 
         // First we try to find a solution which respects the push mechanic. That is,
         // we try to find a solution such that no displaced item travels through another item
@@ -1766,8 +1821,9 @@ public class CellLayout extends ViewGroup {
         }
 
         // Ok, they couldn't move as a block, let's move them individually
-        for (View v : mIntersectingViews) {
-            if (!addViewToTempLocation(v, mOccupiedRect, direction, solution)) {
+        for (int i = 0; i < mIntersectingViews.size(); i++) {
+            if (!addViewToTempLocation(mIntersectingViews.get(i), mOccupiedRect, direction,
+                    solution)) {
                 return false;
             }
         }
@@ -1802,8 +1858,7 @@ public class CellLayout extends ViewGroup {
 
         // We find the nearest cell into which we would place the dragged item, assuming there's
         // nothing in its way.
-        int result[] = new int[2];
-        result = findNearestArea(pixelX, pixelY, spanX, spanY, result);
+        int[] result = findNearestArea(pixelX, pixelY, spanX, spanY, mTmpReorderCell);
 
         boolean success;
         // First we try the exact nearest position of the item being dragged,
@@ -1833,18 +1888,18 @@ public class CellLayout extends ViewGroup {
     }
 
     private void copyCurrentStateToSolution(ItemConfiguration solution, boolean temp) {
+        solution.reset();
         int childCount = mShortcutsAndWidgets.getChildCount();
         for (int i = 0; i < childCount; i++) {
             View child = mShortcutsAndWidgets.getChildAt(i);
             LayoutParams lp = (LayoutParams) child.getLayoutParams();
-            CellAndSpan c;
             if (temp) {
-                c = new CellAndSpan(lp.tmpCellX, lp.tmpCellY, lp.cellHSpan, lp.cellVSpan);
+                solution.add(child, lp.tmpCellX, lp.tmpCellY, lp.cellHSpan, lp.cellVSpan);
             } else {
-                c = new CellAndSpan(lp.cellX, lp.cellY, lp.cellHSpan, lp.cellVSpan);
+                solution.add(child, lp.cellX, lp.cellY, lp.cellHSpan, lp.cellVSpan);
             }
-            solution.add(child, c);
         }
+        solution.removeStaleViews();
     }
 
     private void copySolutionToTempState(ItemConfiguration solution, View dragView) {
@@ -2071,6 +2126,7 @@ public class CellLayout extends ViewGroup {
 
     private void commitTempPlacement() {
         mTmpOccupied.copyTo(mOccupied);
+        invalidateReorderSolution();
 
         long screenId = mLauncher.getWorkspace().getIdForScreen(this);
         int container = Favorites.CONTAINER_DESKTOP;
@@ -2115,8 +2171,9 @@ public class CellLayout extends ViewGroup {
 
     private ItemConfiguration findConfigurationNoShuffle(int pixelX, int pixelY, int minSpanX, int minSpanY,
             int spanX, int spanY, View dragView, ItemConfiguration solution) {
-        int[] result = new int[2];
-        int[] resultSpan = new int[2];
+        solution.reset();
+        int[] result = mTmpReorderCell;
+        int[] resultSpan = mTmpReorderSpan;
         findNearestVacantArea(pixelX, pixelY, minSpanX, minSpanY, spanX, spanY, result,
                 resultSpan);
         if (result[0] >= 0 && result[1] >= 0) {
@@ -2142,14 +2199,10 @@ public class CellLayout extends ViewGroup {
     */
     private void getDirectionVectorForDrop(int dragViewCenterX, int dragViewCenterY, int spanX,
             int spanY, View dragView, int[] resultDirection) {
-        int[] targetDestination = new int[2];
+        int[] targetDestination = mTmpReorderCell;
 
         findNearestArea(dragViewCenterX, dragViewCenterY, spanX, spanY, targetDestination);
-        Rect dragRect = new Rect();
-        regionToRect(targetDestination[0], targetDestination[1], spanX, spanY, dragRect);
-        dragRect.offset(dragViewCenterX - dragRect.centerX(), dragViewCenterY - dragRect.centerY());
-
-        Rect dropRegionRect = new Rect();
+        Rect dropRegionRect = mTmpRect0;
         getViewsIntersectingRegion(targetDestination[0], targetDestination[1], spanX, spanY,
                 dragView, dropRegionRect, mIntersectingViews);
 
@@ -2185,8 +2238,9 @@ public class CellLayout extends ViewGroup {
             boundingRect.set(cellX, cellY, cellX + spanX, cellY + spanY);
         }
         intersectingViews.clear();
-        Rect r0 = new Rect(cellX, cellY, cellX + spanX, cellY + spanY);
-        Rect r1 = new Rect();
+        Rect r0 = mTmpRect1;
+        r0.set(cellX, cellY, cellX + spanX, cellY + spanY);
+        Rect r1 = mTempRect;
         final int count = mShortcutsAndWidgets.getChildCount();
         for (int i = 0; i < count; i++) {
             View child = mShortcutsAndWidgets.getChildAt(i);
@@ -2235,7 +2289,7 @@ public class CellLayout extends ViewGroup {
 
         // First we determine if things have moved enough to cause a different layout
         ItemConfiguration swapSolution = findReorderSolution(pixelXY[0], pixelXY[1], spanX, spanY,
-                 spanX,  spanY, direction, dragView,  true,  new ItemConfiguration());
+                 spanX,  spanY, direction, dragView,  true,  mScratchSolution);
 
         setUseTempCoords(true);
         if (swapSolution != null && swapSolution.isSolution) {
@@ -2259,8 +2313,78 @@ public class CellLayout extends ViewGroup {
         return swapSolution.isSolution;
     }
 
+    /**
+     * Receives the cost of every {@link #performReorder} call, used to profile the drag-over path.
+     */
+    public interface ReorderSolveListener {
+
+        /**
+         * @param mode the reorder mode, one of the MODE_* constants
+         * @param solveTimeNanos the time spent looking for a solution
+         * @param allocations the number of item positions which were not pooled yet and had to
+         *        be allocated while looking for a solution
+         * @param reusedSolution true if the previous reorder solution was reused
+         */
+        void onReorderSolved(int mode, long solveTimeNanos, int allocations,
+                boolean reusedSolution);
+    }
+
+    public void setReorderSolveListener(ReorderSolveListener listener) {
+        mReorderSolveListener = listener;
+    }
+
+    private int getReorderAllocations() {
+        return mSwapSolution.allocations + mNoShuffleSolution.allocations
+                + mScratchSolution.allocations;
+    }
+
+    /**
+     * Drops the memoized reorder solution. Must be called whenever the permanent placement of
+     * the items changes.
+     */
+    private void invalidateReorderSolution() {
+        mSwapSolutionValid = false;
+        mSwapSolutionDragView = null;
+    }
+
+    private boolean canReuseSwapSolution(int cellX, int cellY, int minSpanX, int minSpanY,
+            int spanX, int spanY, View dragView) {
+        return mSwapSolutionValid && mSwapSolutionCellX == cellX && mSwapSolutionCellY == cellY
+                && mSwapSolutionMinSpanX == minSpanX && mSwapSolutionMinSpanY == minSpanY
+                && mSwapSolutionSpanX == spanX && mSwapSolutionSpanY == spanY
+                && mSwapSolutionDirectionX == mDirectionVector[0]
+                && mSwapSolutionDirectionY == mDirectionVector[1]
+                && mSwapSolutionDragView == dragView
+                && mSwapSolutionChildCount == mShortcutsAndWidgets.getChildCount();
+    }
+
+    private void saveSwapSolutionKey(int cellX, int cellY, int minSpanX, int minSpanY,
+            int spanX, int spanY, View dragView) {
+        // The solution only depends on the nearest cell as long as the item didn't need to be
+        // shrunk, otherwise the nearest cell for the smaller spans depends on the exact position.
+        if (mSwapSolution.isSolution) {
+            mSwapSolutionValid = mSwapSolution.spanX == spanX && mSwapSolution.spanY == spanY;
+        } else {
+            mSwapSolutionValid = spanX == minSpanX && spanY == minSpanY;
+        }
+        mSwapSolutionCellX = cellX;
+        mSwapSolutionCellY = cellY;
+        mSwapSolutionMinSpanX = minSpanX;
+        mSwapSolutionMinSpanY = minSpanY;
+        mSwapSolutionSpanX = spanX;
+        mSwapSolutionSpanY = spanY;
+        mSwapSolutionDirectionX = mDirectionVector[0];
+        mSwapSolutionDirectionY = mDirectionVector[1];
+        mSwapSolutionDragView = dragView;
+        mSwapSolutionChildCount = mShortcutsAndWidgets.getChildCount();
+    }
+
     int[] performReorder(int pixelX, int pixelY, int minSpanX, int minSpanY, int spanX, int spanY,
             View dragView, int[] result, int resultSpan[], int mode) {
+        final ReorderSolveListener solveListener = mReorderSolveListener;
+        final long solveStartTime = solveListener != null ? System.nanoTime() : 0;
+        final int solveStartAllocations = solveListener != null ? getReorderAllocations() : 0;
+
         // First we determine if things have moved enough to cause a different layout
         result = findNearestArea(pixelX, pixelY, spanX, spanY, result);
 
@@ -2286,13 +2410,25 @@ public class CellLayout extends ViewGroup {
             mPreviousReorderDirection[1] = mDirectionVector[1];
         }
 
-        // Find a solution involving pushing / displacing any items in the way
-        ItemConfiguration swapSolution = findReorderSolution(pixelX, pixelY, minSpanX, minSpanY,
-                 spanX,  spanY, mDirectionVector, dragView,  true,  new ItemConfiguration());
+        // Find a solution involving pushing / displacing any items in the way. The previous
+        // solution is reused if the item is still over the same cell.
+        ItemConfiguration swapSolution = mSwapSolution;
+        boolean reusedSolution = canReuseSwapSolution(result[0], result[1], minSpanX, minSpanY,
+                spanX, spanY, dragView);
+        if (!reusedSolution) {
+            findReorderSolution(pixelX, pixelY, minSpanX, minSpanY, spanX, spanY,
+                    mDirectionVector, dragView, true, swapSolution);
+            saveSwapSolutionKey(result[0], result[1], minSpanX, minSpanY, spanX, spanY, dragView);
+        }
 
         // We attempt the approach which doesn't shuffle views at all
         ItemConfiguration noShuffleSolution = findConfigurationNoShuffle(pixelX, pixelY, minSpanX,
-                minSpanY, spanX, spanY, dragView, new ItemConfiguration());
+                minSpanY, spanX, spanY, dragView, mNoShuffleSolution);
+
+        if (solveListener != null) {
+            solveListener.onReorderSolved(mode, System.nanoTime() - solveStartTime,
+                    getReorderAllocations() - solveStartAllocations, reusedSolution);
+        }
 
         ItemConfiguration finalSolution = null;
 
@@ -2369,41 +2505,83 @@ public class CellLayout extends ViewGroup {
         return mItemPlacementDirty;
     }
 
+    /**
+     * A candidate placement of all the items. Instances are reused across solves: the entries of
+     * the views which are still in the layout are kept, so that copying the current state into
+     * a configuration doesn't allocate once it has been used for the same set of views.
+     */
     private static class ItemConfiguration extends CellAndSpan {
         final ArrayMap<View, CellAndSpan> map = new ArrayMap<>();
         private final ArrayMap<View, CellAndSpan> savedMap = new ArrayMap<>();
         final ArrayList<View> sortedViews = new ArrayList<>();
         ArrayList<View> intersectingViews;
+        private final ArrayList<View> mIntersectingViewsStore = new ArrayList<>();
         boolean isSolution = false;
+        // Number of CellAndSpan entries allocated because they were not pooled yet
+        int allocations = 0;
+
+        void reset() {
+            sortedViews.clear();
+            intersectingViews = null;
+            isSolution = false;
+            cellX = cellY = -1;
+            spanX = spanY = 1;
+        }
 
         void save() {
             // Copy current state into savedMap
-            for (View v: map.keySet()) {
-                savedMap.get(v).copyFrom(map.get(v));
+            for (int i = map.size() - 1; i >= 0; i--) {
+                savedMap.get(map.keyAt(i)).copyFrom(map.valueAt(i));
             }
         }
 
         void restore() {
             // Restore current state from savedMap
-            for (View v: savedMap.keySet()) {
-                map.get(v).copyFrom(savedMap.get(v));
+            for (int i = savedMap.size() - 1; i >= 0; i--) {
+                map.get(savedMap.keyAt(i)).copyFrom(savedMap.valueAt(i));
             }
         }
 
-        void add(View v, CellAndSpan cs) {
-            map.put(v, cs);
-            savedMap.put(v, new CellAndSpan());
+        void add(View v, int cellX, int cellY, int spanX, int spanY) {
+            CellAndSpan cs = map.get(v);
+            if (cs == null) {
+                cs = new CellAndSpan();
+                map.put(v, cs);
+                savedMap.put(v, new CellAndSpan());
+                allocations += 2;
+            }
+            cs.cellX = cellX;
+            cs.cellY = cellY;
+            cs.spanX = spanX;
+            cs.spanY = spanY;
             sortedViews.add(v);
         }
 
+        /**
+         * Drops the entries of the views which were not added since the last {@link #reset()}.
+         */
+        void removeStaleViews() {
+            if (map.size() != sortedViews.size()) {
+                map.retainAll(sortedViews);
+                savedMap.retainAll(sortedViews);
+            }
+        }
+
+        void setIntersectingViews(ArrayList<View> views) {
+            mIntersectingViewsStore.clear();
+            mIntersectingViewsStore.addAll(views);
+            intersectingViews = mIntersectingViewsStore;
+        }
+
         int area() {
             return spanX * spanY;
         }
 
         void getBoundingRectForViews(ArrayList<View> views, Rect outRect) {
             boolean first = true;
-            for (View v: views) {
-                CellAndSpan c = map.get(v);
+            int count = views.size();
+            for (int i = 0; i < count; i++) {
+                CellAndSpan c = map.get(views.get(i));
                 if (first) {
                     outRect.set(c.cellX, c.cellY, c.cellX + c.spanX, c.cellY + c.spanY);
                     first = false;
@@ -2526,12 +2704,14 @@ public class CellLayout extends ViewGroup {
         if (view == null || view.getParent() != mShortcutsAndWidgets) return;
         LayoutParams lp = (LayoutParams) view.getLayoutParams();
         mOccupied.markCells(lp.cellX, lp.cellY, lp.cellHSpan, lp.cellVSpan, true);
+        invalidateReorderSolution();
     }
 
     public void markCellsAsUnoccupiedForView(View view) {
         if (view == null || view.getParent() != mShortcutsAndWidgets) return;
         LayoutParams lp = (LayoutParams) view.getLayoutParams();
         mOccupied.markCells(lp.cellX, lp.cellY, lp.cellHSpan, lp.cellVSpan, false);
+        invalidateReorderSolution();
     }
 
     public int getDesiredWidth() {
@@ -2544,7 +2724,7 @@ public class CellLayout extends ViewGroup {
 
     public boolean isOccupied(int x, int y) {
         if (x < mCountX && y < mCountY) {
-            return mOccupied.cells[x][y];
+            return mOccupied.isOccupied(x, y);
         } else {
             throw new RuntimeException("Position exceeds the bound of this CellLayout");
         }
@@ -2761,7 +2941,7 @@ public class CellLayout extends ViewGroup {
                 cellToPoint(cellX, cellY, cellPoint);
                 if (findReorderSolution(cellPoint[0], cellPoint[1], itemInfo.minSpanX,
                         itemInfo.minSpanY, itemInfo.spanX, itemInfo.spanY, mDirectionVector, null,
-                        true, new ItemConfiguration()).isSolution) {
+                        true, mScratchSolution).isSolution) {
                     return true;
                 }
             }
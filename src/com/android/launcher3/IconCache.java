@@ -16,6 +16,7 @@
 
 package com.android.launcher3;
 
+import android.app.ActivityManager;
 import android.content.ComponentName;
 import android.content.ContentValues;
 import android.content.Context;
@@ -42,11 +43,14 @@ import android.support.annotation.NonNull;
 import android.support.v4.graphics.ColorUtils;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.LruCache;
 
 import com.android.launcher3.compat.LauncherAppsCompat;
 import com.android.launcher3.compat.UserManagerCompat;
 import com.android.launcher3.graphics.BitmapInfo;
 import com.android.launcher3.graphics.BitmapRenderer;
+import com.android.launcher3.graphics.IconNormalizationCache;
+import com.android.launcher3.graphics.IconRenderPool;
 import com.android.launcher3.graphics.LauncherIcons;
 import com.android.launcher3.model.PackageItemInfo;
 import com.android.launcher3.util.ComponentKey;
@@ -56,21 +60,36 @@ import com.android.launcher3.util.Provider;
 import com.android.launcher3.util.SQLiteCacheHelper;
 import com.android.launcher3.util.Thunk;
 
+import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 
 /**
  * Cache of application icons.  Icons can be made from any thread.
+ *
+ * Entries are kept in three tiers: a memory-bounded LRU of high-res entries, a smaller LRU of
+ * low-res entries and the persistent {@link IconDB}. Entries which are not backed by the DB
+ * (see {@link #cachePackageInstallInfo}) are pinned in memory until the package is updated.
+ *
+ * Access to the entries of a package is serialized using a lock striped by package and user,
+ * so that requests for unrelated packages do not block each other.
  */
 public class IconCache {
 
     private static final String TAG = "Launcher.IconCache";
 
-    private static final int INITIAL_ICON_CACHE_CAPACITY = 50;
+    // Must be a power of 2
+    private static final int LOCK_STRIPE_COUNT = 16;
+
+    // Fraction of the app memory class used for high-res and low-res icons respectively
+    private static final int HIGH_RES_MEMORY_DIVIDER = 8;
+    private static final int LOW_RES_MEMORY_DIVIDER = 32;
 
     // Empty class name is used for storing package default entry.
     public static final String EMPTY_CLASS_NAME = ".";
@@ -96,13 +115,18 @@ public class IconCache {
     private final IconProvider mIconProvider;
     @Thunk final UserManagerCompat mUserManager;
     private final LauncherAppsCompat mLauncherApps;
-    private final HashMap<ComponentKey, CacheEntry> mCache =
-            new HashMap<>(INITIAL_ICON_CACHE_CAPACITY);
+    private final Object[] mLocks = new Object[LOCK_STRIPE_COUNT];
+    private final EntryLruCache mHighResCache;
+    private final EntryLruCache mLowResCache;
+    // Entries which are not present in the DB and hence can not be evicted.
+    private final HashMap<ComponentKey, CacheEntry> mPinnedCache = new HashMap<>();
     private final InstantAppResolver mInstantAppResolver;
     private final int mIconDpi;
     @Thunk final IconDB mIconDb;
 
     @Thunk final Handler mWorkerHandler;
+    private final IconRenderPool mRenderPool;
+    private final IconNormalizationCache mNormalizationCache;
 
     private final BitmapFactory.Options mLowResOptions;
     private final BitmapFactory.Options mHighResOptions;
@@ -120,6 +144,16 @@ public class IconCache {
 
         mIconProvider = IconProvider.newInstance(context);
         mWorkerHandler = new Handler(LauncherModel.getWorkerLooper());
+        mRenderPool = new IconRenderPool(context);
+        mNormalizationCache = IconNormalizationCache.getInstance(context);
+
+        for (int i = 0; i < LOCK_STRIPE_COUNT; i++) {
+            mLocks[i] = new Object();
+        }
+        int memoryBytes = ((ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE))
+                .getMemoryClass() * 1024 * 1024;
+        mHighResCache = new EntryLruCache(memoryBytes / HIGH_RES_MEMORY_DIVIDER);
+        mLowResCache = new EntryLruCache(memoryBytes / LOW_RES_MEMORY_DIVIDER);
 
         mLowResOptions = new BitmapFactory.Options();
         // Always prefer RGB_565 config for low res. If the bitmap has transparency, it will
@@ -191,6 +225,25 @@ public class IconCache {
         return mIconProvider.getIcon(info, mIconDpi, flattenDrawable);
     }
 
+    /**
+     * Returns the key of the normalization result for the icon of {@param cn}, or null if its
+     * package is not found.
+     * @param info the package info if already known
+     */
+    private String getNormalizationKey(ComponentName cn, PackageInfo info) {
+        String packageName = cn.getPackageName();
+        if (info == null) {
+            try {
+                info = mPackageManager.getPackageInfo(packageName,
+                        PackageManager.GET_UNINSTALLED_PACKAGES);
+            } catch (NameNotFoundException e) {
+                return null;
+            }
+        }
+        return IconNormalizationCache.createKey(cn, info, mIconDpi,
+                mIconProvider.getIconSystemState(packageName));
+    }
+
     protected BitmapInfo makeDefaultIcon(UserHandle user) {
         try (LauncherIcons li = LauncherIcons.obtain(mContext)) {
             return li.createBadgedIconBitmap(
@@ -198,11 +251,60 @@ public class IconCache {
         }
     }
 
+    /**
+     * Returns the lock guarding all the entries of the given package and user.
+     */
+    private Object getLock(String packageName, UserHandle user) {
+        int hash = 31 * packageName.hashCode() + user.hashCode();
+        return mLocks[(hash ^ (hash >>> 16)) & (LOCK_STRIPE_COUNT - 1)];
+    }
+
+    /**
+     * Returns the in-memory entry for the key, looking at the pinned, high-res and low-res
+     * tiers in that order.
+     */
+    private CacheEntry getFromMemCache(ComponentKey key) {
+        CacheEntry entry;
+        synchronized (mPinnedCache) {
+            entry = mPinnedCache.get(key);
+        }
+        if (entry == null) {
+            entry = mHighResCache.get(key);
+        }
+        if (entry == null) {
+            entry = mLowResCache.get(key);
+        }
+        return entry;
+    }
+
+    /**
+     * Adds a fully loaded entry to the memory tier matching its resolution.
+     */
+    private void putInMemCache(ComponentKey key, CacheEntry entry) {
+        if (entry.isLowResIcon) {
+            mHighResCache.remove(key);
+            mLowResCache.put(key, entry);
+        } else {
+            mLowResCache.remove(key);
+            mHighResCache.put(key, entry);
+        }
+    }
+
+    private void removeFromMemCache(ComponentKey key) {
+        synchronized (mPinnedCache) {
+            mPinnedCache.remove(key);
+        }
+        mHighResCache.remove(key);
+        mLowResCache.remove(key);
+    }
+
     /**
      * Remove any records for the supplied ComponentName.
      */
-    public synchronized void remove(ComponentName componentName, UserHandle user) {
-        mCache.remove(new ComponentKey(componentName, user));
+    public void remove(ComponentName componentName, UserHandle user) {
+        synchronized (getLock(componentName.getPackageName(), user)) {
+            removeFromMemCache(new ComponentKey(componentName, user));
+        }
     }
 
     /**
@@ -210,43 +312,57 @@ public class IconCache {
      */
     private void removeFromMemCacheLocked(String packageName, UserHandle user) {
         HashSet<ComponentKey> forDeletion = new HashSet<>();
-        for (ComponentKey key: mCache.keySet()) {
+        synchronized (mPinnedCache) {
+            addKeysForPackage(mPinnedCache, packageName, user, forDeletion);
+        }
+        addKeysForPackage(mHighResCache.snapshot(), packageName, user, forDeletion);
+        addKeysForPackage(mLowResCache.snapshot(), packageName, user, forDeletion);
+        for (ComponentKey condemned: forDeletion) {
+            removeFromMemCache(condemned);
+        }
+    }
+
+    private static void addKeysForPackage(Map<ComponentKey, CacheEntry> map, String packageName,
+            UserHandle user, Set<ComponentKey> out) {
+        for (ComponentKey key: map.keySet()) {
             if (key.componentName.getPackageName().equals(packageName)
                     && key.user.equals(user)) {
-                forDeletion.add(key);
+                out.add(key);
             }
         }
-        for (ComponentKey condemned: forDeletion) {
-            mCache.remove(condemned);
-        }
     }
 
     /**
      * Updates the entries related to the given package in memory and persistent DB.
      */
-    public synchronized void updateIconsForPkg(String packageName, UserHandle user) {
-        removeIconsForPkg(packageName, user);
-        try {
-            PackageInfo info = mPackageManager.getPackageInfo(packageName,
-                    PackageManager.GET_UNINSTALLED_PACKAGES);
-            long userSerial = mUserManager.getSerialNumberForUser(user);
-            for (LauncherActivityInfo app : mLauncherApps.getActivityList(packageName, user)) {
-                addIconToDBAndMemCache(app, info, userSerial, false /*replace existing*/);
+    public void updateIconsForPkg(String packageName, UserHandle user) {
+        synchronized (getLock(packageName, user)) {
+            removeIconsForPkg(packageName, user);
+            try {
+                PackageInfo info = mPackageManager.getPackageInfo(packageName,
+                        PackageManager.GET_UNINSTALLED_PACKAGES);
+                long userSerial = mUserManager.getSerialNumberForUser(user);
+                addIconsToDBAndMemCache(mLauncherApps.getActivityList(packageName, user),
+                        Collections.singletonMap(packageName, info), userSerial,
+                        false /*replace existing*/);
+            } catch (NameNotFoundException e) {
+                Log.d(TAG, "Package not found", e);
             }
-        } catch (NameNotFoundException e) {
-            Log.d(TAG, "Package not found", e);
         }
     }
 
     /**
      * Removes the entries related to the given package in memory and persistent DB.
      */
-    public synchronized void removeIconsForPkg(String packageName, UserHandle user) {
-        removeFromMemCacheLocked(packageName, user);
-        long userSerial = mUserManager.getSerialNumberForUser(user);
-        mIconDb.delete(
-                IconDB.COLUMN_COMPONENT + " LIKE ? AND " + IconDB.COLUMN_USER + " = ?",
-                new String[]{packageName + "/%", Long.toString(userSerial)});
+    public void removeIconsForPkg(String packageName, UserHandle user) {
+        synchronized (getLock(packageName, user)) {
+            removeFromMemCacheLocked(packageName, user);
+            mNormalizationCache.removePackage(packageName);
+            long userSerial = mUserManager.getSerialNumberForUser(user);
+            mIconDb.delete(
+                    IconDB.COLUMN_COMPONENT + " LIKE ? AND " + IconDB.COLUMN_USER + " = ?",
+                    new String[]{packageName + "/%", Long.toString(userSerial)});
+        }
     }
 
     public void updateDbIcons(Set<String> ignorePackagesForMainUser) {
@@ -361,37 +477,68 @@ public class IconCache {
     }
 
     /**
-     * Adds an entry into the DB and the in-memory cache.
+     * Adds entries into the DB and the in-memory cache. The icons are rendered in parallel and
+     * written to the DB in a single transaction.
      * @param replaceExisting if true, it will recreate the bitmap even if it already exists in
      *                        the memory. This is useful then the previous bitmap was created using
      *                        old data.
      */
-    @Thunk synchronized void addIconToDBAndMemCache(LauncherActivityInfo app,
-            PackageInfo info, long userSerial, boolean replaceExisting) {
-        final ComponentKey key = new ComponentKey(app.getComponentName(), app.getUser());
-        CacheEntry entry = null;
+    @Thunk void addIconsToDBAndMemCache(List<LauncherActivityInfo> apps,
+            Map<String, PackageInfo> pkgInfoMap, long userSerial, boolean replaceExisting) {
+        // Collect the icons which can be reused, so that only the missing ones are rendered.
+        final HashMap<ComponentKey, BitmapInfo> existingIcons = new HashMap<>();
         if (!replaceExisting) {
-            entry = mCache.get(key);
-            // We can't reuse the entry if the high-res icon is not present.
-            if (entry == null || entry.isLowResIcon || entry.icon == null) {
-                entry = null;
+            for (LauncherActivityInfo app : apps) {
+                ComponentKey key = new ComponentKey(app.getComponentName(), app.getUser());
+                synchronized (getLock(key.componentName.getPackageName(), key.user)) {
+                    CacheEntry entry = getFromMemCache(key);
+                    // We can't reuse the entry if the high-res icon is not present.
+                    if (entry != null && !entry.isLowResIcon && entry.icon != null) {
+                        existingIcons.put(key, entry);
+                    }
+                }
             }
         }
-        if (entry == null) {
-            entry = new CacheEntry();
-            LauncherIcons li = LauncherIcons.obtain(mContext);
-            li.createBadgedIconBitmap(getFullResIcon(app), app.getUser(),
-                    app.getApplicationInfo().targetSdkVersion).applyTo(entry);
-            li.recycle();
-        }
-        entry.title = app.getLabel();
-        entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, app.getUser());
-        mCache.put(key, entry);
 
-        Bitmap lowResIcon = generateLowResIcon(entry.icon);
-        ContentValues values = newContentValues(entry.icon, lowResIcon, entry.color,
-                entry.title.toString(), app.getApplicationInfo().packageName);
-        addIconToDB(values, app.getComponentName(), info, userSerial);
+        List<RenderedEntry> rendered = mRenderPool.renderAll(apps, (li, app) -> {
+            ComponentKey key = new ComponentKey(app.getComponentName(), app.getUser());
+            RenderedEntry result = new RenderedEntry(key);
+            BitmapInfo existing = existingIcons.get(key);
+            if (existing != null) {
+                result.entry.icon = existing.icon;
+                result.entry.color = existing.color;
+            } else {
+                li.createBadgedIconBitmap(getFullResIcon(app), app.getUser(),
+                        app.getApplicationInfo().targetSdkVersion, false,
+                        getNormalizationKey(app.getComponentName(),
+                                pkgInfoMap.get(app.getComponentName().getPackageName())))
+                        .applyTo(result.entry);
+            }
+            result.entry.title = app.getLabel();
+
+            // Compressing the icons is as expensive as rendering them, so do it here as well.
+            Bitmap lowResIcon = generateLowResIcon(result.entry.icon);
+            result.values = newContentValues(result.entry.icon, lowResIcon, result.entry.color,
+                    result.entry.title.toString(), app.getApplicationInfo().packageName);
+            addVersionInfo(result.values, app.getComponentName(),
+                    pkgInfoMap.get(app.getComponentName().getPackageName()), userSerial);
+            return result;
+        });
+
+        ArrayList<ContentValues> valuesList = new ArrayList<>(rendered.size());
+        for (RenderedEntry result : rendered) {
+            if (result == null) {
+                continue;
+            }
+            ComponentKey key = result.key;
+            synchronized (getLock(key.componentName.getPackageName(), key.user)) {
+                result.entry.contentDescription =
+                        mUserManager.getBadgedLabelForUser(result.entry.title, key.user);
+                putInMemCache(key, result.entry);
+            }
+            valuesList.add(result.values);
+        }
+        mIconDb.insertOrReplace(valuesList);
     }
 
     /**
@@ -400,11 +547,93 @@ public class IconCache {
      */
     private void addIconToDB(ContentValues values, ComponentName key,
             PackageInfo info, long userSerial) {
+        addVersionInfo(values, key, info, userSerial);
+        mIconDb.insertOrReplace(values);
+    }
+
+    private static void addVersionInfo(ContentValues values, ComponentName key,
+            PackageInfo info, long userSerial) {
         values.put(IconDB.COLUMN_COMPONENT, key.flattenToString());
         values.put(IconDB.COLUMN_USER, userSerial);
         values.put(IconDB.COLUMN_LAST_UPDATED, info.lastUpdateTime);
         values.put(IconDB.COLUMN_VERSION, info.versionCode);
-        mIconDb.insertOrReplace(values);
+    }
+
+    /**
+     * Renders in parallel the high-res icons of the apps which are neither in memory nor in the
+     * DB, so that the following calls to {@link #getTitleAndIcon} for these apps are served from
+     * memory instead of rendering the icons one at a time.
+     */
+    public void prepareIcons(List<LauncherActivityInfo> apps, UserHandle user) {
+        Preconditions.assertWorkerThread();
+        HashMap<String, LauncherActivityInfo> missingApps = new HashMap<>();
+        for (LauncherActivityInfo app : apps) {
+            ComponentKey key = new ComponentKey(app.getComponentName(), user);
+            synchronized (getLock(key.componentName.getPackageName(), user)) {
+                CacheEntry entry = getFromMemCache(key);
+                if (entry == null || entry.isLowResIcon) {
+                    missingApps.put(key.componentName.flattenToString(), app);
+                }
+            }
+        }
+        if (missingApps.isEmpty()) {
+            return;
+        }
+
+        // Remove the apps present in the DB, which are cheaper to load than to render.
+        String[] selectionArgs = new String[missingApps.size() + 1];
+        missingApps.keySet().toArray(selectionArgs);
+        selectionArgs[missingApps.size()] =
+                Long.toString(mUserManager.getSerialNumberForUser(user));
+        StringBuilder selection = new StringBuilder(IconDB.COLUMN_COMPONENT).append(" IN (");
+        for (int i = 0; i < missingApps.size(); i++) {
+            selection.append(i == 0 ? "?" : ", ?");
+        }
+        selection.append(") AND ").append(IconDB.COLUMN_USER).append(" = ?");
+        Cursor c = null;
+        try {
+            c = mIconDb.query(new String[]{IconDB.COLUMN_COMPONENT}, selection.toString(),
+                    selectionArgs);
+            while (c.moveToNext()) {
+                missingApps.remove(c.getString(0));
+            }
+        } catch (SQLiteException e) {
+            Log.d(TAG, "Error reading icon cache", e);
+            // Render everything, the icons would be rendered anyway when they are bound.
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+        if (missingApps.isEmpty()) {
+            return;
+        }
+
+        List<RenderedEntry> rendered = mRenderPool.renderAll(
+                new ArrayList<>(missingApps.values()), (li, app) -> {
+                    RenderedEntry result = new RenderedEntry(
+                            new ComponentKey(app.getComponentName(), user));
+                    li.createBadgedIconBitmap(getFullResIcon(app), user,
+                            app.getApplicationInfo().targetSdkVersion, false,
+                            getNormalizationKey(app.getComponentName(), null))
+                            .applyTo(result.entry);
+                    result.entry.title = app.getLabel();
+                    return result;
+                });
+        for (RenderedEntry result : rendered) {
+            if (result == null) {
+                continue;
+            }
+            ComponentKey key = result.key;
+            synchronized (getLock(key.componentName.getPackageName(), user)) {
+                CacheEntry entry = getFromMemCache(key);
+                if (entry == null || entry.isLowResIcon) {
+                    result.entry.contentDescription =
+                            mUserManager.getBadgedLabelForUser(result.entry.title, user);
+                    putInMemCache(key, result.entry);
+                }
+            }
+        }
     }
 
     /**
@@ -447,19 +676,21 @@ public class IconCache {
     /**
      * Updates {@param application} only if a valid entry is found.
      */
-    public synchronized void updateTitleAndIcon(AppInfo application) {
-        CacheEntry entry = cacheLocked(application.componentName,
-                Provider.<LauncherActivityInfo>of(null),
-                application.user, false, application.usingLowResIcon);
-        if (entry.icon != null && !isDefaultIcon(entry.icon, application.user)) {
-            applyCacheEntry(entry, application);
+    public void updateTitleAndIcon(AppInfo application) {
+        synchronized (getLock(application.componentName.getPackageName(), application.user)) {
+            CacheEntry entry = cacheLocked(application.componentName,
+                    Provider.<LauncherActivityInfo>of(null),
+                    application.user, false, application.usingLowResIcon);
+            if (entry.icon != null && !isDefaultIcon(entry.icon, application.user)) {
+                applyCacheEntry(entry, application);
+            }
         }
     }
 
     /**
      * Fill in {@param info} with the icon and label for {@param activityInfo}
      */
-    public synchronized void getTitleAndIcon(ItemInfoWithIcon info,
+    public void getTitleAndIcon(ItemInfoWithIcon info,
             LauncherActivityInfo activityInfo, boolean useLowResIcon) {
         // If we already have activity info, no need to use package icon
         getTitleAndIcon(info, Provider.of(activityInfo), false, useLowResIcon);
@@ -469,7 +700,7 @@ public class IconCache {
      * Fill in {@param info} with the icon and label. If the
      * corresponding activity is not found, it reverts to the package icon.
      */
-    public synchronized void getTitleAndIcon(ItemInfoWithIcon info, boolean useLowResIcon) {
+    public void getTitleAndIcon(ItemInfoWithIcon info, boolean useLowResIcon) {
         // null info means not installed, but if we have a component from the intent then
         // we should still look in the cache for restored app icons.
         if (info.getTargetComponent() == null) {
@@ -486,23 +717,28 @@ public class IconCache {
     /**
      * Fill in {@param shortcutInfo} with the icon and label for {@param info}
      */
-    private synchronized void getTitleAndIcon(
+    private void getTitleAndIcon(
             @NonNull ItemInfoWithIcon infoInOut,
             @NonNull Provider<LauncherActivityInfo> activityInfoProvider,
             boolean usePkgIcon, boolean useLowResIcon) {
-        CacheEntry entry = cacheLocked(infoInOut.getTargetComponent(), activityInfoProvider,
-                infoInOut.user, usePkgIcon, useLowResIcon);
-        applyCacheEntry(entry, infoInOut);
+        ComponentName cn = infoInOut.getTargetComponent();
+        synchronized (getLock(cn.getPackageName(), infoInOut.user)) {
+            CacheEntry entry = cacheLocked(cn, activityInfoProvider,
+                    infoInOut.user, usePkgIcon, useLowResIcon);
+            applyCacheEntry(entry, infoInOut);
+        }
     }
 
     /**
      * Fill in {@param infoInOut} with the corresponding icon and label.
      */
-    public synchronized void getTitleAndIconForApp(
+    public void getTitleAndIconForApp(
             PackageItemInfo infoInOut, boolean useLowResIcon) {
-        CacheEntry entry = getEntryForPackageLocked(
-                infoInOut.packageName, infoInOut.user, useLowResIcon);
-        applyCacheEntry(entry, infoInOut);
+        synchronized (getLock(infoInOut.packageName, infoInOut.user)) {
+            CacheEntry entry = getEntryForPackageLocked(
+                    infoInOut.packageName, infoInOut.user, useLowResIcon);
+            applyCacheEntry(entry, infoInOut);
+        }
     }
 
     private void applyCacheEntry(CacheEntry entry, ItemInfoWithIcon info) {
@@ -512,11 +748,13 @@ public class IconCache {
         ((entry.icon == null) ? getDefaultIcon(info.user) : entry).applyTo(info);
     }
 
-    public synchronized BitmapInfo getDefaultIcon(UserHandle user) {
-        if (!mDefaultIcons.containsKey(user)) {
-            mDefaultIcons.put(user, makeDefaultIcon(user));
+    public BitmapInfo getDefaultIcon(UserHandle user) {
+        synchronized (mDefaultIcons) {
+            if (!mDefaultIcons.containsKey(user)) {
+                mDefaultIcons.put(user, makeDefaultIcon(user));
+            }
+            return mDefaultIcons.get(user);
         }
-        return mDefaultIcons.get(user);
     }
 
     public boolean isDefaultIcon(Bitmap icon, UserHandle user) {
@@ -525,7 +763,7 @@ public class IconCache {
 
     /**
      * Retrieves the entry from the cache. If the entry is not present, it creates a new entry.
-     * This method is not thread safe, it must be called from a synchronized method.
+     * This method is not thread safe, it must be called while holding the lock for the package.
      */
     protected CacheEntry cacheLocked(
             @NonNull ComponentName componentName,
@@ -533,10 +771,9 @@ public class IconCache {
             UserHandle user, boolean usePackageIcon, boolean useLowResIcon) {
         Preconditions.assertWorkerThread();
         ComponentKey cacheKey = new ComponentKey(componentName, user);
-        CacheEntry entry = mCache.get(cacheKey);
+        CacheEntry entry = getFromMemCache(cacheKey);
         if (entry == null || (entry.isLowResIcon && !useLowResIcon)) {
             entry = new CacheEntry();
-            mCache.put(cacheKey, entry);
 
             // Check the DB first.
             LauncherActivityInfo info = null;
@@ -549,7 +786,8 @@ public class IconCache {
                 if (info != null) {
                     LauncherIcons li = LauncherIcons.obtain(mContext);
                     li.createBadgedIconBitmap(getFullResIcon(info), info.getUser(),
-                            info.getApplicationInfo().targetSdkVersion).applyTo(entry);
+                            info.getApplicationInfo().targetSdkVersion, false,
+                            getNormalizationKey(info.getComponentName(), null)).applyTo(entry);
                     li.recycle();
                 } else {
                     if (usePackageIcon) {
@@ -581,11 +819,13 @@ public class IconCache {
                     entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, user);
                 }
             }
+            // Only add the entry once it is filled, so that it is accounted in the right tier.
+            putInMemCache(cacheKey, entry);
         }
         return entry;
     }
 
-    public synchronized void clear() {
+    public void clear() {
         Preconditions.assertWorkerThread();
         mIconDb.clear();
     }
@@ -594,27 +834,28 @@ public class IconCache {
      * Adds a default package entry in the cache. This entry is not persisted and will be removed
      * when the cache is flushed.
      */
-    public synchronized void cachePackageInstallInfo(String packageName, UserHandle user,
+    public void cachePackageInstallInfo(String packageName, UserHandle user,
             Bitmap icon, CharSequence title) {
-        removeFromMemCacheLocked(packageName, user);
+        synchronized (getLock(packageName, user)) {
+            removeFromMemCacheLocked(packageName, user);
 
-        ComponentKey cacheKey = getPackageKey(packageName, user);
-        CacheEntry entry = mCache.get(cacheKey);
+            ComponentKey cacheKey = getPackageKey(packageName, user);
 
-        // For icon caching, do not go through DB. Just update the in-memory entry.
-        if (entry == null) {
-            entry = new CacheEntry();
-        }
-        if (!TextUtils.isEmpty(title)) {
-            entry.title = title;
-        }
-        if (icon != null) {
-            LauncherIcons li = LauncherIcons.obtain(mContext);
-            li.createIconBitmap(icon).applyTo(entry);
-            li.recycle();
-        }
-        if (!TextUtils.isEmpty(title) && entry.icon != null) {
-            mCache.put(cacheKey, entry);
+            // For icon caching, do not go through DB. Just update the in-memory entry.
+            CacheEntry entry = new CacheEntry();
+            if (!TextUtils.isEmpty(title)) {
+                entry.title = title;
+            }
+            if (icon != null) {
+                LauncherIcons li = LauncherIcons.obtain(mContext);
+                li.createIconBitmap(icon).applyTo(entry);
+                li.recycle();
+            }
+            if (!TextUtils.isEmpty(title) && entry.icon != null) {
+                synchronized (mPinnedCache) {
+                    mPinnedCache.put(cacheKey, entry);
+                }
+            }
         }
     }
 
@@ -625,13 +866,13 @@ public class IconCache {
 
     /**
      * Gets an entry for the package, which can be used as a fallback entry for various components.
-     * This method is not thread safe, it must be called from a synchronized method.
+     * This method is not thread safe, it must be called while holding the lock for the package.
      */
     private CacheEntry getEntryForPackageLocked(String packageName, UserHandle user,
             boolean useLowResIcon) {
         Preconditions.assertWorkerThread();
         ComponentKey cacheKey = getPackageKey(packageName, user);
-        CacheEntry entry = mCache.get(cacheKey);
+        CacheEntry entry = getFromMemCache(cacheKey);
 
         if (entry == null || (entry.isLowResIcon && !useLowResIcon)) {
             entry = new CacheEntry();
@@ -653,7 +894,8 @@ public class IconCache {
                     // only keep the low resolution icon instead of the larger full-sized icon
                     BitmapInfo iconInfo = li.createBadgedIconBitmap(
                             appInfo.loadIcon(mPackageManager), user, appInfo.targetSdkVersion,
-                            mInstantAppResolver.isInstantApp(appInfo));
+                            mInstantAppResolver.isInstantApp(appInfo),
+                            getNormalizationKey(cacheKey.componentName, info));
                     li.recycle();
 
                     Bitmap lowResIcon =  generateLowResIcon(iconInfo.icon);
@@ -678,7 +920,7 @@ public class IconCache {
 
             // Only add a filled-out entry to the cache
             if (entryUpdated) {
-                mCache.put(cacheKey, entry);
+                putInMemCache(cacheKey, entry);
             }
         }
         return entry;
@@ -718,6 +960,38 @@ public class IconCache {
         return false;
     }
 
+    public void dump(String prefix, PrintWriter writer) {
+        synchronized (mPinnedCache) {
+            writer.println(prefix + "IconCache: pinned=" + mPinnedCache.size());
+        }
+        mHighResCache.dump(prefix + "  high-res ", writer);
+        mLowResCache.dump(prefix + "  low-res ", writer);
+        mRenderPool.dump(prefix + "  ", writer);
+        mNormalizationCache.dump(prefix + "  ", writer);
+    }
+
+    /**
+     * An LRU of cache entries bounded by the byte size of their icons.
+     */
+    private static class EntryLruCache extends LruCache<ComponentKey, CacheEntry> {
+
+        EntryLruCache(int maxBytes) {
+            super(maxBytes);
+        }
+
+        @Override
+        protected int sizeOf(ComponentKey key, CacheEntry entry) {
+            // Count at least one byte so that entries without an icon are still bounded.
+            return entry.icon == null ? 1 : Math.max(1, entry.icon.getAllocationByteCount());
+        }
+
+        void dump(String prefix, PrintWriter writer) {
+            writer.println(prefix + "size=" + size() + "/" + maxSize()
+                    + " hits=" + hitCount() + " misses=" + missCount()
+                    + " evictions=" + evictionCount());
+        }
+    }
+
     public static abstract class IconLoadRequest implements Runnable {
         private final Handler mHandler;
         private final Runnable mEndRunnable;
@@ -744,8 +1018,8 @@ public class IconCache {
 
     /**
      * A runnable that updates invalid icons and adds missing icons in the DB for the provided
-     * LauncherActivityInfo list. Items are updated/added one at a time, so that the
-     * worker thread doesn't get blocked.
+     * LauncherActivityInfo list. Items are updated/added in batches rendered by
+     * {@link IconRenderPool}, so that the worker thread doesn't get blocked for long.
      */
     @Thunk class SerializedIconUpdateTask implements Runnable {
         private final long mUserSerial;
@@ -753,6 +1027,7 @@ public class IconCache {
         private final Stack<LauncherActivityInfo> mAppsToAdd;
         private final Stack<LauncherActivityInfo> mAppsToUpdate;
         private final HashSet<String> mUpdatedPackages = new HashSet<>();
+        private final ArrayList<LauncherActivityInfo> mBatch = new ArrayList<>();
 
         @Thunk SerializedIconUpdateTask(long userSerial, HashMap<String, PackageInfo> pkgInfoMap,
                 Stack<LauncherActivityInfo> appsToAdd,
@@ -765,12 +1040,15 @@ public class IconCache {
 
         @Override
         public void run() {
+            mBatch.clear();
             if (!mAppsToUpdate.isEmpty()) {
-                LauncherActivityInfo app = mAppsToUpdate.pop();
-                String pkg = app.getComponentName().getPackageName();
-                PackageInfo info = mPkgInfoMap.get(pkg);
-                addIconToDBAndMemCache(app, info, mUserSerial, true /*replace existing*/);
-                mUpdatedPackages.add(pkg);
+                while (!mAppsToUpdate.isEmpty() && mBatch.size() < IconRenderPool.BATCH_SIZE) {
+                    LauncherActivityInfo app = mAppsToUpdate.pop();
+                    mBatch.add(app);
+                    mUpdatedPackages.add(app.getComponentName().getPackageName());
+                }
+                addIconsToDBAndMemCache(mBatch, mPkgInfoMap, mUserSerial,
+                        true /*replace existing*/);
 
                 if (mAppsToUpdate.isEmpty() && !mUpdatedPackages.isEmpty()) {
                     // No more app to update. Notify model.
@@ -781,18 +1059,22 @@ public class IconCache {
                 // Let it run one more time.
                 scheduleNext();
             } else if (!mAppsToAdd.isEmpty()) {
-                LauncherActivityInfo app = mAppsToAdd.pop();
-                PackageInfo info = mPkgInfoMap.get(app.getComponentName().getPackageName());
-                // We do not check the mPkgInfoMap when generating the mAppsToAdd. Although every
-                // app should have package info, this is not guaranteed by the api
-                if (info != null) {
-                    addIconToDBAndMemCache(app, info, mUserSerial, false /*replace existing*/);
+                while (!mAppsToAdd.isEmpty() && mBatch.size() < IconRenderPool.BATCH_SIZE) {
+                    LauncherActivityInfo app = mAppsToAdd.pop();
+                    // We do not check the mPkgInfoMap when generating the mAppsToAdd. Although
+                    // every app should have package info, this is not guaranteed by the api
+                    if (mPkgInfoMap.containsKey(app.getComponentName().getPackageName())) {
+                        mBatch.add(app);
+                    }
                 }
+                addIconsToDBAndMemCache(mBatch, mPkgInfoMap, mUserSerial,
+                        false /*replace existing*/);
 
                 if (!mAppsToAdd.isEmpty()) {
                     scheduleNext();
                 }
             }
+            mBatch.clear();
         }
 
         public void scheduleNext() {
@@ -800,6 +1082,19 @@ public class IconCache {
         }
     }
 
+    /**
+     * An entry rendered by {@link IconRenderPool}, along with its DB row if needed.
+     */
+    private static class RenderedEntry {
+        final ComponentKey key;
+        final CacheEntry entry = new CacheEntry();
+        ContentValues values;
+
+        RenderedEntry(ComponentKey key) {
+            this.key = key;
+        }
+    }
+
     private static final class IconDB extends SQLiteCacheHelper {
         private final static int RELEASE_VERSION = 22;
 
@@ -45,7 +45,9 @@ import com.android.launcher3.graphics.LauncherIcons;
 import com.android.launcher3.shortcuts.DeepShortcutManager;
 import com.android.launcher3.shortcuts.ShortcutInfoCompat;
 import com.android.launcher3.shortcuts.ShortcutKey;
+import com.android.launcher3.util.JournaledStringSet;
 import com.android.launcher3.util.PackageManagerHelper;
+import com.android.launcher3.util.PackageUserKey;
 import com.android.launcher3.util.Preconditions;
 import com.android.launcher3.util.Provider;
 import com.android.launcher3.util.Thunk;
@@ -54,11 +56,12 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.File;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -93,8 +96,12 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
     private static final String APP_WIDGET_TYPE_KEY = "isAppWidget";
     private static final String USER_HANDLE_KEY = "userHandle";
 
-    // The set of shortcuts that are pending install
+    // The set of shortcuts that were pending install, before they were moved to the queue file
     private static final String APPS_PENDING_INSTALL = "apps_to_install";
+    // The file of the shortcuts that are pending install
+    private static final String INSTALL_QUEUE_FILE = "apps_to_install";
+
+    private static JournaledStringSet sInstallQueue;
 
     public static final int NEW_SHORTCUT_BOUNCE_DURATION = 450;
     public static final int NEW_SHORTCUT_STAGGER_DELAY = 85;
@@ -108,11 +115,9 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
                     Pair<Context, PendingInstallShortcutInfo> pair =
                             (Pair<Context, PendingInstallShortcutInfo>) msg.obj;
                     String encoded = pair.second.encodeToString();
-                    SharedPreferences prefs = Utilities.getPrefs(pair.first);
-                    Set<String> strings = prefs.getStringSet(APPS_PENDING_INSTALL, null);
-                    strings = (strings != null) ? new HashSet<>(strings) : new HashSet<String>(1);
-                    strings.add(encoded);
-                    prefs.edit().putStringSet(APPS_PENDING_INSTALL, strings).apply();
+                    if (encoded != null) {
+                        getInstallQueue(pair.first).add(encoded);
+                    }
                     return;
                 }
                 case MSG_FLUSH_QUEUE: {
@@ -124,14 +129,16 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
                     }
 
                     ArrayList<Pair<ItemInfo, Object>> installQueue = new ArrayList<>();
-                    SharedPreferences prefs = Utilities.getPrefs(context);
-                    Set<String> strings = prefs.getStringSet(APPS_PENDING_INSTALL, null);
+                    JournaledStringSet queue = getInstallQueue(context);
+                    List<String> strings = queue.getAll();
                     if (DBG) Log.d(TAG, "Getting and clearing APPS_PENDING_INSTALL: " + strings);
-                    if (strings == null) {
+                    if (strings.isEmpty()) {
                         return;
                     }
 
                     LauncherAppsCompat launcherApps = LauncherAppsCompat.getInstance(context);
+                    // Shortcuts are usually queued in bursts by the same package
+                    HashMap<PackageUserKey, Boolean> packageEnabled = new HashMap<>();
                     for (String encoded : strings) {
                         PendingInstallShortcutInfo info = decode(encoded, context);
                         if (info == null) {
@@ -139,17 +146,24 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
                         }
 
                         String pkg = getIntentPackage(info.launchIntent);
-                        if (!TextUtils.isEmpty(pkg)
-                                && !launcherApps.isPackageEnabledForProfile(pkg, info.user)) {
-                            if (DBG) Log.d(TAG, "Ignoring shortcut for absent package: "
-                                    + info.launchIntent);
-                            continue;
+                        if (!TextUtils.isEmpty(pkg)) {
+                            PackageUserKey key = new PackageUserKey(pkg, info.user);
+                            Boolean enabled = packageEnabled.get(key);
+                            if (enabled == null) {
+                                enabled = launcherApps.isPackageEnabledForProfile(pkg, info.user);
+                                packageEnabled.put(key, enabled);
+                            }
+                            if (!enabled) {
+                                if (DBG) Log.d(TAG, "Ignoring shortcut for absent package: "
+                                        + info.launchIntent);
+                                continue;
+                            }
                         }
 
                         // Generate a shortcut info to add into the model
                         installQueue.add(info.getItemInfo());
                     }
-                    prefs.edit().remove(APPS_PENDING_INSTALL).apply();
+                    queue.clear();
                     if (!installQueue.isEmpty()) {
                         model.addAndBindAddedWorkspaceItems(installQueue);
                     }
@@ -166,31 +180,52 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
         }
         Preconditions.assertWorkerThread();
 
-        SharedPreferences sp = Utilities.getPrefs(context);
-        Set<String> strings = sp.getStringSet(APPS_PENDING_INSTALL, null);
+        JournaledStringSet queue = getInstallQueue(context);
+        List<String> strings = queue.getAll();
         if (DBG) {
             Log.d(TAG, "APPS_PENDING_INSTALL: " + strings
                     + ", removing packages: " + packageNames);
         }
-        if (Utilities.isEmpty(strings)) {
+        if (strings.isEmpty()) {
             return;
         }
-        Set<String> newStrings = new HashSet<>(strings);
-        Iterator<String> newStringsIter = newStrings.iterator();
-        while (newStringsIter.hasNext()) {
-            String encoded = newStringsIter.next();
+        ArrayList<String> removed = new ArrayList<>();
+        for (String encoded : strings) {
             try {
                 Decoder decoder = new Decoder(encoded, context);
                 if (packageNames.contains(getIntentPackage(decoder.launcherIntent)) &&
                         user.equals(decoder.user)) {
-                    newStringsIter.remove();
+                    removed.add(encoded);
                 }
             } catch (JSONException | URISyntaxException e) {
                 Log.d(TAG, "Exception reading shortcut to add: " + e);
-                newStringsIter.remove();
+                removed.add(encoded);
+            }
+        }
+        // Rewrites the queue once for all the removed entries
+        queue.removeAll(removed);
+    }
+
+    /**
+     * Returns the persisted queue of shortcuts pending install. Shortcuts queued by older
+     * versions in the shared preferences are moved to it on first use.
+     */
+    private static synchronized JournaledStringSet getInstallQueue(Context context) {
+        if (sInstallQueue == null) {
+            context = context.getApplicationContext();
+            sInstallQueue = new JournaledStringSet(
+                    new File(context.getFilesDir(), INSTALL_QUEUE_FILE));
+
+            SharedPreferences prefs = Utilities.getPrefs(context);
+            Set<String> strings = prefs.getStringSet(APPS_PENDING_INSTALL, null);
+            if (strings != null) {
+                for (String encoded : strings) {
+                    sInstallQueue.add(encoded);
+                }
+                prefs.edit().remove(APPS_PENDING_INSTALL).apply();
             }
         }
-        sp.edit().putStringSet(APPS_PENDING_INSTALL, newStrings).apply();
+        return sInstallQueue;
     }
 
     public void onReceive(Context context, Intent data) {
@@ -267,12 +302,7 @@ public class InstallShortcutReceiver extends BroadcastReceiver {
     public static HashSet<ShortcutKey> getPendingShortcuts(Context context) {
         HashSet<ShortcutKey> result = new HashSet<>();
 
-        Set<String> strings = Utilities.getPrefs(context).getStringSet(APPS_PENDING_INSTALL, null);
-        if (Utilities.isEmpty(strings)) {
-            return result;
-        }
-
-        for (String encoded : strings) {
+        for (String encoded : getInstallQueue(context).getAll()) {
             try {
                 Decoder decoder = new Decoder(encoded, context);
                 if (decoder.optBoolean(DEEPSHORTCUT_TYPE_KEY)) {
@@ -74,7 +74,6 @@ import android.view.animation.OvershootInterpolator;
 import android.widget.Toast;
 
 import com.android.launcher3.DropTarget.DragObject;
-import com.android.launcher3.Workspace.ItemOperator;
 import com.android.launcher3.accessibility.LauncherAccessibilityDelegate;
 import com.android.launcher3.allapps.AllAppsContainerView;
 import com.android.launcher3.allapps.AllAppsTransitionController;
@@ -93,6 +92,7 @@ import com.android.launcher3.keyboard.CustomActionsPopup;
 import com.android.launcher3.keyboard.ViewGroupFocusHelper;
 import com.android.launcher3.logging.FileLog;
 import com.android.launcher3.logging.UserEventDispatcher;
+import com.android.launcher3.logging.UserEventLog;
 import com.android.launcher3.logging.UserEventDispatcher.UserEventDelegate;
 import com.android.launcher3.model.ModelWriter;
 import com.android.launcher3.notification.NotificationListener;
@@ -136,6 +136,7 @@ import com.android.launcher3.widget.custom.CustomWidgetParser;
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
@@ -817,6 +818,7 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
         super.onPause();
         mDragController.cancelDrag();
         mDragController.resetLastGestureUpTime();
+        mModelWriter.flush();
 
         if (mLauncherCallbacks != null) {
             mLauncherCallbacks.onPause();
@@ -1070,12 +1072,8 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
     }
 
     public FolderIcon findFolderIcon(final long folderIconId) {
-        return (FolderIcon) mWorkspace.getFirstMatch(new ItemOperator() {
-            @Override
-            public boolean evaluate(ItemInfo info, View view) {
-                return info != null && info.id == folderIconId;
-            }
-        });
+        View view = mWorkspace.getHomescreenIconByItemId(folderIconId);
+        return view instanceof FolderIcon ? (FolderIcon) view : null;
     }
 
     /**
@@ -2195,6 +2193,10 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
         InstallShortcutReceiver.disableAndFlushInstallQueue(
                 InstallShortcutReceiver.FLAG_LOADER_RUNNING, this);
 
+        if (FeatureFlags.IS_DOGFOOD_BUILD) {
+            mWorkspace.verifyItemViews();
+        }
+
         TraceHelper.endSection("finishBindingItems");
     }
 
@@ -2231,6 +2233,7 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
     @Override
     public void bindDeepShortcutMap(MultiHashMap<ComponentKey, String> deepShortcutMapCopy) {
         mPopupDataProvider.setDeepShortcutMap(deepShortcutMapCopy);
+        mWorkspace.prefetchPopupShortcuts();
     }
 
     /**
@@ -2312,7 +2315,7 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
     }
 
     /**
-     * $ adb shell dumpsys activity com.android.launcher3.Launcher [--all]
+     * $ adb shell dumpsys activity com.android.launcher3.Launcher [--all] [--user-events]
      */
     @Override
     public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
@@ -2355,7 +2358,16 @@ public class Launcher extends BaseDraggingActivity implements LauncherExterns,
             // Ignore
         }
 
+        UserEventLog userEventLog = UserEventLog.getInstance();
+        if (userEventLog != null) {
+            userEventLog.dump(prefix, writer);
+            if (Arrays.asList(args).contains("--user-events")) {
+                userEventLog.export(writer);
+            }
+        }
+
         mModel.dumpState(prefix, fd, writer, args);
+        mPopupDataProvider.dump(prefix, writer);
 
         if (mLauncherCallbacks != null) {
             mLauncherCallbacks.dump(prefix, fd, writer, args);
@@ -3,13 +3,22 @@ package com.android.launcher3;
 import android.app.backup.BackupAgent;
 import android.app.backup.BackupDataInput;
 import android.app.backup.BackupDataOutput;
+import android.app.backup.FullBackupDataOutput;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
 import android.os.ParcelFileDescriptor;
 
 import com.android.launcher3.logging.FileLog;
 import com.android.launcher3.provider.RestoreDbTask;
 
+import java.io.File;
+import java.io.IOException;
+
 public class LauncherBackupAgent extends BackupAgent {
 
+    private static final String TAG = "LauncherBackupAgent";
+
     @Override
     public void onCreate() {
         super.onCreate();
@@ -29,6 +38,30 @@ public class LauncherBackupAgent extends BackupAgent {
         // Doesn't do incremental backup/restore
     }
 
+    @Override
+    public void onFullBackup(FullBackupDataOutput data) throws IOException {
+        checkpointLauncherDb();
+        super.onFullBackup(data);
+    }
+
+    /**
+     * Moves the changes pending in the write-ahead log to the DB file, which is the only one
+     * backed up.
+     */
+    private void checkpointLauncherDb() {
+        File dbFile = getDatabasePath(LauncherFiles.LAUNCHER_DB);
+        if (!dbFile.exists()) {
+            return;
+        }
+        try (SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE | SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING);
+             Cursor c = db.rawQuery("PRAGMA wal_checkpoint(FULL)", null)) {
+            c.moveToNext();
+        } catch (SQLException e) {
+            FileLog.e(TAG, "Unable to checkpoint the launcher DB", e);
+        }
+    }
+
     @Override
     public void onRestoreFinished() {
         RestoreDbTask.setPending(this, true);
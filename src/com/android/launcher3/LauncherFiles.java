@@ -22,6 +22,8 @@ public class LauncherFiles {
 
     public static final String WIDGET_PREVIEWS_DB = "widgetpreviews.db";
     public static final String APP_ICONS_DB = "app_icons.db";
+    public static final String ICON_NORMALIZATION_DB = "icon_normalization.db";
+    public static final String SHORTCUT_ICONS_DB = "shortcut_icons.db";
 
     public static final List<String> ALL_FILES = Collections.unmodifiableList(Arrays.asList(
             LAUNCHER_DB,
@@ -29,5 +31,7 @@ public class LauncherFiles {
             WIDGET_PREVIEWS_DB,
             MANAGED_USER_PREFERENCES_KEY + XML,
             DEVICE_PREFERENCES_KEY + XML,
-            APP_ICONS_DB));
+            APP_ICONS_DB,
+            ICON_NORMALIZATION_DB,
+            SHORTCUT_ICONS_DB));
 }
@@ -51,6 +51,7 @@ import com.android.launcher3.model.PackageInstallStateChangedTask;
 import com.android.launcher3.model.PackageUpdatedTask;
 import com.android.launcher3.model.ShortcutsChangedTask;
 import com.android.launcher3.model.UserLockStateChangedTask;
+import com.android.launcher3.model.WidgetItem;
 import com.android.launcher3.provider.LauncherDbUtils;
 import com.android.launcher3.shortcuts.DeepShortcutManager;
 import com.android.launcher3.shortcuts.ShortcutInfoCompat;
@@ -416,6 +417,7 @@ public class LauncherModel extends BroadcastReceiver
         final String action = intent.getAction();
         if (Intent.ACTION_LOCALE_CHANGED.equals(action)) {
             // If we have changed locale we need to clear out the labels in all apps/workspace.
+            WidgetItem.onLocaleChanged();
             forceReload();
         } else if (Intent.ACTION_MANAGED_PROFILE_ADDED.equals(action)
                 || Intent.ACTION_MANAGED_PROFILE_REMOVED.equals(action)) {
@@ -632,7 +634,11 @@ public class LauncherModel extends BroadcastReceiver
 
     public void enqueueModelUpdateTask(ModelUpdateTask task) {
         task.init(mApp, this, sBgDataModel, mBgAllAppsList, mUiExecutor);
-        runOnWorkerThread(task);
+        runOnWorkerThread(() -> {
+            // The task may read the items from the database, commit the pending updates first
+            ModelWriter.commitPendingUpdates(mApp.getContext());
+            task.run();
+        });
     }
 
     /**
@@ -704,6 +710,9 @@ public class LauncherModel extends BroadcastReceiver
             }
         }
         sBgDataModel.dump(prefix, fd, writer, args);
+        mApp.getIconCache().dump(prefix, writer);
+        mApp.getWidgetCache().dump(prefix, writer);
+        ModelWriter.dump(prefix, writer);
     }
 
     public Callbacks getCallback() {
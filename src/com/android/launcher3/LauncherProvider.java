@@ -32,6 +32,7 @@ import android.content.SharedPreferences;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
@@ -67,7 +68,9 @@ import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 
@@ -80,7 +83,10 @@ public class LauncherProvider extends ContentProvider {
     /**
      * Represents the schema of the database. Changes in scheme need not be backwards compatible.
      */
-    public static final int SCHEMA_VERSION = 27;
+    public static final int SCHEMA_VERSION = 28;
+
+    // Maximum number of compiled statements kept for updating single items.
+    private static final int MAX_UPDATE_STATEMENTS = 16;
 
     public static final String AUTHORITY = FeatureFlags.AUTHORITY;
 
@@ -344,8 +350,14 @@ public class LauncherProvider extends ContentProvider {
         SqlArguments args = new SqlArguments(uri, selection, selectionArgs);
 
         addModifiedTime(values);
-        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        int count = db.update(args.table, values, args.where, args.args);
+        int count;
+        if (uri.getPathSegments().size() == 2) {
+            // Single item update, as sent by the model when items are moved around.
+            count = mOpenHelper.updateItem(args.table, ContentUris.parseId(uri), values);
+        } else {
+            SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            count = db.update(args.table, values, args.where, args.args);
+        }
         if (count > 0) notifyListeners();
 
         reloadLauncherIfExternal();
@@ -436,7 +448,11 @@ public class LauncherProvider extends ContentProvider {
      * Overridden in tests
      */
     protected void notifyListeners() {
-        mListenerHandler.sendEmptyMessage(ChangeListenerWrapper.MSG_LAUNCHER_PROVIDER_CHANGED);
+        // Changes made before the listener runs, like the operations of a batch, are coalesced.
+        if (!mListenerHandler.hasMessages(ChangeListenerWrapper.MSG_LAUNCHER_PROVIDER_CHANGED)) {
+            mListenerHandler.sendEmptyMessage(
+                    ChangeListenerWrapper.MSG_LAUNCHER_PROVIDER_CHANGED);
+        }
     }
 
     @Thunk static void addModifiedTime(ContentValues values) {
@@ -568,6 +584,9 @@ public class LauncherProvider extends ContentProvider {
         private long mMaxItemId = -1;
         private long mMaxScreenId = -1;
 
+        // Compiled statements of updateItem, keyed by the table and updated columns.
+        private final HashMap<String, SQLiteStatement> mUpdateStatements = new HashMap<>();
+
         DatabaseHelper(Context context, Handler widgetHostResetHandler) {
             this(context, widgetHostResetHandler, LauncherFiles.LAUNCHER_DB);
             // Table creation sometimes fails silently, which leads to a crash loop.
@@ -578,6 +597,7 @@ public class LauncherProvider extends ContentProvider {
                 // This operation is a no-op if the table already exists.
                 addFavoritesTable(getWritableDatabase(), true);
                 addWorkspacesTable(getWritableDatabase(), true);
+                Favorites.addIndexesToDb(getWritableDatabase());
             }
 
             initIds();
@@ -591,6 +611,8 @@ public class LauncherProvider extends ContentProvider {
             super(context, tableName, SCHEMA_VERSION);
             mContext = context;
             mWidgetHostResetHandler = widgetHostResetHandler;
+            // Lets reads from binder and backup threads run while the worker thread is writing.
+            setWriteAheadLoggingEnabled(true);
         }
 
         protected void initIds() {
@@ -625,6 +647,7 @@ public class LauncherProvider extends ContentProvider {
 
             addFavoritesTable(db, false);
             addWorkspacesTable(db, false);
+            Favorites.addIndexesToDb(db);
 
             // Fresh and clean launcher DB.
             mMaxItemId = initializeMaxItemId(db);
@@ -817,6 +840,10 @@ public class LauncherProvider extends ContentProvider {
                         break;
                     }
                 case 27:
+                    if (!addFavoritesIndexes(db)) {
+                        break;
+                    }
+                case 28:
                     // DB Upgraded successfully
                     return;
             }
@@ -843,6 +870,7 @@ public class LauncherProvider extends ContentProvider {
          * 清除所有数据以重新开始。
          */
         public void createEmptyDB(SQLiteDatabase db) {
+            clearUpdateStatements();
             try (SQLiteTransaction t = new SQLiteTransaction(db)) {
                 db.execSQL("DROP TABLE IF EXISTS " + Favorites.TABLE_NAME);
                 db.execSQL("DROP TABLE IF EXISTS " + WorkspaceScreens.TABLE_NAME);
@@ -999,6 +1027,69 @@ public class LauncherProvider extends ContentProvider {
             return true;
         }
 
+        private boolean addFavoritesIndexes(SQLiteDatabase db) {
+            try (SQLiteTransaction t = new SQLiteTransaction(db)) {
+                Favorites.addIndexesToDb(db);
+                t.commit();
+            } catch (SQLException ex) {
+                Log.e(TAG, ex.getMessage(), ex);
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Updates the item with the id {@param id} in {@param table}, using a compiled statement
+         * cached for the set of columns being updated, as items are usually updated with the same
+         * columns (eg: when moved around).
+         *
+         * @return the number of rows updated
+         */
+        public int updateItem(String table, long id, ContentValues values) {
+            String[] columns = values.keySet().toArray(new String[values.size()]);
+            Arrays.sort(columns);
+            String key = table + ":" + TextUtils.join(",", columns);
+
+            synchronized (mUpdateStatements) {
+                SQLiteStatement stmt = mUpdateStatements.get(key);
+                if (stmt == null) {
+                    if (mUpdateStatements.size() >= MAX_UPDATE_STATEMENTS) {
+                        clearUpdateStatements();
+                    }
+                    StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+                    for (int i = 0; i < columns.length; i++) {
+                        sql.append(i > 0 ? "," : "").append(columns[i]).append("=?");
+                    }
+                    sql.append(" WHERE ").append(LauncherSettings.BaseLauncherColumns._ID)
+                            .append("=?");
+                    stmt = getWritableDatabase().compileStatement(sql.toString());
+                    mUpdateStatements.put(key, stmt);
+                }
+
+                stmt.clearBindings();
+                for (int i = 0; i < columns.length; i++) {
+                    DatabaseUtils.bindObjectToProgram(stmt, i + 1, values.get(columns[i]));
+                }
+                stmt.bindLong(columns.length + 1, id);
+                return stmt.executeUpdateDelete();
+            }
+        }
+
+        private void clearUpdateStatements() {
+            synchronized (mUpdateStatements) {
+                for (SQLiteStatement stmt : mUpdateStatements.values()) {
+                    stmt.close();
+                }
+                mUpdateStatements.clear();
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            clearUpdateStatements();
+            super.close();
+        }
+
         private boolean addProfileColumn(SQLiteDatabase db) {
             return addIntegerColumn(db, Favorites.PROFILE_ID, getDefaultUserSerial());
         }
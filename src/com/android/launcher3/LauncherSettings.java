@@ -115,6 +115,9 @@ public class LauncherSettings {
 
         public static final String TABLE_NAME = "favorites";
 
+        public static final String INDEX_CONTAINER = "favorites_container";
+        public static final String INDEX_ITEM_TYPE = "favorites_item_type";
+
         /**
          * The content:// style URL for this table
          */
@@ -282,6 +285,18 @@ public class LauncherSettings {
                     "options INTEGER NOT NULL DEFAULT 0" +
                     ");");
         }
+
+        /**
+         * Adds the indexes used to look up items by container and screen, and by type (as for
+         * folders and widgets). As _id is the rowid, both are covering for the queries returning
+         * only ids.
+         */
+        public static void addIndexesToDb(SQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_CONTAINER + " ON " + TABLE_NAME
+                    + " (" + CONTAINER + ", " + SCREEN + ");");
+            db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_ITEM_TYPE + " ON " + TABLE_NAME
+                    + " (" + ITEM_TYPE + ", " + APPWIDGET_ID + ");");
+        }
     }
 
     /**
@@ -20,6 +20,7 @@ import android.content.Context;
 
 import com.android.launcher3.graphics.IconShapeOverride;
 import com.android.launcher3.logging.FileLog;
+import com.android.launcher3.logging.UserEventLog;
 
 /**
  * Utility class to handle one time initializations of the main process
@@ -34,6 +35,7 @@ public class MainProcessInitializer {
 
     protected void init(Context context) {
         FileLog.setDir(context.getApplicationContext().getFilesDir());
+        UserEventLog.setDir(context.getApplicationContext().getFilesDir());
         IconShapeOverride.apply(context);
         SessionCommitReceiver.applyDefaultUserPrefs(context);
     }
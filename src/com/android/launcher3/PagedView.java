@@ -1342,7 +1342,7 @@ public abstract class PagedView<T extends View & PageIndicator> extends ViewGrou
         return getPageNearestToCenterOfScreen(getScrollX());
     }
 
-    private int getPageNearestToCenterOfScreen(int scaledScrollX) {
+    protected int getPageNearestToCenterOfScreen(int scaledScrollX) {
         int screenCenter = scaledScrollX + (getMeasuredWidth() / 2);
         int minDistanceFromScreenCenter = Integer.MAX_VALUE;
         int minDistanceFromScreenCenterIndex = -1;
@@ -64,6 +64,24 @@ public class ShortcutAndWidgetContainer extends ViewGroup {
         mCountX = countX;
     }
 
+    @Override
+    public void onViewAdded(View child) {
+        super.onViewAdded(child);
+        Workspace workspace = mLauncher.getWorkspace();
+        if (workspace != null) {
+            workspace.onItemViewAdded(child, mContainerType != CellLayout.FOLDER);
+        }
+    }
+
+    @Override
+    public void onViewRemoved(View child) {
+        super.onViewRemoved(child);
+        Workspace workspace = mLauncher.getWorkspace();
+        if (workspace != null) {
+            workspace.onItemViewRemoved(child, mContainerType != CellLayout.FOLDER);
+        }
+    }
+
     public View getChildAt(int x, int y) {
         final int count = getChildCount();
         for (int i = 0; i < count; i++) {
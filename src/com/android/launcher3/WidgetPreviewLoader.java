@@ -1,5 +1,6 @@
 package com.android.launcher3;
 
+import android.app.ActivityManager;
 import android.content.ComponentName;
 import android.content.ContentValues;
 import android.content.Context;
@@ -21,17 +22,19 @@ import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
 import android.os.CancellationSignal;
 import android.os.Handler;
+import android.os.Process;
 import android.os.UserHandle;
 import android.support.annotation.Nullable;
 import android.util.Log;
 import android.util.LongSparseArray;
+import android.util.LruCache;
 
 import com.android.launcher3.compat.AppWidgetManagerCompat;
 import com.android.launcher3.compat.ShortcutConfigActivityInfo;
 import com.android.launcher3.compat.UserManagerCompat;
+import com.android.launcher3.graphics.BitmapPool;
 import com.android.launcher3.graphics.LauncherIcons;
 import com.android.launcher3.graphics.ShadowGenerator;
 import com.android.launcher3.model.WidgetItem;
@@ -42,30 +45,49 @@ import com.android.launcher3.util.SQLiteCacheHelper;
 import com.android.launcher3.util.Thunk;
 import com.android.launcher3.widget.WidgetCell;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Set;
-import java.util.WeakHashMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class WidgetPreviewLoader {
 
     private static final String TAG = "WidgetPreviewLoader";
     private static final boolean DEBUG = false;
 
+    // Fractions of the memory class used for the loaded previews and for the unused bitmaps.
+    private static final int PREVIEW_MEMORY_DIVIDER = 16;
+    private static final int POOL_MEMORY_DIVIDER = 32;
+
+    private static final int LOADER_THREAD_COUNT = 2;
+    private static final int LOADER_KEEP_ALIVE_SECONDS = 1;
+
     private final HashMap<String, long[]> mPackageVersions = new HashMap<>();
 
     /**
-     * Weak reference objects, do not prevent their referents from being made finalizable,
-     * finalized, and then reclaimed.
-     * Note: synchronized block used for this variable is expensive and the block should always
-     * be posted to a background thread.
+     * Guards the memory cache, the reference counts of its entries and the stats below.
      */
-    @Thunk final Set<Bitmap> mUnusedBitmaps =
-            Collections.newSetFromMap(new WeakHashMap<Bitmap, Boolean>());
+    @Thunk final Object mLock = new Object();
+    @Thunk final PreviewLruCache mMemoryCache;
+    @Thunk final BitmapPool mBitmapPool;
+
+    // Previews being loaded, only accessed on the UI thread.
+    @Thunk final HashMap<WidgetCacheKey, PreviewLoadTask> mInFlightTasks = new HashMap<>();
+    @Thunk final ThreadPoolExecutor mLoaderExecutor;
+    private int mTaskSequence;
+
+    // Stats, guarded by mLock
+    private int mRequestCount;
+    private int mMemoryHitCount;
+    private int mCoalescedCount;
+    private int mCancelledCount;
+    @Thunk int mDecodeCount;
+    @Thunk int mGenerateCount;
 
     private final Context mContext;
     private final IconCache mIconCache;
@@ -73,7 +95,7 @@ public class WidgetPreviewLoader {
     private final AppWidgetManagerCompat mWidgetManager;
     private final CacheDb mDb;
 
-    private final MainThreadExecutor mMainThreadExecutor = new MainThreadExecutor();
+    @Thunk final MainThreadExecutor mMainThreadExecutor = new MainThreadExecutor();
     @Thunk final Handler mWorkerHandler;
 
     public WidgetPreviewLoader(Context context, IconCache iconCache) {
@@ -83,27 +105,97 @@ public class WidgetPreviewLoader {
         mUserManager = UserManagerCompat.getInstance(context);
         mDb = new CacheDb(context);
         mWorkerHandler = new Handler(LauncherModel.getWorkerLooper());
+
+        int memoryBytes = ((ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE))
+                .getMemoryClass() * 1024 * 1024;
+        mMemoryCache = new PreviewLruCache(memoryBytes / PREVIEW_MEMORY_DIVIDER);
+        mBitmapPool = new BitmapPool(memoryBytes / POOL_MEMORY_DIVIDER);
+
+        // Tasks are ordered by PreviewLoadTask#compareTo, so that the latest request runs first.
+        mLoaderExecutor = new ThreadPoolExecutor(LOADER_THREAD_COUNT, LOADER_THREAD_COUNT,
+                LOADER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>());
+        mLoaderExecutor.allowCoreThreadTimeOut(true);
     }
 
     /**
-     * Generates the widget preview on {@link AsyncTask#THREAD_POOL_EXECUTOR}. Must be
+     * Loads the widget preview, from memory if possible, otherwise from the DB or by generating
+     * it on a background thread. Requests for the same preview share a single load. Must be
      * called on UI thread
      *
      * @return a request id which can be used to cancel the request.
      */
     public CancellationSignal getPreview(WidgetItem item, int previewWidth,
             int previewHeight, WidgetCell caller) {
+        Preconditions.assertUIThread();
         String size = previewWidth + "x" + previewHeight;
         WidgetCacheKey key = new WidgetCacheKey(item.componentName, item.user, size);
 
-        PreviewLoadTask task = new PreviewLoadTask(key, item, previewWidth, previewHeight, caller);
-        task.executeOnExecutor(Utilities.THREAD_POOL_EXECUTOR);
-
         CancellationSignal signal = new CancellationSignal();
-        signal.setOnCancelListener(task);
+        PreviewEntry entry;
+        synchronized (mLock) {
+            mRequestCount++;
+            entry = mMemoryCache.get(key);
+            if (entry != null) {
+                mMemoryHitCount++;
+                entry.refCount++;
+            }
+        }
+        if (entry != null) {
+            PreviewRequest request = new PreviewRequest(null, caller);
+            request.mEntry = entry;
+            signal.setOnCancelListener(request);
+            caller.applyPreview(entry.bitmap);
+            return signal;
+        }
+
+        PreviewLoadTask task = mInFlightTasks.get(key);
+        if (task == null) {
+            task = new PreviewLoadTask(key, item, previewWidth, previewHeight, caller);
+            task.mSequence = ++mTaskSequence;
+            mInFlightTasks.put(key, task);
+            mLoaderExecutor.execute(task);
+        } else {
+            synchronized (mLock) {
+                mCoalescedCount++;
+            }
+            // The preview was requested again, move it to the front of the queue if it is
+            // still waiting there.
+            if (mLoaderExecutor.remove(task)) {
+                task.mSequence = ++mTaskSequence;
+                mLoaderExecutor.execute(task);
+            }
+        }
+        PreviewRequest request = new PreviewRequest(task, caller);
+        task.mRequests.add(request);
+        signal.setOnCancelListener(request);
         return signal;
     }
 
+    /**
+     * Drops a reference to a preview. The bitmap is reused once it is neither referenced nor
+     * in the memory cache.
+     */
+    @Thunk void releaseEntry(PreviewEntry entry) {
+        synchronized (mLock) {
+            entry.refCount--;
+            if (entry.refCount == 0 && !entry.cached) {
+                mBitmapPool.recycle(entry.bitmap, entry.poolWidth, entry.poolHeight);
+            }
+        }
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        synchronized (mLock) {
+            writer.println(prefix + "WidgetPreviewLoader: requests=" + mRequestCount
+                    + " memoryHits=" + mMemoryHitCount + " coalesced=" + mCoalescedCount
+                    + " cancelled=" + mCancelledCount + " decoded=" + mDecodeCount
+                    + " generated=" + mGenerateCount);
+            writer.println(prefix + "  memory cache: bytes=" + mMemoryCache.size() + "/"
+                    + mMemoryCache.maxSize() + " evictions=" + mMemoryCache.evictionCount());
+        }
+        mBitmapPool.dump(prefix + "  ", writer);
+    }
+
     /**
      * The DB holds the generated previews for various components. Previews can also have different
      * sizes (landscape vs portrait).
@@ -159,6 +251,14 @@ public class WidgetPreviewLoader {
         synchronized(mPackageVersions) {
             mPackageVersions.remove(packageName);
         }
+        synchronized (mLock) {
+            for (WidgetCacheKey key : mMemoryCache.snapshot().keySet()) {
+                if (key.componentName.getPackageName().equals(packageName)
+                        && key.user.equals(user)) {
+                    mMemoryCache.remove(key);
+                }
+            }
+        }
 
         mDb.delete(
                 CacheDb.COLUMN_PACKAGE + " = ? AND " + CacheDb.COLUMN_USER + " = ?",
@@ -268,6 +368,8 @@ public class WidgetPreviewLoader {
                 byte[] blob = cursor.getBlob(0);
                 BitmapFactory.Options opts = new BitmapFactory.Options();
                 opts.inBitmap = recycle;
+                // Keep the result mutable, so that it can be reused once evicted.
+                opts.inMutable = true;
                 try {
                     if (!loadTask.isCancelled()) {
                         return BitmapFactory.decodeByteArray(blob, 0, blob.length, opts);
@@ -523,16 +625,93 @@ public class WidgetPreviewLoader {
         }
     }
 
-    public class PreviewLoadTask extends AsyncTask<Void, Void, Bitmap>
-            implements CancellationSignal.OnCancelListener {
+    /**
+     * A decoded preview, shared by all the views showing it.
+     */
+    @Thunk static class PreviewEntry {
+        final Bitmap bitmap;
+        // The size the bitmap was obtained with from the pool
+        final int poolWidth;
+        final int poolHeight;
+
+        // Guarded by mLock
+        int refCount;
+        boolean cached = true;
+
+        PreviewEntry(Bitmap bitmap, int poolWidth, int poolHeight) {
+            this.bitmap = bitmap;
+            this.poolWidth = poolWidth;
+            this.poolHeight = poolHeight;
+        }
+    }
+
+    /**
+     * An LRU of previews bounded by the byte size of their bitmaps.
+     */
+    private class PreviewLruCache extends LruCache<WidgetCacheKey, PreviewEntry> {
+
+        PreviewLruCache(int maxBytes) {
+            super(maxBytes);
+        }
+
+        @Override
+        protected int sizeOf(WidgetCacheKey key, PreviewEntry entry) {
+            return Math.max(1, entry.bitmap.getAllocationByteCount());
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, WidgetCacheKey key, PreviewEntry oldValue,
+                PreviewEntry newValue) {
+            // Always called with mLock held.
+            oldValue.cached = false;
+            if (oldValue.refCount == 0) {
+                mBitmapPool.recycle(oldValue.bitmap, oldValue.poolWidth, oldValue.poolHeight);
+            }
+        }
+    }
+
+    /**
+     * A single call to {@link #getPreview}, holding a reference to the preview once loaded.
+     */
+    private class PreviewRequest implements CancellationSignal.OnCancelListener {
+        @Thunk final PreviewLoadTask mTask;
+        @Thunk final WidgetCell mCaller;
+        @Thunk PreviewEntry mEntry;
+        private boolean mCancelled;
+
+        PreviewRequest(PreviewLoadTask task, WidgetCell caller) {
+            mTask = task;
+            mCaller = caller;
+        }
+
+        @Override
+        public void onCancel() {
+            if (mCancelled) {
+                return;
+            }
+            mCancelled = true;
+            if (mEntry != null) {
+                releaseEntry(mEntry);
+                mEntry = null;
+            } else {
+                mTask.onRequestCancelled(this);
+            }
+        }
+    }
+
+    public class PreviewLoadTask implements Runnable, Comparable<PreviewLoadTask> {
         @Thunk final WidgetCacheKey mKey;
         private final WidgetItem mInfo;
         private final int mPreviewHeight;
         private final int mPreviewWidth;
-        private final WidgetCell mCaller;
         private final BaseActivity mActivity;
         @Thunk long[] mVersions;
-        @Thunk Bitmap mBitmapToRecycle;
+
+        // Only accessed on the UI thread
+        @Thunk final ArrayList<PreviewRequest> mRequests = new ArrayList<>();
+        @Thunk int mSequence;
+
+        private volatile boolean mCancelled;
 
         PreviewLoadTask(WidgetCacheKey key, WidgetItem info, int previewWidth,
                 int previewHeight, WidgetCell caller) {
@@ -540,44 +719,54 @@ public class WidgetPreviewLoader {
             mInfo = info;
             mPreviewHeight = previewHeight;
             mPreviewWidth = previewWidth;
-            mCaller = caller;
-            mActivity = BaseActivity.fromContext(mCaller.getContext());
+            mActivity = BaseActivity.fromContext(caller.getContext());
             if (DEBUG) {
                 Log.d(TAG, String.format("%s, %s, %d, %d",
                         mKey, mInfo, mPreviewHeight, mPreviewWidth));
             }
         }
 
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
         @Override
-        protected Bitmap doInBackground(Void... params) {
-            Bitmap unusedBitmap = null;
+        public int compareTo(PreviewLoadTask other) {
+            // Latest requests first, as they are the ones on screen.
+            return Integer.compare(other.mSequence, mSequence);
+        }
 
-            // If already cancelled before this gets to run in the background, then return early
-            if (isCancelled()) {
-                return null;
-            }
-            synchronized (mUnusedBitmaps) {
-                // Check if we can re-use a bitmap
-                for (Bitmap candidate : mUnusedBitmaps) {
-                    if (candidate != null && candidate.isMutable() &&
-                            candidate.getWidth() == mPreviewWidth &&
-                            candidate.getHeight() == mPreviewHeight) {
-                        unusedBitmap = candidate;
-                        mUnusedBitmaps.remove(unusedBitmap);
-                        break;
-                    }
+        @Thunk void onRequestCancelled(PreviewRequest request) {
+            mRequests.remove(request);
+            if (mRequests.isEmpty() && mInFlightTasks.get(mKey) == this) {
+                mCancelled = true;
+                mInFlightTasks.remove(mKey);
+                mLoaderExecutor.remove(this);
+                synchronized (mLock) {
+                    mCancelledCount++;
                 }
             }
+        }
 
-            // creating a bitmap is expensive. Do not do this inside synchronized block.
-            if (unusedBitmap == null) {
-                unusedBitmap = Bitmap.createBitmap(mPreviewWidth, mPreviewHeight, Config.ARGB_8888);
+        @Override
+        public void run() {
+            // If already cancelled before this gets to run in the background, then return early
+            if (isCancelled()) {
+                return;
             }
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+            Bitmap unusedBitmap = mBitmapPool.get(mPreviewWidth, mPreviewHeight);
+            Bitmap preview = null;
             // If cancelled now, don't bother reading the preview from the DB
-            if (isCancelled()) {
-                return unusedBitmap;
+            if (!isCancelled()) {
+                preview = readFromDb(mKey, unusedBitmap, this);
+                if (preview != null) {
+                    synchronized (mLock) {
+                        mDecodeCount++;
+                    }
+                }
             }
-            Bitmap preview = readFromDb(mKey, unusedBitmap, this);
             // Only consider generating the preview if we have not cancelled the task already
             if (!isCancelled() && preview == null) {
                 // Fetch the version info before we generate the preview, so that, in-case the
@@ -590,74 +779,51 @@ public class WidgetPreviewLoader {
 
                 // it's not in the db... we need to generate it
                 preview = generatePreview(mActivity, mInfo, unusedBitmap, mPreviewWidth, mPreviewHeight);
+                synchronized (mLock) {
+                    mGenerateCount++;
+                }
+            }
+            if (preview != unusedBitmap) {
+                mBitmapPool.recycle(unusedBitmap, mPreviewWidth, mPreviewHeight);
             }
-            return preview;
-        }
 
-        @Override
-        protected void onPostExecute(final Bitmap preview) {
-            mCaller.applyPreview(preview);
+            final Bitmap result = preview;
+            mMainThreadExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    onLoaded(result);
+                }
+            });
+        }
 
-            // Write the generated preview to the DB in the worker thread
-            if (mVersions != null) {
-                mWorkerHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (!isCancelled()) {
-                            // If we are still using this preview, then write it to the DB and then
-                            // let the normal clear mechanism recycle the bitmap
-                            writeToDb(mKey, mVersions, preview);
-                            mBitmapToRecycle = preview;
-                        } else {
-                            // If we've already cancelled, then skip writing the bitmap to the DB
-                            // and manually add the bitmap back to the recycled set
-                            synchronized (mUnusedBitmaps) {
-                                mUnusedBitmaps.add(preview);
-                            }
-                        }
-                    }
-                });
-            } else {
-                // If we don't need to write to disk, then ensure the preview gets recycled by
-                // the normal clear mechanism
-                mBitmapToRecycle = preview;
+        @Thunk void onLoaded(final Bitmap preview) {
+            if (mInFlightTasks.get(mKey) == this) {
+                mInFlightTasks.remove(mKey);
+            }
+            if (preview == null) {
+                return;
             }
-        }
 
-        @Override
-        protected void onCancelled(final Bitmap preview) {
-            // If we've cancelled while the task is running, then can return the bitmap to the
-            // recycled set immediately. Otherwise, it will be recycled after the preview is written
-            // to disk.
-            if (preview != null) {
-                mWorkerHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        synchronized (mUnusedBitmaps) {
-                            mUnusedBitmaps.add(preview);
-                        }
-                    }
-                });
+            // Keep the preview in memory even if all the requests were cancelled, as it is likely
+            // to be requested again when scrolling back.
+            final PreviewEntry entry = new PreviewEntry(preview, mPreviewWidth, mPreviewHeight);
+            synchronized (mLock) {
+                entry.refCount = mRequests.size() + (mVersions != null ? 1 : 0);
+                mMemoryCache.put(mKey, entry);
             }
-        }
+            for (PreviewRequest request : mRequests) {
+                request.mEntry = entry;
+                request.mCaller.applyPreview(preview);
+            }
+            mRequests.clear();
 
-        @Override
-        public void onCancel() {
-            cancel(true);
-
-            // This only handles the case where the PreviewLoadTask is cancelled after the task has
-            // successfully completed (including having written to disk when necessary).  In the
-            // other cases where it is cancelled while the task is running, it will be cleaned up
-            // in the tasks's onCancelled() call, and if cancelled while the task is writing to
-            // disk, it will be cancelled in the task's onPostExecute() call.
-            if (mBitmapToRecycle != null) {
+            // Write the generated preview to the DB in the worker thread
+            if (mVersions != null) {
                 mWorkerHandler.post(new Runnable() {
                     @Override
                     public void run() {
-                        synchronized (mUnusedBitmaps) {
-                            mUnusedBitmaps.add(mBitmapToRecycle);
-                        }
-                        mBitmapToRecycle = null;
+                        writeToDb(mKey, mVersions, preview);
+                        releaseEntry(entry);
                     }
                 });
             }
@@ -80,6 +80,7 @@ import com.android.launcher3.graphics.DragPreviewProvider;
 import com.android.launcher3.graphics.PreloadIconDrawable;
 import com.android.launcher3.pageindicators.WorkspacePageIndicator;
 import com.android.launcher3.popup.PopupContainerWithArrow;
+import com.android.launcher3.shortcuts.DeepShortcutManager;
 import com.android.launcher3.shortcuts.ShortcutDragPreviewProvider;
 import com.android.launcher3.touch.ItemLongClickListener;
 import com.android.launcher3.touch.WorkspaceTouchListener;
@@ -87,8 +88,11 @@ import com.android.launcher3.userevent.nano.LauncherLogProto.Action;
 import com.android.launcher3.userevent.nano.LauncherLogProto.ContainerType;
 import com.android.launcher3.userevent.nano.LauncherLogProto.Target;
 import com.android.launcher3.util.ItemInfoMatcher;
+import com.android.launcher3.util.ItemViewRegistry;
 import com.android.launcher3.util.LongArrayMap;
+import com.android.launcher3.util.MultiHashMap;
 import com.android.launcher3.util.PackageUserKey;
+import com.android.launcher3.util.Provider;
 import com.android.launcher3.util.Thunk;
 import com.android.launcher3.util.WallpaperOffsetInterpolator;
 import com.android.launcher3.widget.LauncherAppWidgetHostView;
@@ -270,6 +274,23 @@ public class Workspace extends PagedView<WorkspacePageIndicator>
     // Handles workspace state transitions
     private final WorkspaceStateTransitionAnimation mStateTransitionAnimation;
 
+    // Icons and folder icons showing the notification badge of a package, rebuilt lazily after the
+    // views change. See updateIconBadges.
+    private final MultiHashMap<PackageUserKey, BubbleTextView> mBadgeIconIndex =
+            new MultiHashMap<>();
+    private final MultiHashMap<PackageUserKey, FolderIcon> mBadgeFolderIndex =
+            new MultiHashMap<>();
+    private boolean mBadgeIndexValid = false;
+
+    // Views of the items of the workspace and hotseat, by item id and appWidgetId.
+    private final ItemViewRegistry mItemViews = new ItemViewRegistry(
+            new Provider<ArrayList<ShortcutAndWidgetContainer>>() {
+                @Override
+                public ArrayList<ShortcutAndWidgetContainer> get() {
+                    return getAllShortcutAndWidgetContainers();
+                }
+            });
+
     /**
      * Used to inflate the Workspace from XML.
      *
@@ -499,6 +520,39 @@ public class Workspace extends PagedView<WorkspacePageIndicator>
         cl.setOnInterceptTouchListener(this);
         cl.setImportantForAccessibility(IMPORTANT_FOR_ACCESSIBILITY_NO);
         super.onViewAdded(child);
+        invalidateBadgeIndex();
+    }
+
+    @Override
+    public void onViewRemoved(View child) {
+        super.onViewRemoved(child);
+        invalidateBadgeIndex();
+    }
+
+    /**
+     * Loads the popup shortcuts of the apps on the current page and the hotseat in the
+     * background, so that their popup opens populated.
+     */
+    public void prefetchPopupShortcuts() {
+        ArrayList<ItemInfo> items = new ArrayList<>();
+        CellLayout page = (CellLayout) getPageAt(getCurrentPage());
+        if (page != null) {
+            addItemInfos(page.getShortcutsAndWidgets(), items);
+        }
+        if (mLauncher.getHotseat() != null) {
+            addItemInfos(mLauncher.getHotseat().getLayout().getShortcutsAndWidgets(), items);
+        }
+        mLauncher.getPopupDataProvider().prefetchShortcuts(items);
+    }
+
+    private static void addItemInfos(ShortcutAndWidgetContainer container,
+            ArrayList<ItemInfo> outItems) {
+        for (int i = container.getChildCount() - 1; i >= 0; i--) {
+            Object tag = container.getChildAt(i).getTag();
+            if (tag instanceof ShortcutInfo) {
+                outItems.add((ShortcutInfo) tag);
+            }
+        }
     }
 
     public boolean isTouchActive() {
@@ -554,6 +608,8 @@ public class Workspace extends PagedView<WorkspacePageIndicator>
         // Remove the pages and clear the screen models
         removeFolderListeners();
         removeAllViews();
+        // The views of the removed pages are not removed from their containers
+        mItemViews.invalidate();
         mScreenOrder.clear();
         mWorkspaceScreens.clear();
 
@@ -1094,6 +1150,8 @@ public class Workspace extends PagedView<WorkspacePageIndicator>
             }
         }
 
+        prefetchPopupShortcuts();
+
         if (mStripScreensOnPageStopMoving) {
             stripEmptyScreens();
             mStripScreensOnPageStopMoving = false;
@@ -3168,16 +3226,18 @@ public class Workspace extends PagedView<WorkspacePageIndicator>
     }
 
     public View getHomescreenIconByItemId(final long id) {
-        return getFirstMatch(new ItemOperator() {
-
-            @Override
-            public boolean evaluate(ItemInfo info, View v) {
-                return info != null && info.id == id;
-            }
-        });
+        return mItemViews.getViewForId(id);
     }
 
     public View getViewForTag(final Object tag) {
+        if (!(tag instanceof ItemInfo)) {
+            return null;
+        }
+        View v = mItemViews.getViewForId(((ItemInfo) tag).id);
+        if (v == null || v.getTag() == tag) {
+            return v;
+        }
+        // Another view is bound to an item with the same id
         return getFirstMatch(new ItemOperator() {
 
             @Override
@@ -3188,14 +3248,46 @@ public class Workspace extends PagedView<WorkspacePageIndicator>
     }
 
     public LauncherAppWidgetHostView getWidgetForAppWidgetId(final int appWidgetId) {
-        return (LauncherAppWidgetHostView) getFirstMatch(new ItemOperator() {
+        View v = mItemViews.getViewForAppWidgetId(appWidgetId);
+        return v instanceof LauncherAppWidgetHostView ? (LauncherAppWidgetHostView) v : null;
+    }
 
-            @Override
-            public boolean evaluate(ItemInfo info, View v) {
-                return (info instanceof LauncherAppWidgetInfo) &&
-                        ((LauncherAppWidgetInfo) info).appWidgetId == appWidgetId;
-            }
-        });
+    /**
+     * Called when a view is added to a {@link ShortcutAndWidgetContainer}.
+     * @param isItem true if the view is an item of the workspace or hotseat, and not of a folder.
+     */
+    public void onItemViewAdded(View child, boolean isItem) {
+        invalidateBadgeIndex();
+        if (isItem) {
+            mItemViews.onViewAdded(child);
+        }
+    }
+
+    /**
+     * Called when a view is removed from a {@link ShortcutAndWidgetContainer}.
+     * @param isItem true if the view is an item of the workspace or hotseat, and not of a folder.
+     */
+    public void onItemViewRemoved(View child, boolean isItem) {
+        invalidateBadgeIndex();
+        if (isItem) {
+            mItemViews.onViewRemoved(child);
+        }
+    }
+
+    /**
+     * Checks the index of the item views against the views of the workspace and hotseat, and
+     * reports any inconsistency.
+     */
+    public void verifyItemViews() {
+        String error = mItemViews.verify();
+        if (error == null) {
+            return;
+        }
+        if (FeatureFlags.IS_DOGFOOD_BUILD) {
+            throw new IllegalStateException("Invalid item view index: " + error);
+        }
+        Log.e(TAG, "Invalid item view index: " + error);
+        mItemViews.invalidate();
     }
 
     public View getFirstMatch(final ItemOperator operator) {
@@ -3331,6 +3423,8 @@ public class Workspace extends PagedView<WorkspacePageIndicator>
             folderIds.add(s.container);
         }
 
+        // The icons can be re-bound to other items
+        invalidateBadgeIndex();
         mapOverItems(MAP_RECURSE, new ItemOperator() {
             @Override
             public boolean evaluate(ItemInfo info, View v) {
@@ -3361,40 +3455,115 @@ public class Workspace extends PagedView<WorkspacePageIndicator>
         });
     }
 
+    /**
+     * Marks the badge index as stale, to be called when icons are added, removed or bound to
+     * another item.
+     */
+    public void invalidateBadgeIndex() {
+        mBadgeIndexValid = false;
+    }
+
     public void updateIconBadges(final Set<PackageUserKey> updatedBadges) {
-        final PackageUserKey packageUserKey = new PackageUserKey(null, null);
-        final HashSet<Long> folderIds = new HashSet<>();
-        mapOverItems(MAP_RECURSE, new ItemOperator() {
-            @Override
-            public boolean evaluate(ItemInfo info, View v) {
-                if (info instanceof ShortcutInfo && v instanceof BubbleTextView
-                        && packageUserKey.updateFromItemInfo(info)) {
-                    if (updatedBadges.contains(packageUserKey)) {
-                        ((BubbleTextView) v).applyBadgeState(info, true /* animate */);
-                        folderIds.add(info.container);
-                    }
+        ArrayList<BubbleTextView> icons = new ArrayList<>();
+        HashSet<FolderIcon> folderIcons = new HashSet<>();
+        if (!collectBadgedViews(updatedBadges, icons, folderIcons)) {
+            // An icon was bound to another item without being re-added
+            invalidateBadgeIndex();
+            icons.clear();
+            folderIcons.clear();
+            collectBadgedViews(updatedBadges, icons, folderIcons);
+        }
+
+        for (BubbleTextView icon : icons) {
+            icon.applyBadgeState((ItemInfo) icon.getTag(), true /* animate */);
+        }
+
+        // Update folder icons
+        for (FolderIcon folderIcon : folderIcons) {
+            FolderBadgeInfo folderBadgeInfo = new FolderBadgeInfo();
+            for (ShortcutInfo si : folderIcon.getFolder().getInfo().contents) {
+                folderBadgeInfo.addBadgeInfo(mLauncher.getBadgeInfoForItem(si));
+            }
+            folderIcon.setBadgeInfo(folderBadgeInfo);
+        }
+    }
+
+    /**
+     * Adds the icons showing the badges of {@param packageUserKeys}, and the folder icons
+     * containing them, using the badge index.
+     * @return false if the index was found to be stale, in which case the result is incomplete.
+     */
+    private boolean collectBadgedViews(Set<PackageUserKey> packageUserKeys,
+            ArrayList<BubbleTextView> outIcons, HashSet<FolderIcon> outFolderIcons) {
+        if (!mBadgeIndexValid) {
+            rebuildBadgeIndex();
+        }
+        final PackageUserKey tmpKey = new PackageUserKey(null, null);
+        for (PackageUserKey packageUserKey : packageUserKeys) {
+            ArrayList<BubbleTextView> icons = mBadgeIconIndex.get(packageUserKey);
+            if (icons == null) {
+                continue;
+            }
+            for (BubbleTextView icon : icons) {
+                Object tag = icon.getTag();
+                if (!(tag instanceof ShortcutInfo)
+                        || !tmpKey.updateFromItemInfo((ShortcutInfo) tag)
+                        || !tmpKey.equals(packageUserKey)) {
+                    return false;
                 }
-                // process all the shortcuts
-                return false;
+                outIcons.add(icon);
             }
-        });
+            ArrayList<FolderIcon> folderIcons = mBadgeFolderIndex.get(packageUserKey);
+            if (folderIcons != null) {
+                outFolderIcons.addAll(folderIcons);
+            }
+        }
+        return true;
+    }
 
-        // Update folder icons
+    private void rebuildBadgeIndex() {
+        mBadgeIconIndex.clear();
+        mBadgeFolderIndex.clear();
         mapOverItems(MAP_NO_RECURSE, new ItemOperator() {
             @Override
             public boolean evaluate(ItemInfo info, View v) {
-                if (info instanceof FolderInfo && folderIds.contains(info.id)
-                        && v instanceof FolderIcon) {
-                    FolderBadgeInfo folderBadgeInfo = new FolderBadgeInfo();
-                    for (ShortcutInfo si : ((FolderInfo) info).contents) {
-                        folderBadgeInfo.addBadgeInfo(mLauncher.getBadgeInfoForItem(si));
+                if (info instanceof FolderInfo && v instanceof FolderIcon) {
+                    FolderIcon folderIcon = (FolderIcon) v;
+                    for (View child : folderIcon.getFolder().getItemsInReadingOrder()) {
+                        PackageUserKey key = addToBadgeIndex(child);
+                        if (key == null) {
+                            continue;
+                        }
+                        ArrayList<FolderIcon> folderIcons = mBadgeFolderIndex.get(key);
+                        if (folderIcons == null || !folderIcons.contains(folderIcon)) {
+                            mBadgeFolderIndex.addToList(key, folderIcon);
+                        }
                     }
-                    ((FolderIcon) v).setBadgeInfo(folderBadgeInfo);
+                } else {
+                    addToBadgeIndex(v);
                 }
                 // process all the shortcuts
                 return false;
             }
         });
+        mBadgeIndexValid = true;
+    }
+
+    /**
+     * Adds {@param v} to the badge index if it is an icon which can show a badge.
+     * @return the key of the badge shown by the icon, or null if it was not added.
+     */
+    private PackageUserKey addToBadgeIndex(View v) {
+        if (!(v instanceof BubbleTextView) || !(v.getTag() instanceof ShortcutInfo)) {
+            return null;
+        }
+        ShortcutInfo info = (ShortcutInfo) v.getTag();
+        if (!DeepShortcutManager.supportsShortcuts(info)) {
+            return null;
+        }
+        PackageUserKey key = PackageUserKey.fromItemInfo(info);
+        mBadgeIconIndex.addToList(key, (BubbleTextView) v);
+        return key;
     }
 
     public void removeAbandonedPromise(String packageName, UserHandle user) {
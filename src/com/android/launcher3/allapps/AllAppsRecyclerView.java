@@ -220,6 +220,14 @@ public class AllAppsRecyclerView extends BaseRecyclerView implements LogContaine
             public void onChanged() {
                 mCachedScrollPositions.clear();
             }
+
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                mCachedScrollPositions.clear();
+            }
+
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                mCachedScrollPositions.clear();
+            }
         });
         mFastScrollHelper.onSetAdapter((AllAppsGridAdapter) adapter);
     }
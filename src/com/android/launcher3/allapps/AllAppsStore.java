@@ -27,7 +27,9 @@ import com.android.launcher3.util.PackageUserKey;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -44,6 +46,13 @@ public class AllAppsStore {
     private boolean mDeferUpdates = false;
     private boolean mUpdatePending = false;
 
+    // Apps added, updated or removed since the listeners were last notified, unless the whole
+    // list was replaced.
+    private final HashSet<ComponentKey> mPendingChangedKeys = new HashSet<>();
+    private final Set<ComponentKey> mPendingChangedKeysView =
+            Collections.unmodifiableSet(mPendingChangedKeys);
+    private boolean mPendingFullUpdate = false;
+
     public Collection<AppInfo> getApps() {
         return mComponentToAppMap.values();
     }
@@ -53,6 +62,8 @@ public class AllAppsStore {
      */
     public void setApps(List<AppInfo> apps) {
         mComponentToAppMap.clear();
+        mPendingFullUpdate = true;
+        mPendingChangedKeys.clear();
         addOrUpdateApps(apps);
     }
 
@@ -76,7 +87,11 @@ public class AllAppsStore {
      */
     public void addOrUpdateApps(List<AppInfo> apps) {
         for (AppInfo app : apps) {
-            mComponentToAppMap.put(app.toComponentKey(), app);
+            ComponentKey key = app.toComponentKey();
+            mComponentToAppMap.put(key, app);
+            if (!mPendingFullUpdate) {
+                mPendingChangedKeys.add(key);
+            }
         }
         notifyUpdate();
     }
@@ -86,7 +101,11 @@ public class AllAppsStore {
      */
     public void removeApps(List<AppInfo> apps) {
         for (AppInfo app : apps) {
-            mComponentToAppMap.remove(app.toComponentKey());
+            ComponentKey key = app.toComponentKey();
+            mComponentToAppMap.remove(key);
+            if (!mPendingFullUpdate) {
+                mPendingChangedKeys.add(key);
+            }
         }
         notifyUpdate();
     }
@@ -99,8 +118,14 @@ public class AllAppsStore {
         }
         int count = mUpdateListeners.size();
         for (int i = 0; i < count; i++) {
-            mUpdateListeners.get(i).onAppsUpdated();
+            if (mPendingFullUpdate) {
+                mUpdateListeners.get(i).onAppsUpdated();
+            } else {
+                mUpdateListeners.get(i).onAppsChanged(mPendingChangedKeysView);
+            }
         }
+        mPendingChangedKeys.clear();
+        mPendingFullUpdate = false;
     }
 
     public void addUpdateListener(OnUpdateListener listener) {
@@ -156,6 +181,14 @@ public class AllAppsStore {
 
     public interface OnUpdateListener {
         void onAppsUpdated();
+
+        /**
+         * Called instead of {@link #onAppsUpdated()} when only the apps with the given keys were
+         * added, updated or removed. The set is only valid during the call.
+         */
+        default void onAppsChanged(Set<ComponentKey> changedKeys) {
+            onAppsUpdated();
+        }
     }
 
     public interface IconAction {
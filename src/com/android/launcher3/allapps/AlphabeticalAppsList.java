@@ -17,6 +17,7 @@ package com.android.launcher3.allapps;
 
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.support.annotation.VisibleForTesting;
 
 import com.android.launcher3.AppInfo;
 import com.android.launcher3.Launcher;
@@ -30,9 +31,11 @@ import com.android.launcher3.util.LabelComparator;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 
 /**
@@ -45,6 +48,9 @@ public class AlphabeticalAppsList implements AllAppsStore.OnUpdateListener {
     private static final int FAST_SCROLL_FRACTION_DISTRIBUTE_BY_ROWS_FRACTION = 0;
     private static final int FAST_SCROLL_FRACTION_DISTRIBUTE_BY_NUM_SECTIONS = 1;
 
+    // Changes to more than 1 / MAX_INCREMENTAL_CHANGES_FRACTION of the apps rebuild the whole list.
+    private static final int MAX_INCREMENTAL_CHANGES_FRACTION = 4;
+
     private final int mFastScrollDistributionMode = FAST_SCROLL_FRACTION_DISTRIBUTE_BY_NUM_SECTIONS;
 
     /**
@@ -127,10 +133,12 @@ public class AlphabeticalAppsList implements AllAppsStore.OnUpdateListener {
         }
     }
 
-    private final Launcher mLauncher;
+    private final Context mContext;
 
     // The set of apps from the system
     private final List<AppInfo> mApps = new ArrayList<>();
+    // The apps in mApps by key, to find them when they change
+    private final HashMap<ComponentKey, AppInfo> mAppsByKey = new HashMap<>();
     private final AllAppsStore mAllAppsStore;
 
     // The set of filtered apps with the current filter
@@ -153,12 +161,19 @@ public class AlphabeticalAppsList implements AllAppsStore.OnUpdateListener {
     private ItemInfoMatcher mItemFilter;
 
     public AlphabeticalAppsList(Context context, AllAppsStore appsStore, boolean isWork) {
+        this(context, appsStore, isWork,
+                Launcher.getLauncher(context).getDeviceProfile().inv.numColumns);
+    }
+
+    @VisibleForTesting
+    AlphabeticalAppsList(Context context, AllAppsStore appsStore, boolean isWork,
+            int numAppsPerRow) {
         mAllAppsStore = appsStore;
-        mLauncher = Launcher.getLauncher(context);
+        mContext = context;
         mIndexer = new AlphabeticIndexCompat(context);
         mAppNameComparator = new AppInfoComparator(context);
         mIsWork = isWork;
-        mNumAppsPerRow = mLauncher.getDeviceProfile().inv.numColumns;
+        mNumAppsPerRow = numAppsPerRow;
         mAllAppsStore.addUpdateListener(this);
     }
 
@@ -252,11 +267,14 @@ public class AlphabeticalAppsList implements AllAppsStore.OnUpdateListener {
 
         Collections.sort(mApps, mAppNameComparator);
 
+        mAppsByKey.clear();
+        for (AppInfo app : mApps) {
+            mAppsByKey.put(app.toComponentKey(), app);
+        }
+
         // As a special case for some languages (currently only Simplified Chinese), we may need to
         // coalesce sections
-        Locale curLocale = mLauncher.getResources().getConfiguration().locale;
-        boolean localeRequiresSectionSorting = curLocale.equals(Locale.SIMPLIFIED_CHINESE);
-        if (localeRequiresSectionSorting) {
+        if (localeRequiresSectionSorting()) {
             // Compute the section headers. We use a TreeMap with the section name comparator to
             // ensure that the sections are ordered when we iterate over it later
             TreeMap<String, ArrayList<AppInfo>> sectionMap = new TreeMap<>(new LabelComparator());
@@ -290,6 +308,107 @@ public class AlphabeticalAppsList implements AllAppsStore.OnUpdateListener {
         updateAdapterItems();
     }
 
+    /**
+     * Updates internals when only a few apps were added, updated or removed, by moving these
+     * apps in the sorted list and notifying the adapter of the moved items only.
+     */
+    @Override
+    public void onAppsChanged(Set<ComponentKey> changedKeys) {
+        if (hasFilter() || localeRequiresSectionSorting()
+                || changedKeys.size() > mApps.size() / MAX_INCREMENTAL_CHANGES_FRACTION) {
+            // Search results and merged sections are not kept in order incrementally, and many
+            // changes are faster to sort at once.
+            onAppsUpdated();
+            return;
+        }
+        int oldFooterCount = mAdapterItems.size() - mApps.size();
+
+        // Remove the previous version of the changed apps. The remaining apps are still sorted,
+        // even if the changed apps were modified in place.
+        HashSet<AppInfo> oldApps = new HashSet<>();
+        for (ComponentKey key : changedKeys) {
+            AppInfo oldApp = mAppsByKey.remove(key);
+            if (oldApp != null) {
+                oldApps.add(oldApp);
+            }
+        }
+        int[] removedIndices = new int[oldApps.size()];
+        int removedCount = 0;
+        if (!oldApps.isEmpty()) {
+            int count = mApps.size();
+            int newIndex = 0;
+            for (int i = 0; i < count; i++) {
+                AppInfo app = mApps.get(i);
+                if (oldApps.contains(app)) {
+                    removedIndices[removedCount++] = i;
+                } else {
+                    mApps.set(newIndex++, app);
+                }
+            }
+            mApps.subList(newIndex, count).clear();
+        }
+
+        // Insert the current version of the changed apps.
+        HashSet<AppInfo> newApps = new HashSet<>();
+        for (ComponentKey key : changedKeys) {
+            AppInfo app = mAllAppsStore.getApp(key);
+            if (app == null || (mItemFilter != null && !mItemFilter.matches(app, null))) {
+                continue;
+            }
+            int index = Collections.binarySearch(mApps, app, mAppNameComparator);
+            mApps.add(index < 0 ? -index - 1 : index, app);
+            mAppsByKey.put(key, app);
+            newApps.add(app);
+            getAndUpdateCachedSectionName(app.title);
+        }
+        int[] insertedIndices = new int[newApps.size()];
+        int insertedCount = 0;
+        if (!newApps.isEmpty()) {
+            int count = mApps.size();
+            for (int i = 0; i < count; i++) {
+                if (newApps.contains(mApps.get(i))) {
+                    insertedIndices[insertedCount++] = i;
+                }
+            }
+        }
+
+        refillAdapterItems();
+        if (mAdapter == null) {
+            return;
+        }
+        boolean updatedInPlace = removedCount == insertedCount;
+        for (int i = 0; i < removedCount && updatedInPlace; i++) {
+            updatedInPlace = removedIndices[i] == insertedIndices[i];
+        }
+        if (updatedInPlace) {
+            // The apps were updated in place, which is the common case of an icon or label change.
+            for (int i = 0; i < insertedCount; i++) {
+                mAdapter.notifyItemChanged(insertedIndices[i]);
+            }
+        } else {
+            for (int i = removedCount - 1; i >= 0; i--) {
+                mAdapter.notifyItemRemoved(removedIndices[i]);
+            }
+            for (int i = 0; i < insertedCount; i++) {
+                mAdapter.notifyItemInserted(insertedIndices[i]);
+            }
+        }
+
+        // The work footer, if any, follows the apps.
+        int footerCount = mAdapterItems.size() - mApps.size();
+        if (footerCount > oldFooterCount) {
+            mAdapter.notifyItemRangeInserted(mApps.size(), footerCount - oldFooterCount);
+        } else if (footerCount < oldFooterCount) {
+            mAdapter.notifyItemRangeRemoved(mApps.size() + footerCount,
+                    oldFooterCount - footerCount);
+        }
+    }
+
+    private boolean localeRequiresSectionSorting() {
+        Locale curLocale = mContext.getResources().getConfiguration().locale;
+        return curLocale.equals(Locale.SIMPLIFIED_CHINESE);
+    }
+
     /**
      * Updates the set of filtered apps with the current filter.  At this point, we expect
      * mCachedSectionNames to have been calculated for the set of all apps in mApps.
@@ -409,8 +528,8 @@ public class AlphabeticalAppsList implements AllAppsStore.OnUpdateListener {
 
     private boolean shouldShowWorkFooter() {
         return mIsWork && Utilities.ATLEAST_P &&
-                (DeepShortcutManager.getInstance(mLauncher).hasHostPermission()
-                        || mLauncher.checkSelfPermission("android.permission.MODIFY_QUIET_MODE")
+                (DeepShortcutManager.getInstance(mContext).hasHostPermission()
+                        || mContext.checkSelfPermission("android.permission.MODIFY_QUIET_MODE")
                         == PackageManager.PERMISSION_GRANTED);
     }
 
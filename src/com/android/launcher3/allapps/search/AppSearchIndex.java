@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps.search;
+
+import com.android.launcher3.AppInfo;
+import com.android.launcher3.allapps.search.DefaultAppSearchAlgorithm.StringMatcher;
+import com.android.launcher3.util.ComponentKey;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An index of app titles used by {@link DefaultAppSearchAlgorithm}.
+ *
+ * Every word-break position of a title (as defined by {@link DefaultAppSearchAlgorithm#isBreak})
+ * starts a token running to the end of the title. The collation keys of all the tokens are kept
+ * sorted, so that the tokens starting with a query form a contiguous range which is found using
+ * binary search. A query extending the previous query only searches within the previous range.
+ *
+ * The index is rebuilt on the first query after it is invalidated, see {@link #invalidate}.
+ */
+public class AppSearchIndex {
+
+    private final Collator mCollator;
+
+    // The apps this index was built for, and whether they have changed since.
+    private AppInfo[] mApps = new AppInfo[0];
+    private boolean mInvalid = true;
+
+    // Collation keys of all the tokens in sorted order, and the index of the app for each token.
+    private byte[][] mTokenKeys = new byte[0][];
+    private int[] mTokenApps = new int[0];
+
+    // Range of tokens matching the last query.
+    private String mLastQuery;
+    private int mLastStart;
+    private int mLastEnd;
+
+    // Scratch arrays used to collect the matching apps without allocations.
+    private int[] mAppStamps = new int[0];
+    private int mStamp;
+    private int[] mMatches = new int[0];
+
+    public AppSearchIndex() {
+        // On android N and above, Collator uses ICU implementation which has a much better
+        // support for non-latin locales.
+        mCollator = Collator.getInstance();
+        mCollator.setStrength(Collator.PRIMARY);
+        mCollator.setDecomposition(Collator.CANONICAL_DECOMPOSITION);
+    }
+
+    /**
+     * Marks the index as outdated, to be called when the list of apps or their titles change.
+     */
+    public void invalidate() {
+        mInvalid = true;
+    }
+
+    /**
+     * Rebuilds the index from {@param apps} if it was invalidated since it was last built.
+     * @return true if the index was rebuilt.
+     */
+    public boolean update(List<AppInfo> apps) {
+        if (!mInvalid) {
+            return false;
+        }
+        mInvalid = false;
+
+        int appCount = apps.size();
+        mApps = apps.toArray(new AppInfo[appCount]);
+
+        ArrayList<Token> tokens = new ArrayList<>(appCount * 2);
+        for (int i = 0; i < appCount; i++) {
+            CharSequence title = mApps[i].title;
+            addTokens(title == null ? "" : title.toString(), i, tokens);
+        }
+        Collections.sort(tokens);
+
+        int tokenCount = tokens.size();
+        mTokenKeys = new byte[tokenCount][];
+        mTokenApps = new int[tokenCount];
+        for (int i = 0; i < tokenCount; i++) {
+            Token token = tokens.get(i);
+            mTokenKeys[i] = token.key;
+            mTokenApps[i] = token.appIndex;
+        }
+
+        mAppStamps = new int[appCount];
+        mStamp = 0;
+        mMatches = new int[appCount];
+        mLastQuery = null;
+        return true;
+    }
+
+    private void addTokens(String title, int appIndex, ArrayList<Token> out) {
+        int titleLength = title.length();
+        if (titleLength == 0) {
+            return;
+        }
+
+        int lastType;
+        int thisType = Character.UNASSIGNED;
+        int nextType = Character.getType(title.codePointAt(0));
+        for (int i = 0; i < titleLength; i++) {
+            lastType = thisType;
+            thisType = nextType;
+            nextType = i < (titleLength - 1) ?
+                    Character.getType(title.codePointAt(i + 1)) : Character.UNASSIGNED;
+            if (DefaultAppSearchAlgorithm.isBreak(thisType, lastType, nextType)) {
+                out.add(new Token(
+                        mCollator.getCollationKey(title.substring(i)).toByteArray(), appIndex));
+            }
+        }
+    }
+
+    /**
+     * Returns the keys of the apps having a token which starts with {@param query}, in the order
+     * of the list used to build the index.
+     */
+    public ArrayList<ComponentKey> search(String query) {
+        ArrayList<ComponentKey> result = new ArrayList<>();
+        if (query.isEmpty()) {
+            return result;
+        }
+
+        int from = 0;
+        int to = mTokenKeys.length;
+        if (mLastQuery != null && query.startsWith(mLastQuery)) {
+            // The tokens matching the extended query are a sub-range of the previous range.
+            from = mLastStart;
+            to = mLastEnd;
+        }
+
+        byte[] minKey = mCollator.getCollationKey(query).toByteArray();
+        byte[] maxKey = mCollator.getCollationKey(query + StringMatcher.MAX_UNICODE).toByteArray();
+        int start = lowerBound(minKey, from, to, false);
+        int end = lowerBound(maxKey, start, to, true);
+
+        mLastQuery = query;
+        mLastStart = start;
+        mLastEnd = end;
+
+        // Collect each matching app once, and sort them back in the list order.
+        mStamp++;
+        int matchCount = 0;
+        for (int i = start; i < end; i++) {
+            int app = mTokenApps[i];
+            if (mAppStamps[app] != mStamp) {
+                mAppStamps[app] = mStamp;
+                mMatches[matchCount++] = app;
+            }
+        }
+        Arrays.sort(mMatches, 0, matchCount);
+
+        result.ensureCapacity(matchCount);
+        for (int i = 0; i < matchCount; i++) {
+            result.add(mApps[mMatches[i]].toComponentKey());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the first index in [from, to) whose key is greater than or equal to {@param key}
+     * or, if {@param inclusive} is set, strictly greater than it.
+     */
+    private int lowerBound(byte[] key, int from, int to, boolean inclusive) {
+        int lo = from;
+        int hi = to;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareKeys(mTokenKeys[mid], key);
+            if (cmp < 0 || (inclusive && cmp == 0)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static int compareKeys(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    private static class Token implements Comparable<Token> {
+        final byte[] key;
+        final int appIndex;
+
+        Token(byte[] key, int appIndex) {
+            this.key = key;
+            this.appIndex = appIndex;
+        }
+
+        @Override
+        public int compareTo(Token other) {
+            return compareKeys(key, other.key);
+        }
+    }
+}
@@ -60,6 +60,7 @@ public class AppsSearchContainerLayout extends ExtendedEditText
     private final SpannableStringBuilder mSearchQueryBuilder;
 
     private AlphabeticalAppsList mApps;
+    private DefaultAppSearchAlgorithm mSearchAlgorithm;
     private AllAppsContainerView mAppsView;
 
     // This value was used to position the QSB. We store it here for translationY animations.
@@ -141,12 +142,15 @@ public class AppsSearchContainerLayout extends ExtendedEditText
     public void initialize(AllAppsContainerView appsView) {
         mApps = appsView.getApps();
         mAppsView = appsView;
-        mSearchBarController.initialize(
-                new DefaultAppSearchAlgorithm(mApps.getApps()), this, mLauncher, this);
+        mSearchAlgorithm = new DefaultAppSearchAlgorithm(mApps.getApps());
+        mSearchBarController.initialize(mSearchAlgorithm, this, mLauncher, this);
     }
 
     @Override
     public void onAppsUpdated() {
+        if (mSearchAlgorithm != null) {
+            mSearchAlgorithm.onAppsUpdated();
+        }
         mSearchBarController.refreshSearchResult();
     }
 
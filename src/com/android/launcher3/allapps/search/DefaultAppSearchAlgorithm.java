@@ -30,6 +30,7 @@ import java.util.List;
 public class DefaultAppSearchAlgorithm implements SearchAlgorithm {
 
     private final List<AppInfo> mApps;
+    private final AppSearchIndex mIndex = new AppSearchIndex();
     protected final Handler mResultHandler;
 
     public DefaultAppSearchAlgorithm(List<AppInfo> apps) {
@@ -57,18 +58,17 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm {
         });
     }
 
+    /**
+     * Called when the list of apps or their titles change.
+     */
+    public void onAppsUpdated() {
+        mIndex.invalidate();
+    }
+
     private ArrayList<ComponentKey> getTitleMatchResult(String query) {
-        // Do an intersection of the words in the query and each title, and filter out all the
-        // apps that don't match all of the words in the query.
-        final String queryTextLower = query.toLowerCase();
-        final ArrayList<ComponentKey> result = new ArrayList<>();
-        StringMatcher matcher = StringMatcher.getInstance();
-        for (AppInfo info : mApps) {
-            if (matches(info, queryTextLower, matcher)) {
-                result.add(info.toComponentKey());
-            }
-        }
-        return result;
+        // The index is only rebuilt when the list of apps has changed since the last query.
+        mIndex.update(mApps);
+        return mIndex.search(query.toLowerCase());
     }
 
     public static boolean matches(AppInfo info, String query, StringMatcher matcher) {
@@ -107,7 +107,7 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm {
      *      3) Any capital character after a digit or small character
      *      4) Any capital character before a small character
      */
-    private static boolean isBreak(int thisType, int prevType, int nextType) {
+    static boolean isBreak(int thisType, int prevType, int nextType) {
         switch (prevType) {
             case Character.UNASSIGNED:
             case Character.SPACE_SEPARATOR:
@@ -147,7 +147,7 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm {
 
     public static class StringMatcher {
 
-        private static final char MAX_UNICODE = '\uFFFF';
+        static final char MAX_UNICODE = '\uFFFF';
 
         private final Collator mCollator;
 
@@ -52,6 +52,13 @@ abstract class BaseFlags {
     // When enabled shows a work profile tab in all apps
     public static final boolean ALL_APPS_TABS_ENABLED = true;
 
+    // When enabled, the loader queries all apps, deep shortcuts and widgets in the background
+    // while the workspace is being loaded.
+    public static final boolean LOADER_PREFETCH = true;
+
+    // When enabled, the grid migration plans the placement of all the screens in parallel.
+    public static final boolean MIGRATION_PARALLEL_PLANNING = true;
+
     //add by lhm
     public static final boolean REMOVE_DRAWER = false;
 
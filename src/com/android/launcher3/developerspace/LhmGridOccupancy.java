@@ -3,20 +3,58 @@ package com.android.launcher3.developerspace;
 import android.graphics.Rect;
 
 
+import java.util.Arrays;
+
 /**
  * Utility object to manage the occupancy in a grid.
+ *
+ * The occupancy of each row is stored as a bit mask, so that spans can be checked and searched a
+ * row at a time, and copying the grid is a single array copy.
  */
 public class LhmGridOccupancy {
 
+    // One bit per column is used in each row mask.
+    public static final int MAX_COLUMNS = Long.SIZE;
+
     private final int mCountX;
     private final int mCountY;
 
-    public final boolean[][] cells;
+    // Mask with the bits of all the columns set.
+    private final long mFullRow;
+    // Bit x of mRows[y] is set when the cell (x, y) is occupied.
+    private final long[] mRows;
 
     public LhmGridOccupancy(int countX, int countY) {
+        if (countX > MAX_COLUMNS) {
+            throw new IllegalArgumentException("Grid can not have more than "
+                    + MAX_COLUMNS + " columns: " + countX);
+        }
         mCountX = countX;
         mCountY = countY;
-        cells = new boolean[countX][countY];
+        mFullRow = spanMask(countX);
+        mRows = new long[Math.max(countY, 0)];
+    }
+
+    /**
+     * Returns a mask with the lowest {@param span} bits set.
+     */
+    private static long spanMask(int span) {
+        if (span <= 0) {
+            return 0;
+        }
+        return span >= Long.SIZE ? -1L : (1L << span) - 1;
+    }
+
+    public int getCountX() {
+        return mCountX;
+    }
+
+    public int getCountY() {
+        return mCountY;
+    }
+
+    public boolean isOccupied(int x, int y) {
+        return (mRows[y] & (1L << x)) != 0;
     }
 
     /**
@@ -29,32 +67,42 @@ public class LhmGridOccupancy {
      * @return true if a vacant cell was found
      */
     public boolean findVacantCell(int[] vacantOut, int spanX, int spanY) {
+        if (spanX <= 0 || spanY <= 0) {
+            return false;
+        }
         for (int y = 0; (y + spanY) <= mCountY; y++) {
-            for (int x = 0; (x + spanX) <= mCountX; x++) {
-                boolean available = !cells[x][y];
-                out:
-                for (int i = x; i < x + spanX; i++) {
-                    for (int j = y; j < y + spanY; j++) {
-                        available = available && !cells[i][j];
-                        if (!available) break out;
-                    }
-                }
-                if (available) {
-                    vacantOut[0] = x;
-                    vacantOut[1] = y;
-                    return true;
-                }
+            // A column is usable only if it is free in every row covered by the span.
+            long occupied = 0;
+            for (int j = y; j < y + spanY; j++) {
+                occupied |= mRows[j];
+            }
+            long starts = runStarts(~occupied & mFullRow, spanX);
+            if (starts != 0) {
+                vacantOut[0] = Long.numberOfTrailingZeros(starts);
+                vacantOut[1] = y;
+                return true;
             }
         }
         return false;
     }
 
-    public void copyTo(LhmGridOccupancy dest) {
-        for (int i = 0; i < mCountX; i++) {
-            for (int j = 0; j < mCountY; j++) {
-                dest.cells[i][j] = cells[i][j];
-            }
+    /**
+     * Returns a mask with bit x set if bits x to x + span - 1 are all set in {@param free}.
+     */
+    private static long runStarts(long free, int span) {
+        long result = free;
+        int length = 1;
+        while (length < span && result != 0) {
+            // Every set bit now marks a run of at least (length + shift) bits.
+            int shift = Math.min(length, span - length);
+            result &= result >>> shift;
+            length += shift;
         }
+        return result;
+    }
+
+    public void copyTo(LhmGridOccupancy dest) {
+        System.arraycopy(mRows, 0, dest.mRows, 0, Math.min(mCountY, dest.mCountY));
     }
 
     public boolean isRegionVacant(int x, int y, int spanX, int spanY) {
@@ -63,21 +111,37 @@ public class LhmGridOccupancy {
         if (x < 0 || y < 0 || x2 >= mCountX || y2 >= mCountY) {
             return false;
         }
-        for (int i = x; i <= x2; i++) {
-            for (int j = y; j <= y2; j++) {
-                if (cells[i][j]) {
-                    return false;
-                }
+        long mask = spanMask(spanX) << x;
+        for (int j = y; j <= y2; j++) {
+            if ((mRows[j] & mask) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the occupied cells of {@param shape}, placed with its top left corner at
+     * (x, y), do not overlap any occupied cell of this grid. The shape must fit in the grid.
+     */
+    public boolean canFit(int x, int y, LhmGridOccupancy shape) {
+        for (int j = 0; j < shape.mCountY; j++) {
+            if ((mRows[y + j] & (shape.mRows[j] << x)) != 0) {
+                return false;
             }
         }
         return true;
     }
 
     public void markCells(int cellX, int cellY, int spanX, int spanY, boolean value) {
-        if (cellX < 0 || cellY < 0) return;
-        for (int x = cellX; x < cellX + spanX && x < mCountX; x++) {
-            for (int y = cellY; y < cellY + spanY && y < mCountY; y++) {
-                cells[x][y] = value;
+        if (cellX < 0 || cellY < 0 || cellX >= mCountX) return;
+        long mask = spanMask(Math.min(spanX, mCountX - cellX)) << cellX;
+        int endY = Math.min(cellY + spanY, mCountY);
+        for (int y = cellY; y < endY; y++) {
+            if (value) {
+                mRows[y] |= mask;
+            } else {
+                mRows[y] &= ~mask;
             }
         }
     }
@@ -92,6 +156,6 @@ public class LhmGridOccupancy {
 
 
     public void clear() {
-        markCells(0, 0, mCountX, mCountY, false);
+        Arrays.fill(mRows, 0);
     }
 }
\ No newline at end of file
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.graphics;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.util.LongSparseArray;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * A pool of mutable {@link Config#ARGB_8888} bitmaps, bucketed by width and height and bounded
+ * by the total byte size of the pooled bitmaps. This class is thread-safe.
+ */
+public class BitmapPool {
+
+    private final int mMaxBytes;
+
+    // Guarded by this
+    private final LongSparseArray<ArrayList<Bitmap>> mBuckets = new LongSparseArray<>();
+    private int mBytes;
+    private int mHitCount;
+    private int mMissCount;
+
+    public BitmapPool(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns a bitmap of the given size, reusing a pooled bitmap if possible. The content of a
+     * reused bitmap is undefined.
+     */
+    public Bitmap get(int width, int height) {
+        Bitmap bitmap = null;
+        synchronized (this) {
+            ArrayList<Bitmap> bucket = mBuckets.get(getKey(width, height));
+            if (bucket != null && !bucket.isEmpty()) {
+                bitmap = bucket.remove(bucket.size() - 1);
+                mBytes -= bitmap.getAllocationByteCount();
+                mHitCount++;
+            } else {
+                mMissCount++;
+            }
+        }
+
+        // Creating a bitmap is expensive, do not do this inside the synchronized block.
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, Config.ARGB_8888);
+        }
+        if (bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            // The bitmap was shrunk by its previous user.
+            bitmap.reconfigure(width, height, Config.ARGB_8888);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Adds a bitmap which is no longer used to the pool, to be returned by a later call to
+     * {@link #get(int, int)} with the same size. The bitmap may have been shrunk since it was
+     * returned by {@link #get(int, int)}.
+     */
+    public void recycle(Bitmap bitmap, int width, int height) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || bitmap.getConfig() != Config.ARGB_8888) {
+            return;
+        }
+        int size = bitmap.getAllocationByteCount();
+        if (size < width * height * 4) {
+            // Can't be reconfigured to the requested size, pool it with its current size.
+            width = bitmap.getWidth();
+            height = bitmap.getHeight();
+        }
+
+        synchronized (this) {
+            if (mBytes + size > mMaxBytes) {
+                // Let the bitmap be garbage collected.
+                return;
+            }
+            long key = getKey(width, height);
+            ArrayList<Bitmap> bucket = mBuckets.get(key);
+            if (bucket == null) {
+                bucket = new ArrayList<>();
+                mBuckets.put(key, bucket);
+            }
+            bucket.add(bitmap);
+            mBytes += size;
+        }
+    }
+
+    public synchronized void clear() {
+        mBuckets.clear();
+        mBytes = 0;
+    }
+
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "BitmapPool: bytes=" + mBytes + "/" + mMaxBytes
+                + " buckets=" + mBuckets.size() + " hits=" + mHitCount + " misses=" + mMissCount);
+    }
+
+    private static long getKey(int width, int height) {
+        return ((long) width << 32) | (height & 0xFFFFFFFFL);
+    }
+}
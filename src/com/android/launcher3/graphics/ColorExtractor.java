@@ -16,14 +16,25 @@
 package com.android.launcher3.graphics;
 
 import android.graphics.Bitmap;
-import android.graphics.Color;
-import android.util.SparseArray;
+
+import java.util.Arrays;
 
 /**
  * Utility class for extracting colors from a bitmap.
  */
 public class ColorExtractor {
 
+    // Number of [s,v] buckets used to pick the color within the winning hue, see
+    // getSaturationValueBucket.
+    private static final int SV_BUCKET_COUNT = 100 + 100 * 100 + 1;
+
+    private static final ThreadLocal<Scratch> sScratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
     public static int findDominantColorByHue(Bitmap bitmap) {
         return findDominantColorByHue(bitmap, 20);
     }
@@ -41,21 +52,23 @@ public class ColorExtractor {
             sampleStride = 1;
         }
 
-        // This is an out-param, for getting the hsv values for an rgb
-        float[] hsv = new float[3];
+        Scratch scratch = sScratch.get();
+        int[] row = scratch.getRow(width);
+        int[] pixels = scratch.getPixels(samples);
+        int[] hues = scratch.getHues(samples);
+        int pixelCount = 0;
 
         // First get the best hue, by creating a histogram over 360 hue buckets,
         // where each pixel contributes a score weighted by saturation, value, and alpha.
-        float[] hueScoreHistogram = new float[360];
+        float[] hueScoreHistogram = scratch.hueScoreHistogram;
+        Arrays.fill(hueScoreHistogram, 0);
         float highScore = -1;
         int bestHue = -1;
 
-        int[] pixels = new int[samples];
-        int pixelCount = 0;
-
         for (int y = 0; y < height; y += sampleStride) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
             for (int x = 0; x < width; x += sampleStride) {
-                int argb = bitmap.getPixel(x, y);
+                int argb = row[x];
                 int alpha = 0xFF & (argb >> 24);
                 if (alpha < 0x80) {
                     // Drop mostly-transparent pixels.
@@ -63,17 +76,14 @@ public class ColorExtractor {
                 }
                 // Remove the alpha channel.
                 int rgb = argb | 0xFF000000;
-                Color.colorToHSV(rgb, hsv);
                 // Bucket colors by the 360 integer hues.
-                int hue = (int) hsv[0];
-                if (hue < 0 || hue >= hueScoreHistogram.length) {
-                    // Defensively avoid array bounds violations.
-                    continue;
-                }
+                int hue = getHue(rgb);
                 if (pixelCount < samples) {
-                    pixels[pixelCount++] = rgb;
+                    pixels[pixelCount] = rgb;
+                    hues[pixelCount] = hue;
+                    pixelCount++;
                 }
-                float score = hsv[1] * hsv[2];
+                float score = getScore(rgb);
                 hueScoreHistogram[hue] += score;
                 if (hueScoreHistogram[hue] > highScore) {
                     highScore = hueScoreHistogram[hue];
@@ -82,25 +92,25 @@ public class ColorExtractor {
             }
         }
 
-        SparseArray<Float> rgbScores = new SparseArray<>();
+        float[] rgbScores = scratch.svScoreHistogram;
+        int[] usedBuckets = scratch.getUsedBuckets(pixelCount);
+        int usedBucketCount = 0;
         int bestColor = 0xff000000;
         highScore = -1;
         // Go back over the RGB colors that match the winning hue,
         // creating a histogram of weighted s*v scores, for up to 100*100 [s,v] buckets.
         // The highest-scoring RGB color wins.
         for (int i = 0; i < pixelCount; i++) {
-            int rgb = pixels[i];
-            Color.colorToHSV(rgb, hsv);
-            int hue = (int) hsv[0];
-            if (hue == bestHue) {
-                float s = hsv[1];
-                float v = hsv[2];
-                int bucket = (int) (s * 100) + (int) (v * 10000);
+            if (hues[i] == bestHue) {
+                int rgb = pixels[i];
+                int bucket = getSaturationValueBucket(rgb);
                 // Score by cumulative saturation * value.
-                float score = s * v;
-                Float oldTotal = rgbScores.get(bucket);
-                float newTotal = oldTotal == null ? score : oldTotal + score;
-                rgbScores.put(bucket, newTotal);
+                float score = getScore(rgb);
+                if (rgbScores[bucket] == 0) {
+                    usedBuckets[usedBucketCount++] = bucket;
+                }
+                float newTotal = rgbScores[bucket] + score;
+                rgbScores[bucket] = newTotal;
                 if (newTotal > highScore) {
                     highScore = newTotal;
                     // All the colors in the winning bucket are very similar. Last in wins.
@@ -108,6 +118,131 @@ public class ColorExtractor {
                 }
             }
         }
+        for (int i = 0; i < usedBucketCount; i++) {
+            rgbScores[usedBuckets[i]] = 0;
+        }
         return bestColor;
     }
+
+    /**
+     * Returns the integer part of the hue of {@param rgb}, as returned by
+     * {@link android.graphics.Color#colorToHSV}, in [0, 360).
+     */
+    static int getHue(int rgb) {
+        int r = (rgb >> 16) & 0xFF;
+        int g = (rgb >> 8) & 0xFF;
+        int b = rgb & 0xFF;
+        int max = Math.max(r, Math.max(g, b));
+        int delta = max - Math.min(r, Math.min(g, b));
+        if (delta == 0) {
+            return 0;
+        }
+
+        // The hue is 60 * (offset + numerator / delta), offset being 0, 2 or 4 based on the
+        // max channel.
+        int offset;
+        int numerator;
+        if (r == max) {
+            offset = 0;
+            numerator = g - b;
+        } else if (g == max) {
+            offset = 2;
+            numerator = b - r;
+        } else {
+            offset = 4;
+            numerator = r - g;
+        }
+        int hue60 = 60 * (offset * delta + numerator);
+        if (hue60 < 0) {
+            hue60 += 360 * delta;
+        }
+        if (hue60 % delta != 0) {
+            return hue60 / delta;
+        }
+        // The hue is an integer, which the floating point computation of colorToHSV can round
+        // down. Use the same computation so that the result matches.
+        float h = offset + (float) numerator / delta;
+        h *= 60;
+        if (h < 0) {
+            h += 360;
+        }
+        return (int) h;
+    }
+
+    /**
+     * Returns saturation * value of {@param rgb}, computed like {@link
+     * android.graphics.Color#colorToHSV} so that the accumulated scores match.
+     */
+    private static float getScore(int rgb) {
+        int r = (rgb >> 16) & 0xFF;
+        int g = (rgb >> 8) & 0xFF;
+        int b = rgb & 0xFF;
+        int max = Math.max(r, Math.max(g, b));
+        int delta = max - Math.min(r, Math.min(g, b));
+        if (delta == 0) {
+            return 0;
+        }
+        return ((float) delta / max) * (max / 255f);
+    }
+
+    /**
+     * Returns (int) (s * 100) + (int) (v * 10000), s and v being the saturation and value of
+     * {@param rgb} as returned by {@link android.graphics.Color#colorToHSV}.
+     */
+    static int getSaturationValueBucket(int rgb) {
+        int r = (rgb >> 16) & 0xFF;
+        int g = (rgb >> 8) & 0xFF;
+        int b = rgb & 0xFF;
+        int max = Math.max(r, Math.max(g, b));
+        int delta = max - Math.min(r, Math.min(g, b));
+        int bucket = max * 10000 / 255;
+        if (delta != 0) {
+            int s100 = delta * 100;
+            // As with the hue, an integer result can be rounded down by colorToHSV.
+            bucket += s100 % max != 0 ? s100 / max : (int) (((float) delta / max) * 100);
+        }
+        return bucket;
+    }
+
+    /**
+     * Per thread buffers, so that extracting colors does not allocate.
+     */
+    private static class Scratch {
+        final float[] hueScoreHistogram = new float[360];
+        // Always cleared after use
+        final float[] svScoreHistogram = new float[SV_BUCKET_COUNT];
+
+        private int[] mRow = new int[0];
+        private int[] mPixels = new int[0];
+        private int[] mHues = new int[0];
+        private int[] mUsedBuckets = new int[0];
+
+        int[] getRow(int width) {
+            if (mRow.length < width) {
+                mRow = new int[width];
+            }
+            return mRow;
+        }
+
+        int[] getPixels(int samples) {
+            if (mPixels.length < samples) {
+                mPixels = new int[samples];
+            }
+            return mPixels;
+        }
+
+        int[] getHues(int samples) {
+            if (mHues.length < samples) {
+                mHues = new int[samples];
+            }
+            return mHues;
+        }
+
+        int[] getUsedBuckets(int count) {
+            if (mUsedBuckets.length < count) {
+                mUsedBuckets = new int[count];
+            }
+            return mUsedBuckets;
+        }
+    }
 }
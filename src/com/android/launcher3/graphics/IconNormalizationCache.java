@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.graphics;
+
+import android.content.ComponentName;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.res.Resources;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.util.Log;
+
+import com.android.launcher3.LauncherFiles;
+import com.android.launcher3.LauncherModel;
+import com.android.launcher3.util.SQLiteCacheHelper;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Persistent cache of the results of {@link IconNormalizer#getScale}, so that icons which are
+ * rendered again without their drawable having changed skip the rasterization and pixel scan.
+ *
+ * Results are keyed by the component, the version of its package, the icon density and the icon
+ * system state (see {@link #createKey}). The mask shape detection is stored along with the hash
+ * of the system icon mask it was computed for, so that changing the icon shape only redoes the
+ * shape detection.
+ *
+ * All the entries are loaded in memory on first access. Writes are batched on the worker thread.
+ */
+public class IconNormalizationCache {
+
+    private static final String TAG = "IconNormalizationCache";
+
+    private static final long WRITE_DELAY_MS = 1000;
+
+    private static final Object sInstanceLock = new Object();
+    private static IconNormalizationCache sInstance;
+
+    public static IconNormalizationCache getInstance(Context context) {
+        synchronized (sInstanceLock) {
+            if (sInstance == null) {
+                sInstance = new IconNormalizationCache(context.getApplicationContext());
+            }
+            return sInstance;
+        }
+    }
+
+    /**
+     * A normalization result, for a drawable drawn at {@link #width} x {@link #height}.
+     */
+    public static class Entry {
+        public final int width;
+        public final int height;
+        public final float scale;
+        // Visible bounds of the drawable in pixels, empty if it has no visible pixel.
+        public final Rect bounds;
+
+        // Hash of the mask for which isMaskShape was computed, or 0 if it was not computed.
+        public final int maskHash;
+        public final boolean isMaskShape;
+
+        public Entry(int width, int height, float scale, Rect bounds, int maskHash,
+                boolean isMaskShape) {
+            this.width = width;
+            this.height = height;
+            this.scale = scale;
+            this.bounds = new Rect(bounds);
+            this.maskHash = maskHash;
+            this.isMaskShape = isMaskShape;
+        }
+
+        public Entry withMaskShape(int maskHash, boolean isMaskShape) {
+            return new Entry(width, height, scale, bounds, maskHash, isMaskShape);
+        }
+    }
+
+    private final NormalizationDB mDb;
+    private final Handler mWorkerHandler;
+    private final int mMaskHash;
+
+    // Guarded by mEntries
+    private final HashMap<String, Entry> mEntries = new HashMap<>();
+    private final HashMap<String, ContentValues> mPendingWrites = new HashMap<>();
+    private boolean mLoaded;
+    private int mHits;
+    private int mMisses;
+
+    private final Runnable mWriteRunnable = this::writePendingEntries;
+
+    private IconNormalizationCache(Context context) {
+        mDb = new NormalizationDB(context);
+        mWorkerHandler = new Handler(LauncherModel.getWorkerLooper());
+
+        // The mask can only change with a process restart, see IconShapeOverride.
+        int maskResId = IconShapeOverride.getConfigResId();
+        String mask = maskResId == 0 ? "" : Resources.getSystem().getString(maskResId);
+        // Never 0, which stands for a result without shape detection.
+        mMaskHash = mask.hashCode() | 1;
+    }
+
+    /**
+     * Returns a key identifying the icon of {@param cn} in the version {@param info} of its
+     * package.
+     */
+    public static String createKey(ComponentName cn, PackageInfo info, int iconDpi,
+            String iconSystemState) {
+        return cn.flattenToString() + "#" + info.versionCode + "#" + info.lastUpdateTime
+                + "#" + iconDpi + "#" + iconSystemState;
+    }
+
+    /**
+     * Returns the hash of the current system icon mask.
+     */
+    public int getMaskHash() {
+        return mMaskHash;
+    }
+
+    public Entry get(String key) {
+        synchronized (mEntries) {
+            loadIfNecessaryLocked();
+            Entry entry = mEntries.get(key);
+            if (entry == null) {
+                mMisses++;
+            } else {
+                mHits++;
+            }
+            return entry;
+        }
+    }
+
+    public void put(String key, Entry entry) {
+        ContentValues values = new ContentValues();
+        values.put(NormalizationDB.COLUMN_KEY, key);
+        values.put(NormalizationDB.COLUMN_PACKAGE, key.substring(0, key.indexOf('/')));
+        values.put(NormalizationDB.COLUMN_WIDTH, entry.width);
+        values.put(NormalizationDB.COLUMN_HEIGHT, entry.height);
+        values.put(NormalizationDB.COLUMN_SCALE, entry.scale);
+        values.put(NormalizationDB.COLUMN_LEFT, entry.bounds.left);
+        values.put(NormalizationDB.COLUMN_TOP, entry.bounds.top);
+        values.put(NormalizationDB.COLUMN_RIGHT, entry.bounds.right);
+        values.put(NormalizationDB.COLUMN_BOTTOM, entry.bounds.bottom);
+        values.put(NormalizationDB.COLUMN_MASK_HASH, entry.maskHash);
+        values.put(NormalizationDB.COLUMN_MASK_SHAPE, entry.isMaskShape ? 1 : 0);
+
+        synchronized (mEntries) {
+            mEntries.put(key, entry);
+            if (mPendingWrites.isEmpty()) {
+                mWorkerHandler.postDelayed(mWriteRunnable, WRITE_DELAY_MS);
+            }
+            mPendingWrites.put(key, values);
+        }
+    }
+
+    /**
+     * Removes the entries of all the versions of the package.
+     */
+    public void removePackage(String packageName) {
+        String prefix = packageName + "/";
+        synchronized (mEntries) {
+            removeKeysWithPrefix(mEntries.keySet().iterator(), prefix);
+            removeKeysWithPrefix(mPendingWrites.keySet().iterator(), prefix);
+        }
+        mWorkerHandler.post(() -> mDb.delete(NormalizationDB.COLUMN_PACKAGE + " = ?",
+                new String[] {packageName}));
+    }
+
+    private static void removeKeysWithPrefix(Iterator<String> keys, String prefix) {
+        while (keys.hasNext()) {
+            if (keys.next().startsWith(prefix)) {
+                keys.remove();
+            }
+        }
+    }
+
+    private void writePendingEntries() {
+        ArrayList<ContentValues> values;
+        synchronized (mEntries) {
+            values = new ArrayList<>(mPendingWrites.values());
+            mPendingWrites.clear();
+        }
+        mDb.insertOrReplace(values);
+    }
+
+    private void loadIfNecessaryLocked() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        Cursor c = null;
+        try {
+            c = mDb.query(new String[] {NormalizationDB.COLUMN_KEY, NormalizationDB.COLUMN_WIDTH,
+                    NormalizationDB.COLUMN_HEIGHT, NormalizationDB.COLUMN_SCALE,
+                    NormalizationDB.COLUMN_LEFT, NormalizationDB.COLUMN_TOP,
+                    NormalizationDB.COLUMN_RIGHT, NormalizationDB.COLUMN_BOTTOM,
+                    NormalizationDB.COLUMN_MASK_HASH, NormalizationDB.COLUMN_MASK_SHAPE},
+                    null, null);
+            Rect bounds = new Rect();
+            while (c.moveToNext()) {
+                bounds.set(c.getInt(4), c.getInt(5), c.getInt(6), c.getInt(7));
+                mEntries.put(c.getString(0), new Entry(c.getInt(1), c.getInt(2),
+                        c.getFloat(3), bounds, c.getInt(8), c.getInt(9) != 0));
+            }
+        } catch (SQLiteException e) {
+            Log.d(TAG, "Error reading normalization cache", e);
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        synchronized (mEntries) {
+            writer.println(prefix + "IconNormalizationCache: size=" + mEntries.size()
+                    + " hits=" + mHits + " misses=" + mMisses
+                    + " pendingWrites=" + mPendingWrites.size());
+        }
+    }
+
+    private static final class NormalizationDB extends SQLiteCacheHelper {
+        private final static int RELEASE_VERSION = 1;
+
+        private final static String TABLE_NAME = "normalization";
+        private final static String COLUMN_KEY = "key";
+        private final static String COLUMN_PACKAGE = "package";
+        private final static String COLUMN_WIDTH = "width";
+        private final static String COLUMN_HEIGHT = "height";
+        private final static String COLUMN_SCALE = "scale";
+        private final static String COLUMN_LEFT = "boundsLeft";
+        private final static String COLUMN_TOP = "boundsTop";
+        private final static String COLUMN_RIGHT = "boundsRight";
+        private final static String COLUMN_BOTTOM = "boundsBottom";
+        private final static String COLUMN_MASK_HASH = "maskHash";
+        private final static String COLUMN_MASK_SHAPE = "maskShape";
+
+        public NormalizationDB(Context context) {
+            super(context, LauncherFiles.ICON_NORMALIZATION_DB, RELEASE_VERSION, TABLE_NAME);
+        }
+
+        @Override
+        protected void onCreateTable(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
+                    COLUMN_KEY + " TEXT NOT NULL PRIMARY KEY, " +
+                    COLUMN_PACKAGE + " TEXT NOT NULL, " +
+                    COLUMN_WIDTH + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_HEIGHT + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_SCALE + " REAL NOT NULL DEFAULT 1, " +
+                    COLUMN_LEFT + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_TOP + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_RIGHT + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_BOTTOM + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_MASK_HASH + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_MASK_SHAPE + " INTEGER NOT NULL DEFAULT 0" +
+                    ");");
+            db.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_package ON " + TABLE_NAME
+                    + " (" + COLUMN_PACKAGE + ");");
+        }
+    }
+}
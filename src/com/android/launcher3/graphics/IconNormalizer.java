@@ -82,6 +82,8 @@ public class IconNormalizer {
     private final Path mShapePath;
     private final Matrix mMatrix;
 
+    private final IconNormalizationCache mCache;
+
     /** package private **/
     IconNormalizer(Context context) {
         // Use twice the icon size as maximum size to avoid scaling down twice.
@@ -108,6 +110,8 @@ public class IconNormalizer {
         mShapePath = new Path();
         mMatrix = new Matrix();
         mAdaptiveIconScale = SCALE_NOT_INITIALIZED;
+
+        mCache = IconNormalizationCache.getInstance(context);
     }
 
     /**
@@ -190,8 +194,21 @@ public class IconNormalizer {
      *
      * @param outBounds optional rect to receive the fraction distance from each edge.
      */
-    public synchronized float getScale(@NonNull Drawable d, @Nullable RectF outBounds,
+    public float getScale(@NonNull Drawable d, @Nullable RectF outBounds,
             @Nullable Path path, @Nullable boolean[] outMaskShape) {
+        return getScale(d, outBounds, path, outMaskShape, null);
+    }
+
+    /**
+     * Same as {@link #getScale(Drawable, RectF, Path, boolean[])}, reusing the persisted result
+     * for {@param cacheKey} if present.
+     *
+     * @param path the system icon mask, or null.
+     * @param cacheKey optional key identifying the drawable, see
+     *                 {@link IconNormalizationCache#createKey}.
+     */
+    public synchronized float getScale(@NonNull Drawable d, @Nullable RectF outBounds,
+            @Nullable Path path, @Nullable boolean[] outMaskShape, @Nullable String cacheKey) {
         if (Utilities.ATLEAST_OREO && d instanceof AdaptiveIconDrawable) {
             if (mAdaptiveIconScale != SCALE_NOT_INITIALIZED) {
                 if (outBounds != null) {
@@ -215,9 +232,28 @@ public class IconNormalizer {
             height = mMaxSize * height / max;
         }
 
-        mBitmap.eraseColor(Color.TRANSPARENT);
-        d.setBounds(0, 0, width, height);
-        d.draw(mCanvas);
+        boolean needsMaskShape = outMaskShape != null && outMaskShape.length > 0;
+        IconNormalizationCache.Entry cached = cacheKey == null ? null : mCache.get(cacheKey);
+        if (cached != null && cached.width == width && cached.height == height) {
+            if (cached.bounds.isEmpty()) {
+                // No valid pixels found. Do not scale.
+                return 1;
+            }
+            mBounds.set(cached.bounds);
+            if (needsMaskShape) {
+                if (cached.maskHash != mCache.getMaskHash()) {
+                    // The icon shape changed since the result was stored, only redo the shape
+                    // detection.
+                    drawIcon(d, width, height);
+                    cached = cached.withMaskShape(mCache.getMaskHash(), isShape(path));
+                    mCache.put(cacheKey, cached);
+                }
+                outMaskShape[0] = cached.isMaskShape;
+            }
+            return onScaleComputed(d, cached.scale, width, height, outBounds);
+        }
+
+        drawIcon(d, width, height);
 
         ByteBuffer buffer = ByteBuffer.wrap(mPixels);
         buffer.rewind();
@@ -270,6 +306,11 @@ public class IconNormalizer {
 
         if (topY == -1 || rightX == -1) {
             // No valid pixels found. Do not scale.
+            if (cacheKey != null) {
+                mBounds.setEmpty();
+                mCache.put(cacheKey, new IconNormalizationCache.Entry(
+                        width, height, 1, mBounds, 0, false));
+            }
             return 1;
         }
 
@@ -301,18 +342,36 @@ public class IconNormalizer {
         mBounds.top = topY;
         mBounds.bottom = bottomY;
 
+        boolean isMaskShape = false;
+        if (needsMaskShape) {
+            isMaskShape = outMaskShape[0] = isShape(path);
+        }
+        float areaScale = area / (width * height);
+        // Use sqrt of the final ratio as the images is scaled across both width and height.
+        float scale = areaScale > scaleRequired ? (float) Math.sqrt(scaleRequired / areaScale) : 1;
+        if (cacheKey != null) {
+            mCache.put(cacheKey, new IconNormalizationCache.Entry(width, height, scale, mBounds,
+                    needsMaskShape ? mCache.getMaskHash() : 0, isMaskShape));
+        }
+        return onScaleComputed(d, scale, width, height, outBounds);
+    }
+
+    private void drawIcon(Drawable d, int width, int height) {
+        mBitmap.eraseColor(Color.TRANSPARENT);
+        d.setBounds(0, 0, width, height);
+        d.draw(mCanvas);
+    }
+
+    /**
+     * Sets {@param outBounds} from {@link #mBounds} and returns the scale.
+     */
+    private float onScaleComputed(Drawable d, float scale, int width, int height,
+            @Nullable RectF outBounds) {
         if (outBounds != null) {
             outBounds.set(((float) mBounds.left) / width, ((float) mBounds.top) / height,
                     1 - ((float) mBounds.right) / width,
                     1 - ((float) mBounds.bottom) / height);
         }
-
-        if (outMaskShape != null && outMaskShape.length > 0) {
-            outMaskShape[0] = isShape(path);
-        }
-        float areaScale = area / (width * height);
-        // Use sqrt of the final ratio as the images is scaled across both width and height.
-        float scale = areaScale > scaleRequired ? (float) Math.sqrt(scaleRequired / areaScale) : 1;
         if (Utilities.ATLEAST_OREO && d instanceof AdaptiveIconDrawable &&
                 mAdaptiveIconScale == SCALE_NOT_INITIALIZED) {
             mAdaptiveIconScale = scale;
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.graphics;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders icons on a pool of threads sized by the number of cores. Every render obtains its own
+ * {@link LauncherIcons}, so concurrent renders never share the scratch bitmaps of
+ * {@link IconNormalizer} and {@link ShadowGenerator}.
+ *
+ * The work queue is bounded: once it is full, the submitting thread renders the icon itself.
+ */
+public class IconRenderPool {
+
+    private static final String TAG = "IconRenderPool";
+
+    public static final int THREAD_COUNT =
+            Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Suggested number of icons submitted together, large enough to keep all threads busy.
+     */
+    public static final int BATCH_SIZE = THREAD_COUNT * 4;
+
+    private static final int QUEUE_CAPACITY = BATCH_SIZE;
+    private static final int KEEP_ALIVE_SECONDS = 1;
+
+    // Buckets of the latency histogram, the bucket i counting renders under 2^i microseconds.
+    private static final int LATENCY_BUCKETS = 24;
+
+    /**
+     * Renders a single item.
+     */
+    public interface Renderer<I, R> {
+
+        /**
+         * Called on any thread, with a {@link LauncherIcons} which is not used concurrently.
+         */
+        R render(LauncherIcons li, I item);
+    }
+
+    private final Context mContext;
+    private final ThreadPoolExecutor mExecutor;
+
+    // Render latency stats, guarded by mLatencyHistogram
+    private final long[] mLatencyHistogram = new long[LATENCY_BUCKETS];
+    private long mRenderCount;
+    private long mTotalRenderNanos;
+    private long mMaxRenderNanos;
+
+    public IconRenderPool(Context context) {
+        mContext = context.getApplicationContext();
+
+        AtomicInteger threadCount = new AtomicInteger();
+        mExecutor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(QUEUE_CAPACITY),
+                r -> new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }, "icon-render-" + threadCount.incrementAndGet()),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Renders all the items in parallel and waits for them to complete.
+     * @return the results in the order of {@param items}. The result of an item is null if
+     *         rendering it failed.
+     */
+    public <I, R> List<R> renderAll(List<I> items, Renderer<I, R> renderer) {
+        ArrayList<Future<R>> futures = new ArrayList<>(items.size());
+        for (I item : items) {
+            futures.add(mExecutor.submit(new RenderCallable<>(renderer, item)));
+        }
+
+        ArrayList<R> results = new ArrayList<>(items.size());
+        boolean interrupted = false;
+        for (Future<R> future : futures) {
+            R result = null;
+            while (true) {
+                try {
+                    result = future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    // Renders can not be abandoned half way, as the callers expect a result per
+                    // item. Wait for them and restore the interrupt afterwards.
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Error rendering icon", e.getCause());
+                    break;
+                }
+            }
+            results.add(result);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return results;
+    }
+
+    private void onRendered(long durationNanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(durationNanos);
+        int bucket = Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        synchronized (mLatencyHistogram) {
+            mLatencyHistogram[bucket]++;
+            mRenderCount++;
+            mTotalRenderNanos += durationNanos;
+            mMaxRenderNanos = Math.max(mMaxRenderNanos, durationNanos);
+        }
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        synchronized (mLatencyHistogram) {
+            writer.println(prefix + "IconRenderPool: threads=" + THREAD_COUNT
+                    + " rendered=" + mRenderCount
+                    + " meanMs=" + (mRenderCount == 0 ? 0
+                            : toMillis(mTotalRenderNanos / mRenderCount))
+                    + " p50Ms<=" + getPercentileBoundMillis(50)
+                    + " p90Ms<=" + getPercentileBoundMillis(90)
+                    + " p99Ms<=" + getPercentileBoundMillis(99)
+                    + " maxMs=" + toMillis(mMaxRenderNanos));
+        }
+    }
+
+    /**
+     * Returns the upper bound of the histogram bucket containing the given percentile.
+     * Must be called while holding the lock on {@link #mLatencyHistogram}.
+     */
+    private float getPercentileBoundMillis(int percentile) {
+        if (mRenderCount == 0) {
+            return 0;
+        }
+        long target = (mRenderCount * percentile + 99) / 100;
+        long count = 0;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            count += mLatencyHistogram[i];
+            if (count >= target) {
+                return (1L << i) / 1000f;
+            }
+        }
+        return toMillis(mMaxRenderNanos);
+    }
+
+    private static float toMillis(long nanos) {
+        return nanos / 1000000f;
+    }
+
+    private class RenderCallable<I, R> implements Callable<R> {
+
+        private final Renderer<I, R> mRenderer;
+        private final I mItem;
+
+        RenderCallable(Renderer<I, R> renderer, I item) {
+            mRenderer = renderer;
+            mItem = item;
+        }
+
+        @Override
+        public R call() {
+            long start = SystemClock.elapsedRealtimeNanos();
+            try (LauncherIcons li = LauncherIcons.obtain(mContext)) {
+                return mRenderer.render(li, mItem);
+            } finally {
+                onRendered(SystemClock.elapsedRealtimeNanos() - start);
+            }
+        }
+    }
+}
@@ -111,7 +111,7 @@ public class IconShapeOverride {
         return staticField;
     }
 
-    private static int getConfigResId() {
+    static int getConfigResId() {
         return Resources.getSystem().getIdentifier("config_icon_mask", "string", "android");
     }
 
@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.logging;
+
+import android.util.Log;
+
+import com.android.launcher3.Utilities;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An append-only log of binary records in a memory-mapped file, used by {@link FileLog}.
+ *
+ * The file is a ring of fixed-size segments. A record which doesn't fit in the rest of a segment
+ * starts the next segment, overwriting its oldest records. Each record holds a timestamp, a tag
+ * id, a level and a UTF-8 payload, and is stamped with its position in the stream of all the
+ * records ever written. Writers reserve space by advancing the stream position with a CAS, so
+ * appends from multiple threads don't take a lock.
+ *
+ * The position is written last and a record is only read if it is at the position it claims,
+ * which rejects both the records being written and the records left from an earlier pass over
+ * the ring. Tag names are kept in a separate text file, where the tag id is the line number,
+ * which is written on the given executor so that logging a new tag doesn't block on the disk.
+ */
+final class LogRingBuffer {
+
+    private static final String TAG = "LogRingBuffer";
+
+    static final String RING_FILE_NAME = "log-ring";
+    static final String TAGS_FILE_NAME = "log-tags";
+
+    private static final int DEFAULT_SEGMENT_SIZE = 64 << 10;  // 64 kb
+    private static final int DEFAULT_SEGMENT_COUNT = 16;
+
+    // Record layout
+    private static final int OFFSET_POSITION = 0;  // long
+    private static final int OFFSET_LENGTH = 8;  // int, header included
+    private static final int OFFSET_TIME = 12;  // long
+    private static final int OFFSET_TAG = 20;  // short
+    private static final int OFFSET_LEVEL = 22;  // byte
+    private static final int HEADER_SIZE = 23;
+
+    // Records start on a multiple of 8 bytes, so that the position is written in one go.
+    private static final int ALIGNMENT = 8;
+
+    private final File mTagsFile;
+    private final Executor mTagsExecutor;
+    private final int mSegmentSize;
+    private final int mSegmentCount;
+    private final long mCapacity;
+
+    private final MappedByteBuffer mBuffer;
+    private final ThreadLocal<ByteBuffer> mThreadBuffers;
+    private final AtomicLong mPosition;
+
+    private final ConcurrentHashMap<String, Short> mTagIds = new ConcurrentHashMap<>();
+    // Guarded by itself
+    private final ArrayList<String> mTagNames = new ArrayList<>();
+
+    /**
+     * @param tagsExecutor a serial executor on which the new tags are written.
+     */
+    LogRingBuffer(File dir, Executor tagsExecutor) throws IOException {
+        this(dir, DEFAULT_SEGMENT_SIZE, DEFAULT_SEGMENT_COUNT, tagsExecutor);
+    }
+
+    /**
+     * @param segmentSize the size of a segment in bytes, a multiple of {@link #ALIGNMENT}
+     * @param tagsExecutor a serial executor on which the new tags are written.
+     */
+    LogRingBuffer(File dir, int segmentSize, int segmentCount, Executor tagsExecutor)
+            throws IOException {
+        mTagsFile = new File(dir, TAGS_FILE_NAME);
+        mTagsExecutor = tagsExecutor;
+        mSegmentSize = segmentSize;
+        mSegmentCount = segmentCount;
+        mCapacity = (long) segmentSize * segmentCount;
+
+        RandomAccessFile file = new RandomAccessFile(new File(dir, RING_FILE_NAME), "rw");
+        try {
+            if (file.length() != mCapacity) {
+                // New file or different layout, start from an empty ring.
+                file.setLength(0);
+                file.setLength(mCapacity);
+            }
+            // The mapping remains valid once the file is closed.
+            mBuffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mCapacity);
+        } finally {
+            Utilities.closeSilently(file);
+        }
+
+        mThreadBuffers = new ThreadLocal<ByteBuffer>() {
+            @Override
+            protected ByteBuffer initialValue() {
+                // Each thread writes its payload through its own view of the buffer.
+                return mBuffer.duplicate();
+            }
+        };
+        loadTags();
+        mPosition = new AtomicLong(findStartPosition());
+    }
+
+    private void loadTags() {
+        if (!mTagsFile.exists()) {
+            return;
+        }
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new FileReader(mTagsFile));
+            String tag;
+            while ((tag = in.readLine()) != null) {
+                mTagIds.putIfAbsent(tag, (short) mTagNames.size());
+                mTagNames.add(tag);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading log tags", e);
+        } finally {
+            Utilities.closeSilently(in);
+        }
+    }
+
+    /**
+     * Returns the position at which to resume writing: the start of the segment following the
+     * last record, so that the records of previous runs are kept in order.
+     */
+    private long findStartPosition() {
+        ByteBuffer buffer = mBuffer.duplicate();
+        long end = 0;
+        for (int i = 0; i < mSegmentCount; i++) {
+            end = Math.max(end, readSegment(buffer, i, null, 0, null));
+        }
+        return (end + mSegmentSize - 1) / mSegmentSize * mSegmentSize;
+    }
+
+    private short getTagId(String tag) {
+        Short id = mTagIds.get(tag);
+        if (id != null) {
+            return id;
+        }
+        synchronized (mTagNames) {
+            id = mTagIds.get(tag);
+            if (id == null) {
+                String name = tag.replace('\n', ' ');
+                id = (short) mTagNames.size();
+                mTagNames.add(name);
+                mTagIds.put(tag, id);
+                // Posted while holding the lock, so that the tags are written in id order.
+                mTagsExecutor.execute(() -> writeTag(name));
+            }
+            return id;
+        }
+    }
+
+    private void writeTag(String name) {
+        FileWriter out = null;
+        try {
+            out = new FileWriter(mTagsFile, true);
+            out.write(name);
+            out.write('\n');
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing log tags", e);
+        } finally {
+            Utilities.closeSilently(out);
+        }
+    }
+
+    /**
+     * Appends a record. Can be called from any thread.
+     */
+    void append(long time, String tag, int level, String msg) {
+        byte[] payload = msg.getBytes(StandardCharsets.UTF_8);
+        int length = HEADER_SIZE + Math.min(payload.length, mSegmentSize - HEADER_SIZE);
+        int size = align(length);
+        short tagId = getTagId(tag);
+
+        long current;
+        long position;
+        do {
+            current = mPosition.get();
+            position = current;
+            long segmentEnd = (current / mSegmentSize + 1) * mSegmentSize;
+            if (position + size > segmentEnd) {
+                // Doesn't fit in the current segment, start the next one.
+                position = segmentEnd;
+            }
+        } while (!mPosition.compareAndSet(current, position + size));
+
+        ByteBuffer buffer = mThreadBuffers.get();
+        int offset = (int) (position % mCapacity);
+        buffer.putInt(offset + OFFSET_LENGTH, length);
+        buffer.putLong(offset + OFFSET_TIME, time);
+        buffer.putShort(offset + OFFSET_TAG, tagId);
+        buffer.put(offset + OFFSET_LEVEL, (byte) level);
+        buffer.position(offset + HEADER_SIZE);
+        buffer.put(payload, 0, length - HEADER_SIZE);
+        buffer.putLong(offset + OFFSET_POSITION, position);
+    }
+
+    /**
+     * Writes the mapped records to the disk.
+     */
+    void flush() {
+        mBuffer.force();
+    }
+
+    /**
+     * Prints all the records logged at or after {@param minTime}, oldest first.
+     */
+    void dump(PrintWriter out, long minTime, DateFormat dateFormat) {
+        ByteBuffer buffer = mBuffer.duplicate();
+
+        // Order the segments by the position of their first record.
+        long[] starts = new long[mSegmentCount];
+        int count = 0;
+        for (int i = 0; i < mSegmentCount; i++) {
+            long start = buffer.getLong(i * mSegmentSize + OFFSET_POSITION);
+            if (isRecordAt(buffer, i * mSegmentSize, start)) {
+                starts[count++] = start;
+            }
+        }
+        Arrays.sort(starts, 0, count);
+
+        String[] tags;
+        synchronized (mTagNames) {
+            tags = mTagNames.toArray(new String[mTagNames.size()]);
+        }
+        Printer printer = new Printer(dateFormat, tags);
+        for (int i = 0; i < count; i++) {
+            readSegment(buffer, (int) ((starts[i] % mCapacity) / mSegmentSize), out, minTime,
+                    printer);
+        }
+    }
+
+    private boolean isRecordAt(ByteBuffer buffer, int offset, long position) {
+        if (position < 0 || position % mCapacity != offset) {
+            return false;
+        }
+        int length = buffer.getInt(offset + OFFSET_LENGTH);
+        return length >= HEADER_SIZE && offset % mSegmentSize + length <= mSegmentSize;
+    }
+
+    /**
+     * Reads the records of a segment, printing them if {@param out} is not null.
+     * @return the position following the last record of the segment, or 0 if it is empty.
+     */
+    private long readSegment(ByteBuffer buffer, int segment, PrintWriter out, long minTime,
+            Printer printer) {
+        int segmentStart = segment * mSegmentSize;
+        int segmentEnd = segmentStart + mSegmentSize;
+        long position = buffer.getLong(segmentStart + OFFSET_POSITION);
+        long end = 0;
+        int offset = segmentStart;
+        while (offset + HEADER_SIZE <= segmentEnd && isRecordAt(buffer, offset, position)) {
+            int length = buffer.getInt(offset + OFFSET_LENGTH);
+            if (out != null) {
+                long time = buffer.getLong(offset + OFFSET_TIME);
+                if (time >= minTime) {
+                    printer.print(out, buffer, offset, length, time);
+                }
+            }
+            int size = align(length);
+            position += size;
+            offset += size;
+            end = position;
+        }
+        return end;
+    }
+
+    private static int align(int length) {
+        return (length + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /**
+     * Renders records as text.
+     */
+    private static class Printer {
+
+        private final DateFormat mDateFormat;
+        private final String[] mTags;
+        private final Date mDate = new Date();
+        private byte[] mPayload = new byte[256];
+
+        Printer(DateFormat dateFormat, String[] tags) {
+            mDateFormat = dateFormat;
+            mTags = tags;
+        }
+
+        void print(PrintWriter out, ByteBuffer buffer, int offset, int length, long time) {
+            int tagId = buffer.getShort(offset + OFFSET_TAG);
+            int level = buffer.get(offset + OFFSET_LEVEL);
+            int payloadLength = length - HEADER_SIZE;
+            if (mPayload.length < payloadLength) {
+                mPayload = new byte[payloadLength];
+            }
+            buffer.position(offset + HEADER_SIZE);
+            buffer.get(mPayload, 0, payloadLength);
+
+            mDate.setTime(time);
+            out.print(mDateFormat.format(mDate));
+            out.print(' ');
+            out.print(getLevelChar(level));
+            out.print(' ');
+            out.print(tagId >= 0 && tagId < mTags.length ? mTags[tagId] : "#" + tagId);
+            out.print(' ');
+            out.println(new String(mPayload, 0, payloadLength, StandardCharsets.UTF_8));
+        }
+
+        private static char getLevelChar(int level) {
+            switch (level) {
+                case Log.VERBOSE: return 'V';
+                case Log.DEBUG: return 'D';
+                case Log.INFO: return 'I';
+                case Log.WARN: return 'W';
+                case Log.ERROR: return 'E';
+                default: return '?';
+            }
+        }
+    }
+}
@@ -65,8 +65,8 @@ public class UserEventDispatcher {
 
     private final static int MAXIMUM_VIEW_HIERARCHY_LEVEL = 5;
 
-    private static final String TAG = "UserEvent";
-    private static final boolean IS_VERBOSE =
+    static final String TAG = "UserEvent";
+    static final boolean IS_VERBOSE =
             FeatureFlags.IS_DOGFOOD_BUILD && Utilities.isPropertyEnabled(LogConfig.USEREVENT);
     private static final String UUID_STORAGE = "uuid";
 
@@ -439,9 +439,16 @@ public class UserEventDispatcher {
         ev.elapsedContainerMillis = SystemClock.uptimeMillis() - mElapsedContainerMillis;
         ev.elapsedSessionMillis = SystemClock.uptimeMillis() - mElapsedSessionMillis;
 
-        if (!IS_VERBOSE) {
-            return;
+        UserEventLog userEventLog = UserEventLog.getInstance();
+        if (userEventLog != null) {
+            // The event is logged by the background writer in verbose mode.
+            userEventLog.record(ev);
+        } else if (IS_VERBOSE) {
+            Log.d(TAG, getEventStr(ev));
         }
+    }
+
+    static String getEventStr(LauncherEvent ev) {
         String log = "\n-----------------------------------------------------"
                 + "\naction:" + LoggerUtils.getActionStr(ev.action);
         if (ev.srcTarget != null && ev.srcTarget.length > 0) {
@@ -458,7 +465,7 @@ public class UserEventDispatcher {
         log += "\n isInLandscapeMode " + ev.isInLandscapeMode;
         log += "\n isInMultiWindowMode " + ev.isInMultiWindowMode;
         log += "\n\n";
-        Log.d(TAG, log);
+        return log;
     }
 
     private static String getTargetsStr(Target[] targets) {
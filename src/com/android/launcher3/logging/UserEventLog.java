@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.logging;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Base64;
+import android.util.Log;
+
+import com.android.launcher3.Utilities;
+import com.android.launcher3.userevent.nano.LauncherLogProto.LauncherEvent;
+import com.google.protobuf.nano.CodedOutputByteBufferNano;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A persistent log of the {@link LauncherEvent}s dispatched by {@link UserEventDispatcher}.
+ *
+ * Events are recorded in a bounded ring of references, without locking nor allocating, so that
+ * recording them is cheap on the UI thread. A background thread drains the ring in batches and
+ * appends the events, serialized as length-delimited protos, to a set of rotating files. Events
+ * recorded while the ring is full are dropped.
+ *
+ * The files can be exported as base64 with:
+ * $ adb shell dumpsys activity com.android.launcher3.Launcher --user-events
+ */
+public class UserEventLog {
+
+    private static final String TAG = "UserEventLog";
+
+    static final String DIR_NAME = "user_events";
+    static final String FILE_PREFIX = "events-";
+
+    private static final int DEFAULT_CAPACITY = 256;
+    private static final int DEFAULT_MAX_FILE_SIZE = 128 << 10;  // 128 kb
+    private static final int DEFAULT_FILE_COUNT = 8;
+
+    // Events are written at most this long after being recorded, or as soon as the ring is half
+    // full.
+    private static final long BATCH_DELAY_MS = 5000;
+
+    private static final Object sInstanceLock = new Object();
+    private static volatile UserEventLog sInstance;
+    private static File sDir;
+
+    /**
+     * Sets the directory in which the events are persisted, see {@link FileLog#setDir}.
+     */
+    public static void setDir(File filesDir) {
+        synchronized (sInstanceLock) {
+            File dir = new File(filesDir, DIR_NAME);
+            if (!dir.equals(sDir)) {
+                sInstance = null;
+            }
+            sDir = dir;
+        }
+    }
+
+    /**
+     * Returns the event log, or null if no directory was set in this process.
+     */
+    public static UserEventLog getInstance() {
+        UserEventLog instance = sInstance;
+        if (instance != null) {
+            return instance;
+        }
+        synchronized (sInstanceLock) {
+            if (sInstance == null && sDir != null) {
+                HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+                thread.start();
+                sInstance = new UserEventLog(sDir, DEFAULT_CAPACITY, DEFAULT_MAX_FILE_SIZE,
+                        DEFAULT_FILE_COUNT, thread.getLooper());
+            }
+            return sInstance;
+        }
+    }
+
+    private final File mDir;
+    private final int mCapacity;
+    private final int mMaxFileSize;
+    private final int mFileCount;
+    private final Handler mHandler;
+    private final Runnable mWriteRunnable = this::writePendingEvents;
+
+    // The ring: events are added at mHead and removed at mTail. A slot is null until the event
+    // claimed for it is published.
+    private final AtomicReferenceArray<LauncherEvent> mEvents;
+    private final AtomicLong mHead = new AtomicLong();
+    private final AtomicLong mTail = new AtomicLong();
+    private final AtomicBoolean mWriteScheduled = new AtomicBoolean();
+
+    // Recording stats
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mRecordNanos = new AtomicLong();
+    private final AtomicLong mMaxRecordNanos = new AtomicLong();
+
+    // Writer state, guarded by this
+    private byte[] mBuffer = new byte[4096];
+    private FileOutputStream mOut;
+    private int mFileSize;
+    private int mNextFileIndex = -1;
+    private long mWrittenEvents;
+    private long mWrittenBytes;
+    private int mBatches;
+    private long mWriteNanos;
+
+    UserEventLog(File dir, int capacity, int maxFileSize, int fileCount, Looper looper) {
+        mDir = dir;
+        mCapacity = capacity;
+        mMaxFileSize = maxFileSize;
+        mFileCount = fileCount;
+        mHandler = new Handler(looper);
+        mEvents = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Records {@param event}, which should not be changed afterwards. Can be called from any
+     * thread.
+     */
+    public void record(LauncherEvent event) {
+        long start = System.nanoTime();
+        long head;
+        long size;
+        do {
+            head = mHead.get();
+            size = head - mTail.get();
+            if (size >= mCapacity) {
+                mDropped.incrementAndGet();
+                updateRecordStats(start);
+                return;
+            }
+        } while (!mHead.compareAndSet(head, head + 1));
+        mEvents.set((int) (head % mCapacity), event);
+
+        if (size + 1 == mCapacity / 2) {
+            mHandler.post(mWriteRunnable);
+        } else if (mWriteScheduled.compareAndSet(false, true)) {
+            mHandler.postDelayed(mWriteRunnable, BATCH_DELAY_MS);
+        }
+        updateRecordStats(start);
+    }
+
+    private void updateRecordStats(long start) {
+        long nanos = System.nanoTime() - start;
+        mRecordNanos.addAndGet(nanos);
+        long max;
+        do {
+            max = mMaxRecordNanos.get();
+        } while (nanos > max && !mMaxRecordNanos.compareAndSet(max, nanos));
+    }
+
+    /**
+     * Writes all the published events to the files.
+     */
+    synchronized void writePendingEvents() {
+        mWriteScheduled.set(false);
+        long start = System.nanoTime();
+        int length = 0;
+        int count = 0;
+        long tail = mTail.get();
+        long head = mHead.get();
+        while (tail < head) {
+            int index = (int) (tail % mCapacity);
+            LauncherEvent event = mEvents.get(index);
+            if (event == null) {
+                // Claimed but not published yet
+                break;
+            }
+            mEvents.set(index, null);
+            mTail.set(++tail);
+            length = serialize(event, length);
+            count++;
+
+            if (UserEventDispatcher.IS_VERBOSE) {
+                Log.d(UserEventDispatcher.TAG, UserEventDispatcher.getEventStr(event));
+            }
+        }
+        if (tail < head && mWriteScheduled.compareAndSet(false, true)) {
+            mHandler.postDelayed(mWriteRunnable, BATCH_DELAY_MS);
+        }
+        if (count == 0) {
+            return;
+        }
+
+        append(length);
+        mWrittenEvents += count;
+        mBatches++;
+        mWriteNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Serializes {@param event} prefixed with its size into {@link #mBuffer} at {@param offset}.
+     * @return the end offset of the event.
+     */
+    private int serialize(LauncherEvent event, int offset) {
+        int size = event.getSerializedSize();
+        int total = CodedOutputByteBufferNano.computeRawVarint32Size(size) + size;
+        if (offset + total > mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, offset + total));
+        }
+        try {
+            CodedOutputByteBufferNano out =
+                    CodedOutputByteBufferNano.newInstance(mBuffer, offset, total);
+            out.writeRawVarint32(size);
+            event.writeTo(out);
+        } catch (IOException e) {
+            Log.e(TAG, "Error serializing event", e);
+            return offset;
+        }
+        return offset + total;
+    }
+
+    private void append(int length) {
+        try {
+            if (mOut == null || mFileSize + length > mMaxFileSize) {
+                openNextFile(length);
+            }
+            mOut.write(mBuffer, 0, length);
+            mFileSize += length;
+            mWrittenBytes += length;
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing events", e);
+            Utilities.closeSilently(mOut);
+            mOut = null;
+        }
+    }
+
+    /**
+     * Opens the file to append {@param length} bytes to: the last file if it was left by a
+     * previous process with enough room, or a new file replacing the oldest one.
+     */
+    private void openNextFile(int length) throws IOException {
+        Utilities.closeSilently(mOut);
+        mOut = null;
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            throw new IOException("Unable to create " + mDir);
+        }
+
+        File[] files = getFiles();
+        if (mNextFileIndex < 0) {
+            mNextFileIndex = files.length == 0 ? 0 : getFileIndex(files[files.length - 1]) + 1;
+            if (files.length > 0 && files[files.length - 1].length() + length <= mMaxFileSize) {
+                File last = files[files.length - 1];
+                mFileSize = (int) last.length();
+                mOut = new FileOutputStream(last, true);
+                return;
+            }
+        }
+        for (int i = 0; i <= files.length - mFileCount; i++) {
+            files[i].delete();
+        }
+        mFileSize = 0;
+        mOut = new FileOutputStream(new File(mDir,
+                FILE_PREFIX + String.format(Locale.US, "%08d", mNextFileIndex++)));
+    }
+
+    /**
+     * Returns the event files, oldest first.
+     */
+    File[] getFiles() {
+        File[] files = mDir.listFiles((dir, name) -> name.startsWith(FILE_PREFIX));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static int getFileIndex(File file) {
+        try {
+            return Integer.parseInt(file.getName().substring(FILE_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        long recorded = mHead.get();
+        long dropped = mDropped.get();
+        long recordCalls = recorded + dropped;
+        writer.println(prefix + "UserEventLog: recorded=" + recorded + " dropped=" + dropped
+                + " pending=" + (recorded - mTail.get())
+                + " written=" + mWrittenEvents + " bytes=" + mWrittenBytes
+                + " batches=" + mBatches + " files=" + getFiles().length);
+        writer.println(prefix + "  record: avgNs=" + (recordCalls == 0 ? 0
+                : mRecordNanos.get() / recordCalls) + " maxNs=" + mMaxRecordNanos.get()
+                + "  write: avgMs=" + (mBatches == 0 ? 0
+                : TimeUnit.NANOSECONDS.toMillis(mWriteNanos / mBatches)));
+    }
+
+    /**
+     * Writes the pending events, then prints the content of the files as base64, oldest first.
+     * Once decoded and concatenated, the files are a stream of length-delimited
+     * {@link LauncherEvent}s.
+     */
+    public synchronized void export(PrintWriter writer) {
+        writePendingEvents();
+        for (File file : getFiles()) {
+            byte[] data = new byte[(int) file.length()];
+            FileInputStream in = null;
+            try {
+                in = new FileInputStream(file);
+                int read = 0;
+                while (read < data.length) {
+                    int count = in.read(data, read, data.length - read);
+                    if (count < 0) {
+                        break;
+                    }
+                    read += count;
+                }
+                writer.println("--- " + file.getName() + " ---");
+                writer.print(Base64.encodeToString(data, 0, read, Base64.DEFAULT));
+            } catch (IOException e) {
+                writer.println("Error reading " + file.getName() + ": " + e);
+            } finally {
+                Utilities.closeSilently(in);
+            }
+        }
+    }
+}
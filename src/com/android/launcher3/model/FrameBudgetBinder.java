@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.model;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.SparseLongArray;
+import android.view.Choreographer;
+import android.view.Display;
+import android.view.WindowManager;
+
+import com.android.launcher3.ItemInfo;
+import com.android.launcher3.LauncherModel.Callbacks;
+import com.android.launcher3.LauncherSettings.Favorites;
+import com.android.launcher3.util.Preconditions;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Binds workspace items to the {@link Callbacks} on the main thread, page by page.
+ *
+ * The cost of binding an item is estimated per item type from the previous binds. When binding
+ * over several frames, the items are packed in batches which fit in the time budget of each
+ * frame, so that icons are bound many at a time while expensive widgets are spread over several
+ * frames. The first item of a frame is always bound, so that the bind always progresses, and the
+ * next ones only if they are estimated to complete before the end of the budget.
+ *
+ * The time spent binding each page is logged once the page is bound. To enable it, execute:
+ * $ adb shell setprop log.tag.FrameBudgetBinder DEBUG
+ *
+ * The tasks added with {@link #runAfterBind} only run after the last batch, so when binding over
+ * several frames they run that many frames after the bind started.
+ */
+class FrameBudgetBinder implements Choreographer.FrameCallback {
+
+    private static final String TAG = "FrameBudgetBinder";
+
+    // Fraction of the frame interval used for binding, the rest is left for layout and drawing.
+    private static final float FRAME_BUDGET_FRACTION = 0.5f;
+    // Weight of a new measurement in the cost estimates.
+    private static final float COST_SMOOTHING = 0.25f;
+
+    private static final long DEFAULT_FRAME_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1) / 60;
+    private static final long DEFAULT_ICON_COST_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+    private static final long DEFAULT_FOLDER_COST_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long DEFAULT_WIDGET_COST_NANOS = TimeUnit.MILLISECONDS.toNanos(4);
+
+    // Estimated cost of binding one item, by item type. Only accessed on the main thread.
+    private static final SparseLongArray sCostNanos = new SparseLongArray();
+
+    private final WeakReference<Callbacks> mCallbacks;
+    private final BgDataModel mDataModel;
+    private final int mBindId;
+    private final long mFrameIntervalNanos;
+
+    private final ArrayList<Page> mPages = new ArrayList<>();
+    private final ArrayList<Runnable> mEndTasks = new ArrayList<>();
+
+    private int mPageIndex = 0;
+
+    /**
+     * @param bindId the {@link BgDataModel#lastBindId} of the bind, the binder stops as soon as
+     *               another bind is started.
+     */
+    FrameBudgetBinder(Context context, WeakReference<Callbacks> callbacks,
+            BgDataModel dataModel, int bindId) {
+        mCallbacks = callbacks;
+        mDataModel = dataModel;
+        mBindId = bindId;
+        mFrameIntervalNanos = getFrameIntervalNanos(context);
+    }
+
+    /**
+     * Adds a page to bind, after the pages already added.
+     * @param items the items of the page, in the order they should be bound.
+     */
+    public void addPage(long screenId, List<ItemInfo> items) {
+        if (!items.isEmpty()) {
+            mPages.add(new Page(screenId, items));
+        }
+    }
+
+    /**
+     * Adds a task to run on the main thread once all the pages are bound.
+     */
+    public void runAfterBind(Runnable task) {
+        mEndTasks.add(task);
+    }
+
+    /**
+     * Binds all the pages right away, to be used when nothing is drawn yet.
+     */
+    public void bindAll() {
+        Preconditions.assertUIThread();
+        while (mPageIndex < mPages.size()) {
+            Callbacks callbacks = getCurrentCallbacks();
+            if (callbacks == null) {
+                break;
+            }
+            bindNextBatch(callbacks, Long.MAX_VALUE, true);
+        }
+        finish();
+    }
+
+    /**
+     * Binds the pages over the next frames, within the time budget of each frame.
+     */
+    public void bindInFrames() {
+        Preconditions.assertUIThread();
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        long deadline = frameTimeNanos + (long) (mFrameIntervalNanos * FRAME_BUDGET_FRACTION);
+        boolean firstBatch = true;
+        while (mPageIndex < mPages.size()) {
+            Callbacks callbacks = getCurrentCallbacks();
+            if (callbacks == null) {
+                finish();
+                return;
+            }
+            if (!bindNextBatch(callbacks, deadline, firstBatch)) {
+                Choreographer.getInstance().postFrameCallback(this);
+                return;
+            }
+            firstBatch = false;
+        }
+        finish();
+    }
+
+    private void finish() {
+        if (getCurrentCallbacks() == null) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Cancelled with " + (mPages.size() - mPageIndex) + " pages left");
+            }
+            return;
+        }
+        for (Runnable task : mEndTasks) {
+            task.run();
+        }
+    }
+
+    /**
+     * Returns the callbacks to bind to, or null if they are gone or another bind was started.
+     */
+    private Callbacks getCurrentCallbacks() {
+        return mDataModel.lastBindId == mBindId ? mCallbacks.get() : null;
+    }
+
+    /**
+     * Binds the next items of the current page of the same type, as many as are estimated to
+     * complete before {@param deadlineNanos}.
+     * @param force whether to bind the first item even if it isn't estimated to complete in time.
+     * @return false if nothing was bound because the next item would not complete in time.
+     */
+    private boolean bindNextBatch(Callbacks callbacks, long deadlineNanos, boolean force) {
+        Page page = mPages.get(mPageIndex);
+        List<ItemInfo> items = page.items;
+        int start = page.nextItem;
+        int itemType = items.get(start).itemType;
+        long cost = getCost(itemType);
+
+        // Compared to the remaining time rather than added to now, as the deadline of a bind
+        // without budget is Long.MAX_VALUE.
+        long available = deadlineNanos - System.nanoTime() - cost;
+        if (!force && available < 0) {
+            return false;
+        }
+
+        int end = start + 1;
+        if (isBatchable(itemType)) {
+            while (end < items.size() && items.get(end).itemType == itemType
+                    && (available -= cost) >= 0) {
+                end++;
+            }
+        }
+
+        long startTime = System.nanoTime();
+        callbacks.bindItems(items.subList(start, end), false);
+        long elapsed = System.nanoTime() - startTime;
+
+        long sample = elapsed / (end - start);
+        sCostNanos.put(itemType, cost + (long) ((sample - cost) * COST_SMOOTHING));
+
+        page.bindNanos += elapsed;
+        page.nextItem = end;
+        if (end == items.size()) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Page " + page.screenId + ": " + items.size() + " items bound in "
+                        + TimeUnit.NANOSECONDS.toMicros(page.bindNanos) + "us");
+            }
+            mPageIndex++;
+        }
+        return true;
+    }
+
+    private static boolean isBatchable(int itemType) {
+        // Widgets are bound one at a time, as each one can be expensive to inflate.
+        return itemType != Favorites.ITEM_TYPE_APPWIDGET
+                && itemType != Favorites.ITEM_TYPE_CUSTOM_APPWIDGET;
+    }
+
+    private static long getCost(int itemType) {
+        long cost = sCostNanos.get(itemType, -1);
+        if (cost >= 0) {
+            return cost;
+        }
+        switch (itemType) {
+            case Favorites.ITEM_TYPE_APPWIDGET:
+            case Favorites.ITEM_TYPE_CUSTOM_APPWIDGET:
+                return DEFAULT_WIDGET_COST_NANOS;
+            case Favorites.ITEM_TYPE_FOLDER:
+                return DEFAULT_FOLDER_COST_NANOS;
+            default:
+                return DEFAULT_ICON_COST_NANOS;
+        }
+    }
+
+    private static long getFrameIntervalNanos(Context context) {
+        Display display = ((WindowManager) context.getSystemService(Context.WINDOW_SERVICE))
+                .getDefaultDisplay();
+        float refreshRate = display.getRefreshRate();
+        return refreshRate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / refreshRate)
+                : DEFAULT_FRAME_INTERVAL_NANOS;
+    }
+
+    private static class Page {
+
+        final long screenId;
+        final List<ItemInfo> items;
+
+        int nextItem = 0;
+        long bindNanos = 0;
+
+        Page(long screenId, List<ItemInfo> items) {
+            this.screenId = screenId;
+            this.items = items;
+        }
+    }
+}
@@ -32,9 +32,14 @@ import com.android.launcher3.util.GridOccupancy;
 import com.android.launcher3.util.LongArrayMap;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Locale;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class takes care of shrinking the workspace (by maximum of one row and one column), as a
@@ -58,6 +63,11 @@ public class GridSizeMigrationTask {
     private static final float WT_WIDGET_FACTOR = 0.6f;
     private static final float WT_FOLDER_FACTOR = 0.5f;
 
+    // The weights above are multiples of 0.1, so two weight losses closer than this are the same.
+    private static final float WEIGHT_EPSILON = 0.001f;
+    // Maximum number of grid states remembered by a placement search.
+    private static final int MAX_MEMO_SIZE = 1 << 14;
+
     private final Context mContext;
     private final InvariantDeviceProfile mIdp;
 
@@ -74,6 +84,12 @@ public class GridSizeMigrationTask {
     private final int mSrcHotseatSize;
     private final int mDestHotseatSize;
 
+    // Placement search stats, updated from the planning threads.
+    private final AtomicLong mPlanningNanos = new AtomicLong();
+    private final AtomicLong mNodesExplored = new AtomicLong();
+    private final AtomicLong mNodesPrunedByBound = new AtomicLong();
+    private final AtomicLong mNodesPrunedByMemo = new AtomicLong();
+
     protected GridSizeMigrationTask(Context context, InvariantDeviceProfile idp,
                                     HashSet<String> validPackages, Point sourceSize, Point targetSize) {
         mContext = context;
@@ -193,11 +209,18 @@ public class GridSizeMigrationTask {
             throw new Exception("Unable to get workspace screens");
         }
 
-        for (long screenId : allScreens) {
-            if (DEBUG) {
-                Log.d(TAG, "Migrating " + screenId);
+        long startTime = System.currentTimeMillis();
+        if (FeatureFlags.MIGRATION_PARALLEL_PLANNING && allScreens.size() > 1) {
+            for (ScreenPlan plan : planScreensInParallel(allScreens)) {
+                applyScreenPlan(plan);
+            }
+        } else {
+            for (long screenId : allScreens) {
+                if (DEBUG) {
+                    Log.d(TAG, "Migrating " + screenId);
+                }
+                migrateScreen(screenId);
             }
-            migrateScreen(screenId);
         }
 
         if (!mCarryOver.isEmpty()) {
@@ -247,6 +270,15 @@ public class GridSizeMigrationTask {
                 mUpdateOperations.add(ContentProviderOperation.newInsert(uri).withValues(v).build());
             }
         }
+
+        if (DEBUG) {
+            Log.d(TAG, String.format(Locale.ENGLISH,
+                    "Planned %d screens in %dms (search: %dms, %d nodes explored, %d pruned"
+                            + " by bound, %d by memo)", allScreens.size(),
+                    System.currentTimeMillis() - startTime,
+                    TimeUnit.NANOSECONDS.toMillis(mPlanningNanos.get()), mNodesExplored.get(),
+                    mNodesPrunedByBound.get(), mNodesPrunedByMemo.get()));
+        }
         return applyOperations();
     }
 
@@ -261,12 +293,47 @@ public class GridSizeMigrationTask {
      * (otherwise they are placed on a new screen).
      */
     protected void migrateScreen(long screenId) {
+        applyScreenPlan(planScreen(screenId, loadWorkspaceEntries(screenId)));
+    }
+
+    /**
+     * Plans the migration of all the screens in parallel, as the choice of the row and column to
+     * remove on a screen does not depend on the other screens. The entries are still loaded on
+     * the calling thread, which also plans any screen not yet picked up by the thread pool.
+     *
+     * @return the plans in the order of {@param screenIds}
+     */
+    private ArrayList<ScreenPlan> planScreensInParallel(ArrayList<Long> screenIds)
+            throws Exception {
+        ArrayList<FutureTask<ScreenPlan>> tasks = new ArrayList<>(screenIds.size());
+        for (long screenId : screenIds) {
+            ArrayList<DbEntry> items = loadWorkspaceEntries(screenId);
+            FutureTask<ScreenPlan> task = new FutureTask<>(() -> planScreen(screenId, items));
+            Utilities.THREAD_POOL_EXECUTOR.execute(task);
+            tasks.add(task);
+        }
+
+        ArrayList<ScreenPlan> plans = new ArrayList<>(tasks.size());
+        for (FutureTask<ScreenPlan> task : tasks) {
+            // Does nothing if the task was already started by the thread pool.
+            task.run();
+            plans.add(task.get());
+        }
+        return plans;
+    }
+
+    /**
+     * Picks the row and column to remove on a screen, without changing any state of this task.
+     * Can be called from any thread.
+     */
+    private ScreenPlan planScreen(long screenId, ArrayList<DbEntry> items) {
+        ScreenPlan plan = new ScreenPlan();
+        plan.screenId = screenId;
+        plan.items = items;
         // If we are migrating the first screen, do not touch the first row.
-        int startY = (FeatureFlags.QSB_ON_FIRST_SCREEN && screenId == Workspace.FIRST_SCREEN_ID)
+        plan.startY = (FeatureFlags.QSB_ON_FIRST_SCREEN && screenId == Workspace.FIRST_SCREEN_ID)
                 ? 1 : 0;
 
-        ArrayList<DbEntry> items = loadWorkspaceEntries(screenId);
-
         int removedCol = Integer.MAX_VALUE;
         int removedRow = Integer.MAX_VALUE;
 
@@ -284,10 +351,11 @@ public class GridSizeMigrationTask {
         for (int x = 0; x < mSrcX; x++) {
             // Try removing the rows first from bottom. This keeps the workspace
             // nicely aligned with hotseat.
-            for (int y = mSrcY - 1; y >= startY; y--) {
+            for (int y = mSrcY - 1; y >= plan.startY; y--) {
                 // Use a deep copy when trying out a particular combination as it can change
                 // the underlying object.
-                ArrayList<DbEntry> itemsOnScreen = tryRemove(x, y, startY, deepCopy(items), outLoss);
+                ArrayList<DbEntry> itemsOnScreen =
+                        tryRemove(x, y, plan.startY, deepCopy(items), outLoss);
 
                 if ((outLoss[0] < removeWt) || ((outLoss[0] == removeWt) && (outLoss[1] < moveWt))) {
                     removeWt = outLoss[0];
@@ -313,8 +381,22 @@ public class GridSizeMigrationTask {
                     removedRow, removedCol, screenId));
         }
 
+        plan.removeWt = removeWt;
+        plan.finalItems = finalItems;
+        return plan;
+    }
+
+    /**
+     * Updates the items of a screen as per {@param plan}, and tries to place the items carried
+     * over from the previous screens on it.
+     */
+    private void applyScreenPlan(ScreenPlan plan) {
+        long screenId = plan.screenId;
+        int startY = plan.startY;
+        ArrayList<DbEntry> finalItems = plan.finalItems;
+
         LongArrayMap<DbEntry> itemMap = new LongArrayMap<>();
-        for (DbEntry e : deepCopy(items)) {
+        for (DbEntry e : deepCopy(plan.items)) {
             itemMap.put(e.id, e);
         }
 
@@ -333,7 +415,7 @@ public class GridSizeMigrationTask {
             mCarryOver.add(item);
         }
 
-        if (!mCarryOver.isEmpty() && removeWt == 0) {
+        if (!mCarryOver.isEmpty() && plan.removeWt == 0) {
             // No new items were removed in this step. Try placing all the items on this screen.
             GridOccupancy occupied = new GridOccupancy(mTrgX, mTrgY);
             occupied.markCells(0, 0, mTrgX, startY, true);
@@ -357,6 +439,20 @@ public class GridSizeMigrationTask {
         }
     }
 
+    /**
+     * The row and column removal picked for a screen, along with the resulting item positions.
+     */
+    private static class ScreenPlan {
+        long screenId;
+        int startY;
+
+        // All the items loaded for the screen, before migration.
+        ArrayList<DbEntry> items;
+        // The items kept on the screen, with their new positions.
+        ArrayList<DbEntry> finalItems;
+        float removeWt;
+    }
+
     /**
      * Updates an item in the DB.
      */
@@ -409,6 +505,14 @@ public class GridSizeMigrationTask {
         return finalItems;
     }
 
+    /**
+     * Searches the placement of a list of items with the lowest weight loss, as a branch and
+     * bound: a branch is cut when the weight lost so far, plus a lower bound of the weight which
+     * will be lost placing the remaining items, is not lower than the best solution found so far.
+     * Partial placements reaching an already explored grid state with no lower weight loss are
+     * also cut. Only branches which can not lead to a lower weight loss are cut, so the solution
+     * is as good as the one of an exhaustive search.
+     */
     private class OptimalPlacementSolution {
         private final ArrayList<DbEntry> itemsToPlace;
         private final GridOccupancy occupied;
@@ -420,10 +524,23 @@ public class GridSizeMigrationTask {
         // The first row in the grid from where the placement should start.
         private final int startY;
 
+        // Smallest area each item can be resized to.
+        private final int[] minAreas;
+        // Indices of the items by decreasing weight per cell, for computing the bounds.
+        private final Integer[] boundOrder;
+        // Lowest weight loss seen when starting to place an item on a given grid state.
+        private final HashMap<GridState, Float> memo = new HashMap<>();
+        // Items placed in the current branch of the search.
+        private final ArrayList<DbEntry> itemsPlaced = new ArrayList<>();
+
         float lowestWeightLoss = Float.MAX_VALUE;
         float lowestMoveCost = Float.MAX_VALUE;
         ArrayList<DbEntry> finalPlacedItems;
 
+        int nodesExplored;
+        int nodesPrunedByBound;
+        int nodesPrunedByMemo;
+
         public OptimalPlacementSolution(
                 GridOccupancy occupied, ArrayList<DbEntry> itemsToPlace, int startY) {
             this(occupied, itemsToPlace, startY, false);
@@ -438,10 +555,69 @@ public class GridSizeMigrationTask {
 
             // Sort the items such that larger widgets appear first followed by 1x1 items
             Collections.sort(this.itemsToPlace);
+
+            int count = itemsToPlace.size();
+            minAreas = new int[count];
+            boundOrder = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                DbEntry item = itemsToPlace.get(i);
+                // Widgets can be shrunk by one cell in each direction.
+                int minW = item.spanX > item.minSpanX ? item.spanX - 1 : item.spanX;
+                int minH = item.spanY > item.minSpanY ? item.spanY - 1 : item.spanY;
+                minAreas[i] = Math.max(minW, 1) * Math.max(minH, 1);
+                boundOrder[i] = i;
+            }
+            Arrays.sort(boundOrder, (a, b) -> Float.compare(
+                    itemsToPlace.get(b).weight / minAreas[b],
+                    itemsToPlace.get(a).weight / minAreas[a]));
         }
 
         public void find() {
-            find(0, 0, 0, new ArrayList<DbEntry>());
+            long startTime = System.nanoTime();
+            find(0, 0, 0);
+
+            mPlanningNanos.addAndGet(System.nanoTime() - startTime);
+            mNodesExplored.addAndGet(nodesExplored);
+            mNodesPrunedByBound.addAndGet(nodesPrunedByBound);
+            mNodesPrunedByMemo.addAndGet(nodesPrunedByMemo);
+        }
+
+        /**
+         * Returns a lower bound of the weight lost when placing the items from {@param index}
+         * onwards on the vacant cells: the weight of the items left out by a fractional knapsack
+         * of the vacant cells.
+         */
+        private float getLossBound(int index) {
+            int vacantCells = occupied.getVacantCellCount();
+            float loss = 0;
+            for (int i : boundOrder) {
+                if (i < index) {
+                    continue;
+                }
+                if (vacantCells >= minAreas[i]) {
+                    vacantCells -= minAreas[i];
+                } else {
+                    loss += itemsToPlace.get(i).weight * (minAreas[i] - vacantCells) / minAreas[i];
+                    vacantCells = 0;
+                }
+            }
+            return loss;
+        }
+
+        /**
+         * Returns true if no placement of the items from {@param index} onwards can lead to a
+         * lower weight loss than the best solution found so far.
+         */
+        private boolean isBounded(int index, float weightLoss) {
+            if (weightLoss >= lowestWeightLoss) {
+                return true;
+            }
+            // Allow for the rounding errors between the bound and the actual sum of weights.
+            if (weightLoss + getLossBound(index) >= lowestWeightLoss - WEIGHT_EPSILON) {
+                nodesPrunedByBound++;
+                return true;
+            }
+            return false;
         }
 
         /**
@@ -450,10 +626,9 @@ public class GridSizeMigrationTask {
          * @param index       the position in {@link #itemsToPlace} to start looking at.
          * @param weightLoss  total weight loss upto this point
          * @param moveCost    total move cost upto this point
-         * @param itemsPlaced all the items already placed upto this point
          */
-        public void find(int index, float weightLoss, float moveCost,
-                         ArrayList<DbEntry> itemsPlaced) {
+        public void find(int index, float weightLoss, float moveCost) {
+            nodesExplored++;
             if ((weightLoss >= lowestWeightLoss) ||
                     ((weightLoss == lowestWeightLoss) && (moveCost >= lowestMoveCost))) {
                 // Abort, as we already have a better solution.
@@ -469,15 +644,25 @@ public class GridSizeMigrationTask {
                 return;
             }
 
+            if (isBounded(index, weightLoss)) {
+                return;
+            }
+
+            // The items left to place are the same every time this grid state is reached, so
+            // only a lower weight loss up to this point can lead to a better solution.
+            GridState state = new GridState(index, occupied);
+            Float lowestSeen = memo.get(state);
+            if (lowestSeen != null && weightLoss >= lowestSeen) {
+                nodesPrunedByMemo++;
+                return;
+            } else if (memo.size() < MAX_MEMO_SIZE || lowestSeen != null) {
+                memo.put(state, weightLoss);
+            }
+
             DbEntry me = itemsToPlace.get(index);
             int myX = me.cellX;
             int myY = me.cellY;
 
-            // List of items to pass over if this item was placed.
-            ArrayList<DbEntry> itemsIncludingMe = new ArrayList<>(itemsPlaced.size() + 1);
-            itemsIncludingMe.addAll(itemsPlaced);
-            itemsIncludingMe.add(me);
-
             if (me.spanX > 1 || me.spanY > 1) {
                 // If the current item is a widget (and it greater than 1x1), try to place it at
                 // all possible positions. This is because a widget placed at one position can
@@ -485,8 +670,15 @@ public class GridSizeMigrationTask {
                 int myW = me.spanX;
                 int myH = me.spanY;
 
+                // Only the placements of this item which leave room for the remaining items
+                // are explored, in the same order as before.
                 for (int y = startY; y < mTrgY; y++) {
                     for (int x = 0; x < mTrgX; x++) {
+                        // A better solution was found in a previous branch.
+                        if (isBounded(index, weightLoss)) {
+                            return;
+                        }
+
                         float newMoveCost = moveCost;
                         if (x != myX) {
                             me.cellX = x;
@@ -502,28 +694,22 @@ public class GridSizeMigrationTask {
 
                         if (occupied.isRegionVacant(x, y, myW, myH)) {
                             // place at this position and continue search.
-                            occupied.markCells(me, true);
-                            find(index + 1, weightLoss, newMoveCost, itemsIncludingMe);
-                            occupied.markCells(me, false);
+                            placeAndFind(me, index, weightLoss, newMoveCost);
                         }
 
                         // Try resizing horizontally
                         if (myW > me.minSpanX && occupied.isRegionVacant(x, y, myW - 1, myH)) {
                             me.spanX--;
-                            occupied.markCells(me, true);
                             // 1 extra move cost
-                            find(index + 1, weightLoss, newMoveCost + 1, itemsIncludingMe);
-                            occupied.markCells(me, false);
+                            placeAndFind(me, index, weightLoss, newMoveCost + 1);
                             me.spanX++;
                         }
 
                         // Try resizing vertically
                         if (myH > me.minSpanY && occupied.isRegionVacant(x, y, myW, myH - 1)) {
                             me.spanY--;
-                            occupied.markCells(me, true);
                             // 1 extra move cost
-                            find(index + 1, weightLoss, newMoveCost + 1, itemsIncludingMe);
-                            occupied.markCells(me, false);
+                            placeAndFind(me, index, weightLoss, newMoveCost + 1);
                             me.spanY++;
                         }
 
@@ -532,10 +718,8 @@ public class GridSizeMigrationTask {
                                 occupied.isRegionVacant(x, y, myW - 1, myH - 1)) {
                             me.spanX--;
                             me.spanY--;
-                            occupied.markCells(me, true);
                             // 2 extra move cost
-                            find(index + 1, weightLoss, newMoveCost + 2, itemsIncludingMe);
-                            occupied.markCells(me, false);
+                            placeAndFind(me, index, weightLoss, newMoveCost + 2);
                             me.spanX++;
                             me.spanY++;
                         }
@@ -547,7 +731,7 @@ public class GridSizeMigrationTask {
                 // Finally also try a solution when this item is not included. Trying it in the end
                 // causes it to get skipped in most cases due to higher weight loss, and prevents
                 // unnecessary deep copies of various configurations.
-                find(index + 1, weightLoss + me.weight, moveCost, itemsPlaced);
+                find(index + 1, weightLoss + me.weight, moveCost);
             } else {
                 // Since this is a 1x1 item and all the following items are also 1x1, just place
                 // it at 'the most appropriate position' and hope for the best.
@@ -557,7 +741,7 @@ public class GridSizeMigrationTask {
 
                 for (int y = startY; y < mTrgY; y++) {
                     for (int x = 0; x < mTrgX; x++) {
-                        if (!occupied.cells[x][y]) {
+                        if (!occupied.isOccupied(x, y)) {
                             int dist = ignoreMove ? 0 :
                                     ((me.cellX - x) * (me.cellX - x) + (me.cellY - y) * (me.cellY - y));
                             if (dist < newDistance) {
@@ -582,9 +766,7 @@ public class GridSizeMigrationTask {
                     if (ignoreMove) {
                         newMoveCost = moveCost;
                     }
-                    occupied.markCells(me, true);
-                    find(index + 1, weightLoss, newMoveCost, itemsIncludingMe);
-                    occupied.markCells(me, false);
+                    placeAndFind(me, index, weightLoss, newMoveCost);
                     me.cellX = myX;
                     me.cellY = myY;
 
@@ -596,17 +778,58 @@ public class GridSizeMigrationTask {
                     //      anyway be same.
                     if (index + 1 < itemsToPlace.size()
                             && itemsToPlace.get(index + 1).weight >= me.weight && !ignoreMove) {
-                        find(index + 1, weightLoss + me.weight, moveCost, itemsPlaced);
+                        find(index + 1, weightLoss + me.weight, moveCost);
                     }
                 } else {
                     // No more space. Jump to the end.
                     for (int i = index + 1; i < itemsToPlace.size(); i++) {
                         weightLoss += itemsToPlace.get(i).weight;
                     }
-                    find(itemsToPlace.size(), weightLoss + me.weight, moveCost, itemsPlaced);
+                    find(itemsToPlace.size(), weightLoss + me.weight, moveCost);
                 }
             }
         }
+
+        /**
+         * Marks {@param me} on the grid at its current position and span, and continues the
+         * search with the next item.
+         */
+        private void placeAndFind(DbEntry me, int index, float weightLoss, float moveCost) {
+            occupied.markCells(me, true);
+            itemsPlaced.add(me);
+            find(index + 1, weightLoss, moveCost);
+            itemsPlaced.remove(itemsPlaced.size() - 1);
+            occupied.markCells(me, false);
+        }
+    }
+
+    /**
+     * The state of a placement search: the occupied cells when starting to place an item.
+     */
+    private static class GridState {
+        private final int index;
+        private final long[] rows;
+        private final int hashCode;
+
+        GridState(int index, GridOccupancy occupied) {
+            this.index = index;
+            this.rows = occupied.copyRows();
+            this.hashCode = 31 * index + Arrays.hashCode(rows);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof GridState)) {
+                return false;
+            }
+            GridState other = (GridState) o;
+            return index == other.index && Arrays.equals(rows, other.rows);
+        }
     }
 
     private ArrayList<DbEntry> loadHotseatEntries() {
@@ -32,6 +32,7 @@ import com.android.launcher3.PagedView;
 import com.android.launcher3.Utilities;
 import com.android.launcher3.config.FeatureFlags;
 import com.android.launcher3.util.ComponentKey;
+import com.android.launcher3.util.LongArrayMap;
 import com.android.launcher3.util.LooperIdleLock;
 import com.android.launcher3.util.MultiHashMap;
 import com.android.launcher3.util.ViewOnDrawExecutor;
@@ -53,7 +54,6 @@ public class LoaderResults {
 
     private static final String TAG = "LoaderResults";
     private static final long INVALID_SCREEN_ID = -1L;
-    private static final int ITEMS_CHUNK = 6; // batch size for the workspace icons
 
     private final Executor mUiExecutor;
 
@@ -94,13 +94,14 @@ public class LoaderResults {
         ArrayList<ItemInfo> workspaceItems = new ArrayList<>();
         ArrayList<LauncherAppWidgetInfo> appWidgets = new ArrayList<>();
         final ArrayList<Long> orderedScreenIds = new ArrayList<>();
+        final int bindId;
 
         synchronized (mBgDataModel) {
             workspaceItems.addAll(mBgDataModel.workspaceItems);
             appWidgets.addAll(mBgDataModel.appWidgets);
             Log.d("test0522", "bindWorkspace: "+appWidgets.size());
             orderedScreenIds.addAll(mBgDataModel.workspaceScreens);
-            mBgDataModel.lastBindId++;
+            bindId = ++mBgDataModel.lastBindId;
         }
 
         //校正当前页
@@ -157,7 +158,11 @@ public class LoaderResults {
         Executor mainExecutor = mUiExecutor;
         // Load items on the current page.
         //加载当前页面上的项目。
-        bindWorkspaceItems(currentWorkspaceItems, currentAppWidgets, mainExecutor);
+        // Nothing is drawn before the current page is bound, so bind it without a frame budget.
+        final FrameBudgetBinder currentPageBinder = newBinder(bindId);
+        currentPageBinder.addPage(currentScreenId,
+                concat(currentWorkspaceItems, currentAppWidgets));
+        mainExecutor.execute(currentPageBinder::bindAll);
 
         // In case of validFirstPage, only bind the first screen, and defer binding the
         // remaining screens after first onDraw (and an optional the fade animation whichever
@@ -178,18 +183,23 @@ public class LoaderResults {
             }
         });
 
-        bindWorkspaceItems(otherWorkspaceItems, otherAppWidgets, deferredExecutor);
+        // Bind the other pages over the next frames, nearest to the current page first.
+        final FrameBudgetBinder otherPagesBinder = newBinder(bindId);
+        addPagesByDistance(otherPagesBinder, orderedScreenIds, currentScreen,
+                otherWorkspaceItems, otherAppWidgets);
 
-        // Tell the workspace that we're done binding items
-        r = new Runnable() {
+        // Tell the workspace that we're done binding items. This runs after the last batch of the
+        // other pages, a few frames after the deferred executor has run: until then the workspace
+        // is still loading, and the page bound synchronously is the only one fully restored.
+        otherPagesBinder.runAfterBind(new Runnable() {
             public void run() {
                 Callbacks callbacks = mCallbacks.get();
                 if (callbacks != null) {
                     callbacks.finishBindingItems();
                 }
             }
-        };
-        deferredExecutor.execute(r);
+        });
+        deferredExecutor.execute(otherPagesBinder::bindInFrames);
 
         if (validFirstPage) {
             r = new Runnable() {
@@ -302,36 +312,68 @@ public class LoaderResults {
         });
     }
 
-    private void bindWorkspaceItems(final ArrayList<ItemInfo> workspaceItems,
-                                    final ArrayList<LauncherAppWidgetInfo> appWidgets,
-                                    final Executor executor) {
+    private FrameBudgetBinder newBinder(int bindId) {
+        return new FrameBudgetBinder(mApp.getContext(), mCallbacks, mBgDataModel, bindId);
+    }
 
-        // Bind the workspace items 把item分为6个一组 剩下不够六个的为一组 去绑定
-        int N = workspaceItems.size();
-        for (int i = 0; i < N; i += ITEMS_CHUNK) {
-            final int start = i;
-            final int chunkSize = (i + ITEMS_CHUNK <= N) ? ITEMS_CHUNK : (N - i);
-            final Runnable r = () -> {
-                Callbacks callbacks = mCallbacks.get();
-                if (callbacks != null) {
-                    callbacks.bindItems(workspaceItems.subList(start, start + chunkSize), false);
-                }
-            };
-            executor.execute(r);
+    /**
+     * Adds a page to {@param binder} for each screen, in order of distance to the current
+     * screen. The items of a page are bound before its widgets. Items which are not directly on
+     * a screen are bound last.
+     */
+    private static void addPagesByDistance(FrameBudgetBinder binder,
+            ArrayList<Long> orderedScreenIds, int currentScreen,
+            ArrayList<ItemInfo> workspaceItems, ArrayList<LauncherAppWidgetInfo> appWidgets) {
+        LongArrayMap<ArrayList<ItemInfo>> itemsByScreen = new LongArrayMap<>();
+        ArrayList<ItemInfo> otherItems = new ArrayList<>();
+        for (ItemInfo info : concat(workspaceItems, appWidgets)) {
+            if (info.container != LauncherSettings.Favorites.CONTAINER_DESKTOP) {
+                otherItems.add(info);
+                continue;
+            }
+            ArrayList<ItemInfo> items = itemsByScreen.get(info.screenId);
+            if (items == null) {
+                items = new ArrayList<>();
+                itemsByScreen.put(info.screenId, items);
+            }
+            items.add(info);
         }
 
-        // Bind the widgets, one at a time
-        N = appWidgets.size();
-        for (int i = 0; i < N; i++) {
-            final ItemInfo widget = appWidgets.get(i);
-            final Runnable r = () -> {
-                Callbacks callbacks = mCallbacks.get();
-                if (callbacks != null) {
-                    callbacks.bindItems(Collections.singletonList(widget), false);
-                }
-            };
-            executor.execute(r);
+        int start = Math.max(currentScreen, 0);
+        for (int distance = 0; distance < orderedScreenIds.size(); distance++) {
+            // Alternate between the next and the previous screens
+            addPage(binder, itemsByScreen, orderedScreenIds, start + distance);
+            if (distance > 0) {
+                addPage(binder, itemsByScreen, orderedScreenIds, start - distance);
+            }
+        }
+        // Items on screens which are not in the screen list
+        for (int i = 0; i < itemsByScreen.size(); i++) {
+            otherItems.addAll(itemsByScreen.valueAt(i));
+        }
+        binder.addPage(INVALID_SCREEN_ID, otherItems);
+    }
+
+    private static void addPage(FrameBudgetBinder binder,
+            LongArrayMap<ArrayList<ItemInfo>> itemsByScreen, ArrayList<Long> orderedScreenIds,
+            int screen) {
+        if (screen < 0 || screen >= orderedScreenIds.size()) {
+            return;
         }
+        long screenId = orderedScreenIds.get(screen);
+        ArrayList<ItemInfo> items = itemsByScreen.get(screenId);
+        if (items != null) {
+            binder.addPage(screenId, items);
+            itemsByScreen.remove(screenId);
+        }
+    }
+
+    private static ArrayList<ItemInfo> concat(ArrayList<ItemInfo> workspaceItems,
+            ArrayList<LauncherAppWidgetInfo> appWidgets) {
+        ArrayList<ItemInfo> items = new ArrayList<>(workspaceItems.size() + appWidgets.size());
+        items.addAll(workspaceItems);
+        items.addAll(appWidgets);
+        return items;
     }
 
     public void bindDeepShortcuts() {
@@ -369,7 +411,7 @@ public class LoaderResults {
 
     public void bindWidgets() {
         final ArrayList<WidgetListRowEntry> widgets =
-                mBgDataModel.widgetsModel.getWidgetsList(mApp.getContext());
+                mBgDataModel.widgetsModel.getWidgetsList();
         Runnable r = new Runnable() {
             public void run() {
                 Callbacks callbacks = mCallbacks.get();
@@ -34,6 +34,7 @@ import android.content.pm.PackageInstaller.SessionInfo;
 import android.graphics.Bitmap;
 import android.os.Handler;
 import android.os.Process;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.text.TextUtils;
 import android.util.Log;
@@ -60,6 +61,7 @@ import com.android.launcher3.config.FeatureFlags;
 import com.android.launcher3.developerspace.LogUtil;
 import com.android.launcher3.folder.Folder;
 import com.android.launcher3.folder.FolderIconPreviewVerifier;
+import com.android.launcher3.graphics.IconRenderPool;
 import com.android.launcher3.graphics.LauncherIcons;
 import com.android.launcher3.logging.FileLog;
 import com.android.launcher3.provider.ImportDataTask;
@@ -79,7 +81,10 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
  * Runnable for the thread that loads the contents of the launcher:
@@ -108,6 +113,10 @@ public class LoaderTask implements Runnable {
 
     private boolean mStopped;
 
+    private PrefetchTask<HashMap<UserHandle, List<LauncherActivityInfo>>> mAllAppsPrefetch;
+    private PrefetchTask<HashMap<UserHandle, List<ShortcutInfoCompat>>> mDeepShortcutsPrefetch;
+    private PrefetchTask<ArrayList<WidgetItem>> mWidgetsPrefetch;
+
     public LoaderTask(LauncherAppState app, AllAppsList bgAllAppsList, BgDataModel dataModel,
                       LoaderResults results) {
         mApp = app;
@@ -163,8 +172,16 @@ public class LoaderTask implements Runnable {
             }
         }
 
+        // Make sure the item updates which are still being batched are read from the database
+        ModelWriter.commitPendingUpdates(mApp.getContext());
+
         TraceHelper.beginSection(TAG);
         try (LauncherModel.LoaderTransaction transaction = mApp.getModel().beginLoader(this)) {
+            if (FeatureFlags.LOADER_PREFETCH) {
+                TraceHelper.partitionSection(TAG, "step 0: start prefetch");
+                startPrefetch();
+            }
+
             TraceHelper.partitionSection(TAG, "step 1.1: loading workspace");
             loadWorkspace();
 
@@ -213,7 +230,12 @@ public class LoaderTask implements Runnable {
 
             // fourth step
             TraceHelper.partitionSection(TAG, "step 4.1: loading widgets");
-            mBgDataModel.widgetsModel.update(mApp, null);
+            ArrayList<WidgetItem> widgets = getPrefetched(mWidgetsPrefetch);
+            if (widgets != null) {
+                mBgDataModel.widgetsModel.update(mApp, null, widgets);
+            } else {
+                mBgDataModel.widgetsModel.update(mApp, null);
+            }
 
             verifyNotStopped();
             TraceHelper.partitionSection(TAG, "step 4.2: Binding widgets");
@@ -229,9 +251,76 @@ public class LoaderTask implements Runnable {
 
     public synchronized void stopLocked() {
         mStopped = true;
+        cancelPrefetch();
         this.notify();
     }
 
+    /**
+     * Starts the binder queries for all apps, deep shortcuts and widgets in the background, so
+     * that they overlap with loading and binding the workspace.
+     */
+    private synchronized void startPrefetch() {
+        final List<UserHandle> profiles = mUserManager.getUserProfiles();
+
+        mAllAppsPrefetch = new PrefetchTask<>("all apps", () -> {
+            HashMap<UserHandle, List<LauncherActivityInfo>> result = new HashMap<>();
+            for (UserHandle user : profiles) {
+                result.put(user, mLauncherApps.getActivityList(null, user));
+            }
+            return result;
+        });
+        mDeepShortcutsPrefetch = new PrefetchTask<>("deep shortcuts", () -> {
+            HashMap<UserHandle, List<ShortcutInfoCompat>> result = new HashMap<>();
+            if (mShortcutManager.hasHostPermission()) {
+                for (UserHandle user : profiles) {
+                    if (mUserManager.isUserUnlocked(user)) {
+                        result.put(user, mShortcutManager.queryForAllShortcuts(user));
+                    }
+                }
+            }
+            return result;
+        });
+        mWidgetsPrefetch = new PrefetchTask<>("widgets",
+                () -> WidgetsModel.loadWidgetsAndShortcuts(mApp, null));
+
+        Utilities.THREAD_POOL_EXECUTOR.execute(mAllAppsPrefetch);
+        Utilities.THREAD_POOL_EXECUTOR.execute(mDeepShortcutsPrefetch);
+        Utilities.THREAD_POOL_EXECUTOR.execute(mWidgetsPrefetch);
+    }
+
+    private void cancelPrefetch() {
+        if (mAllAppsPrefetch != null) {
+            mAllAppsPrefetch.cancel(false);
+        }
+        if (mDeepShortcutsPrefetch != null) {
+            mDeepShortcutsPrefetch.cancel(false);
+        }
+        if (mWidgetsPrefetch != null) {
+            mWidgetsPrefetch.cancel(false);
+        }
+    }
+
+    /**
+     * Waits for the prefetch to complete.
+     * @return the prefetched result, or null if it was not started or failed, in which case the
+     *         data should be loaded directly.
+     * @throws CancellationException if the loader was stopped while waiting.
+     */
+    private <T> T getPrefetched(PrefetchTask<T> task) throws CancellationException {
+        if (task == null) {
+            return null;
+        }
+        try {
+            T result = task.get();
+            TraceHelper.partitionSection(TAG, "waited for " + task.mName
+                    + " prefetch, ran for " + task.mDurationMs + "ms");
+            return result;
+        } catch (InterruptedException | ExecutionException e) {
+            Log.w(TAG, "Failed to prefetch " + task.mName, e);
+            return null;
+        }
+    }
+
     //Method 'loadWorkspace' is too complex to analyze by data flow algorithm
     private void loadWorkspace() {
         final Context context = mApp.getContext();
@@ -857,12 +946,17 @@ public class LoaderTask implements Runnable {
 
     private void loadAllApps() {
         final List<UserHandle> profiles = mUserManager.getUserProfiles();
+        final HashMap<UserHandle, List<LauncherActivityInfo>> prefetchedApps =
+                getPrefetched(mAllAppsPrefetch);
 
         // Clear the list of apps
         mBgAllAppsList.clear();
         for (UserHandle user : profiles) {
             // Query for the set of apps
-            final List<LauncherActivityInfo> apps = mLauncherApps.getActivityList(null, user);
+            final List<LauncherActivityInfo> apps =
+                    prefetchedApps != null && prefetchedApps.containsKey(user)
+                            ? prefetchedApps.get(user)
+                            : mLauncherApps.getActivityList(null, user);
             // Fail if we don't have any apps
             // TODO: Fix this. Only fail for the current user.
             if (apps == null || apps.isEmpty()) {
@@ -870,10 +964,16 @@ public class LoaderTask implements Runnable {
             }
             boolean quietMode = mUserManager.isQuietModeEnabled(user);
             // Create the ApplicationInfos
-            for (int i = 0; i < apps.size(); i++) {
-                LauncherActivityInfo app = apps.get(i);
-                // This builds the icon bitmaps.
-                mBgAllAppsList.add(new AppInfo(app, user, quietMode), app);
+            for (int start = 0; start < apps.size(); start += IconRenderPool.BATCH_SIZE) {
+                List<LauncherActivityInfo> batch = apps.subList(start,
+                        Math.min(apps.size(), start + IconRenderPool.BATCH_SIZE));
+                // Render the icons missing from the cache in parallel, before adding the apps.
+                mIconCache.prepareIcons(batch, user);
+                for (int i = 0; i < batch.size(); i++) {
+                    LauncherActivityInfo app = batch.get(i);
+                    // This builds the icon bitmaps.
+                    mBgAllAppsList.add(new AppInfo(app, user, quietMode), app);
+                }
             }
         }
 
@@ -890,13 +990,17 @@ public class LoaderTask implements Runnable {
     }
 
     private void loadDeepShortcuts() {
+        final HashMap<UserHandle, List<ShortcutInfoCompat>> prefetchedShortcuts =
+                getPrefetched(mDeepShortcutsPrefetch);
         mBgDataModel.deepShortcutMap.clear();
         mBgDataModel.hasShortcutHostPermission = mShortcutManager.hasHostPermission();
         if (mBgDataModel.hasShortcutHostPermission) {
             for (UserHandle user : mUserManager.getUserProfiles()) {
                 if (mUserManager.isUserUnlocked(user)) {
                     List<ShortcutInfoCompat> shortcuts =
-                            mShortcutManager.queryForAllShortcuts(user);
+                            prefetchedShortcuts != null && prefetchedShortcuts.containsKey(user)
+                                    ? prefetchedShortcuts.get(user)
+                                    : mShortcutManager.queryForAllShortcuts(user);
                     mBgDataModel.updateDeepShortcutMap(null, user, shortcuts);
                 }
             }
@@ -907,4 +1011,39 @@ public class LoaderTask implements Runnable {
         return (provider != null) && (provider.provider != null)
                 && (provider.provider.getPackageName() != null);
     }
+
+    /**
+     * A query run on a background thread at a lower priority than the loader thread, so that
+     * loading and binding the first page is not slowed down.
+     */
+    private static class PrefetchTask<T> extends FutureTask<T> {
+
+        final String mName;
+        private long mStartTime;
+        volatile long mDurationMs = -1;
+
+        PrefetchTask(String name, Callable<T> callable) {
+            super(callable);
+            mName = name;
+        }
+
+        @Override
+        public void run() {
+            int tid = Process.myTid();
+            int oldPriority = Process.getThreadPriority(tid);
+            Process.setThreadPriority(tid, Process.THREAD_PRIORITY_BACKGROUND);
+            mStartTime = SystemClock.uptimeMillis();
+            try {
+                super.run();
+            } finally {
+                Process.setThreadPriority(tid, oldPriority);
+            }
+        }
+
+        @Override
+        protected void set(T result) {
+            mDurationMs = SystemClock.uptimeMillis() - mStartTime;
+            super.set(result);
+        }
+    }
 }
@@ -23,6 +23,7 @@ import android.content.Context;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.android.launcher3.FolderInfo;
@@ -38,28 +39,57 @@ import com.android.launcher3.ShortcutInfo;
 import com.android.launcher3.logging.FileLog;
 import com.android.launcher3.util.ContentWriter;
 import com.android.launcher3.util.ItemInfoMatcher;
+import com.android.launcher3.util.LongArrayMap;
 import com.android.launcher3.util.LooperExecutor;
+import com.android.launcher3.util.Preconditions;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.Executor;
 
 /**
  * Class for handling model updates.
+ *
+ * Updates to existing items are not written immediately: they are collected for a short window,
+ * merged per item id, and committed together in a single {@link LauncherProvider} transaction.
+ * Any other write, or an explicit {@link #flush()}, first commits the pending updates so that
+ * the writes are applied in the order they were made. The loader and the model tasks commit the
+ * pending updates before running, see {@link #commitPendingUpdates}.
  */
 public class ModelWriter {
 
     private static final String TAG = "ModelWriter";
+    private static final boolean DEBUG = false;
+
+    // Time during which item updates are collected before being committed together.
+    private static final long UPDATE_BATCH_WINDOW_MS = 50;
+
+    // Updates waiting to be committed, in the order they were first made. They are shared by all
+    // the writers, so that an update is never committed after a later add or delete.
+    // Guarded by sPendingUpdates.
+    private static final ArrayList<UpdateItemRunnable> sPendingUpdates = new ArrayList<>();
+    private static final LongArrayMap<UpdateItemRunnable> sPendingUpdatesById =
+            new LongArrayMap<>();
+
+    // Commit stats, guarded by sPendingUpdates.
+    private static int sUpdateCount;
+    private static int sBatchCount;
+    private static int sCommittedCount;
+    private static int sMaxBatchSize;
+    private static long sTotalCommitTimeMs;
+    private static long sMaxCommitTimeMs;
 
     private final Context mContext;
     private final LauncherModel mModel;
     private final BgDataModel mBgDataModel;
     private final Handler mUiHandler;
 
-    private final Executor mWorkerExecutor;
+    private final LooperExecutor mWorkerExecutor;
     private final boolean mHasVerticalHotseat;
     private final boolean mVerifyChanges;
 
+    private final Runnable mFlushRunnable = this::flush;
+
     public ModelWriter(Context context, LauncherModel model, BgDataModel dataModel,
             boolean hasVerticalHotseat, boolean verifyChanges) {
         mContext = context;
@@ -151,7 +181,7 @@ public class ModelWriter {
                 .put(Favorites.RANK, item.rank)
                 .put(Favorites.SCREEN, item.screenId);
 
-        mWorkerExecutor.execute(new UpdateItemRunnable(item, writer));
+        enqueueUpdate(new UpdateItemRunnable(item, writer));
     }
 
     /**
@@ -159,23 +189,21 @@ public class ModelWriter {
      * cellX, cellY have already been updated on the ItemInfos.
      */
     public void moveItemsInDatabase(final ArrayList<ItemInfo> items, long container, int screen) {
-        ArrayList<ContentValues> contentValues = new ArrayList<>();
         int count = items.size();
 
         for (int i = 0; i < count; i++) {
             ItemInfo item = items.get(i);
             updateItemInfoProps(item, container, screen, item.cellX, item.cellY);
 
-            final ContentValues values = new ContentValues();
-            values.put(Favorites.CONTAINER, item.container);
-            values.put(Favorites.CELLX, item.cellX);
-            values.put(Favorites.CELLY, item.cellY);
-            values.put(Favorites.RANK, item.rank);
-            values.put(Favorites.SCREEN, item.screenId);
+            final ContentWriter writer = new ContentWriter(mContext)
+                    .put(Favorites.CONTAINER, item.container)
+                    .put(Favorites.CELLX, item.cellX)
+                    .put(Favorites.CELLY, item.cellY)
+                    .put(Favorites.RANK, item.rank)
+                    .put(Favorites.SCREEN, item.screenId);
 
-            contentValues.add(values);
+            enqueueUpdate(new UpdateItemRunnable(item, writer));
         }
-        mWorkerExecutor.execute(new UpdateItemsRunnable(items, contentValues));
     }
 
     /**
@@ -197,7 +225,7 @@ public class ModelWriter {
                 .put(Favorites.SPANY, item.spanY)
                 .put(Favorites.SCREEN, item.screenId);
 
-        mWorkerExecutor.execute(new UpdateItemRunnable(item, writer));
+        enqueueUpdate(new UpdateItemRunnable(item, writer));
     }
 
     /**
@@ -206,7 +234,7 @@ public class ModelWriter {
     public void updateItemInDatabase(ItemInfo item) {
         ContentWriter writer = new ContentWriter(mContext);
         item.onAddToDatabase(writer);
-        mWorkerExecutor.execute(new UpdateItemRunnable(item, writer));
+        enqueueUpdate(new UpdateItemRunnable(item, writer));
     }
 
     /**
@@ -227,6 +255,7 @@ public class ModelWriter {
         ModelVerifier verifier = new ModelVerifier();
 
         final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
+        flush();
         mWorkerExecutor.execute(() -> {
             cr.insert(Favorites.CONTENT_URI, writer.getValues(mContext));
 
@@ -258,6 +287,7 @@ public class ModelWriter {
     public void deleteItemsFromDatabase(final Iterable<? extends ItemInfo> items) {
         ModelVerifier verifier = new ModelVerifier();
 
+        flush();
         mWorkerExecutor.execute(() -> {
             for (ItemInfo item : items) {
                 final Uri uri = Favorites.getContentUri(item.id);
@@ -275,6 +305,7 @@ public class ModelWriter {
     public void deleteFolderAndContentsFromDatabase(final FolderInfo info) {
         ModelVerifier verifier = new ModelVerifier();
 
+        flush();
         mWorkerExecutor.execute(() -> {
             ContentResolver cr = mContext.getContentResolver();
             cr.delete(LauncherSettings.Favorites.CONTENT_URI,
@@ -288,63 +319,162 @@ public class ModelWriter {
         });
     }
 
+    private void enqueueUpdate(UpdateItemRunnable update) {
+        synchronized (sPendingUpdates) {
+            sUpdateCount++;
+            UpdateItemRunnable pending = sPendingUpdatesById.get(update.mItemId);
+            if (pending != null) {
+                // Merge with the pending update of the same item, the latest values win.
+                pending.merge(update);
+            } else {
+                if (sPendingUpdates.isEmpty()) {
+                    mWorkerExecutor.getHandler().postDelayed(mFlushRunnable,
+                            UPDATE_BATCH_WINDOW_MS);
+                }
+                sPendingUpdates.add(update);
+                sPendingUpdatesById.put(update.mItemId, update);
+            }
+        }
+        if (Looper.myLooper() == LauncherModel.getWorkerLooper()) {
+            // Tasks running on the worker thread expect their writes to be applied immediately.
+            flush();
+        }
+    }
+
+    /**
+     * Commits all the pending item updates on the worker thread, before any work submitted
+     * afterwards.
+     */
+    public void flush() {
+        final ArrayList<UpdateItemRunnable> updates = takePendingUpdates();
+        if (updates != null) {
+            mWorkerExecutor.execute(() -> commitUpdates(mContext, updates));
+        }
+    }
+
+    /**
+     * Commits all the pending item updates right away. Must be called on the worker thread by
+     * any work which reads the items from the database, so that it sees all the writes made
+     * before it was submitted.
+     */
+    public static void commitPendingUpdates(Context context) {
+        Preconditions.assertWorkerThread();
+        ArrayList<UpdateItemRunnable> updates = takePendingUpdates();
+        if (updates != null) {
+            commitUpdates(context, updates);
+        }
+    }
+
+    private static ArrayList<UpdateItemRunnable> takePendingUpdates() {
+        synchronized (sPendingUpdates) {
+            if (sPendingUpdates.isEmpty()) {
+                return null;
+            }
+            ArrayList<UpdateItemRunnable> updates = new ArrayList<>(sPendingUpdates);
+            sPendingUpdates.clear();
+            sPendingUpdatesById.clear();
+            return updates;
+        }
+    }
+
+    private static void commitUpdates(Context context, ArrayList<UpdateItemRunnable> updates) {
+        long startTime = SystemClock.uptimeMillis();
+        int count = updates.size();
+        ArrayList<ContentProviderOperation> ops = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            UpdateItemRunnable update = updates.get(i);
+            ops.add(ContentProviderOperation.newUpdate(Favorites.getContentUri(update.mItemId))
+                    .withValues(update.getValues()).build());
+        }
+        try {
+            context.getContentResolver().applyBatch(LauncherProvider.AUTHORITY, ops);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to commit " + count + " item updates", e);
+        }
+        for (int i = 0; i < count; i++) {
+            updates.get(i).run();
+        }
+
+        long commitTime = SystemClock.uptimeMillis() - startTime;
+        synchronized (sPendingUpdates) {
+            sBatchCount++;
+            sCommittedCount += count;
+            sMaxBatchSize = Math.max(sMaxBatchSize, count);
+            sTotalCommitTimeMs += commitTime;
+            sMaxCommitTimeMs = Math.max(sMaxCommitTimeMs, commitTime);
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Committed " + count + " item updates in " + commitTime + "ms");
+        }
+    }
+
+    public static void dump(String prefix, PrintWriter writer) {
+        synchronized (sPendingUpdates) {
+            writer.println(prefix + "ModelWriter: updates=" + sUpdateCount
+                    + " committed=" + sCommittedCount + " batches=" + sBatchCount
+                    + " maxBatchSize=" + sMaxBatchSize + " pending=" + sPendingUpdates.size());
+            writer.println(prefix + "  commitTimeMs: total=" + sTotalCommitTimeMs
+                    + " max=" + sMaxCommitTimeMs + " avg="
+                    + (sBatchCount == 0 ? 0 : sTotalCommitTimeMs / sBatchCount));
+        }
+    }
+
+    /**
+     * An update of an item, which updates the model once the database has been written.
+     */
     private class UpdateItemRunnable extends UpdateItemBaseRunnable {
-        private final ItemInfo mItem;
-        private final ContentWriter mWriter;
+        private final ArrayList<ContentWriter> mWriters = new ArrayList<>(1);
         private final long mItemId;
+        private ItemInfo mItem;
 
         UpdateItemRunnable(ItemInfo item, ContentWriter writer) {
             mItem = item;
-            mWriter = writer;
+            mWriters.add(writer);
             mItemId = item.id;
         }
 
-        @Override
-        public void run() {
-            Uri uri = Favorites.getContentUri(mItemId);
-            mContext.getContentResolver().update(uri, mWriter.getValues(mContext), null, null);
-            updateItemArrays(mItem, mItemId);
+        /**
+         * Applies {@param update} of the same item after this update.
+         */
+        void merge(UpdateItemRunnable update) {
+            mItem = update.mItem;
+            mWriters.addAll(update.mWriters);
+            mergeFrom(update);
         }
-    }
-
-    private class UpdateItemsRunnable extends UpdateItemBaseRunnable {
-        private final ArrayList<ContentValues> mValues;
-        private final ArrayList<ItemInfo> mItems;
 
-        UpdateItemsRunnable(ArrayList<ItemInfo> items, ArrayList<ContentValues> values) {
-            mValues = values;
-            mItems = items;
+        ContentValues getValues() {
+            if (mWriters.size() == 1) {
+                return mWriters.get(0).getValues(mContext);
+            }
+            ContentValues values = new ContentValues();
+            for (ContentWriter writer : mWriters) {
+                values.putAll(writer.getValues(mContext));
+            }
+            return values;
         }
 
         @Override
         public void run() {
-            ArrayList<ContentProviderOperation> ops = new ArrayList<>();
-            int count = mItems.size();
-            for (int i = 0; i < count; i++) {
-                ItemInfo item = mItems.get(i);
-                final long itemId = item.id;
-                final Uri uri = Favorites.getContentUri(itemId);
-                ContentValues values = mValues.get(i);
-
-                ops.add(ContentProviderOperation.newUpdate(uri).withValues(values).build());
-                updateItemArrays(item, itemId);
-            }
-            try {
-                mContext.getContentResolver().applyBatch(LauncherProvider.AUTHORITY, ops);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+            updateItemArrays(mItem, mItemId);
         }
     }
 
     private abstract class UpdateItemBaseRunnable implements Runnable {
-        private final StackTraceElement[] mStackTrace;
+        private StackTraceElement[] mStackTrace;
         private final ModelVerifier mVerifier = new ModelVerifier();
 
         UpdateItemBaseRunnable() {
             mStackTrace = new Throwable().getStackTrace();
         }
 
+        /**
+         * Reports errors with the stack trace of the latest merged update, but keeps verifying
+         * the model against the state it had when the first update was made.
+         */
+        protected void mergeFrom(UpdateItemBaseRunnable runnable) {
+            mStackTrace = runnable.mStackTrace;
+        }
+
         protected void updateItemArrays(ItemInfo item, long itemId) {
             // Lock on mBgLock *after* the db operation
             synchronized (mBgDataModel) {
@@ -25,6 +25,7 @@ import com.android.launcher3.LauncherSettings;
 import com.android.launcher3.ShortcutInfo;
 import com.android.launcher3.graphics.LauncherIcons;
 import com.android.launcher3.shortcuts.DeepShortcutManager;
+import com.android.launcher3.shortcuts.ShortcutCache;
 import com.android.launcher3.shortcuts.ShortcutInfoCompat;
 import com.android.launcher3.shortcuts.ShortcutKey;
 import com.android.launcher3.util.ItemInfoMatcher;
@@ -58,6 +59,7 @@ public class ShortcutsChangedTask extends BaseModelUpdateTask {
         final Context context = app.getContext();
         DeepShortcutManager deepShortcutManager = DeepShortcutManager.getInstance(context);
         deepShortcutManager.onShortcutsChanged(mShortcuts);
+        ShortcutCache.getInstance(context).removeShortcuts(mPackageName, mUser);
 
         // Find ShortcutInfo's that have changed on the workspace.
         HashSet<ShortcutKey> removedKeys = new HashSet<>();
@@ -11,6 +11,7 @@ import com.android.launcher3.Utilities;
 import com.android.launcher3.compat.ShortcutConfigActivityInfo;
 import com.android.launcher3.util.ComponentKey;
 
+import java.text.CollationKey;
 import java.text.Collator;
 
 /**
@@ -29,6 +30,10 @@ public class WidgetItem extends ComponentKey implements Comparable<WidgetItem> {
     public final String label;
     public final int spanX, spanY;
 
+    // Sort key of the label, computed on first use with mLabelKeyCollator.
+    private CollationKey mLabelKey;
+    private Collator mLabelKeyCollator;
+
     public WidgetItem(LauncherAppWidgetProviderInfo info, PackageManager pm,
             InvariantDeviceProfile idp) {
         super(info.provider, info.getProfile());
@@ -49,12 +54,41 @@ public class WidgetItem extends ComponentKey implements Comparable<WidgetItem> {
         spanX = spanY = 1;
     }
 
+    /**
+     * Returns the key for sorting the items by label, as it is costly to compare labels with a
+     * {@link Collator}.
+     */
+    public CollationKey getLabelKey() {
+        Collator collator = getCollator();
+        if (mLabelKey == null || mLabelKeyCollator != collator) {
+            synchronized (collator) {
+                mLabelKey = collator.getCollationKey(label == null ? "" : label);
+            }
+            mLabelKeyCollator = collator;
+        }
+        return mLabelKey;
+    }
+
+    private static synchronized Collator getCollator() {
+        if (sCollator == null) {
+            // Delay the object creation until required.
+            sCollator = Collator.getInstance();
+        }
+        return sCollator;
+    }
+
+    /**
+     * Recreates the collator for the new default locale, which invalidates the label keys.
+     */
+    public static synchronized void onLocaleChanged() {
+        sCollator = null;
+    }
+
     @Override
     public int compareTo(WidgetItem another) {
         if (sMyUserHandle == null) {
             // Delay these object creation until required.
             sMyUserHandle = Process.myUserHandle();
-            sCollator = Collator.getInstance();
         }
 
         // Independent of how the labels compare, if only one of the two widget info belongs to
@@ -65,7 +99,7 @@ public class WidgetItem extends ComponentKey implements Comparable<WidgetItem> {
             return thisWorkProfile ? 1 : -1;
         }
 
-        int labelCompare = sCollator.compare(label, another.label);
+        int labelCompare = getLabelKey().compareTo(another.getLabelKey());
         if (labelCompare != 0) {
             return labelCompare;
         }
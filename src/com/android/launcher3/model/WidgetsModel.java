@@ -22,22 +22,22 @@ import com.android.launcher3.compat.AppWidgetManagerCompat;
 import com.android.launcher3.compat.LauncherAppsCompat;
 import com.android.launcher3.compat.ShortcutConfigActivityInfo;
 import com.android.launcher3.config.FeatureFlags;
-import com.android.launcher3.util.MultiHashMap;
 import com.android.launcher3.util.PackageUserKey;
 import com.android.launcher3.util.Preconditions;
 import com.android.launcher3.widget.WidgetItemComparator;
 import com.android.launcher3.widget.WidgetListRowEntry;
+import com.android.launcher3.widget.WidgetsListAdapter.WidgetListRowEntryComparator;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
 
 /**
  * Widgets data model that is used by the adapters of the widget views and controllers.
  *
- * <p> The widgets and shortcuts are organized using package name as its index.
+ * <p> The widgets and shortcuts are organized using package name as its index. The rows are
+ * kept sorted and only the rows of the updated packages are rebuilt, so that the rows of the
+ * other packages are shared between updates.
  */
 public class WidgetsModel {
 
@@ -45,30 +45,27 @@ public class WidgetsModel {
     private static final boolean DEBUG = false;
 
     /* Map of widgets and shortcuts that are tracked per package. */
-    private final MultiHashMap<PackageItemInfo, WidgetItem> mWidgetsList = new MultiHashMap<>();
+    private final HashMap<String, WidgetListRowEntry> mRows = new HashMap<>();
+    /* Same rows as {@link #mRows}, sorted with {@link #mRowComparator}. */
+    private final ArrayList<WidgetListRowEntry> mSortedRows = new ArrayList<>();
+
+    private final WidgetListRowEntryComparator mRowComparator = new WidgetListRowEntryComparator();
+    private final WidgetItemComparator mWidgetComparator = new WidgetItemComparator();
 
     private AppFilter mAppFilter;
 
     /**
-     * Returns a list of {@link WidgetListRowEntry}. All {@link WidgetItem} in a single row
-     * are sorted (based on label and user), but the overall list of {@link WidgetListRowEntry}s
-     * is not sorted. This list is sorted at the UI when using
-     * {@link com.android.launcher3.widget.WidgetsDiffReporter}
+     * Returns a list of {@link WidgetListRowEntry}, sorted by package title. All
+     * {@link WidgetItem} in a single row are sorted (based on label and user).
+     *
+     * <p> The rows must not be modified: the rows of the packages which were not updated are the
+     * same instances in consecutive lists, which lets
+     * {@link com.android.launcher3.widget.WidgetsDiffReporter} skip them.
      *
      * @see com.android.launcher3.widget.WidgetsListAdapter#setWidgets(ArrayList)
      */
-    public synchronized ArrayList<WidgetListRowEntry> getWidgetsList(Context context) {
-        ArrayList<WidgetListRowEntry> result = new ArrayList<>();
-        AlphabeticIndexCompat indexer = new AlphabeticIndexCompat(context);
-
-        WidgetItemComparator widgetComparator = new WidgetItemComparator();
-        for (Map.Entry<PackageItemInfo, ArrayList<WidgetItem>> entry : mWidgetsList.entrySet()) {
-            WidgetListRowEntry row = new WidgetListRowEntry(entry.getKey(), entry.getValue());
-            row.titleSectionName = indexer.computeSectionName(row.pkgItem.title);
-            Collections.sort(row.widgets, widgetComparator);
-            result.add(row);
-        }
-        return result;
+    public synchronized ArrayList<WidgetListRowEntry> getWidgetsList() {
+        return new ArrayList<>(mSortedRows);
     }
 
     /**
@@ -77,7 +74,26 @@ public class WidgetsModel {
      */
     public void update(LauncherAppState app, @Nullable PackageUserKey packageUser) {
         Preconditions.assertWorkerThread();
+        update(app, packageUser, loadWidgetsAndShortcuts(app, packageUser));
+    }
+
+    /**
+     * Same as {@link #update(LauncherAppState, PackageUserKey)} but uses the widgets and shortcuts
+     * previously returned by {@link #loadWidgetsAndShortcuts}.
+     */
+    public void update(LauncherAppState app, @Nullable PackageUserKey packageUser,
+            ArrayList<WidgetItem> widgetsAndShortcuts) {
+        Preconditions.assertWorkerThread();
+        setWidgetsAndShortcuts(widgetsAndShortcuts, app, packageUser);
+        app.getWidgetCache().removeObsoletePreviews(widgetsAndShortcuts, packageUser);
+    }
 
+    /**
+     * Queries the system for the widgets and shortcuts. Unlike {@link #update}, this does not
+     * touch the model and can be called on any background thread.
+     */
+    public static ArrayList<WidgetItem> loadWidgetsAndShortcuts(LauncherAppState app,
+            @Nullable PackageUserKey packageUser) {
         Context context = app.getContext();
         final ArrayList<WidgetItem> widgetsAndShortcuts = new ArrayList<>();
         try {
@@ -96,7 +112,6 @@ public class WidgetsModel {
                     .getCustomShortcutActivityList(packageUser)) {
                 widgetsAndShortcuts.add(new WidgetItem(info));
             }
-            setWidgetsAndShortcuts(widgetsAndShortcuts, app, packageUser);
         } catch (Exception e) {
             if (!FeatureFlags.IS_DOGFOOD_BUILD && Utilities.isBinderSizeError(e)) {
                 // the returned value may be incomplete and will not be refreshed until the next
@@ -107,8 +122,7 @@ public class WidgetsModel {
                 throw e;
             }
         }
-
-        app.getWidgetCache().removeObsoletePreviews(widgetsAndShortcuts, packageUser);
+        return widgetsAndShortcuts;
     }
 
     private synchronized void setWidgetsAndShortcuts(ArrayList<WidgetItem> rawWidgetsShortcuts,
@@ -117,35 +131,28 @@ public class WidgetsModel {
             Log.d(TAG, "addWidgetsAndShortcuts, widgetsShortcuts#=" + rawWidgetsShortcuts.size());
         }
 
-        // Temporary list for {@link PackageItemInfos} to avoid having to go through
-        // {@link mPackageItemInfos} to locate the key to be used for {@link #mWidgetsList}
-        HashMap<String, PackageItemInfo> tmpPackageItemInfos = new HashMap<>();
+        // New rows for the updated packages, indexed by package name.
+        HashMap<String, WidgetListRowEntry> updatedRows = new HashMap<>();
 
         // clear the lists.
         if (packageUser == null) {
-            mWidgetsList.clear();
+            mRows.clear();
+            mSortedRows.clear();
         } else {
-            // Only clear the widgets for the given package/user.
-            PackageItemInfo packageItem = null;
-            for (PackageItemInfo item : mWidgetsList.keySet()) {
-                if (item.packageName.equals(packageUser.mPackageName)) {
-                    packageItem = item;
-                    break;
-                }
-            }
-            if (packageItem != null) {
-                // We want to preserve the user that was on the packageItem previously,
-                // so add it to tmpPackageItemInfos here to avoid creating a new entry.
-                tmpPackageItemInfos.put(packageItem.packageName, packageItem);
-
-                Iterator<WidgetItem> widgetItemIterator = mWidgetsList.get(packageItem).iterator();
-                while (widgetItemIterator.hasNext()) {
-                    WidgetItem nextWidget = widgetItemIterator.next();
-                    if (nextWidget.componentName.getPackageName().equals(packageUser.mPackageName)
-                            && nextWidget.user.equals(packageUser.mUser)) {
-                        widgetItemIterator.remove();
+            // Only replace the widgets for the given package/user.
+            WidgetListRowEntry row = mRows.get(packageUser.mPackageName);
+            if (row != null) {
+                // We want to preserve the user that was on the packageItem previously.
+                PackageItemInfo packageItem = new PackageItemInfo(row.pkgItem.packageName);
+                packageItem.user = row.pkgItem.user;
+                ArrayList<WidgetItem> widgets = new ArrayList<>();
+                for (WidgetItem widget : row.widgets) {
+                    if (!widget.user.equals(packageUser.mUser)) {
+                        widgets.add(widget);
                     }
                 }
+                updatedRows.put(packageItem.packageName,
+                        new WidgetListRowEntry(packageItem, widgets));
             }
         }
 
@@ -185,22 +192,44 @@ public class WidgetsModel {
             }
 
             String packageName = item.componentName.getPackageName();
-            PackageItemInfo pInfo = tmpPackageItemInfos.get(packageName);
-            if (pInfo == null) {
-                pInfo = new PackageItemInfo(packageName);
+            WidgetListRowEntry row = updatedRows.get(packageName);
+            if (row == null) {
+                PackageItemInfo pInfo = new PackageItemInfo(packageName);
                 pInfo.user = item.user;
-                tmpPackageItemInfos.put(packageName,  pInfo);
-            } else if (!myUser.equals(pInfo.user)) {
+                row = new WidgetListRowEntry(pInfo, new ArrayList<WidgetItem>());
+                updatedRows.put(packageName, row);
+            } else if (!myUser.equals(row.pkgItem.user)) {
                 // Keep updating the user, until we get the primary user.
-                pInfo.user = item.user;
+                row.pkgItem.user = item.user;
             }
-            mWidgetsList.addToList(pInfo, item);
+            row.widgets.add(item);
         }
 
         // Update each package entry
         IconCache iconCache = app.getIconCache();
-        for (PackageItemInfo p : tmpPackageItemInfos.values()) {
-            iconCache.getTitleAndIconForApp(p, true /* userLowResIcon */);
+        AlphabeticIndexCompat indexer = new AlphabeticIndexCompat(app.getContext());
+        for (WidgetListRowEntry row : updatedRows.values()) {
+            WidgetListRowEntry oldRow = mRows.remove(row.pkgItem.packageName);
+            if (oldRow != null) {
+                mSortedRows.remove(oldRow);
+            }
+            if (row.widgets.isEmpty()) {
+                continue;
+            }
+
+            iconCache.getTitleAndIconForApp(row.pkgItem, true /* userLowResIcon */);
+            row.titleSectionName = indexer.computeSectionName(row.pkgItem.title);
+            Collections.sort(row.widgets, mWidgetComparator);
+            mRows.put(row.pkgItem.packageName, row);
+            if (packageUser == null) {
+                mSortedRows.add(row);
+            } else {
+                int index = Collections.binarySearch(mSortedRows, row, mRowComparator);
+                mSortedRows.add(index < 0 ? -index - 1 : index, row);
+            }
+        }
+        if (packageUser == null) {
+            Collections.sort(mSortedRows, mRowComparator);
         }
     }
 }
\ No newline at end of file
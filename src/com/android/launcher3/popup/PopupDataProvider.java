@@ -17,29 +17,36 @@
 package com.android.launcher3.popup;
 
 import android.content.ComponentName;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.service.notification.StatusBarNotification;
 import android.support.annotation.NonNull;
 import android.util.Log;
+import android.view.Choreographer;
 
 import com.android.launcher3.ItemInfo;
 import com.android.launcher3.Launcher;
-import com.android.launcher3.Utilities;
+import com.android.launcher3.LauncherModel;
 import com.android.launcher3.badge.BadgeInfo;
 import com.android.launcher3.model.WidgetItem;
 import com.android.launcher3.notification.NotificationKeyData;
 import com.android.launcher3.notification.NotificationListener;
 import com.android.launcher3.shortcuts.DeepShortcutManager;
+import com.android.launcher3.shortcuts.ShortcutCache;
 import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.MultiHashMap;
 import com.android.launcher3.util.PackageUserKey;
 import com.android.launcher3.widget.WidgetListRowEntry;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Provides data for the popup menu that appears after long-clicking on apps.
@@ -65,6 +72,18 @@ public class PopupDataProvider implements NotificationListener.NotificationsChan
     /** Maps packages to their Widgets */
     private ArrayList<WidgetListRowEntry> mAllWidgets = new ArrayList<>();
 
+    /** Packages whose badges changed since the last frame. */
+    private final HashSet<PackageUserKey> mPendingBadgeUpdates = new HashSet<>();
+    private final Choreographer.FrameCallback mBadgeUpdateCallback = this::flushBadgeUpdates;
+
+    private final RateCounter mNotificationEvents = new RateCounter();
+    private final RateCounter mBadgeUpdates = new RateCounter();
+    private int mBadgeUpdateFrames;
+
+    private final Handler mWorkerHandler = new Handler(LauncherModel.getWorkerLooper());
+    // Incremented for each prefetch, to drop the remaining work of the previous one.
+    private final AtomicInteger mPrefetchGeneration = new AtomicInteger();
+
     public PopupDataProvider(Launcher launcher) {
         mLauncher = launcher;
     }
@@ -72,6 +91,7 @@ public class PopupDataProvider implements NotificationListener.NotificationsChan
     @Override
     public void onNotificationPosted(PackageUserKey postedPackageUserKey,
             NotificationKeyData notificationKey, boolean shouldBeFilteredOut) {
+        mNotificationEvents.increment(1);
         BadgeInfo badgeInfo = mPackageUserToBadgeInfos.get(postedPackageUserKey);
         boolean badgeShouldBeRefreshed;
         if (badgeInfo == null) {
@@ -92,19 +112,20 @@ public class PopupDataProvider implements NotificationListener.NotificationsChan
             }
         }
         if (badgeShouldBeRefreshed) {
-            mLauncher.updateIconBadges(Utilities.singletonHashSet(postedPackageUserKey));
+            scheduleBadgeUpdate(postedPackageUserKey);
         }
     }
 
     @Override
     public void onNotificationRemoved(PackageUserKey removedPackageUserKey,
             NotificationKeyData notificationKey) {
+        mNotificationEvents.increment(1);
         BadgeInfo oldBadgeInfo = mPackageUserToBadgeInfos.get(removedPackageUserKey);
         if (oldBadgeInfo != null && oldBadgeInfo.removeNotificationKey(notificationKey)) {
             if (oldBadgeInfo.getNotificationKeys().size() == 0) {
                 mPackageUserToBadgeInfos.remove(removedPackageUserKey);
             }
-            mLauncher.updateIconBadges(Utilities.singletonHashSet(removedPackageUserKey));
+            scheduleBadgeUpdate(removedPackageUserKey);
             trimNotifications(mPackageUserToBadgeInfos);
         }
     }
@@ -112,9 +133,9 @@ public class PopupDataProvider implements NotificationListener.NotificationsChan
     @Override
     public void onNotificationFullRefresh(List<StatusBarNotification> activeNotifications) {
         if (activeNotifications == null) return;
-        // This will contain the PackageUserKeys which have updated badges.
-        HashMap<PackageUserKey, BadgeInfo> updatedBadges = new HashMap<>(mPackageUserToBadgeInfos);
-        mPackageUserToBadgeInfos.clear();
+        mNotificationEvents.increment(activeNotifications.size());
+        Map<PackageUserKey, BadgeInfo> oldBadges = mPackageUserToBadgeInfos;
+        mPackageUserToBadgeInfos = new HashMap<>();
         for (StatusBarNotification notification : activeNotifications) {
             PackageUserKey packageUserKey = PackageUserKey.fromNotification(notification);
             BadgeInfo badgeInfo = mPackageUserToBadgeInfos.get(packageUserKey);
@@ -126,25 +147,49 @@ public class PopupDataProvider implements NotificationListener.NotificationsChan
                     .fromNotification(notification));
         }
 
-        // Add and remove from updatedBadges so it contains the PackageUserKeys of updated badges.
-        for (PackageUserKey packageUserKey : mPackageUserToBadgeInfos.keySet()) {
-            BadgeInfo prevBadge = updatedBadges.get(packageUserKey);
-            BadgeInfo newBadge = mPackageUserToBadgeInfos.get(packageUserKey);
-            if (prevBadge == null) {
-                updatedBadges.put(packageUserKey, newBadge);
-            } else {
-                if (!prevBadge.shouldBeInvalidated(newBadge)) {
-                    updatedBadges.remove(packageUserKey);
-                }
+        // This will contain the PackageUserKeys which have updated badges: the removed and
+        // changed badges map to their previous BadgeInfo, the added ones to their new BadgeInfo.
+        HashMap<PackageUserKey, BadgeInfo> updatedBadges = new HashMap<>();
+        for (Map.Entry<PackageUserKey, BadgeInfo> entry : oldBadges.entrySet()) {
+            BadgeInfo newBadge = mPackageUserToBadgeInfos.get(entry.getKey());
+            if (newBadge == null || entry.getValue().shouldBeInvalidated(newBadge)) {
+                updatedBadges.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Map.Entry<PackageUserKey, BadgeInfo> entry : mPackageUserToBadgeInfos.entrySet()) {
+            if (!oldBadges.containsKey(entry.getKey())) {
+                updatedBadges.put(entry.getKey(), entry.getValue());
             }
         }
 
-        if (!updatedBadges.isEmpty()) {
-            mLauncher.updateIconBadges(updatedBadges.keySet());
+        for (PackageUserKey packageUserKey : updatedBadges.keySet()) {
+            scheduleBadgeUpdate(packageUserKey);
         }
         trimNotifications(updatedBadges);
     }
 
+    /**
+     * Updates the badges of {@param packageUserKey} on the next frame, along with all the other
+     * badges which change until then.
+     */
+    private void scheduleBadgeUpdate(PackageUserKey packageUserKey) {
+        if (mPendingBadgeUpdates.isEmpty()) {
+            Choreographer.getInstance().postFrameCallback(mBadgeUpdateCallback);
+        }
+        mPendingBadgeUpdates.add(packageUserKey);
+    }
+
+    private void flushBadgeUpdates(long frameTimeNanos) {
+        if (mPendingBadgeUpdates.isEmpty()) {
+            return;
+        }
+        mBadgeUpdateFrames++;
+        mBadgeUpdates.increment(mPendingBadgeUpdates.size());
+        HashSet<PackageUserKey> updatedBadges = new HashSet<>(mPendingBadgeUpdates);
+        mPendingBadgeUpdates.clear();
+        mLauncher.updateIconBadges(updatedBadges);
+    }
+
     private void trimNotifications(Map<PackageUserKey, BadgeInfo> updatedBadges) {
         PopupContainerWithArrow openContainer = PopupContainerWithArrow.getOpen(mLauncher);
         if (openContainer != null) {
@@ -157,6 +202,28 @@ public class PopupDataProvider implements NotificationListener.NotificationsChan
         if (LOGD) Log.d(TAG, "bindDeepShortcutMap: " + mDeepShortcutMap);
     }
 
+    /**
+     * Loads the shortcuts and icons of the popups of {@param items} on the worker thread, in
+     * place of any previous prefetch.
+     */
+    public void prefetchShortcuts(List<ItemInfo> items) {
+        final int generation = mPrefetchGeneration.incrementAndGet();
+        final ShortcutCache shortcutCache = ShortcutCache.getInstance(mLauncher);
+        for (ItemInfo item : items) {
+            final List<String> shortcutIds = getShortcutIdsForItem(item);
+            if (shortcutIds.isEmpty()) {
+                continue;
+            }
+            final ComponentKey key = new ComponentKey(item.getTargetComponent(), item.user);
+            // One message per app, so that the model tasks are not delayed by a whole page.
+            mWorkerHandler.post(() -> {
+                if (generation == mPrefetchGeneration.get()) {
+                    shortcutCache.prefetch(key, shortcutIds);
+                }
+            });
+        }
+    }
+
     public List<String> getShortcutIdsForItem(ItemInfo info) {
         if (!DeepShortcutManager.supportsShortcuts(info)) {
             return Collections.EMPTY_LIST;
@@ -233,4 +300,52 @@ public class PopupDataProvider implements NotificationListener.NotificationsChan
         }
         return null;
     }
+
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "PopupDataProvider: badges=" + mPackageUserToBadgeInfos.size()
+                + " pendingBadgeUpdates=" + mPendingBadgeUpdates.size()
+                + " badgeUpdateFrames=" + mBadgeUpdateFrames);
+        writer.println(prefix + "  notification events: " + mNotificationEvents);
+        writer.println(prefix + "  badge updates: " + mBadgeUpdates);
+        ShortcutCache.getInstance(mLauncher).dump(prefix + "  ", writer);
+    }
+
+    /**
+     * Counts events, and their rate per second over the last minute.
+     */
+    private static class RateCounter {
+        private static final int WINDOW_SECONDS = 60;
+
+        // Per second counts, indexed by second modulo WINDOW_SECONDS.
+        private final int[] mCounts = new int[WINDOW_SECONDS];
+        private final long[] mSeconds = new long[WINDOW_SECONDS];
+        private long mTotal;
+
+        void increment(int count) {
+            long second = SystemClock.uptimeMillis() / 1000;
+            int index = (int) (second % WINDOW_SECONDS);
+            if (mSeconds[index] != second) {
+                mSeconds[index] = second;
+                mCounts[index] = 0;
+            }
+            mCounts[index] += count;
+            mTotal += count;
+        }
+
+        @Override
+        public String toString() {
+            long now = SystemClock.uptimeMillis() / 1000;
+            int windowTotal = 0;
+            int peak = 0;
+            for (int i = 0; i < WINDOW_SECONDS; i++) {
+                if (now - mSeconds[i] < WINDOW_SECONDS) {
+                    windowTotal += mCounts[i];
+                    peak = Math.max(peak, mCounts[i]);
+                }
+            }
+            return "total=" + mTotal + " perSecond(last " + WINDOW_SECONDS + "s)="
+                    + String.format("%.2f", (float) windowTotal / WINDOW_SECONDS)
+                    + " peakPerSecond=" + peak;
+        }
+    }
 }
@@ -26,12 +26,13 @@ import android.support.annotation.VisibleForTesting;
 import com.android.launcher3.ItemInfo;
 import com.android.launcher3.Launcher;
 import com.android.launcher3.ShortcutInfo;
-import com.android.launcher3.graphics.LauncherIcons;
+import com.android.launcher3.graphics.BitmapInfo;
 import com.android.launcher3.notification.NotificationInfo;
 import com.android.launcher3.notification.NotificationKeyData;
-import com.android.launcher3.shortcuts.DeepShortcutManager;
 import com.android.launcher3.shortcuts.DeepShortcutView;
+import com.android.launcher3.shortcuts.ShortcutCache;
 import com.android.launcher3.shortcuts.ShortcutInfoCompat;
+import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.PackageUserKey;
 
 import java.util.ArrayList;
@@ -127,6 +128,18 @@ public class PopupPopulator {
             final List<NotificationKeyData> notificationKeys) {
         final ComponentName activity = originalInfo.getTargetComponent();
         final UserHandle user = originalInfo.user;
+        final String shortcutIdToDeDupe = notificationKeys.isEmpty() ? null
+                : notificationKeys.get(0).shortcutId;
+
+        // Apply the prefetched shortcuts right away, if their icons are also in memory.
+        final ShortcutCache shortcutCache = ShortcutCache.getInstance(launcher);
+        final ComponentKey key = new ComponentKey(activity, user);
+        final List<ShortcutInfoCompat> cachedShortcuts = shortcutIds.isEmpty() ? null
+                : shortcutCache.getShortcuts(key, shortcutIds);
+        final boolean shortcutsApplied = cachedShortcuts != null && applyCachedShortcuts(launcher,
+                uiHandler, container, sortAndFilterShortcuts(
+                        new ArrayList<>(cachedShortcuts), shortcutIdToDeDupe), shortcutViews);
+
         return () -> {
             if (!notificationKeys.isEmpty()) {
                 List<StatusBarNotification> notifications = launcher.getPopupDataProvider()
@@ -139,22 +152,20 @@ public class PopupPopulator {
                 uiHandler.post(() -> container.applyNotificationInfos(infos));
             }
 
-            List<ShortcutInfoCompat> shortcuts = DeepShortcutManager.getInstance(launcher)
-                    .queryForShortcutsContainer(activity, shortcutIds, user);
-            String shortcutIdToDeDupe = notificationKeys.isEmpty() ? null
-                    : notificationKeys.get(0).shortcutId;
-            shortcuts = PopupPopulator.sortAndFilterShortcuts(shortcuts, shortcutIdToDeDupe);
-            for (int i = 0; i < shortcuts.size() && i < shortcutViews.size(); i++) {
-                final ShortcutInfoCompat shortcut = shortcuts.get(i);
-                final ShortcutInfo si = new ShortcutInfo(shortcut, launcher);
-                // Use unbadged icon for the menu.
-                LauncherIcons li = LauncherIcons.obtain(launcher);
-                li.createShortcutIcon(shortcut, false /* badged */).applyTo(si);
-                li.recycle();
-                si.rank = i;
-
-                final DeepShortcutView view = shortcutViews.get(i);
-                uiHandler.post(() -> view.applyShortcutInfo(si, shortcut, container));
+            if (!shortcutsApplied) {
+                List<ShortcutInfoCompat> shortcuts = cachedShortcuts != null ? cachedShortcuts
+                        : shortcutCache.loadShortcuts(key, shortcutIds);
+                shortcuts = PopupPopulator.sortAndFilterShortcuts(shortcuts, shortcutIdToDeDupe);
+                for (int i = 0; i < shortcuts.size() && i < shortcutViews.size(); i++) {
+                    final ShortcutInfoCompat shortcut = shortcuts.get(i);
+                    final ShortcutInfo si = new ShortcutInfo(shortcut, launcher);
+                    // Use unbadged icon for the menu.
+                    shortcutCache.getIcon(shortcut).applyTo(si);
+                    si.rank = i;
+
+                    final DeepShortcutView view = shortcutViews.get(i);
+                    uiHandler.post(() -> view.applyShortcutInfo(si, shortcut, container));
+                }
             }
 
             // This ensures that mLauncher.getWidgetsForPackageUser()
@@ -163,4 +174,33 @@ public class PopupPopulator {
                     PackageUserKey.fromItemInfo(originalInfo)));
         };
     }
+
+    /**
+     * Applies {@param shortcuts} to the views if all their icons are in memory.
+     * @return whether the shortcuts were applied.
+     */
+    private static boolean applyCachedShortcuts(Launcher launcher, Handler uiHandler,
+            PopupContainerWithArrow container, List<ShortcutInfoCompat> shortcuts,
+            List<DeepShortcutView> shortcutViews) {
+        ShortcutCache shortcutCache = ShortcutCache.getInstance(launcher);
+        int count = Math.min(shortcuts.size(), shortcutViews.size());
+        BitmapInfo[] icons = new BitmapInfo[count];
+        for (int i = 0; i < count; i++) {
+            icons[i] = shortcutCache.getCachedIcon(shortcuts.get(i));
+            if (icons[i] == null) {
+                return false;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            final ShortcutInfoCompat shortcut = shortcuts.get(i);
+            final ShortcutInfo si = new ShortcutInfo(shortcut, launcher);
+            icons[i].applyTo(si);
+            si.rank = i;
+
+            // Posted, so that the views are laid out and can fit the long label.
+            final DeepShortcutView view = shortcutViews.get(i);
+            uiHandler.post(() -> view.applyShortcutInfo(si, shortcut, container));
+        }
+        return true;
+    }
 }
@@ -112,6 +112,8 @@ public class RestoreDbTask {
         Favorites.addTableToDb(db, newProfileId, false);
         db.execSQL("INSERT INTO favorites SELECT * FROM favorites_old;");
         db.execSQL("DROP TABLE favorites_old;");
+        // The indexes were dropped along with the old table.
+        Favorites.addIndexesToDb(db);
     }
 
     /**
@@ -58,7 +58,8 @@ public class DeepShortcutManager {
     }
 
     private final LauncherApps mLauncherApps;
-    private boolean mWasLastCallSuccess;
+    // Tracked per thread, as the loader queries shortcuts from multiple threads at once.
+    private final ThreadLocal<Boolean> mWasLastCallSuccess = new ThreadLocal<>();
 
     private DeepShortcutManager(Context context) {
         mLauncherApps = (LauncherApps) context.getSystemService(Context.LAUNCHER_APPS_SERVICE);
@@ -71,8 +72,11 @@ public class DeepShortcutManager {
                 && !info.isDisabled() && !isItemPromise;
     }
 
+    /**
+     * Returns whether the last call made by the calling thread succeeded.
+     */
     public boolean wasLastCallSuccess() {
-        return mWasLastCallSuccess;
+        return Boolean.TRUE.equals(mWasLastCallSuccess.get());
     }
 
     public void onShortcutsChanged(List<ShortcutInfoCompat> shortcuts) {
@@ -114,10 +118,10 @@ public class DeepShortcutManager {
             pinnedIds.remove(id);
             try {
                 mLauncherApps.pinShortcuts(packageName, pinnedIds, user);
-                mWasLastCallSuccess = true;
+                mWasLastCallSuccess.set(true);
             } catch (SecurityException|IllegalStateException e) {
                 Log.w(TAG, "Failed to unpin shortcut", e);
-                mWasLastCallSuccess = false;
+                mWasLastCallSuccess.set(false);
             }
         }
     }
@@ -136,10 +140,10 @@ public class DeepShortcutManager {
             pinnedIds.add(id);
             try {
                 mLauncherApps.pinShortcuts(packageName, pinnedIds, user);
-                mWasLastCallSuccess = true;
+                mWasLastCallSuccess.set(true);
             } catch (SecurityException|IllegalStateException e) {
                 Log.w(TAG, "Failed to pin shortcut", e);
-                mWasLastCallSuccess = false;
+                mWasLastCallSuccess.set(false);
             }
         }
     }
@@ -151,10 +155,10 @@ public class DeepShortcutManager {
             try {
                 mLauncherApps.startShortcut(packageName, id, sourceBounds,
                         startActivityOptions, user);
-                mWasLastCallSuccess = true;
+                mWasLastCallSuccess.set(true);
             } catch (SecurityException|IllegalStateException e) {
                 Log.e(TAG, "Failed to start shortcut", e);
-                mWasLastCallSuccess = false;
+                mWasLastCallSuccess.set(false);
             }
         }
     }
@@ -165,11 +169,11 @@ public class DeepShortcutManager {
             try {
                 Drawable icon = mLauncherApps.getShortcutIconDrawable(
                         shortcutInfo.getShortcutInfo(), density);
-                mWasLastCallSuccess = true;
+                mWasLastCallSuccess.set(true);
                 return icon;
             } catch (SecurityException|IllegalStateException e) {
                 Log.e(TAG, "Failed to get shortcut icon", e);
-                mWasLastCallSuccess = false;
+                mWasLastCallSuccess.set(false);
             }
         }
         return null;
@@ -217,10 +221,10 @@ public class DeepShortcutManager {
             try {
                 //获取固定快捷方式信息 ，但是从断点来看 数量为0
                 shortcutInfos = mLauncherApps.getShortcuts(q, user);
-                mWasLastCallSuccess = true;
+                mWasLastCallSuccess.set(true);
             } catch (SecurityException|IllegalStateException e) {
                 Log.e(TAG, "Failed to query for shortcuts", e);
-                mWasLastCallSuccess = false;
+                mWasLastCallSuccess.set(false);
             }
             if (shortcutInfos == null) {
                 return Collections.EMPTY_LIST;
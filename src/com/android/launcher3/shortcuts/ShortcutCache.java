@@ -17,57 +17,334 @@
 package com.android.launcher3.shortcuts;
 
 import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.os.Build;
 import android.os.UserHandle;
-import android.util.ArrayMap;
+import android.util.Log;
 import android.util.LruCache;
+
+import com.android.launcher3.LauncherAppState;
+import com.android.launcher3.LauncherFiles;
+import com.android.launcher3.Utilities;
+import com.android.launcher3.compat.UserManagerCompat;
+import com.android.launcher3.graphics.BitmapInfo;
+import com.android.launcher3.graphics.BitmapRenderer;
+import com.android.launcher3.graphics.IconNormalizationCache;
+import com.android.launcher3.graphics.LauncherIcons;
+import com.android.launcher3.util.ComponentKey;
+import com.android.launcher3.util.SQLiteCacheHelper;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Loads {@link ShortcutInfoCompat}s on demand (e.g. when launcher
- * loads for pinned shortcuts and on long-press for dynamic shortcuts), and caches them
- * for handful of apps in an LruCache while launcher lives.
+ * Loads the {@link ShortcutInfoCompat}s shown in the popup of an app and their unbadged icons on
+ * demand (e.g. on long-press, or when they are prefetched for the visible apps), and caches them
+ * so that the popup can be populated without a system call or icon rendering.
+ *
+ * The shortcuts are cached in memory for a handful of apps while launcher lives. The icons are
+ * cached in memory and on disk, keyed by the last time their shortcut changed, so that they
+ * survive process death.
+ *
+ * The memory caches can be read from any thread, the other methods should be called on the
+ * worker thread.
  */
 @TargetApi(Build.VERSION_CODES.N)
 public class ShortcutCache {
-    private static final int CACHE_SIZE = 30; // Max number shortcuts we cache.
+    private static final String TAG = "ShortcutCache";
+
+    private static final int CACHE_SIZE = 30; // Max number of apps whose shortcuts we cache.
+    private static final int ICON_CACHE_SIZE_BYTES = 8 * 1024 * 1024;
+
+    private static final Object sInstanceLock = new Object();
+    private static ShortcutCache sInstance;
+
+    public static ShortcutCache getInstance(Context context) {
+        synchronized (sInstanceLock) {
+            if (sInstance == null) {
+                sInstance = new ShortcutCache(context.getApplicationContext());
+            }
+            return sInstance;
+        }
+    }
 
-    private final LruCache<ShortcutKey, ShortcutInfoCompat> mCachedShortcuts;
-    // We always keep pinned shortcuts in the cache.
-    private final ArrayMap<ShortcutKey, ShortcutInfoCompat> mPinnedShortcuts;
+    private static class CachedShortcuts {
+        // The ids the shortcuts were queried for.
+        final List<String> shortcutIds;
+        final List<ShortcutInfoCompat> shortcuts;
 
-    public ShortcutCache() {
+        CachedShortcuts(List<String> shortcutIds, List<ShortcutInfoCompat> shortcuts) {
+            this.shortcutIds = new ArrayList<>(shortcutIds);
+            this.shortcuts = new ArrayList<>(shortcuts);
+        }
+    }
+
+    private final Context mContext;
+    private final LruCache<ComponentKey, CachedShortcuts> mCachedShortcuts;
+    private final LruCache<String, BitmapInfo> mCachedIcons;
+    private final ShortcutIconDB mIconDb;
+    private final BitmapFactory.Options mIconOptions;
+    // Identifies how icons are rendered, see getIconKey.
+    private final String mIconState;
+
+    // Guarded by this
+    private int mShortcutHits;
+    private int mShortcutMisses;
+    private int mIconHits;
+    private int mIconMisses;
+    private int mIconsFromDisk;
+    private int mIconsRendered;
+    private int mPrefetchedApps;
+
+    private ShortcutCache(Context context) {
+        mContext = context;
         mCachedShortcuts = new LruCache<>(CACHE_SIZE);
-        mPinnedShortcuts = new ArrayMap<>();
+        mCachedIcons = new LruCache<String, BitmapInfo>(ICON_CACHE_SIZE_BYTES) {
+            @Override
+            protected int sizeOf(String key, BitmapInfo value) {
+                // Hardware bitmaps don't report their size, estimate it instead.
+                return value.icon.getWidth() * value.icon.getHeight() * 4;
+            }
+        };
+        mIconDb = new ShortcutIconDB(context);
+
+        if (BitmapRenderer.USE_HARDWARE_BITMAP) {
+            mIconOptions = new BitmapFactory.Options();
+            mIconOptions.inPreferredConfig = Bitmap.Config.HARDWARE;
+        } else {
+            mIconOptions = null;
+        }
+        mIconState = LauncherAppState.getIDP(context).iconBitmapSize + "#"
+                + IconNormalizationCache.getInstance(context).getMaskHash();
     }
 
     /**
-     * Removes shortcuts from the cache when shortcuts change for a given package.
-     *
-     * Returns a map of ids to their evicted shortcuts.
-     *
-     * @see android.content.pm.LauncherApps.Callback#onShortcutsChanged(String, List, UserHandle).
+     * Returns the cached shortcuts of the popup of {@param key} if they were loaded for
+     * {@param shortcutIds}, or null. To be used when the popup is shown.
      */
-    public void removeShortcuts(List<ShortcutInfoCompat> shortcuts) {
-        for (ShortcutInfoCompat shortcut : shortcuts) {
-            ShortcutKey key = ShortcutKey.fromInfo(shortcut);
-            mCachedShortcuts.remove(key);
-            mPinnedShortcuts.remove(key);
+    public List<ShortcutInfoCompat> getShortcuts(ComponentKey key, List<String> shortcutIds) {
+        CachedShortcuts cached = mCachedShortcuts.get(key);
+        boolean hit = cached != null && cached.shortcutIds.equals(shortcutIds);
+        synchronized (this) {
+            if (hit) {
+                mShortcutHits++;
+            } else {
+                mShortcutMisses++;
+            }
+        }
+        return hit ? new ArrayList<>(cached.shortcuts) : null;
+    }
+
+    /**
+     * Returns the cached unbadged icon of {@param shortcut} if it is in memory, or null. To be
+     * used when the popup is shown.
+     */
+    public BitmapInfo getCachedIcon(ShortcutInfoCompat shortcut) {
+        BitmapInfo icon = mCachedIcons.get(getIconKey(shortcut));
+        synchronized (this) {
+            if (icon != null) {
+                mIconHits++;
+            } else {
+                mIconMisses++;
+            }
         }
+        return icon;
     }
 
-    public ShortcutInfoCompat get(ShortcutKey key) {
-        if (mPinnedShortcuts.containsKey(key)) {
-            return mPinnedShortcuts.get(key);
+    /**
+     * Queries the shortcuts of the popup of {@param key} and caches them.
+     */
+    public List<ShortcutInfoCompat> loadShortcuts(ComponentKey key, List<String> shortcutIds) {
+        List<ShortcutInfoCompat> shortcuts = DeepShortcutManager.getInstance(mContext)
+                .queryForShortcutsContainer(key.componentName, shortcutIds, key.user);
+        if (DeepShortcutManager.getInstance(mContext).wasLastCallSuccess()) {
+            mCachedShortcuts.put(key, new CachedShortcuts(shortcutIds, shortcuts));
         }
-        return mCachedShortcuts.get(key);
+        return new ArrayList<>(shortcuts);
     }
 
-    public void put(ShortcutKey key, ShortcutInfoCompat shortcut) {
-        if (shortcut.isPinned()) {
-            mPinnedShortcuts.put(key, shortcut);
+    /**
+     * Returns the unbadged icon of {@param shortcut}, from the memory or disk cache, or rendering
+     * it if needed.
+     */
+    public BitmapInfo getIcon(ShortcutInfoCompat shortcut) {
+        String key = getIconKey(shortcut);
+        BitmapInfo icon = mCachedIcons.get(key);
+        if (icon != null) {
+            return icon;
+        }
+
+        icon = loadIconFromDb(key);
+        if (icon != null) {
+            synchronized (this) {
+                mIconsFromDisk++;
+            }
         } else {
-            mCachedShortcuts.put(key, shortcut);
+            LauncherIcons li = LauncherIcons.obtain(mContext);
+            icon = li.createShortcutIcon(shortcut, false /* badged */);
+            li.recycle();
+            synchronized (this) {
+                mIconsRendered++;
+            }
+            if (!DeepShortcutManager.getInstance(mContext).wasLastCallSuccess()) {
+                // Don't cache the fallback icon
+                return icon;
+            }
+            addIconToDb(key, shortcut, icon);
+        }
+        mCachedIcons.put(key, icon);
+        return icon;
+    }
+
+    /**
+     * Loads the shortcuts of the popup of {@param key} and their icons if they are not already
+     * cached.
+     */
+    public void prefetch(ComponentKey key, List<String> shortcutIds) {
+        CachedShortcuts cached = mCachedShortcuts.get(key);
+        List<ShortcutInfoCompat> shortcuts = cached != null
+                && cached.shortcutIds.equals(shortcutIds)
+                ? cached.shortcuts : loadShortcuts(key, shortcutIds);
+        // Load all the icons, as the popup can skip a shortcut which has a notification.
+        for (ShortcutInfoCompat shortcut : shortcuts) {
+            getIcon(shortcut);
+        }
+        synchronized (this) {
+            mPrefetchedApps++;
+        }
+    }
+
+    /**
+     * Removes the cached shortcuts of the package, when they change.
+     */
+    public void removeShortcuts(String packageName, UserHandle user) {
+        for (ComponentKey key : mCachedShortcuts.snapshot().keySet()) {
+            if (key.componentName.getPackageName().equals(packageName) && key.user.equals(user)) {
+                mCachedShortcuts.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Removes the cached shortcuts and icons of the package, when it is removed.
+     */
+    public void removeShortcutsAndIcons(String packageName, UserHandle user) {
+        removeShortcuts(packageName, user);
+        String prefix = packageName + "/";
+        for (String key : mCachedIcons.snapshot().keySet()) {
+            if (key.startsWith(prefix)) {
+                mCachedIcons.remove(key);
+            }
+        }
+        long userSerial = UserManagerCompat.getInstance(mContext).getSerialNumberForUser(user);
+        mIconDb.delete(ShortcutIconDB.COLUMN_PACKAGE + " = ? AND "
+                + ShortcutIconDB.COLUMN_USER + " = ?",
+                new String[] {packageName, Long.toString(userSerial)});
+    }
+
+    private String getIconKey(ShortcutInfoCompat shortcut) {
+        long userSerial = UserManagerCompat.getInstance(mContext)
+                .getSerialNumberForUser(shortcut.getUserHandle());
+        return shortcut.getPackage() + "/" + shortcut.getId() + "#" + userSerial
+                + "#" + shortcut.getLastChangedTimestamp() + "#" + mIconState;
+    }
+
+    private BitmapInfo loadIconFromDb(String key) {
+        Cursor c = null;
+        try {
+            c = mIconDb.query(new String[] {ShortcutIconDB.COLUMN_ICON,
+                    ShortcutIconDB.COLUMN_ICON_COLOR},
+                    ShortcutIconDB.COLUMN_KEY + " = ?", new String[] {key});
+            if (c.moveToNext()) {
+                byte[] data = c.getBlob(0);
+                BitmapInfo info = new BitmapInfo();
+                info.icon = BitmapFactory.decodeByteArray(data, 0, data.length, mIconOptions);
+                info.color = c.getInt(1);
+                return info.icon == null ? null : info;
+            }
+        } catch (SQLiteException e) {
+            Log.d(TAG, "Error reading shortcut icon", e);
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+        return null;
+    }
+
+    private void addIconToDb(String key, ShortcutInfoCompat shortcut, BitmapInfo icon) {
+        byte[] data = Utilities.flattenBitmap(icon.icon);
+        if (data == null) {
+            return;
+        }
+        long userSerial = UserManagerCompat.getInstance(mContext)
+                .getSerialNumberForUser(shortcut.getUserHandle());
+        // Remove the icons of the previous versions of the shortcut
+        mIconDb.delete(ShortcutIconDB.COLUMN_PACKAGE + " = ? AND "
+                + ShortcutIconDB.COLUMN_USER + " = ? AND " + ShortcutIconDB.COLUMN_ID + " = ?",
+                new String[] {shortcut.getPackage(), Long.toString(userSerial), shortcut.getId()});
+
+        ContentValues values = new ContentValues();
+        values.put(ShortcutIconDB.COLUMN_KEY, key);
+        values.put(ShortcutIconDB.COLUMN_PACKAGE, shortcut.getPackage());
+        values.put(ShortcutIconDB.COLUMN_USER, userSerial);
+        values.put(ShortcutIconDB.COLUMN_ID, shortcut.getId());
+        values.put(ShortcutIconDB.COLUMN_ICON, data);
+        values.put(ShortcutIconDB.COLUMN_ICON_COLOR, icon.color);
+        mIconDb.insertOrReplace(values);
+    }
+
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "ShortcutCache: apps=" + mCachedShortcuts.size()
+                + " iconBytes=" + mCachedIcons.size()
+                + " prefetchedApps=" + mPrefetchedApps);
+        writer.println(prefix + "  shortcuts: hits=" + mShortcutHits
+                + " misses=" + mShortcutMisses
+                + " hitRate=" + getHitRate(mShortcutHits, mShortcutMisses));
+        writer.println(prefix + "  icons: hits=" + mIconHits + " misses=" + mIconMisses
+                + " hitRate=" + getHitRate(mIconHits, mIconMisses)
+                + " fromDisk=" + mIconsFromDisk + " rendered=" + mIconsRendered);
+    }
+
+    private static String getHitRate(int hits, int misses) {
+        int total = hits + misses;
+        return total == 0 ? "-" : (hits * 100 / total) + "%";
+    }
+
+    private static final class ShortcutIconDB extends SQLiteCacheHelper {
+        private final static int RELEASE_VERSION = 1;
+
+        private final static String TABLE_NAME = "shortcut_icons";
+        private final static String COLUMN_KEY = "key";
+        private final static String COLUMN_PACKAGE = "package";
+        private final static String COLUMN_USER = "profileId";
+        private final static String COLUMN_ID = "shortcutId";
+        private final static String COLUMN_ICON = "icon";
+        private final static String COLUMN_ICON_COLOR = "icon_color";
+
+        public ShortcutIconDB(Context context) {
+            super(context, LauncherFiles.SHORTCUT_ICONS_DB, RELEASE_VERSION, TABLE_NAME);
+        }
+
+        @Override
+        protected void onCreateTable(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
+                    COLUMN_KEY + " TEXT NOT NULL PRIMARY KEY, " +
+                    COLUMN_PACKAGE + " TEXT NOT NULL, " +
+                    COLUMN_USER + " INTEGER NOT NULL, " +
+                    COLUMN_ID + " TEXT NOT NULL, " +
+                    COLUMN_ICON + " BLOB, " +
+                    COLUMN_ICON_COLOR + " INTEGER NOT NULL DEFAULT 0" +
+                    ");");
+            db.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_package ON " + TABLE_NAME
+                    + " (" + COLUMN_PACKAGE + ", " + COLUMN_USER + ");");
         }
     }
 }
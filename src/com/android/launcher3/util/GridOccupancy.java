@@ -4,21 +4,59 @@ import android.graphics.Rect;
 
 import com.android.launcher3.ItemInfo;
 
+import java.util.Arrays;
+
 /**
  * Utility object to manage the occupancy in a grid.
  * 用于管理网格中占用的实用程序对象
+ *
+ * The occupancy of each row is stored as a bit mask, so that spans can be checked and searched a
+ * row at a time, and copying the grid is a single array copy.
  */
 public class GridOccupancy {
 
+    // One bit per column is used in each row mask.
+    public static final int MAX_COLUMNS = Long.SIZE;
+
     private final int mCountX;
     private final int mCountY;
 
-    public final boolean[][] cells;
+    // Mask with the bits of all the columns set.
+    private final long mFullRow;
+    // Bit x of mRows[y] is set when the cell (x, y) is occupied.
+    private final long[] mRows;
 
     public GridOccupancy(int countX, int countY) {
+        if (countX > MAX_COLUMNS) {
+            throw new IllegalArgumentException("Grid can not have more than "
+                    + MAX_COLUMNS + " columns: " + countX);
+        }
         mCountX = countX;
         mCountY = countY;
-        cells = new boolean[countX][countY];
+        mFullRow = spanMask(countX);
+        mRows = new long[Math.max(countY, 0)];
+    }
+
+    /**
+     * Returns a mask with the lowest {@param span} bits set.
+     */
+    private static long spanMask(int span) {
+        if (span <= 0) {
+            return 0;
+        }
+        return span >= Long.SIZE ? -1L : (1L << span) - 1;
+    }
+
+    public int getCountX() {
+        return mCountX;
+    }
+
+    public int getCountY() {
+        return mCountY;
+    }
+
+    public boolean isOccupied(int x, int y) {
+        return (mRows[y] & (1L << x)) != 0;
     }
 
     /**
@@ -31,32 +69,60 @@ public class GridOccupancy {
      * @return true if a vacant cell was found
      */
     public boolean findVacantCell(int[] vacantOut, int spanX, int spanY) {
+        if (spanX <= 0 || spanY <= 0) {
+            return false;
+        }
         for (int y = 0; (y + spanY) <= mCountY; y++) {
-            for (int x = 0; (x + spanX) <= mCountX; x++) {
-                boolean available = !cells[x][y];
-                out:
-                for (int i = x; i < x + spanX; i++) {
-                    for (int j = y; j < y + spanY; j++) {
-                        available = available && !cells[i][j];
-                        if (!available) break out;
-                    }
-                }
-                if (available) {
-                    vacantOut[0] = x;
-                    vacantOut[1] = y;
-                    return true;
-                }
+            // A column is usable only if it is free in every row covered by the span.
+            long occupied = 0;
+            for (int j = y; j < y + spanY; j++) {
+                occupied |= mRows[j];
+            }
+            long starts = runStarts(~occupied & mFullRow, spanX);
+            if (starts != 0) {
+                vacantOut[0] = Long.numberOfTrailingZeros(starts);
+                vacantOut[1] = y;
+                return true;
             }
         }
         return false;
     }
 
-    public void copyTo(GridOccupancy dest) {
-        for (int i = 0; i < mCountX; i++) {
-            for (int j = 0; j < mCountY; j++) {
-                dest.cells[i][j] = cells[i][j];
-            }
+    /**
+     * Returns a mask with bit x set if bits x to x + span - 1 are all set in {@param free}.
+     */
+    private static long runStarts(long free, int span) {
+        long result = free;
+        int length = 1;
+        while (length < span && result != 0) {
+            // Every set bit now marks a run of at least (length + shift) bits.
+            int shift = Math.min(length, span - length);
+            result &= result >>> shift;
+            length += shift;
         }
+        return result;
+    }
+
+    /**
+     * Returns the number of cells which are not occupied.
+     */
+    public int getVacantCellCount() {
+        int occupied = 0;
+        for (long row : mRows) {
+            occupied += Long.bitCount(row);
+        }
+        return mCountX * mCountY - occupied;
+    }
+
+    /**
+     * Returns a copy of the occupancy, as a mask of the occupied columns for every row.
+     */
+    public long[] copyRows() {
+        return mRows.clone();
+    }
+
+    public void copyTo(GridOccupancy dest) {
+        System.arraycopy(mRows, 0, dest.mRows, 0, Math.min(mCountY, dest.mCountY));
     }
 
     public boolean isRegionVacant(int x, int y, int spanX, int spanY) {
@@ -65,21 +131,42 @@ public class GridOccupancy {
         if (x < 0 || y < 0 || x2 >= mCountX || y2 >= mCountY) {
             return false;
         }
-        for (int i = x; i <= x2; i++) {
-            for (int j = y; j <= y2; j++) {
-                if (cells[i][j]) {
+        long mask = spanMask(spanX) << x;
+        for (int j = y; j <= y2; j++) {
+            if ((mRows[j] & mask) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the occupied cells of {@param shape}, placed with its top left corner at
+     * (x, y), do not overlap any occupied cell of this grid. The occupied cells of the shape must
+     * fit in the grid, but the shape may have empty rows extending past the bottom of the grid.
+     */
+    public boolean canFit(int x, int y, GridOccupancy shape) {
+        for (int j = 0; j < shape.mCountY; j++) {
+            if (y + j >= mCountY) {
+                if (shape.mRows[j] != 0) {
                     return false;
                 }
+            } else if ((mRows[y + j] & (shape.mRows[j] << x)) != 0) {
+                return false;
             }
         }
         return true;
     }
 
     public void markCells(int cellX, int cellY, int spanX, int spanY, boolean value) {
-        if (cellX < 0 || cellY < 0) return;
-        for (int x = cellX; x < cellX + spanX && x < mCountX; x++) {
-            for (int y = cellY; y < cellY + spanY && y < mCountY; y++) {
-                cells[x][y] = value;
+        if (cellX < 0 || cellY < 0 || cellX >= mCountX) return;
+        long mask = spanMask(Math.min(spanX, mCountX - cellX)) << cellX;
+        int endY = Math.min(cellY + spanY, mCountY);
+        for (int y = cellY; y < endY; y++) {
+            if (value) {
+                mRows[y] |= mask;
+            } else {
+                mRows[y] &= ~mask;
             }
         }
     }
@@ -97,6 +184,6 @@ public class GridOccupancy {
     }
 
     public void clear() {
-        markCells(0, 0, mCountX, mCountY, false);
+        Arrays.fill(mRows, 0);
     }
 }
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.util;
+
+import android.util.SparseArray;
+import android.view.View;
+import android.view.ViewGroup;
+
+import com.android.launcher3.ItemInfo;
+import com.android.launcher3.LauncherAppWidgetInfo;
+
+import java.util.List;
+
+/**
+ * Index of the views bound to items, by item id and by appWidgetId, over a set of containers.
+ *
+ * The index is updated as views are added to and removed from the containers. When an update
+ * can not be applied exactly, like when two views are bound to the same item, the index is
+ * rebuilt from the containers on the next lookup. The lookups return the same views as scanning
+ * the containers in order for the first match.
+ */
+public class ItemViewRegistry {
+
+    private final Provider<? extends List<? extends ViewGroup>> mContainers;
+
+    private final LongArrayMap<View> mViewsById = new LongArrayMap<>();
+    private final SparseArray<View> mViewsByAppWidgetId = new SparseArray<>();
+    private boolean mValid = false;
+    // True if some views were not indexed as another view is bound to the same item.
+    private boolean mHasDuplicates = false;
+
+    public ItemViewRegistry(Provider<? extends List<? extends ViewGroup>> containers) {
+        mContainers = containers;
+    }
+
+    public void onViewAdded(View child) {
+        if (mValid && !register(child)) {
+            // Two views are bound to the same item
+            mValid = false;
+        }
+    }
+
+    public void onViewRemoved(View child) {
+        if (!mValid || !(child.getTag() instanceof ItemInfo)) {
+            return;
+        }
+        if (mHasDuplicates) {
+            // Another view may now be the first one bound to the item
+            mValid = false;
+            return;
+        }
+        ItemInfo info = (ItemInfo) child.getTag();
+        if (mViewsById.get(info.id) == child) {
+            mViewsById.remove(info.id);
+        } else if (mViewsById.indexOfValue(child) >= 0) {
+            // The view was added for another item
+            mValid = false;
+            return;
+        }
+        if (info instanceof LauncherAppWidgetInfo) {
+            int appWidgetId = ((LauncherAppWidgetInfo) info).appWidgetId;
+            if (mViewsByAppWidgetId.get(appWidgetId) == child) {
+                mViewsByAppWidgetId.remove(appWidgetId);
+            } else if (mViewsByAppWidgetId.indexOfValue(child) >= 0) {
+                mValid = false;
+            }
+        }
+    }
+
+    /**
+     * Marks the index as stale, to be called when views are added or removed without going
+     * through {@link #onViewAdded} and {@link #onViewRemoved}.
+     */
+    public void invalidate() {
+        mValid = false;
+    }
+
+    public View getViewForId(long id) {
+        if (!mValid) {
+            rebuild();
+        }
+        View view = mViewsById.get(id);
+        if (view != null && !isBoundTo(view, id)) {
+            // The view was bound to another item without being re-added
+            rebuild();
+            view = mViewsById.get(id);
+        }
+        return view;
+    }
+
+    public View getViewForAppWidgetId(int appWidgetId) {
+        if (!mValid) {
+            rebuild();
+        }
+        View view = mViewsByAppWidgetId.get(appWidgetId);
+        if (view != null && !isBoundToWidget(view, appWidgetId)) {
+            rebuild();
+            view = mViewsByAppWidgetId.get(appWidgetId);
+        }
+        return view;
+    }
+
+    /**
+     * Checks the index against the views of the containers.
+     * @return a description of the first inconsistency found, or null if there is none.
+     */
+    public String verify() {
+        if (!mValid) {
+            return null;
+        }
+        LongArrayMap<View> expectedViews = new LongArrayMap<>();
+        SparseArray<View> expectedWidgets = new SparseArray<>();
+        for (ViewGroup container : mContainers.get()) {
+            int count = container.getChildCount();
+            for (int i = 0; i < count; i++) {
+                View child = container.getChildAt(i);
+                if (!(child.getTag() instanceof ItemInfo)) {
+                    continue;
+                }
+                ItemInfo info = (ItemInfo) child.getTag();
+                if (!expectedViews.containsKey(info.id)) {
+                    expectedViews.put(info.id, child);
+                    if (mViewsById.get(info.id) != child) {
+                        return "Wrong view for item " + info + ": " + mViewsById.get(info.id);
+                    }
+                }
+                if (info instanceof LauncherAppWidgetInfo) {
+                    int appWidgetId = ((LauncherAppWidgetInfo) info).appWidgetId;
+                    if (expectedWidgets.get(appWidgetId) == null) {
+                        expectedWidgets.put(appWidgetId, child);
+                        if (mViewsByAppWidgetId.get(appWidgetId) != child) {
+                            return "Wrong view for widget " + info;
+                        }
+                    }
+                }
+            }
+        }
+        if (expectedViews.size() != mViewsById.size()) {
+            return "Expected " + expectedViews.size() + " item views, found " + mViewsById.size();
+        }
+        if (expectedWidgets.size() != mViewsByAppWidgetId.size()) {
+            return "Expected " + expectedWidgets.size() + " widget views, found "
+                    + mViewsByAppWidgetId.size();
+        }
+        return null;
+    }
+
+    private void rebuild() {
+        mViewsById.clear();
+        mViewsByAppWidgetId.clear();
+        mHasDuplicates = false;
+        for (ViewGroup container : mContainers.get()) {
+            int count = container.getChildCount();
+            for (int i = 0; i < count; i++) {
+                // Keep the first view bound to an item, as a scan of the containers would.
+                if (!register(container.getChildAt(i))) {
+                    mHasDuplicates = true;
+                }
+            }
+        }
+        mValid = true;
+    }
+
+    /**
+     * Adds {@param child} to the index, unless another view is indexed for the same item.
+     * @return false if another view is indexed for the same item.
+     */
+    private boolean register(View child) {
+        if (!(child.getTag() instanceof ItemInfo)) {
+            return true;
+        }
+        ItemInfo info = (ItemInfo) child.getTag();
+        boolean registered = true;
+        View current = mViewsById.get(info.id);
+        if (current == null) {
+            mViewsById.put(info.id, child);
+        } else if (current != child) {
+            registered = false;
+        }
+        if (info instanceof LauncherAppWidgetInfo) {
+            int appWidgetId = ((LauncherAppWidgetInfo) info).appWidgetId;
+            current = mViewsByAppWidgetId.get(appWidgetId);
+            if (current == null) {
+                mViewsByAppWidgetId.put(appWidgetId, child);
+            } else if (current != child) {
+                registered = false;
+            }
+        }
+        return registered;
+    }
+
+    private static boolean isBoundTo(View view, long id) {
+        return view.getParent() != null && view.getTag() instanceof ItemInfo
+                && ((ItemInfo) view.getTag()).id == id;
+    }
+
+    private static boolean isBoundToWidget(View view, int appWidgetId) {
+        return view.getParent() != null && view.getTag() instanceof LauncherAppWidgetInfo
+                && ((LauncherAppWidgetInfo) view.getTag()).appWidgetId == appWidgetId;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.util;
+
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.android.launcher3.Utilities;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+
+/**
+ * Set of strings persisted in a file, in insertion order.
+ *
+ * The file is a journal of the added strings, so that adding a string only appends it to the
+ * file. Removing strings rewrites the file with the remaining ones.
+ */
+public class JournaledStringSet {
+
+    private static final String TAG = "JournaledStringSet";
+
+    private final AtomicFile mFile;
+
+    private LinkedHashSet<String> mEntries;
+
+    public JournaledStringSet(File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * Returns a copy of the strings of the set.
+     */
+    public synchronized ArrayList<String> getAll() {
+        ensureLoaded();
+        return new ArrayList<>(mEntries);
+    }
+
+    public synchronized boolean isEmpty() {
+        ensureLoaded();
+        return mEntries.isEmpty();
+    }
+
+    /**
+     * Adds {@param entry} to the set, unless it is already in it.
+     */
+    public synchronized void add(String entry) {
+        ensureLoaded();
+        if (!mEntries.add(entry)) {
+            return;
+        }
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(mFile.getBaseFile(), true /* append */);
+            DataOutputStream out = new DataOutputStream(fos);
+            writeEntry(out, entry);
+            out.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to append to " + mFile.getBaseFile(), e);
+        } finally {
+            Utilities.closeSilently(fos);
+        }
+    }
+
+    public synchronized void removeAll(Collection<String> entries) {
+        ensureLoaded();
+        if (mEntries.removeAll(entries)) {
+            compact();
+        }
+    }
+
+    public synchronized void clear() {
+        ensureLoaded();
+        mEntries.clear();
+        mFile.delete();
+    }
+
+    private void ensureLoaded() {
+        if (mEntries != null) {
+            return;
+        }
+        mEntries = new LinkedHashSet<>();
+        boolean isComplete = true;
+        FileInputStream fis = null;
+        try {
+            fis = mFile.openRead();
+            DataInputStream in = new DataInputStream(fis);
+            while (in.available() > 0) {
+                int length = in.available() < 4 ? -1 : in.readInt();
+                if (length < 0 || length > in.available()) {
+                    isComplete = false;
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                mEntries.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing was added yet
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read " + mFile.getBaseFile(), e);
+            isComplete = false;
+        } finally {
+            Utilities.closeSilently(fis);
+        }
+        if (!isComplete) {
+            // The last append was interrupted. Drop the incomplete entry, so that new entries
+            // are appended after the valid ones.
+            compact();
+        }
+    }
+
+    private void compact() {
+        if (mEntries.isEmpty()) {
+            mFile.delete();
+            return;
+        }
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(fos);
+            for (String entry : mEntries) {
+                writeEntry(out, entry);
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write " + mFile.getBaseFile(), e);
+            mFile.failWrite(fos);
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, String entry) throws IOException {
+        byte[] bytes = entry.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -12,6 +12,8 @@ import android.util.Log;
 import com.android.launcher3.Utilities;
 import com.android.launcher3.config.FeatureFlags;
 
+import java.util.List;
+
 /**
  * An extension of {@link SQLiteOpenHelper} with utility methods for a single table cache DB.
  * Any exception during write operations are ignored, and any version change causes a DB reset.
@@ -70,6 +72,32 @@ public abstract class SQLiteCacheHelper {
         }
     }
 
+    /**
+     * Same as {@link #insertOrReplace(ContentValues)} for all the rows, in a single transaction.
+     */
+    public void insertOrReplace(List<ContentValues> valuesList) {
+        if (mIgnoreWrites || valuesList.isEmpty()) {
+            return;
+        }
+        try {
+            SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (ContentValues values : valuesList) {
+                    db.insertWithOnConflict(
+                            mTableName, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLiteFullException e) {
+            onDiskFull(e);
+        } catch (SQLiteException e) {
+            Log.d(TAG, "Ignoring sqlite exception", e);
+        }
+    }
+
     private void onDiskFull(SQLiteFullException e) {
         Log.e(TAG, "Disk full, all write operations will be ignored", e);
         mIgnoreWrites = true;
@@ -20,7 +20,6 @@ import android.os.UserHandle;
 
 import com.android.launcher3.model.WidgetItem;
 
-import java.text.Collator;
 import java.util.Comparator;
 
 /**
@@ -29,7 +28,6 @@ import java.util.Comparator;
 public class WidgetItemComparator implements Comparator<WidgetItem> {
 
     private final UserHandle mMyUserHandle = Process.myUserHandle();
-    private final Collator mCollator = Collator.getInstance();
 
     @Override
     public int compare(WidgetItem a, WidgetItem b) {
@@ -41,7 +39,7 @@ public class WidgetItemComparator implements Comparator<WidgetItem> {
             return thisWorkProfile ? 1 : -1;
         }
 
-        int labelCompare = mCollator.compare(a.label, b.label);
+        int labelCompare = a.getLabelKey().compareTo(b.getLabelKey());
         if (labelCompare != 0) {
             return labelCompare;
         }
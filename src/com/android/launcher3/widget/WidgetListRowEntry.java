@@ -18,7 +18,9 @@ package com.android.launcher3.widget;
 import com.android.launcher3.ItemInfo;
 import com.android.launcher3.model.PackageItemInfo;
 import com.android.launcher3.model.WidgetItem;
+import com.android.launcher3.util.LabelComparator;
 
+import java.text.CollationKey;
 import java.util.ArrayList;
 
 /**
@@ -36,11 +38,25 @@ public class WidgetListRowEntry {
      */
     public String titleSectionName;
 
+    // Sort key of the package title, computed on first use.
+    private CollationKey mTitleKey;
+
     public WidgetListRowEntry(PackageItemInfo pkgItem, ArrayList<WidgetItem> items) {
         this.pkgItem = pkgItem;
         this.widgets = items;
     }
 
+    /**
+     * Returns the key of the package title, for comparing rows with
+     * {@link LabelComparator#compare(String, CollationKey, String, CollationKey)}.
+     */
+    public CollationKey getTitleKey(LabelComparator comparator) {
+        if (mTitleKey == null) {
+            mTitleKey = comparator.getCollationKey(pkgItem.title.toString());
+        }
+        return mTitleKey;
+    }
+
     @Override
     public String toString() {
         return pkgItem.packageName + ":" + widgets.size();
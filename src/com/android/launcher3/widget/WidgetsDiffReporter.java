@@ -101,8 +101,13 @@ public class WidgetsDiffReporter {
                 // same package name but,
                 // did the icon, title, etc, change?
                 // or did the widget size and desc, span, etc change?
-                if (!isSamePackageItemInfo(orgRowEntry.pkgItem, newRowEntry.pkgItem) ||
-                        !orgRowEntry.widgets.equals(newRowEntry.widgets)) {
+                // Rows of packages which were not updated are the same instances in both lists.
+                boolean isSameRow = orgRowEntry == newRowEntry
+                        ? !mIconCache.isDefaultIcon(orgRowEntry.pkgItem.iconBitmap,
+                                orgRowEntry.pkgItem.user)
+                        : isSamePackageItemInfo(orgRowEntry.pkgItem, newRowEntry.pkgItem)
+                                && orgRowEntry.widgets.equals(newRowEntry.widgets);
+                if (!isSameRow) {
                     index = currentEntries.indexOf(orgRowEntry);
                     currentEntries.set(index, newRowEntry);
                     mListener.notifyItemChanged(index);
@@ -214,7 +214,8 @@ public class WidgetsListAdapter extends Adapter<WidgetsRowViewHolder> {
 
         @Override
         public int compare(WidgetListRowEntry a, WidgetListRowEntry b) {
-            return mComparator.compare(a.pkgItem.title.toString(), b.pkgItem.title.toString());
+            return mComparator.compare(a.pkgItem.title.toString(), a.getTitleKey(mComparator),
+                    b.pkgItem.title.toString(), b.getTitleKey(mComparator));
         }
     }
 }
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.android.launcher3.LauncherProvider.DatabaseHelper;
+import com.android.launcher3.LauncherSettings.Favorites;
+import com.android.launcher3.benchmark.BenchmarkData;
+import com.android.launcher3.benchmark.BenchmarkRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Benchmarks for the queries and updates of the favorites table, on synthetic tables of as many
+ * rows as the dataset size, with and without the indexes added in schema version 28.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class LauncherProviderBenchmark {
+
+    private static final int ITEMS_PER_SCREEN = 20;
+
+    @Rule
+    public final BenchmarkRule mBenchmark = new BenchmarkRule();
+
+    @Test
+    public void queries() throws Exception {
+        for (int size : BenchmarkData.SIZES) {
+            SQLiteDatabase indexed = createDb(size, true);
+            SQLiteDatabase notIndexed = createDb(size, false);
+            int screenCount = countScreens(indexed);
+            ArrayList<Long> folderIds = getFolderIds(indexed);
+
+            measureQueries("", size, indexed, screenCount, folderIds);
+            measureQueries("_noIndex", size, notIndexed, screenCount, folderIds);
+
+            indexed.close();
+            notIndexed.close();
+        }
+    }
+
+    @Test
+    public void updates() throws Exception {
+        for (int size : BenchmarkData.SIZES) {
+            DatabaseHelper helper = new DatabaseHelper(RuntimeEnvironment.application, null, null);
+            SQLiteDatabase db = helper.getWritableDatabase();
+            insertItems(db, size);
+            Random random = BenchmarkData.newRandom(size);
+
+            mBenchmark.measure("updateItem", size, () -> {
+                int count = 0;
+                for (int i = 0; i < size; i++) {
+                    count += helper.updateItem(Favorites.TABLE_NAME, 1 + random.nextInt(size),
+                            newMoveValues(random));
+                }
+                return count;
+            });
+
+            mBenchmark.measure("updateItem_original", size, () -> {
+                int count = 0;
+                for (int i = 0; i < size; i++) {
+                    count += db.update(Favorites.TABLE_NAME, newMoveValues(random),
+                            "_id=" + (1 + random.nextInt(size)), null);
+                }
+                return count;
+            });
+            helper.close();
+        }
+    }
+
+    private void measureQueries(String suffix, int size, SQLiteDatabase db, int screenCount,
+            ArrayList<Long> folderIds) throws Exception {
+        // As done by GridSizeMigrationTask for every screen
+        mBenchmark.measure("queryScreens" + suffix, size, () -> {
+            int count = 0;
+            for (int screen = 0; screen < screenCount; screen++) {
+                count += count(db, new String[] {Favorites._ID, Favorites.ITEM_TYPE,
+                        Favorites.CELLX, Favorites.CELLY}, Favorites.CONTAINER + " = "
+                        + Favorites.CONTAINER_DESKTOP + " AND " + Favorites.SCREEN + " = "
+                        + screen);
+            }
+            return count;
+        });
+
+        // As done by GridSizeMigrationTask for every folder
+        mBenchmark.measure("queryFolderItems" + suffix, size, () -> {
+            int count = 0;
+            for (long folderId : folderIds) {
+                count += count(db, new String[] {Favorites._ID, Favorites.INTENT},
+                        Favorites.CONTAINER + " = " + folderId);
+            }
+            return count;
+        });
+
+        // As done by LauncherProvider.deleteEmptyFolders
+        mBenchmark.measure("queryEmptyFolders" + suffix, size, () -> count(db,
+                new String[] {Favorites._ID}, Favorites.ITEM_TYPE + " = "
+                        + Favorites.ITEM_TYPE_FOLDER + " AND " + Favorites._ID
+                        + " NOT IN (SELECT " + Favorites.CONTAINER + " FROM "
+                        + Favorites.TABLE_NAME + ")"));
+
+        // As done by DatabaseHelper.removeGhostWidgets
+        mBenchmark.measure("queryWidgets" + suffix, size, () -> count(db,
+                new String[] {Favorites.APPWIDGET_ID},
+                "itemType=" + Favorites.ITEM_TYPE_APPWIDGET));
+    }
+
+    private static int count(SQLiteDatabase db, String[] columns, String selection) {
+        int count = 0;
+        try (Cursor c = db.query(Favorites.TABLE_NAME, columns, selection,
+                null, null, null, null)) {
+            while (c.moveToNext()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static SQLiteDatabase createDb(int size, boolean addIndexes) {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        Favorites.addTableToDb(db, 0, false);
+        if (addIndexes) {
+            Favorites.addIndexesToDb(db);
+        }
+        insertItems(db, size);
+        return db;
+    }
+
+    /**
+     * Inserts {@param count} items: screens of {@link #ITEMS_PER_SCREEN} items made of apps,
+     * folders and widgets, with the folders holding a few apps each.
+     */
+    private static void insertItems(SQLiteDatabase db, int count) {
+        Random random = BenchmarkData.newRandom(count);
+        ContentValues values = new ContentValues();
+        db.beginTransaction();
+        try {
+            long folderId = -1;
+            int folderSize = 0;
+            for (long id = 1; id <= count; id++) {
+                values.clear();
+                values.put(Favorites._ID, id);
+                values.put(Favorites.TITLE, "Item " + id);
+                int type = random.nextInt(10);
+                if (folderSize > 0) {
+                    values.put(Favorites.CONTAINER, folderId);
+                    values.put(Favorites.ITEM_TYPE, Favorites.ITEM_TYPE_APPLICATION);
+                    folderSize--;
+                } else {
+                    values.put(Favorites.CONTAINER, Favorites.CONTAINER_DESKTOP);
+                    values.put(Favorites.SCREEN, (id - 1) / ITEMS_PER_SCREEN);
+                    if (type == 0) {
+                        values.put(Favorites.ITEM_TYPE, Favorites.ITEM_TYPE_FOLDER);
+                        folderId = id;
+                        folderSize = 2 + random.nextInt(6);
+                    } else if (type == 1) {
+                        values.put(Favorites.ITEM_TYPE, Favorites.ITEM_TYPE_APPWIDGET);
+                        values.put(Favorites.APPWIDGET_ID, id);
+                    } else {
+                        values.put(Favorites.ITEM_TYPE, Favorites.ITEM_TYPE_APPLICATION);
+                    }
+                }
+                values.put(Favorites.INTENT, "#Intent;component=com.example.app" + id
+                        + "/.MainActivity;end");
+                values.put(Favorites.CELLX, random.nextInt(5));
+                values.put(Favorites.CELLY, random.nextInt(5));
+                db.insert(Favorites.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static int countScreens(SQLiteDatabase db) {
+        try (Cursor c = db.rawQuery("SELECT MAX(" + Favorites.SCREEN + ") FROM "
+                + Favorites.TABLE_NAME, null)) {
+            return c.moveToNext() ? c.getInt(0) + 1 : 0;
+        }
+    }
+
+    private static ArrayList<Long> getFolderIds(SQLiteDatabase db) {
+        ArrayList<Long> ids = new ArrayList<>();
+        try (Cursor c = db.query(Favorites.TABLE_NAME, new String[] {Favorites._ID},
+                Favorites.ITEM_TYPE + " = " + Favorites.ITEM_TYPE_FOLDER,
+                null, null, null, null)) {
+            while (c.moveToNext()) {
+                ids.add(c.getLong(0));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the values updated by the model when an item is moved.
+     */
+    private static ContentValues newMoveValues(Random random) {
+        ContentValues values = new ContentValues();
+        values.put(Favorites.CONTAINER, Favorites.CONTAINER_DESKTOP);
+        values.put(Favorites.CELLX, random.nextInt(5));
+        values.put(Favorites.CELLY, random.nextInt(5));
+        values.put(Favorites.SCREEN, random.nextInt(10));
+        values.put(Favorites.RANK, 0);
+        values.put(Favorites.MODIFIED, System.currentTimeMillis());
+        return values;
+    }
+}
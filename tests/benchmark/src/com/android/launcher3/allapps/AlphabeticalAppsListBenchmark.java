@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps;
+
+import com.android.launcher3.AppInfo;
+import com.android.launcher3.benchmark.BenchmarkData;
+import com.android.launcher3.benchmark.BenchmarkRule;
+import com.android.launcher3.util.ComponentKey;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Benchmarks for the section building of {@link AlphabeticalAppsList}
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class AlphabeticalAppsListBenchmark {
+
+    private static final int NUM_APPS_PER_ROW = 5;
+
+    @Rule
+    public final BenchmarkRule mBenchmark = new BenchmarkRule();
+
+    @Test
+    public void onAppsUpdated() throws Exception {
+        for (int size : BenchmarkData.SIZES) {
+            AllAppsStore store = new AllAppsStore();
+            AlphabeticalAppsList list = new AlphabeticalAppsList(
+                    RuntimeEnvironment.application, store, false, NUM_APPS_PER_ROW);
+            ArrayList<AppInfo> apps = BenchmarkData.createApps(size);
+            store.setApps(apps);
+
+            mBenchmark.measure("onAppsUpdated", size, () -> {
+                list.onAppsUpdated();
+                return list.getAdapterItems();
+            });
+
+            // A package update, as when apps are updated one by one from the store.
+            List<AppInfo> updated = Collections.singletonList(apps.get(size / 2));
+            mBenchmark.measure("addOrUpdateApps_single", size, () -> {
+                store.addOrUpdateApps(updated);
+                return list.getAdapterItems();
+            });
+
+            // Search results for a tenth of the apps.
+            ArrayList<ComponentKey> results = new ArrayList<>();
+            for (int i = 0; i < size; i += 10) {
+                results.add(apps.get(i).toComponentKey());
+            }
+            mBenchmark.measure("setOrderedFilter", size, () -> {
+                list.setOrderedFilter(results);
+                list.setOrderedFilter(null);
+                return list.getAdapterItems();
+            });
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps.search;
+
+import com.android.launcher3.AppInfo;
+import com.android.launcher3.allapps.search.DefaultAppSearchAlgorithm.StringMatcher;
+import com.android.launcher3.benchmark.BenchmarkData;
+import com.android.launcher3.benchmark.BenchmarkRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+
+/**
+ * Benchmarks for the all apps search, by scanning with {@link DefaultAppSearchAlgorithm} and by
+ * looking up the {@link AppSearchIndex}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class AppSearchBenchmark {
+
+    // Short prefixes as typed, a word start, a miss and an accented query.
+    private static final String[] QUERIES = {"c", "ca", "mus", "pro", "zzz", "ecl"};
+
+    @Rule
+    public final BenchmarkRule mBenchmark = new BenchmarkRule();
+
+    @Test
+    public void matches() throws Exception {
+        StringMatcher matcher = StringMatcher.getInstance();
+        for (int size : BenchmarkData.SIZES) {
+            ArrayList<AppInfo> apps = BenchmarkData.createApps(size);
+            for (String query : QUERIES) {
+                mBenchmark.measure("matches_" + query, size, () -> {
+                    int count = 0;
+                    for (int i = 0; i < size; i++) {
+                        if (DefaultAppSearchAlgorithm.matches(apps.get(i), query, matcher)) {
+                            count++;
+                        }
+                    }
+                    return count;
+                });
+            }
+        }
+    }
+
+    @Test
+    public void index() throws Exception {
+        for (int size : BenchmarkData.SIZES) {
+            ArrayList<AppInfo> apps = BenchmarkData.createApps(size);
+            mBenchmark.measure("index_build", size, () -> {
+                AppSearchIndex index = new AppSearchIndex();
+                index.update(apps);
+                return index;
+            });
+
+            AppSearchIndex index = new AppSearchIndex();
+            index.update(apps);
+            // All the queries in turn, so that consecutive searches differ as when typing.
+            mBenchmark.measure("index_search", size, () -> {
+                int count = 0;
+                for (String query : QUERIES) {
+                    count += index.search(query).size();
+                }
+                return count;
+            });
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.benchmark;
+
+import android.content.ComponentName;
+import android.os.Process;
+
+import com.android.launcher3.AppInfo;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Synthetic datasets for the benchmarks. The same size always gives the same data.
+ */
+public class BenchmarkData {
+
+    /**
+     * The dataset sizes, in number of apps, that every benchmark runs with.
+     */
+    public static final int[] SIZES = {50, 200, 500, 1000, 2000};
+
+    private static final String[] WORDS = {
+            "Camera", "Calendar", "Clock", "Maps", "Mail", "Messages", "Music", "Photos",
+            "Play", "Drive", "Docs", "Sheets", "News", "Weather", "Notes", "Files", "Chat",
+            "Video", "Radio", "Fit", "Bank", "Pay", "Store", "Games", "Travel", "Food",
+            "mini", "pro", "HD", "go", "2", "360", "X", "\u00dcn\u00efc\u00f6d\u00e9",
+            "\u00c9clair", "\u65e5\u672c", "\u4e2d\u6587",
+    };
+
+    public static Random newRandom(int size) {
+        return new Random(size * 31L + 7);
+    }
+
+    /**
+     * Returns {@param count} apps with titles of one to three words.
+     */
+    public static ArrayList<AppInfo> createApps(int count) {
+        Random random = newRandom(count);
+        ArrayList<AppInfo> apps = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder title = new StringBuilder(WORDS[random.nextInt(WORDS.length)]);
+            int extraWords = random.nextInt(3);
+            for (int j = 0; j < extraWords; j++) {
+                title.append(random.nextBoolean() ? ' ' : '-')
+                        .append(WORDS[random.nextInt(WORDS.length)]);
+            }
+
+            AppInfo info = new AppInfo();
+            info.title = title.toString();
+            info.componentName = new ComponentName("com.example.app" + i, "MainActivity");
+            info.user = Process.myUserHandle();
+            apps.add(info);
+        }
+        return apps;
+    }
+}
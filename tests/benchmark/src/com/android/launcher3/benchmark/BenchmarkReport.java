@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * The results of the benchmarks of a test class, written as JSON to
+ * "[benchmark.reportDir]/[class name].json" so that they can be compared across changes:
+ * <pre>
+ * {
+ *   "class": "com.android.launcher3.util.GridOccupancyBenchmark",
+ *   "timestamp": 1530000000000,
+ *   "vm": "...",
+ *   "results": [
+ *     {"name": "findVacantCell", "size": 50, "ops": 123456, "unit": "ns/op",
+ *      "mean": 812.5, "median": 800.1, "min": 790.3, "max": 900.2, "p90": 850.0},
+ *     ...
+ *   ]
+ * }
+ * </pre>
+ */
+public class BenchmarkReport {
+
+    private static final String REPORT_DIR =
+            System.getProperty("benchmark.reportDir", "build/reports/benchmarks");
+
+    private static final HashMap<Class<?>, BenchmarkReport> sReports = new HashMap<>();
+
+    private final Class<?> mTestClass;
+    private final ArrayList<Result> mResults = new ArrayList<>();
+
+    private BenchmarkReport(Class<?> testClass) {
+        mTestClass = testClass;
+    }
+
+    public static synchronized BenchmarkReport forClass(Class<?> testClass) {
+        BenchmarkReport report = sReports.get(testClass);
+        if (report == null) {
+            report = new BenchmarkReport(testClass);
+            sReports.put(testClass, report);
+        }
+        return report;
+    }
+
+    /**
+     * @param nanosPerOp the time per operation of each iteration, sorted
+     */
+    synchronized void add(String name, int size, long ops, double[] nanosPerOp) {
+        mResults.add(new Result(name, size, ops, nanosPerOp));
+    }
+
+    /**
+     * Writes all the results so far, replacing the previous report of the class.
+     */
+    synchronized void write() {
+        File dir = new File(REPORT_DIR);
+        dir.mkdirs();
+        File file = new File(dir, mTestClass.getName() + ".json");
+        try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+            out.println("{");
+            out.println("  \"class\": \"" + mTestClass.getName() + "\",");
+            out.println("  \"timestamp\": " + System.currentTimeMillis() + ",");
+            out.println("  \"vm\": \"" + System.getProperty("java.vm.name") + " "
+                    + System.getProperty("java.version") + "\",");
+            out.println("  \"results\": [");
+            for (int i = 0; i < mResults.size(); i++) {
+                out.print("    ");
+                mResults.get(i).writeTo(out);
+                out.println(i < mResults.size() - 1 ? "," : "");
+            }
+            out.println("  ]");
+            out.println("}");
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing benchmark report " + file, e);
+        }
+    }
+
+    private static class Result {
+        final String name;
+        final int size;
+        final long ops;
+        final double mean;
+        final double median;
+        final double min;
+        final double max;
+        final double p90;
+
+        Result(String name, int size, long ops, double[] sortedNanosPerOp) {
+            this.name = name;
+            this.size = size;
+            this.ops = ops;
+
+            int count = sortedNanosPerOp.length;
+            double sum = 0;
+            for (double nanos : sortedNanosPerOp) {
+                sum += nanos;
+            }
+            mean = sum / count;
+            median = count % 2 == 1 ? sortedNanosPerOp[count / 2]
+                    : (sortedNanosPerOp[count / 2 - 1] + sortedNanosPerOp[count / 2]) / 2;
+            min = sortedNanosPerOp[0];
+            max = sortedNanosPerOp[count - 1];
+            p90 = sortedNanosPerOp[Math.min(count - 1, (int) Math.ceil(count * 0.9) - 1)];
+        }
+
+        void writeTo(PrintWriter out) {
+            out.print(String.format(Locale.US, "{\"name\": \"%s\", \"size\": %d, \"ops\": %d, "
+                    + "\"unit\": \"ns/op\", \"mean\": %.1f, \"median\": %.1f, \"min\": %.1f, "
+                    + "\"max\": %.1f, \"p90\": %.1f}",
+                    name, size, ops, mean, median, min, max, p90));
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.benchmark;
+
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time taken by an operation, in the manner of JMH: the operation is first run for
+ * a few warmup iterations, then for a few measured iterations of a fixed duration each, and the
+ * time per operation of every measured iteration is recorded in the {@link BenchmarkReport} of
+ * the test class.
+ *
+ * The durations can be changed with the system properties "benchmark.warmupMillis",
+ * "benchmark.iterationMillis" and "benchmark.iterations".
+ */
+public class BenchmarkRule extends TestWatcher {
+
+    private static final long WARMUP_NANOS = TimeUnit.MILLISECONDS.toNanos(
+            Long.getLong("benchmark.warmupMillis", 500));
+    private static final long ITERATION_NANOS = TimeUnit.MILLISECONDS.toNanos(
+            Long.getLong("benchmark.iterationMillis", 200));
+    private static final int ITERATION_COUNT = Integer.getInteger("benchmark.iterations", 10);
+    private static final long MIN_BATCH_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /**
+     * An operation to benchmark. The returned value is consumed, so that the work leading to it
+     * can't be optimized away.
+     */
+    public interface Operation {
+        Object run() throws Exception;
+    }
+
+    /**
+     * Prepares the state of an operation before each call, outside of the measured time.
+     */
+    public interface Setup {
+        void run() throws Exception;
+    }
+
+    // Written to by every operation, so that their results are not dead code.
+    private static volatile int sSink;
+
+    private BenchmarkReport mReport;
+
+    @Override
+    protected void starting(Description description) {
+        mReport = BenchmarkReport.forClass(description.getTestClass());
+    }
+
+    @Override
+    protected void finished(Description description) {
+        mReport.write();
+    }
+
+    /**
+     * Benchmarks {@param operation} on a dataset of {@param size} items.
+     */
+    public void measure(String name, int size, Operation operation) throws Exception {
+        measure(name, size, null, operation);
+    }
+
+    /**
+     * Benchmarks {@param operation} on a dataset of {@param size} items, calling {@param setup}
+     * before each call to the operation. Only the operation is measured.
+     */
+    public void measure(String name, int size, Setup setup, Operation operation)
+            throws Exception {
+        runFor(WARMUP_NANOS, setup, operation);
+
+        double[] nanosPerOp = new double[ITERATION_COUNT];
+        long totalOps = 0;
+        for (int i = 0; i < ITERATION_COUNT; i++) {
+            long[] result = runFor(ITERATION_NANOS, setup, operation);
+            nanosPerOp[i] = (double) result[1] / result[0];
+            totalOps += result[0];
+        }
+        Arrays.sort(nanosPerOp);
+        mReport.add(name, size, totalOps, nanosPerOp);
+    }
+
+    /**
+     * Calls the operation until {@param durationNanos} have been spent in it, and at least once.
+     * Without setup, calls are timed in batches which grow until the cost of reading the clock
+     * is negligible.
+     * @return the number of calls and the time spent in them.
+     */
+    private static long[] runFor(long durationNanos, Setup setup, Operation operation)
+            throws Exception {
+        long ops = 0;
+        long elapsed = 0;
+        int batch = 1;
+        int sink = 0;
+        do {
+            if (setup != null) {
+                setup.run();
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < batch; i++) {
+                sink += System.identityHashCode(operation.run());
+            }
+            long batchNanos = System.nanoTime() - start;
+            elapsed += batchNanos;
+            ops += batch;
+            if (setup == null && batchNanos < MIN_BATCH_NANOS) {
+                batch *= 2;
+            }
+        } while (elapsed < durationNanos);
+        sSink += sink;
+        return new long[] {ops, elapsed};
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.graphics;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.util.SparseArray;
+
+import com.android.launcher3.benchmark.BenchmarkData;
+import com.android.launcher3.benchmark.BenchmarkRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+/**
+ * Benchmarks for {@link ColorExtractor#findDominantColorByHue}, run once per icon for as many
+ * random icons as the dataset size, against the original per-pixel implementation.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class ColorExtractorBenchmark {
+
+    private static final int ICON_SIZE = 192;
+    private static final int SAMPLES = 20;
+
+    @Rule
+    public final BenchmarkRule mBenchmark = new BenchmarkRule();
+
+    @Test
+    public void findDominantColorByHue() throws Exception {
+        for (int size : BenchmarkData.SIZES) {
+            Bitmap[] icons = createIcons(size);
+
+            mBenchmark.measure("findDominantColorByHue", size, () -> {
+                int hash = 0;
+                for (Bitmap icon : icons) {
+                    hash += ColorExtractor.findDominantColorByHue(icon, SAMPLES);
+                }
+                return hash;
+            });
+
+            mBenchmark.measure("findDominantColorByHue_original", size, () -> {
+                int hash = 0;
+                for (Bitmap icon : icons) {
+                    hash += findDominantColorByHueOriginal(icon, SAMPLES);
+                }
+                return hash;
+            });
+        }
+    }
+
+    /**
+     * Returns icons made of a few bands of random colors over a transparent border.
+     */
+    private static Bitmap[] createIcons(int count) {
+        Random random = BenchmarkData.newRandom(count);
+        Bitmap[] icons = new Bitmap[count];
+        int[] pixels = new int[ICON_SIZE * ICON_SIZE];
+        int border = ICON_SIZE / 12;
+        for (int i = 0; i < count; i++) {
+            int[] colors = new int[1 + random.nextInt(4)];
+            for (int c = 0; c < colors.length; c++) {
+                colors[c] = 0xFF000000 | random.nextInt();
+            }
+            for (int y = 0; y < ICON_SIZE; y++) {
+                for (int x = 0; x < ICON_SIZE; x++) {
+                    boolean inside = x >= border && y >= border
+                            && x < ICON_SIZE - border && y < ICON_SIZE - border;
+                    pixels[y * ICON_SIZE + x] = inside
+                            ? colors[y * colors.length / ICON_SIZE] : Color.TRANSPARENT;
+                }
+            }
+            icons[i] = Bitmap.createBitmap(pixels, ICON_SIZE, ICON_SIZE, Bitmap.Config.ARGB_8888);
+        }
+        return icons;
+    }
+
+    /**
+     * The implementation of {@link ColorExtractor#findDominantColorByHue} before it read pixels
+     * in bulk, kept as a baseline.
+     */
+    private static int findDominantColorByHueOriginal(Bitmap bitmap, int samples) {
+        final int height = bitmap.getHeight();
+        final int width = bitmap.getWidth();
+        int sampleStride = (int) Math.sqrt((height * width) / samples);
+        if (sampleStride < 1) {
+            sampleStride = 1;
+        }
+
+        float[] hsv = new float[3];
+        float[] hueScoreHistogram = new float[360];
+        float highScore = -1;
+        int bestHue = -1;
+
+        int[] pixels = new int[samples];
+        int pixelCount = 0;
+
+        for (int y = 0; y < height; y += sampleStride) {
+            for (int x = 0; x < width; x += sampleStride) {
+                int argb = bitmap.getPixel(x, y);
+                int alpha = 0xFF & (argb >> 24);
+                if (alpha < 0x80) {
+                    continue;
+                }
+                int rgb = argb | 0xFF000000;
+                Color.colorToHSV(rgb, hsv);
+                int hue = (int) hsv[0];
+                if (hue < 0 || hue >= hueScoreHistogram.length) {
+                    continue;
+                }
+                if (pixelCount < samples) {
+                    pixels[pixelCount++] = rgb;
+                }
+                float score = hsv[1] * hsv[2];
+                hueScoreHistogram[hue] += score;
+                if (hueScoreHistogram[hue] > highScore) {
+                    highScore = hueScoreHistogram[hue];
+                    bestHue = hue;
+                }
+            }
+        }
+
+        SparseArray<Float> rgbScores = new SparseArray<>();
+        int bestColor = 0xff000000;
+        highScore = -1;
+        for (int i = 0; i < pixelCount; i++) {
+            int rgb = pixels[i];
+            Color.colorToHSV(rgb, hsv);
+            int hue = (int) hsv[0];
+            if (hue == bestHue) {
+                float s = hsv[1];
+                float v = hsv[2];
+                int bucket = (int) (s * 100) + (int) (v * 10000);
+                float score = s * v;
+                Float oldTotal = rgbScores.get(bucket);
+                float newTotal = oldTotal == null ? score : oldTotal + score;
+                rgbScores.put(bucket, newTotal);
+                if (newTotal > highScore) {
+                    highScore = newTotal;
+                    bestColor = rgb;
+                }
+            }
+        }
+        return bestColor;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import android.content.Context;
+import android.graphics.Point;
+
+import com.android.launcher3.InvariantDeviceProfile;
+import com.android.launcher3.LauncherSettings.Favorites;
+import com.android.launcher3.benchmark.BenchmarkData;
+import com.android.launcher3.benchmark.BenchmarkRule;
+import com.android.launcher3.util.GridOccupancy;
+import com.android.launcher3.util.LongArrayMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Benchmarks for the placement planning of {@link GridSizeMigrationTask}, on workspaces loaded
+ * from memory instead of the DB.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class GridSizeMigrationTaskBenchmark {
+
+    private static final Point SOURCE_SIZE = new Point(5, 5);
+    private static final Point TARGET_SIZE = new Point(4, 4);
+
+    @Rule
+    public final BenchmarkRule mBenchmark = new BenchmarkRule();
+
+    @Test
+    public void migrateScreens() throws Exception {
+        for (int size : BenchmarkData.SIZES) {
+            LongArrayMap<ArrayList<DbEntry>> screens = createWorkspace(size);
+            InMemoryMigrationTask task =
+                    new InMemoryMigrationTask(RuntimeEnvironment.application, screens);
+            mBenchmark.measure("migrateScreens", size, () -> {
+                task.migrateAllScreens();
+                return task.mCarryOver.size();
+            });
+        }
+    }
+
+    /**
+     * Returns screens of {@link #SOURCE_SIZE} holding {@param itemCount} items, mostly apps with
+     * some shortcuts and folders, a widget on every third screen and a few empty cells.
+     */
+    private static LongArrayMap<ArrayList<DbEntry>> createWorkspace(int itemCount) {
+        Random random = BenchmarkData.newRandom(itemCount);
+        LongArrayMap<ArrayList<DbEntry>> screens = new LongArrayMap<>();
+        long id = 1;
+        int placed = 0;
+        for (long screenId = 1; placed < itemCount; screenId++) {
+            ArrayList<DbEntry> items = new ArrayList<>();
+            GridOccupancy occupied = new GridOccupancy(SOURCE_SIZE.x, SOURCE_SIZE.y);
+            if (screenId % 3 == 0) {
+                DbEntry widget = createEntry(id++, screenId, Favorites.ITEM_TYPE_APPWIDGET,
+                        0, 0, 4, 2);
+                // Same as the default when the provider info is not known.
+                widget.minSpanX = widget.minSpanY = 2;
+                widget.weight = Math.max(2, 0.6f * widget.spanX * widget.spanY);
+                items.add(widget);
+                occupied.markCells(widget, true);
+            }
+            for (int y = 0; y < SOURCE_SIZE.y && placed < itemCount; y++) {
+                for (int x = 0; x < SOURCE_SIZE.x && placed < itemCount; x++) {
+                    if (occupied.isOccupied(x, y) || random.nextInt(8) == 0) {
+                        continue;
+                    }
+                    int type = random.nextInt(10);
+                    DbEntry entry;
+                    if (type == 0) {
+                        entry = createEntry(id++, screenId, Favorites.ITEM_TYPE_FOLDER,
+                                x, y, 1, 1);
+                        entry.weight = 0.5f * (2 + random.nextInt(6));
+                    } else if (type == 1) {
+                        entry = createEntry(id++, screenId, Favorites.ITEM_TYPE_SHORTCUT,
+                                x, y, 1, 1);
+                        entry.weight = 1;
+                    } else {
+                        entry = createEntry(id++, screenId, Favorites.ITEM_TYPE_APPLICATION,
+                                x, y, 1, 1);
+                        entry.weight = 0.8f;
+                    }
+                    items.add(entry);
+                    placed++;
+                }
+            }
+            screens.put(screenId, items);
+        }
+        return screens;
+    }
+
+    private static DbEntry createEntry(long id, long screenId, int itemType,
+            int cellX, int cellY, int spanX, int spanY) {
+        DbEntry entry = new DbEntry();
+        entry.id = id;
+        entry.screenId = screenId;
+        entry.itemType = itemType;
+        entry.cellX = cellX;
+        entry.cellY = cellY;
+        entry.spanX = spanX;
+        entry.spanY = spanY;
+        return entry;
+    }
+
+    /**
+     * Migrates screens held in memory, dropping the resulting DB updates.
+     */
+    private static class InMemoryMigrationTask extends GridSizeMigrationTask {
+
+        private final LongArrayMap<ArrayList<DbEntry>> mScreens;
+
+        InMemoryMigrationTask(Context context, LongArrayMap<ArrayList<DbEntry>> screens) {
+            super(context, new InvariantDeviceProfile(), new HashSet<String>(),
+                    SOURCE_SIZE, TARGET_SIZE);
+            mScreens = screens;
+        }
+
+        void migrateAllScreens() {
+            mCarryOver.clear();
+            for (int i = 0; i < mScreens.size(); i++) {
+                migrateScreen(mScreens.keyAt(i));
+            }
+        }
+
+        @Override
+        protected ArrayList<DbEntry> loadWorkspaceEntries(long screen) {
+            ArrayList<DbEntry> items = mScreens.get(screen);
+            ArrayList<DbEntry> copy = new ArrayList<>(items.size());
+            for (DbEntry item : items) {
+                copy.add(item.copy());
+            }
+            return copy;
+        }
+
+        @Override
+        protected void update(DbEntry item) { }
+    }
+}
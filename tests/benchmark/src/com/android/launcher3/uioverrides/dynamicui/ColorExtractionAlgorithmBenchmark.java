@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.uioverrides.dynamicui;
+
+import com.android.launcher3.benchmark.BenchmarkData;
+import com.android.launcher3.benchmark.BenchmarkRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+/**
+ * Benchmarks for {@link ColorExtractionAlgorithm#extractInto}, run once per wallpaper for as
+ * many random wallpapers as the dataset size.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class ColorExtractionAlgorithmBenchmark {
+
+    @Rule
+    public final BenchmarkRule mBenchmark = new BenchmarkRule();
+
+    @Test
+    public void extractInto() throws Exception {
+        ColorExtractionAlgorithm algorithm = new ColorExtractionAlgorithm();
+        for (int size : BenchmarkData.SIZES) {
+            Random random = BenchmarkData.newRandom(size);
+            WallpaperColorsCompat[] wallpapers = new WallpaperColorsCompat[size];
+            for (int i = 0; i < size; i++) {
+                wallpapers[i] = new WallpaperColorsCompat(0xff000000 | random.nextInt(),
+                        0xff000000 | random.nextInt(), 0xff000000 | random.nextInt(),
+                        random.nextInt(4));
+            }
+
+            mBenchmark.measure("extractInto", size, () -> {
+                int hash = 0;
+                for (WallpaperColorsCompat wallpaper : wallpapers) {
+                    hash += algorithm.extractInto(wallpaper).hashCode();
+                }
+                return hash;
+            });
+        }
+    }
+}
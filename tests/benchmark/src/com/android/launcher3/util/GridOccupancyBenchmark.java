@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.util;
+
+import com.android.launcher3.benchmark.BenchmarkData;
+import com.android.launcher3.benchmark.BenchmarkRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+/**
+ * Benchmarks for {@link GridOccupancy}. Every measurement is also made on the previous
+ * implementation, {@link ArrayGridOccupancy}, and reported next to it with an "_array" suffix,
+ * while the measurements of {@link GridOccupancy} have a "_bitset" suffix.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class GridOccupancyBenchmark {
+
+    private static final int COLUMNS = 5;
+    private static final int PAGE_SIZE = 7;
+
+    @Rule
+    public final BenchmarkRule mBenchmark = new BenchmarkRule();
+
+    @Test
+    public void findVacantCell() throws Exception {
+        for (int size : BenchmarkData.SIZES) {
+            // A grid which holds all the apps, with a few scattered holes and no 2x2 space
+            // until the last rows.
+            int rows = (size + COLUMNS - 1) / COLUMNS + 2;
+            GridOccupancy grid = new GridOccupancy(COLUMNS, rows);
+            ArrayGridOccupancy legacy = new ArrayGridOccupancy(COLUMNS, rows);
+            grid.markCells(0, 0, COLUMNS, rows - 2, true);
+            legacy.markCells(0, 0, COLUMNS, rows - 2, true);
+            Random random = BenchmarkData.newRandom(size);
+            for (int i = 0; i < size / 10; i++) {
+                int x = random.nextInt(COLUMNS);
+                int y = random.nextInt(rows - 2);
+                if (x % 2 == y % 2) {
+                    grid.markCells(x, y, 1, 1, false);
+                    legacy.markCells(x, y, 1, 1, false);
+                }
+            }
+
+            int[] vacant = new int[2];
+            for (int span = 1; span <= 2; span++) {
+                int spanXY = span;
+                String name = "findVacantCell_" + span + "x" + span;
+                mBenchmark.measure(name + "_array", size,
+                        () -> legacy.findVacantCell(vacant, spanXY, spanXY));
+                mBenchmark.measure(name + "_bitset", size,
+                        () -> grid.findVacantCell(vacant, spanXY, spanXY));
+            }
+        }
+    }
+
+    @Test
+    public void copyToAndFindVacantCell() throws Exception {
+        for (int size : BenchmarkData.SIZES) {
+            // Random 7x7 workspace pages with a mix of icons and widgets, copied and searched
+            // for each span as when looking for a reorder solution.
+            Random random = BenchmarkData.newRandom(size);
+            GridOccupancy[] grids = new GridOccupancy[size];
+            ArrayGridOccupancy[] legacyGrids = new ArrayGridOccupancy[size];
+            for (int g = 0; g < size; g++) {
+                grids[g] = new GridOccupancy(PAGE_SIZE, PAGE_SIZE);
+                legacyGrids[g] = new ArrayGridOccupancy(PAGE_SIZE, PAGE_SIZE);
+                for (int i = 0; i < 6; i++) {
+                    int x = random.nextInt(PAGE_SIZE);
+                    int y = random.nextInt(PAGE_SIZE);
+                    int spanX = 1 + random.nextInt(3);
+                    int spanY = 1 + random.nextInt(3);
+                    grids[g].markCells(x, y, spanX, spanY, true);
+                    legacyGrids[g].markCells(x, y, spanX, spanY, true);
+                }
+            }
+
+            ArrayGridOccupancy legacyCopy = new ArrayGridOccupancy(PAGE_SIZE, PAGE_SIZE);
+            GridOccupancy copy = new GridOccupancy(PAGE_SIZE, PAGE_SIZE);
+            int[] vacant = new int[2];
+            mBenchmark.measure("copyTo_findVacantCell_array", size, () -> {
+                int found = 0;
+                for (ArrayGridOccupancy grid : legacyGrids) {
+                    grid.copyTo(legacyCopy);
+                    for (int span = 1; span <= 4; span++) {
+                        if (legacyCopy.findVacantCell(vacant, span, span)) {
+                            found++;
+                        }
+                    }
+                }
+                return found;
+            });
+            mBenchmark.measure("copyTo_findVacantCell_bitset", size, () -> {
+                int found = 0;
+                for (GridOccupancy grid : grids) {
+                    grid.copyTo(copy);
+                    for (int span = 1; span <= 4; span++) {
+                        if (copy.findVacantCell(vacant, span, span)) {
+                            found++;
+                        }
+                    }
+                }
+                return found;
+            });
+        }
+    }
+
+    @Test
+    public void markCells() throws Exception {
+        for (int size : BenchmarkData.SIZES) {
+            int rows = (size + COLUMNS - 1) / COLUMNS;
+            ArrayGridOccupancy legacy = new ArrayGridOccupancy(COLUMNS, rows);
+            mBenchmark.measure("markCells_array", size, () -> {
+                for (int i = 0; i < size; i++) {
+                    legacy.markCells(i % COLUMNS, i / COLUMNS, 1, 1, true);
+                }
+                legacy.clear();
+                return legacy;
+            });
+            GridOccupancy grid = new GridOccupancy(COLUMNS, rows);
+            mBenchmark.measure("markCells_bitset", size, () -> {
+                for (int i = 0; i < size; i++) {
+                    grid.markCells(i % COLUMNS, i / COLUMNS, 1, 1, true);
+                }
+                grid.clear();
+                return grid;
+            });
+        }
+    }
+}
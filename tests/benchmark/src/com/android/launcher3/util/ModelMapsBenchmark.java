@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.util;
+
+import com.android.launcher3.AppInfo;
+import com.android.launcher3.benchmark.BenchmarkData;
+import com.android.launcher3.benchmark.BenchmarkRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+
+/**
+ * Benchmarks for {@link LongArrayMap} and {@link MultiHashMap}, as used by the model for the
+ * items by id and the shortcuts by package.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class ModelMapsBenchmark {
+
+    @Rule
+    public final BenchmarkRule mBenchmark = new BenchmarkRule();
+
+    @Test
+    public void longArrayMap() throws Exception {
+        for (int size : BenchmarkData.SIZES) {
+            ArrayList<AppInfo> apps = BenchmarkData.createApps(size);
+            // Ids are mostly increasing, as they come from the DB.
+            long[] ids = new long[size];
+            for (int i = 0; i < size; i++) {
+                ids[i] = i * 3 + (i % 7);
+            }
+
+            mBenchmark.measure("LongArrayMap_put", size, () -> {
+                LongArrayMap<AppInfo> map = new LongArrayMap<>();
+                for (int i = 0; i < size; i++) {
+                    map.put(ids[i], apps.get(i));
+                }
+                return map;
+            });
+
+            LongArrayMap<AppInfo> map = new LongArrayMap<>();
+            for (int i = 0; i < size; i++) {
+                map.put(ids[i], apps.get(i));
+            }
+            mBenchmark.measure("LongArrayMap_get", size, () -> {
+                int found = 0;
+                for (int i = 0; i < size; i++) {
+                    if (map.get(ids[i]) != null) {
+                        found++;
+                    }
+                }
+                return found;
+            });
+            mBenchmark.measure("LongArrayMap_iterate", size, () -> {
+                int count = 0;
+                for (AppInfo info : map) {
+                    count += info.title.length();
+                }
+                return count;
+            });
+            mBenchmark.measure("LongArrayMap_clone", size, map::clone);
+        }
+    }
+
+    @Test
+    public void multiHashMap() throws Exception {
+        for (int size : BenchmarkData.SIZES) {
+            ArrayList<AppInfo> apps = BenchmarkData.createApps(size);
+            // A few apps per package, like shortcuts keyed by package.
+            String[] packages = new String[size];
+            for (int i = 0; i < size; i++) {
+                packages[i] = apps.get(i / 4).componentName.getPackageName();
+            }
+
+            mBenchmark.measure("MultiHashMap_addToList", size, () -> {
+                MultiHashMap<String, AppInfo> map = new MultiHashMap<>();
+                for (int i = 0; i < size; i++) {
+                    map.addToList(packages[i], apps.get(i));
+                }
+                return map;
+            });
+
+            MultiHashMap<String, AppInfo> map = new MultiHashMap<>();
+            for (int i = 0; i < size; i++) {
+                map.addToList(packages[i], apps.get(i));
+            }
+            mBenchmark.measure("MultiHashMap_get", size, () -> {
+                int count = 0;
+                for (int i = 0; i < size; i++) {
+                    count += map.get(packages[i]).size();
+                }
+                return count;
+            });
+            mBenchmark.measure("MultiHashMap_clone", size, map::clone);
+        }
+    }
+}
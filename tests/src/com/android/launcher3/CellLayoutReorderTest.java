@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.android.launcher3.ui.AbstractLauncherUiTest;
+import com.android.launcher3.util.rule.LauncherActivityRule;
+import com.android.launcher3.util.rule.ShellCommandRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+/**
+ * Tests for the {@link CellLayout.ReorderSolveListener} hook of {@link CellLayout}
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class CellLayoutReorderTest extends AbstractLauncherUiTest {
+
+    @Rule public LauncherActivityRule mActivityMonitor = new LauncherActivityRule();
+    @Rule public ShellCommandRule mDefaultLauncherRule = ShellCommandRule.setDefaultLauncher();
+
+    @Test
+    public void testReorderSolveListener_calledOncePerReorder() throws Throwable {
+        clearHomescreen();
+        mActivityMonitor.startLauncher();
+        getInstrumentation().waitForIdleSync();
+
+        ArrayList<long[]> solves = getOnUiThread(() -> {
+            CellLayout layout = mActivityMonitor.getActivity().getWorkspace()
+                    .getScreenWithId(Workspace.FIRST_SCREEN_ID);
+            ArrayList<long[]> reported = new ArrayList<>();
+            layout.setReorderSolveListener((mode, solveTimeNanos, allocations, reused) ->
+                    reported.add(new long[] {mode, solveTimeNanos, allocations}));
+
+            int x = layout.getWidth() / 2;
+            int y = layout.getHeight() / 2;
+            for (int i = 0; i < 2; i++) {
+                layout.performReorder(x, y, 1, 1, 1, 1, null, null, null,
+                        CellLayout.MODE_ACCEPT_DROP);
+            }
+            layout.setReorderSolveListener(null);
+            return reported;
+        });
+
+        assertEquals(2, solves.size());
+        for (long[] solve : solves) {
+            assertEquals(CellLayout.MODE_ACCEPT_DROP, solve[0]);
+            assertTrue(solve[1] >= 0);
+            assertTrue(solve[2] >= 0);
+        }
+    }
+}
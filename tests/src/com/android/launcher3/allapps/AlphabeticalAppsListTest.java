@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Process;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.android.launcher3.AppInfo;
+import com.android.launcher3.allapps.AlphabeticalAppsList.FastScrollSectionInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for the incremental updates of {@link AlphabeticalAppsList}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class AlphabeticalAppsListTest {
+
+    private static final String[] TITLES = new String[] {
+            "Calculator", "Calendar", "Camera", "Chrome", "Clock", "Drive", "Gmail", "Maps",
+            "Messages", "Phone", "Photos", "Play Store", "Settings", "YouTube", "2048"};
+
+    private Context mContext;
+    private AllAppsStore mStore;
+    private AlphabeticalAppsList mAppsList;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mStore = new AllAppsStore();
+        mAppsList = new AlphabeticalAppsList(mContext, mStore, false, 4);
+
+        ArrayList<AppInfo> apps = new ArrayList<>();
+        for (String title : TITLES) {
+            apps.add(createInfo(title, title));
+        }
+        mStore.setApps(apps);
+    }
+
+    @Test
+    public void testAddApp() {
+        mStore.addOrUpdateApps(Collections.singletonList(createInfo("Contacts", "Contacts")));
+        assertSameAsFullUpdate();
+        assertEquals(TITLES.length + 1, mAppsList.getApps().size());
+    }
+
+    @Test
+    public void testRemoveApp() {
+        mStore.removeApps(Collections.singletonList(createInfo("Maps", "Maps")));
+        assertSameAsFullUpdate();
+        assertEquals(TITLES.length - 1, mAppsList.getApps().size());
+    }
+
+    @Test
+    public void testRenameApp() {
+        // New info for the same component
+        mStore.addOrUpdateApps(Collections.singletonList(createInfo("Clock", "Alarms")));
+        assertSameAsFullUpdate();
+        assertEquals("Alarms", mAppsList.getApps().get(1).title);
+    }
+
+    @Test
+    public void testRenameAppInPlace() {
+        // The model updates the title of the info shared with the UI before binding it.
+        AppInfo info = mStore.getApp(createInfo("Camera", "Camera").toComponentKey());
+        info.title = "Zoom";
+        mStore.addOrUpdateApps(Collections.singletonList(info));
+        assertSameAsFullUpdate();
+        assertEquals(info, mAppsList.getApps().get(TITLES.length - 1));
+    }
+
+    @Test
+    public void testDeferredChanges() {
+        mStore.setDeferUpdates(true);
+        mStore.addOrUpdateApps(Arrays.asList(createInfo("Contacts", "Contacts"),
+                createInfo("Phone", "Dialer")));
+        mStore.removeApps(Collections.singletonList(createInfo("Drive", "Drive")));
+        mStore.setDeferUpdates(false);
+        assertSameAsFullUpdate();
+    }
+
+    private void assertSameAsFullUpdate() {
+        AlphabeticalAppsList expected = new AlphabeticalAppsList(mContext, mStore, false, 4);
+        expected.onAppsUpdated();
+
+        assertEquals(expected.getApps(), mAppsList.getApps());
+        assertEquals(expected.getAdapterItems().size(), mAppsList.getAdapterItems().size());
+        assertEquals(expected.getNumAppRows(), mAppsList.getNumAppRows());
+        assertEquals(getSectionNames(expected), getSectionNames(mAppsList));
+    }
+
+    private static ArrayList<String> getSectionNames(AlphabeticalAppsList appsList) {
+        ArrayList<String> names = new ArrayList<>();
+        for (FastScrollSectionInfo info : appsList.getFastScrollerSections()) {
+            names.add(info.sectionName);
+        }
+        return names;
+    }
+
+    private AppInfo createInfo(String className, String title) {
+        AppInfo info = new AppInfo();
+        info.title = title;
+        info.componentName = new ComponentName("Test", className);
+        info.user = Process.myUserHandle();
+        return info;
+    }
+}
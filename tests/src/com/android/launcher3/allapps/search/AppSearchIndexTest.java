@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps.search;
+
+import android.content.ComponentName;
+import android.os.Process;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.android.launcher3.AppInfo;
+import com.android.launcher3.util.ComponentKey;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link AppSearchIndex}
+ */
+@RunWith(AndroidJUnit4.class)
+public class AppSearchIndexTest {
+
+    private static final String[] TITLES = new String[] {
+            "white cow", "whiteCow", "whiteCOW", "whitecowCOW", "white2cow", "whitecow",
+            "whitEcow", "whit ecowcow", "cats&dogs", "cats&Dogs", "2+43", "Q", "  Q", "elephant",
+            "电子邮件", "Bot", "bot", "Calculator", "Calendar", "Camera", "Chrome", "Clock"};
+
+    private static final String[] QUERIES = new String[] {
+            "c", "ca", "cal", "calc", "cow", "dog", "&", "43", "3", "q", "e", "电", "电子", "子",
+            "ba", "b", "w", "white", "xyz"};
+
+    @Test
+    public void testSearchMatchesLinearScan() {
+        List<AppInfo> apps = getApps(TITLES);
+        AppSearchIndex index = new AppSearchIndex();
+        assertTrue(index.update(apps));
+
+        DefaultAppSearchAlgorithm.StringMatcher matcher =
+                DefaultAppSearchAlgorithm.StringMatcher.getInstance();
+        for (String query : QUERIES) {
+            ArrayList<ComponentKey> expected = new ArrayList<>();
+            for (AppInfo info : apps) {
+                if (DefaultAppSearchAlgorithm.matches(info, query, matcher)) {
+                    expected.add(info.toComponentKey());
+                }
+            }
+            assertEquals(query, expected, index.search(query));
+        }
+    }
+
+    @Test
+    public void testIncrementalQueries() {
+        List<AppInfo> apps = getApps(TITLES);
+        AppSearchIndex index = new AppSearchIndex();
+        index.update(apps);
+
+        // Extending the query narrows the previous range, while a new query searches everything.
+        assertEquals(12, index.search("c").size());
+        assertEquals(2, index.search("cal").size());
+        assertEquals(1, index.search("calc").size());
+        assertEquals(1, index.search("camera").size());
+        assertEquals(0, index.search("").size());
+    }
+
+    @Test
+    public void testUpdate() {
+        List<AppInfo> apps = getApps(TITLES);
+        AppSearchIndex index = new AppSearchIndex();
+        assertTrue(index.update(apps));
+        assertFalse(index.update(apps));
+        assertEquals(0, index.search("maps").size());
+
+        // Changes are only picked up once the index is invalidated
+        apps.add(getInfo("Maps"));
+        assertFalse(index.update(apps));
+        index.invalidate();
+        assertTrue(index.update(apps));
+        assertEquals(1, index.search("maps").size());
+    }
+
+    private List<AppInfo> getApps(String[] titles) {
+        ArrayList<AppInfo> apps = new ArrayList<>();
+        for (String title : Arrays.asList(titles)) {
+            apps.add(getInfo(title));
+        }
+        return apps;
+    }
+
+    private AppInfo getInfo(String title) {
+        AppInfo info = new AppInfo();
+        info.title = title;
+        info.componentName = new ComponentName("Test", title);
+        info.user = Process.myUserHandle();
+        return info;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.graphics;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.drawable.Drawable;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.SparseArray;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that {@link ColorExtractor} gives the same colors as the original algorithm based on
+ * {@link Color#colorToHSV}, over a corpus of synthetic images and of the installed app icons.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ColorExtractorTest {
+
+    private static final int ICON_SIZE = 192;
+    private static final int SYNTHETIC_IMAGE_COUNT = 200;
+    private static final int WALLPAPER_SAMPLES = 112 * 112;
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+    }
+
+    @Test
+    public void testColorToHsvConversions() {
+        float[] hsv = new float[3];
+        Random random = new Random(0);
+        for (int i = 0; i < 100000; i++) {
+            int rgb = random.nextInt() | 0xFF000000;
+            Color.colorToHSV(rgb, hsv);
+            assertEquals(Integer.toHexString(rgb), (int) hsv[0], ColorExtractor.getHue(rgb));
+            assertEquals(Integer.toHexString(rgb), (int) (hsv[1] * 100) + (int) (hsv[2] * 10000),
+                    ColorExtractor.getSaturationValueBucket(rgb));
+        }
+    }
+
+    @Test
+    public void testSyntheticImages() {
+        Random random = new Random(42);
+        for (int i = 0; i < SYNTHETIC_IMAGE_COUNT; i++) {
+            Bitmap bitmap = createSyntheticIcon(random);
+            assertSameColor("image " + i, bitmap, 20);
+            assertSameColor("image " + i, bitmap, WALLPAPER_SAMPLES);
+        }
+    }
+
+    @Test
+    public void testSolidAndTransparentImages() {
+        Bitmap bitmap = Bitmap.createBitmap(ICON_SIZE, ICON_SIZE, Bitmap.Config.ARGB_8888);
+        assertSameColor("transparent", bitmap, 20);
+        for (int color : new int[] {Color.WHITE, Color.BLACK, Color.GRAY, Color.RED, Color.GREEN,
+                Color.BLUE, Color.CYAN, Color.MAGENTA, Color.YELLOW, 0xFF3DDC84}) {
+            bitmap.eraseColor(color);
+            assertSameColor(Integer.toHexString(color), bitmap, 20);
+        }
+    }
+
+    @Test
+    public void testInstalledAppIcons() {
+        PackageManager pm = mContext.getPackageManager();
+        List<ApplicationInfo> apps = pm.getInstalledApplications(0);
+        Bitmap bitmap = Bitmap.createBitmap(ICON_SIZE, ICON_SIZE, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        for (ApplicationInfo app : apps) {
+            Drawable icon = app.loadIcon(pm);
+            bitmap.eraseColor(Color.TRANSPARENT);
+            icon.setBounds(0, 0, ICON_SIZE, ICON_SIZE);
+            icon.draw(canvas);
+            assertSameColor(app.packageName, bitmap, 20);
+        }
+    }
+
+    /**
+     * Returns an icon-like image: shapes of a few colors over a transparent background.
+     */
+    private static Bitmap createSyntheticIcon(Random random) {
+        Bitmap bitmap = Bitmap.createBitmap(ICON_SIZE, ICON_SIZE, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        int shapes = 1 + random.nextInt(5);
+        for (int i = 0; i < shapes; i++) {
+            paint.setColor(random.nextInt());
+            float x = random.nextFloat() * ICON_SIZE;
+            float y = random.nextFloat() * ICON_SIZE;
+            float size = (0.1f + random.nextFloat()) * ICON_SIZE / 2;
+            if (random.nextBoolean()) {
+                canvas.drawCircle(x, y, size, paint);
+            } else {
+                canvas.drawRect(x - size, y - size, x + size, y + size, paint);
+            }
+        }
+        if (random.nextInt(4) == 0) {
+            // Noise
+            for (int i = 0; i < ICON_SIZE * 4; i++) {
+                bitmap.setPixel(random.nextInt(ICON_SIZE), random.nextInt(ICON_SIZE),
+                        random.nextInt());
+            }
+        }
+        return bitmap;
+    }
+
+    private static void assertSameColor(String name, Bitmap bitmap, int samples) {
+        assertEquals(name, Integer.toHexString(findDominantColorByHueReference(bitmap, samples)),
+                Integer.toHexString(ColorExtractor.findDominantColorByHue(bitmap, samples)));
+    }
+
+    /**
+     * The original implementation of {@link ColorExtractor#findDominantColorByHue}.
+     */
+    private static int findDominantColorByHueReference(Bitmap bitmap, int samples) {
+        final int height = bitmap.getHeight();
+        final int width = bitmap.getWidth();
+        int sampleStride = (int) Math.sqrt((height * width) / samples);
+        if (sampleStride < 1) {
+            sampleStride = 1;
+        }
+
+        float[] hsv = new float[3];
+        float[] hueScoreHistogram = new float[360];
+        float highScore = -1;
+        int bestHue = -1;
+
+        int[] pixels = new int[samples];
+        int pixelCount = 0;
+
+        for (int y = 0; y < height; y += sampleStride) {
+            for (int x = 0; x < width; x += sampleStride) {
+                int argb = bitmap.getPixel(x, y);
+                int alpha = 0xFF & (argb >> 24);
+                if (alpha < 0x80) {
+                    continue;
+                }
+                int rgb = argb | 0xFF000000;
+                Color.colorToHSV(rgb, hsv);
+                int hue = (int) hsv[0];
+                if (hue < 0 || hue >= hueScoreHistogram.length) {
+                    continue;
+                }
+                if (pixelCount < samples) {
+                    pixels[pixelCount++] = rgb;
+                }
+                float score = hsv[1] * hsv[2];
+                hueScoreHistogram[hue] += score;
+                if (hueScoreHistogram[hue] > highScore) {
+                    highScore = hueScoreHistogram[hue];
+                    bestHue = hue;
+                }
+            }
+        }
+
+        SparseArray<Float> rgbScores = new SparseArray<>();
+        int bestColor = 0xff000000;
+        highScore = -1;
+        for (int i = 0; i < pixelCount; i++) {
+            int rgb = pixels[i];
+            Color.colorToHSV(rgb, hsv);
+            int hue = (int) hsv[0];
+            if (hue == bestHue) {
+                float s = hsv[1];
+                float v = hsv[2];
+                int bucket = (int) (s * 100) + (int) (v * 10000);
+                float score = s * v;
+                Float oldTotal = rgbScores.get(bucket);
+                float newTotal = oldTotal == null ? score : oldTotal + score;
+                rgbScores.put(bucket, newTotal);
+                if (newTotal > highScore) {
+                    highScore = newTotal;
+                    bestColor = rgb;
+                }
+            }
+        }
+        return bestColor;
+    }
+}
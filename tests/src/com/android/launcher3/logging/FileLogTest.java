@@ -12,9 +12,7 @@ import org.junit.runner.RunWith;
 import java.io.File;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.util.Calendar;
 
-import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -40,8 +38,8 @@ public class FileLogTest {
     @After
     public void tearDown() throws Exception {
         // Clear existing logs
-        new File(mTempDir, "log-0").delete();
-        new File(mTempDir, "log-1").delete();
+        new File(mTempDir, LogRingBuffer.RING_FILE_NAME).delete();
+        new File(mTempDir, LogRingBuffer.TAGS_FILE_NAME).delete();
         mTempDir.delete();
     }
 
@@ -65,30 +63,4 @@ public class FileLogTest {
         // Old logs still present after flush
         assertTrue(writer.toString().contains("hoolalala"));
     }
-
-    @Test
-    public void testOldFileTruncated() throws Exception {
-        if (!FileLog.ENABLED) {
-            return;
-        }
-        FileLog.print("Testing", "hoolalala");
-        StringWriter writer = new StringWriter();
-        FileLog.flushAll(new PrintWriter(writer));
-        assertTrue(writer.toString().contains("hoolalala"));
-
-        Calendar threeDaysAgo = Calendar.getInstance();
-        threeDaysAgo.add(Calendar.HOUR, -72);
-        new File(mTempDir, "log-0").setLastModified(threeDaysAgo.getTimeInMillis());
-        new File(mTempDir, "log-1").setLastModified(threeDaysAgo.getTimeInMillis());
-
-        FileLog.print("Testing", "abracadabra", new Exception("cat! cat!"));
-        writer = new StringWriter();
-        FileLog.flushAll(new PrintWriter(writer));
-        assertTrue(writer.toString().contains("abracadabra"));
-        // Exception is also printed
-        assertTrue(writer.toString().contains("cat! cat!"));
-
-        // Old logs have been truncated
-        assertFalse(writer.toString().contains("hoolalala"));
-    }
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.logging;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link LogRingBuffer}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class LogRingBufferTest {
+
+    // Each test record takes 32 bytes, so that a segment holds 4 records.
+    private static final int SEGMENT_SIZE = 128;
+    private static final int SEGMENT_COUNT = 4;
+
+    private File mTempDir;
+
+    @Before
+    public void setUp() throws Exception {
+        int count = 0;
+        do {
+            mTempDir = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                    "log-ring-test-" + (count++));
+        } while(!mTempDir.mkdir());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        new File(mTempDir, LogRingBuffer.RING_FILE_NAME).delete();
+        new File(mTempDir, LogRingBuffer.TAGS_FILE_NAME).delete();
+        mTempDir.delete();
+    }
+
+    @Test
+    public void testRingRotation() throws Exception {
+        LogRingBuffer ring = new LogRingBuffer(mTempDir, SEGMENT_SIZE, SEGMENT_COUNT,
+                Runnable::run);
+        for (int i = 0; i < 40; i++) {
+            ring.append(System.currentTimeMillis(), "Testing", Log.DEBUG, message(i));
+        }
+
+        // Only the last 4 segments are kept, oldest first.
+        ArrayList<String> messages = dumpMessages(ring);
+        assertEquals(16, messages.size());
+        for (int i = 0; i < 16; i++) {
+            assertTrue(messages.get(i).endsWith(" D Testing " + message(24 + i)));
+        }
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        LogRingBuffer ring = new LogRingBuffer(mTempDir, SEGMENT_SIZE, SEGMENT_COUNT,
+                Runnable::run);
+        for (int i = 0; i < 3; i++) {
+            ring.append(System.currentTimeMillis(), "Testing", Log.DEBUG, message(i));
+        }
+        ring.flush();
+
+        // A new instance keeps the previous records and writes after them.
+        ring = new LogRingBuffer(mTempDir, SEGMENT_SIZE, SEGMENT_COUNT, Runnable::run);
+        for (int i = 3; i < 6; i++) {
+            ring.append(System.currentTimeMillis(), "Other", Log.ERROR, message(i));
+        }
+
+        ArrayList<String> messages = dumpMessages(ring);
+        assertEquals(6, messages.size());
+        for (int i = 0; i < 6; i++) {
+            assertTrue(messages.get(i).endsWith(
+                    (i < 3 ? " D Testing " : " E Other ") + message(i)));
+        }
+    }
+
+    @Test
+    public void testConcurrentAppends() throws Exception {
+        LogRingBuffer ring = new LogRingBuffer(mTempDir, 4096, SEGMENT_COUNT,
+                Runnable::run);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t * 100;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 50; i++) {
+                    ring.append(System.currentTimeMillis(), "Testing", Log.DEBUG,
+                            message(offset + i));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        HashSet<String> messages = new HashSet<>();
+        for (String line : dumpMessages(ring)) {
+            messages.add(line.substring(line.lastIndexOf(' ') + 1));
+        }
+        assertEquals(200, messages.size());
+        for (int t = 0; t < threads.length; t++) {
+            for (int i = 0; i < 50; i++) {
+                assertTrue(messages.contains(message(t * 100 + i)));
+            }
+        }
+    }
+
+    @Test
+    public void testOldLogsSkipped() throws Exception {
+        LogRingBuffer ring = new LogRingBuffer(mTempDir, SEGMENT_SIZE, SEGMENT_COUNT,
+                Runnable::run);
+        long now = System.currentTimeMillis();
+        ring.append(now - TimeUnit.HOURS.toMillis(72), "Testing", Log.INFO, "hoolalala");
+        ring.append(now, "Testing", Log.INFO, "abracadabra");
+
+        StringWriter writer = new StringWriter();
+        ring.dump(new PrintWriter(writer), now - TimeUnit.HOURS.toMillis(36),
+                DateFormat.getDateTimeInstance());
+        assertTrue(writer.toString().contains("abracadabra"));
+        assertFalse(writer.toString().contains("hoolalala"));
+    }
+
+    private static String message(int i) {
+        return String.format("msg-%03d", i);
+    }
+
+    private static ArrayList<String> dumpMessages(LogRingBuffer ring) {
+        StringWriter writer = new StringWriter();
+        ring.dump(new PrintWriter(writer), 0, DateFormat.getDateTimeInstance());
+        ArrayList<String> messages = new ArrayList<>();
+        for (String line : writer.toString().split("\n")) {
+            if (line.contains("msg-")) {
+                messages.add(line);
+            }
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.logging;
+
+import static com.android.launcher3.logging.LoggerUtils.newContainerTarget;
+import static com.android.launcher3.logging.LoggerUtils.newLauncherEvent;
+import static com.android.launcher3.logging.LoggerUtils.newTouchAction;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.android.launcher3.userevent.nano.LauncherLogProto.Action;
+import com.android.launcher3.userevent.nano.LauncherLogProto.ContainerType;
+import com.android.launcher3.userevent.nano.LauncherLogProto.LauncherEvent;
+import com.google.protobuf.nano.CodedInputByteBufferNano;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link UserEventLog}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class UserEventLogTest {
+
+    private static final int CAPACITY = 8;
+
+    private File mTempDir;
+    private HandlerThread mThread;
+
+    @Before
+    public void setUp() throws Exception {
+        int count = 0;
+        do {
+            mTempDir = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                    "user-event-log-test-" + (count++));
+        } while (!mTempDir.mkdir());
+        mThread = new HandlerThread("UserEventLogTest");
+        mThread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mThread.quit();
+        File[] files = mTempDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mTempDir.delete();
+    }
+
+    @Test
+    public void testEventsWritten() throws Exception {
+        UserEventLog log = new UserEventLog(mTempDir, CAPACITY, 4096, 2, mThread.getLooper());
+        for (int i = 0; i < 3; i++) {
+            log.record(newEvent(i));
+        }
+        log.writePendingEvents();
+
+        assertPages(readEvents(log), 0, 3);
+    }
+
+    @Test
+    public void testEventsDroppedWhenFull() throws Exception {
+        // Keep the writer busy until all the events are recorded.
+        CountDownLatch latch = new CountDownLatch(1);
+        new Handler(mThread.getLooper()).post(() -> {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+        });
+
+        UserEventLog log = new UserEventLog(mTempDir, CAPACITY, 4096, 2, mThread.getLooper());
+        for (int i = 0; i < CAPACITY * 2; i++) {
+            log.record(newEvent(i));
+        }
+        latch.countDown();
+        log.writePendingEvents();
+
+        assertPages(readEvents(log), 0, CAPACITY);
+    }
+
+    @Test
+    public void testFileRotation() throws Exception {
+        // The page 0 is not serialized, so that the first event is smaller than the others.
+        int eventSize = newEvent(1).getSerializedSize() + 1;
+        // Each file holds 2 events
+        UserEventLog log = new UserEventLog(mTempDir, CAPACITY, eventSize * 2, 3,
+                mThread.getLooper());
+        for (int i = 0; i < 10; i++) {
+            log.record(newEvent(i));
+            log.writePendingEvents();
+        }
+
+        // Only the 3 most recent files are kept.
+        assertEquals(3, log.getFiles().length);
+        assertPages(readEvents(log), 4, 10);
+    }
+
+    @Test
+    public void testLastFileResumed() throws Exception {
+        UserEventLog log = new UserEventLog(mTempDir, CAPACITY, 4096, 2, mThread.getLooper());
+        log.record(newEvent(0));
+        log.writePendingEvents();
+
+        // A new instance appends to the file of the previous one.
+        log = new UserEventLog(mTempDir, CAPACITY, 4096, 2, mThread.getLooper());
+        log.record(newEvent(1));
+        log.writePendingEvents();
+
+        assertEquals(1, log.getFiles().length);
+        assertPages(readEvents(log), 0, 2);
+    }
+
+    private static LauncherEvent newEvent(int page) {
+        LauncherEvent event = newLauncherEvent(newTouchAction(Action.Touch.SWIPE),
+                newContainerTarget(ContainerType.WORKSPACE));
+        event.srcTarget[0].pageIndex = page;
+        return event;
+    }
+
+    private static void assertPages(ArrayList<LauncherEvent> events, int from, int to) {
+        assertEquals(to - from, events.size());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(from + i, events.get(i).srcTarget[0].pageIndex);
+        }
+    }
+
+    private static ArrayList<LauncherEvent> readEvents(UserEventLog log) throws Exception {
+        ArrayList<LauncherEvent> events = new ArrayList<>();
+        for (File file : log.getFiles()) {
+            byte[] data = new byte[(int) file.length()];
+            try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+                in.readFully(data);
+            }
+            CodedInputByteBufferNano in = CodedInputByteBufferNano.newInstance(data);
+            while (!in.isAtEnd()) {
+                LauncherEvent event = new LauncherEvent();
+                in.readMessage(event);
+                events.add(event);
+            }
+        }
+        return events;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.util;
+
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares {@link GridOccupancy} against the previous boolean array implementation on random 7x7
+ * grids. The speed is measured by GridOccupancyBenchmark.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class GridOccupancyReferenceTest {
+
+    private static final int COUNT_X = 7;
+    private static final int COUNT_Y = 7;
+    private static final int GRID_COUNT = 200;
+
+    @Test
+    public void testMatchesArrayImplementation() {
+        Random random = new Random(42);
+        int[] vacant = new int[2];
+        int[] legacyVacant = new int[2];
+        for (int g = 0; g < GRID_COUNT; g++) {
+            GridOccupancy grid = new GridOccupancy(COUNT_X, COUNT_Y);
+            ArrayGridOccupancy legacy = new ArrayGridOccupancy(COUNT_X, COUNT_Y);
+            fillRandom(random, grid, legacy);
+
+            for (int spanX = 1; spanX <= COUNT_X; spanX++) {
+                for (int spanY = 1; spanY <= COUNT_Y; spanY++) {
+                    boolean found = grid.findVacantCell(vacant, spanX, spanY);
+                    assertEquals(legacy.findVacantCell(legacyVacant, spanX, spanY), found);
+                    if (found) {
+                        assertEquals(legacyVacant[0], vacant[0]);
+                        assertEquals(legacyVacant[1], vacant[1]);
+                    }
+                    for (int x = 0; x < COUNT_X; x++) {
+                        for (int y = 0; y < COUNT_Y; y++) {
+                            assertEquals(legacy.isRegionVacant(x, y, spanX, spanY),
+                                    grid.isRegionVacant(x, y, spanX, spanY));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void fillRandom(Random random, GridOccupancy grid, ArrayGridOccupancy legacy) {
+        // Mix of icons and widgets, leaving roughly half of the grid empty.
+        for (int i = 0; i < 6; i++) {
+            int spanX = 1 + random.nextInt(3);
+            int spanY = 1 + random.nextInt(3);
+            int x = random.nextInt(COUNT_X);
+            int y = random.nextInt(COUNT_Y);
+            grid.markCells(x, y, spanX, spanY, true);
+            legacy.markCells(x, y, spanX, spanY, true);
+        }
+    }
+
+    /**
+     * The previous implementation of {@link GridOccupancy}, kept as a reference.
+     */
+    private static class ArrayGridOccupancy {
+
+        private final int mCountX;
+        private final int mCountY;
+
+        private final boolean[][] cells;
+
+        ArrayGridOccupancy(int countX, int countY) {
+            mCountX = countX;
+            mCountY = countY;
+            cells = new boolean[countX][countY];
+        }
+
+        boolean findVacantCell(int[] vacantOut, int spanX, int spanY) {
+            for (int y = 0; (y + spanY) <= mCountY; y++) {
+                for (int x = 0; (x + spanX) <= mCountX; x++) {
+                    boolean available = !cells[x][y];
+                    out:
+                    for (int i = x; i < x + spanX; i++) {
+                        for (int j = y; j < y + spanY; j++) {
+                            available = available && !cells[i][j];
+                            if (!available) break out;
+                        }
+                    }
+                    if (available) {
+                        vacantOut[0] = x;
+                        vacantOut[1] = y;
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        boolean isRegionVacant(int x, int y, int spanX, int spanY) {
+            int x2 = x + spanX - 1;
+            int y2 = y + spanY - 1;
+            if (x < 0 || y < 0 || x2 >= mCountX || y2 >= mCountY) {
+                return false;
+            }
+            for (int i = x; i <= x2; i++) {
+                for (int j = y; j <= y2; j++) {
+                    if (cells[i][j]) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        void markCells(int cellX, int cellY, int spanX, int spanY, boolean value) {
+            if (cellX < 0 || cellY < 0) return;
+            for (int x = cellX; x < cellX + spanX && x < mCountX; x++) {
+                for (int y = cellY; y < cellY + spanY && y < mCountY; y++) {
+                    cells[x][y] = value;
+                }
+            }
+        }
+    }
+}
@@ -55,13 +55,61 @@ public class GridOccupancyTest {
         assertFalse(grid.isRegionVacant(0, 0, 2, 1));
     }
 
+    @Test
+    public void testCanFit() {
+        GridOccupancy grid = initGrid(4,
+                1, 1, 1, 0, 0,
+                0, 0, 1, 1, 0,
+                0, 0, 0, 0, 0,
+                1, 1, 0, 0, 0
+        );
+        GridOccupancy shape = initGrid(2,
+                0, 1,
+                1, 1
+        );
+
+        assertTrue(grid.canFit(0, 1, shape));
+        assertTrue(grid.canFit(3, 2, shape));
+        assertFalse(grid.canFit(1, 0, shape));
+        assertFalse(grid.canFit(3, 0, shape));
+        assertFalse(grid.canFit(0, 2, shape));
+
+        // Same shape in the top left corner of a grid as large as the layout.
+        GridOccupancy paddedShape = new GridOccupancy(5, 4);
+        paddedShape.markCells(1, 0, 1, 2, true);
+        paddedShape.markCells(0, 1, 1, 1, true);
+        assertTrue(grid.canFit(0, 1, paddedShape));
+        assertTrue(grid.canFit(3, 2, paddedShape));
+        assertFalse(grid.canFit(1, 0, paddedShape));
+        assertFalse(grid.canFit(0, 2, paddedShape));
+    }
+
+    @Test
+    public void testCopyTo() {
+        GridOccupancy grid = initGrid(2,
+                1, 0, 1,
+                0, 1, 0
+        );
+        GridOccupancy copy = new GridOccupancy(3, 2);
+        grid.copyTo(copy);
+        for (int x = 0; x < 3; x++) {
+            for (int y = 0; y < 2; y++) {
+                assertEquals(grid.isOccupied(x, y), copy.isOccupied(x, y));
+            }
+        }
+
+        grid.clear();
+        assertTrue(grid.isRegionVacant(0, 0, 3, 2));
+        assertFalse(copy.isRegionVacant(0, 0, 3, 2));
+    }
+
     private GridOccupancy initGrid(int rows, int... cells) {
         int cols = cells.length / rows;
         int i = 0;
         GridOccupancy grid = new GridOccupancy(cols, rows);
         for (int y = 0; y < rows; y++) {
             for (int x = 0; x < cols; x++) {
-                grid.cells[x][y] = cells[i] != 0;
+                grid.markCells(x, y, 1, 1, cells[i] != 0);
                 i++;
             }
         }
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.View;
+import android.widget.FrameLayout;
+
+import com.android.launcher3.ItemInfo;
+import com.android.launcher3.LauncherAppWidgetInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Unit tests for {@link ItemViewRegistry}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ItemViewRegistryTest {
+
+    private Context mContext;
+    private FrameLayout mScreen;
+    private FrameLayout mHotseat;
+    private ItemViewRegistry mRegistry;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mScreen = new FrameLayout(mContext);
+        mHotseat = new FrameLayout(mContext);
+        final ArrayList<FrameLayout> containers = new ArrayList<>(Arrays.asList(mScreen, mHotseat));
+        mRegistry = new ItemViewRegistry(Provider.of(containers));
+    }
+
+    @Test
+    public void testLookups_followAddAndRemove() {
+        View icon = addView(mScreen, newItem(1));
+        View widget = addView(mHotseat, newWidget(2, 20));
+
+        assertEquals(icon, mRegistry.getViewForId(1));
+        assertEquals(widget, mRegistry.getViewForId(2));
+        assertEquals(widget, mRegistry.getViewForAppWidgetId(20));
+
+        View other = addView(mHotseat, newItem(3));
+        assertEquals(other, mRegistry.getViewForId(3));
+
+        removeView(mHotseat, widget);
+        assertNull(mRegistry.getViewForId(2));
+        assertNull(mRegistry.getViewForAppWidgetId(20));
+        assertNull(mRegistry.verify());
+    }
+
+    @Test
+    public void testDuplicateItems_returnsFirstView() {
+        mRegistry.getViewForId(1);
+        View second = addView(mHotseat, newItem(1));
+        View first = new View(mContext);
+        first.setTag(newItem(1));
+        mScreen.addView(first);
+        mRegistry.onViewAdded(first);
+
+        assertEquals(first, mRegistry.getViewForId(1));
+
+        removeView(mScreen, first);
+        assertEquals(second, mRegistry.getViewForId(1));
+        assertNull(mRegistry.verify());
+    }
+
+    @Test
+    public void testItemChanged_staleEntryIsRebuilt() {
+        View icon = addView(mScreen, newItem(1));
+        assertEquals(icon, mRegistry.getViewForId(1));
+
+        icon.setTag(newItem(2));
+        assertNotNull(mRegistry.verify());
+        assertNull(mRegistry.getViewForId(1));
+        assertEquals(icon, mRegistry.getViewForId(2));
+        assertNull(mRegistry.verify());
+    }
+
+    private View addView(FrameLayout container, ItemInfo info) {
+        View view = new View(mContext);
+        view.setTag(info);
+        container.addView(view);
+        mRegistry.onViewAdded(view);
+        return view;
+    }
+
+    private void removeView(FrameLayout container, View view) {
+        container.removeView(view);
+        mRegistry.onViewRemoved(view);
+    }
+
+    private static ItemInfo newItem(long id) {
+        ItemInfo info = new ItemInfo();
+        info.id = id;
+        return info;
+    }
+
+    private static LauncherAppWidgetInfo newWidget(long id, int appWidgetId) {
+        LauncherAppWidgetInfo info = new LauncherAppWidgetInfo(appWidgetId,
+                new ComponentName("com.example", "Widget"));
+        info.id = id;
+        return info;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Unit tests for {@link JournaledStringSet}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class JournaledStringSetTest {
+
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mFile = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "journaled_string_set_test");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void testAdd_persistedInOrder() {
+        JournaledStringSet set = new JournaledStringSet(mFile);
+        set.add("b");
+        set.add("a");
+        set.add("b");
+        set.add("été");
+
+        assertEquals(Arrays.asList("b", "a", "été"), set.getAll());
+        assertEquals(Arrays.asList("b", "a", "été"),
+                new JournaledStringSet(mFile).getAll());
+    }
+
+    @Test
+    public void testRemoveAll_compactsFile() {
+        JournaledStringSet set = new JournaledStringSet(mFile);
+        set.add("a");
+        set.add("b");
+        set.add("c");
+        long length = mFile.length();
+
+        set.removeAll(Arrays.asList("a", "c"));
+        assertTrue(mFile.length() < length);
+        assertEquals(Collections.singletonList("b"), new JournaledStringSet(mFile).getAll());
+
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertFalse(mFile.exists());
+        assertTrue(new JournaledStringSet(mFile).isEmpty());
+    }
+
+    @Test
+    public void testInterruptedAppend_dropsIncompleteEntry() throws IOException {
+        JournaledStringSet set = new JournaledStringSet(mFile);
+        set.add("a");
+        set.add("b");
+
+        // Simulate an append interrupted after part of the length was written
+        FileOutputStream out = new FileOutputStream(mFile, true);
+        out.write(new byte[] {0, 0});
+        out.close();
+
+        set = new JournaledStringSet(mFile);
+        assertEquals(Arrays.asList("a", "b"), set.getAll());
+        set.add("c");
+        assertEquals(Arrays.asList("a", "b", "c"), new JournaledStringSet(mFile).getAll());
+    }
+}
@@ -43,8 +43,11 @@ import org.mockito.MockitoAnnotations;
 import java.util.ArrayList;
 import java.util.Map;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -103,6 +106,15 @@ public class WidgetsListAdapterTest {
         verify(mListener, times(1)).onItemRangeChanged(eq(0), eq(1), isNull());
     }
 
+    @Test
+    public void testNotifyItemChanged_sameRows() throws Exception {
+        ArrayList<WidgetListRowEntry> rows = generateSampleMap(2);
+        mAdapter.setWidgets(new ArrayList<>(rows));
+        mAdapter.setWidgets(new ArrayList<>(rows));
+        verify(mListener, times(1)).onChanged();
+        verify(mListener, never()).onItemRangeChanged(anyInt(), anyInt(), any());
+    }
+
     @Test
     public void testNotifyItemChanged_widgetItemInfoDiff() throws Exception {
         // TODO: same package name but item number changed